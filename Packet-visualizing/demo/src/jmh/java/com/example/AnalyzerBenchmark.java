@@ -0,0 +1,117 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 1パケットあたりの処理時間 (ns/パケット) を分析器ごとに測るベンチマーク
+ * 1回の呼び出しで BATCH 個のパケットを流すので、結果はそのまま1パケットあたりの値になる
+ * 1パケットあたりの確保バイト数は -prof gc の gc.alloc.rate.norm (B/op) で見る
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalyzerBenchmark {
+    static final int BATCH = 4096;
+
+    @Param({"1000", "100000"})
+    public int flows;
+
+    @Param({"0.01"})
+    public double retransmissionRatio;
+
+    private byte[][] frames;
+    private PacketView[] views;
+    private final PacketView view = new PacketView();
+
+    private TimeAndPortAggregator aggregator;
+    private FairnessCalculator fairnessCalculator;
+    private RhythmAnalyzer rhythmAnalyzer;
+    private FlowTable flowTable;
+    private AnalysisShard shard;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        frames = SyntheticTraffic.frames(BATCH, flows, 0.2, retransmissionRatio);
+        views = SyntheticTraffic.decode(frames);
+    }
+
+    // 状態を毎回作り直し、反復ごとの条件 (表の埋まり具合など) をそろえる
+    @Setup(Level.Iteration)
+    public void reset() {
+        aggregator = new TimeAndPortAggregator(null);
+        fairnessCalculator = new FairnessCalculator();
+        rhythmAnalyzer = new RhythmAnalyzer();
+        flowTable = new FlowTable();
+        shard = new AnalysisShard(0, 16, new EventChannel());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void decode(Blackhole bh) {
+        for (int i = 0; i < BATCH; i++) {
+            bh.consume(view.decode(frames[i], frames[i].length, SyntheticTraffic.timestampOf(i)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void timeAndPortAggregate() {
+        for (PacketView packet : views) {
+            aggregator.aggregate(packet);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void fairnessAggregate() {
+        for (PacketView packet : views) {
+            fairnessCalculator.aggregate(packet);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void rhythmAnalyze() {
+        for (PacketView packet : views) {
+            rhythmAnalyzer.analyzeRhythm(packet);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void flowTableUpdate(Blackhole bh) {
+        for (PacketView packet : views) {
+            bh.consume(flowTable.update(packet));
+        }
+    }
+
+    // デコードからシャードの分析までを1スレッドで通した場合 (リングの受け渡しは含まない)
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void fullPath() {
+        for (int i = 0; i < BATCH; i++) {
+            if (view.decode(frames[i], frames[i].length, SyntheticTraffic.timestampOf(i))) {
+                rhythmAnalyzer.analyzeRhythm(view);
+                shard.processPacket(view);
+            }
+        }
+    }
+}
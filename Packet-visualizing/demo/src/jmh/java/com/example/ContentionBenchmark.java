@@ -0,0 +1,134 @@
+package com.example;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 書き込み側 (パケット処理) と読み出し側 (分析タイマー) が同時に動くときのベンチマーク
+ * - aggregateUnderRead: シャードが aggregate している間に、タイマー役のスレッドが mergeFrom と calculateAndReset を繰り返す
+ * - fairnessUnderRead: 同じく集中度。書き込み側はパケットごとに serve を呼び、タイマー役はウィンドウの入れ替えを頼んで待つ
+ * - pipelineDispatch: キャプチャスレッドからシャードのスレッドへリング経由で流す全体の処理量
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentionBenchmark {
+    static final int BATCH = AnalyzerBenchmark.BATCH;
+
+    @State(Scope.Group)
+    public static class SharedAggregator {
+        PacketView[] views;
+        TimeAndPortAggregator shardAggregator;
+        TimeAndPortAggregator mergedAggregator;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            views = SyntheticTraffic.decode(SyntheticTraffic.frames(BATCH, 10_000, 0.2, 0.01));
+            shardAggregator = new TimeAndPortAggregator(null);
+            mergedAggregator = new TimeAndPortAggregator(new AnomalyDetector());
+        }
+    }
+
+    @Benchmark
+    @Group("aggregateUnderRead")
+    @GroupThreads(1)
+    @OperationsPerInvocation(BATCH)
+    public void writer(SharedAggregator state) {
+        for (PacketView packet : state.views) {
+            state.shardAggregator.aggregate(packet);
+        }
+    }
+
+    @Benchmark
+    @Group("aggregateUnderRead")
+    @GroupThreads(1)
+    public void reader(SharedAggregator state, Blackhole bh) {
+        state.mergedAggregator.mergeFrom(state.shardAggregator);
+        bh.consume(state.mergedAggregator.calculateAndReset(Instant.now()));
+    }
+
+    @State(Scope.Group)
+    public static class SharedFairness {
+        PacketView[] views;
+        FairnessCalculator shardFairness;
+        FairnessCalculator mergedFairness;
+        volatile Thread writer; // 書き込み側のスレッド (最初の呼び出しで決まる)
+
+        @Setup(Level.Trial)
+        public void setup() {
+            views = SyntheticTraffic.decode(SyntheticTraffic.frames(BATCH, 10_000, 0.2, 0.01));
+            shardFairness = new FairnessCalculator();
+            mergedFairness = new FairnessCalculator();
+        }
+    }
+
+    // シャードの処理ループと同じく、1パケットごとに入れ替えの要求を確かめる
+    @Benchmark
+    @Group("fairnessUnderRead")
+    @GroupThreads(1)
+    @OperationsPerInvocation(BATCH)
+    public void fairnessWriter(SharedFairness state) {
+        if (state.writer == null) state.writer = Thread.currentThread();
+        for (PacketView packet : state.views) {
+            state.shardFairness.serve();
+            state.shardFairness.aggregate(packet);
+        }
+    }
+
+    @Benchmark
+    @Group("fairnessUnderRead")
+    @GroupThreads(1)
+    public void fairnessReader(SharedFairness state, Blackhole bh) {
+        Thread writer = state.writer;
+        if (writer == null) return; // 書き込み側がまだ動いていない (ここで入れ替えると書き込みと重なる)
+        state.shardFairness.requestWindow();
+        bh.consume(state.mergedFairness.mergeFrom(state.shardFairness, writer, TimeUnit.MILLISECONDS.toNanos(10)));
+        bh.consume(state.mergedFairness.calculateFairnessStats());
+    }
+
+    @State(Scope.Benchmark)
+    public static class RunningPipeline {
+        PacketView[] views;
+        AnalysisPipeline pipeline;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            views = SyntheticTraffic.decode(SyntheticTraffic.frames(BATCH, 10_000, 0.2, 0.01));
+            pipeline = new AnalysisPipeline(new EventChannel());
+            pipeline.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pipeline.finish();
+        }
+    }
+
+    // リングが満杯なら空くまで待つので、シャードの処理が追いつく速さが結果に出る
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void pipelineDispatch(RunningPipeline state) {
+        for (PacketView packet : state.views) {
+            state.pipeline.dispatch(packet, true);
+        }
+    }
+}
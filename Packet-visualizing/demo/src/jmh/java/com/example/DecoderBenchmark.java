@@ -0,0 +1,66 @@
+package com.example;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * リンク層・IPのバージョンごとのデコード時間 (ns/パケット)
+ * 中身 (TCP/UDPとペイロード長) は同じ列を包み直しているので、差はヘッダーをたどる分だけになる
+ * ETHERNET_IPV4 が AnalyzerBenchmark.decode と同じ条件 (ここが遅くならないことを確認する)
+ * 実行例: mvn -Pjmh compile exec:exec -Djmh.args="DecoderBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecoderBenchmark {
+    static final int BATCH = 4096;
+
+    @Param({"ETHERNET_IPV4", "VLAN_IPV4", "QINQ_IPV4", "ETHERNET_IPV6", "SLL2_IPV4", "RAW_IPV6"})
+    public SyntheticTraffic.Encapsulation encapsulation;
+
+    private byte[][] frames;
+    private int linkType;
+    private final PacketView view = new PacketView();
+
+    @Setup(Level.Trial)
+    public void generate() {
+        frames = SyntheticTraffic.encapsulate(SyntheticTraffic.frames(BATCH, 1000, 0.2, 0.0), encapsulation);
+        linkType = encapsulation.linkType;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void decode(Blackhole bh) {
+        for (int i = 0; i < BATCH; i++) {
+            bh.consume(view.decode(linkType, frames[i], frames[i].length, SyntheticTraffic.timestampOf(i)));
+        }
+    }
+
+    // 分析に使う項目まで読んだ場合 (ヘッダー長とポート)
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void decodeAndRead(Blackhole bh) {
+        for (int i = 0; i < BATCH; i++) {
+            if (view.decode(linkType, frames[i], frames[i].length, SyntheticTraffic.timestampOf(i))) {
+                bh.consume(view.headerLength() + view.dstPort());
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * ベンチマーク用の合成トラフィック (Ethernet/IPv4 の TCP・UDP フレーム)
+ * フロー数・UDPの割合・再送バーストの割合を指定して、同じ乱数の種から毎回同じ列を作る
+ * encapsulate で VLAN・IPv6・Linux cooked などに包み直した同じ中身の列も作れる
+ */
+public final class SyntheticTraffic {
+    private static final long START_NANOS = 1_700_000_000_000_000_000L;
+
+    private SyntheticTraffic() {
+    }
+
+    /**
+     * @param packets 生成するパケット数
+     * @param flows 同時に流れるフロー数
+     * @param udpRatio UDPパケットの割合 (0.0〜1.0)
+     * @param retransmissionRatio TCPで直前のセグメントをもう一度送る割合 (0.0〜1.0)
+     */
+    public static byte[][] frames(int packets, int flows, double udpRatio, double retransmissionRatio) {
+        Random random = new Random(42);
+        int[] srcIp = new int[flows];
+        int[] dstIp = new int[flows];
+        int[] srcPort = new int[flows];
+        int[] dstPort = new int[flows];
+        int[] seq = new int[flows];
+        boolean[] udp = new boolean[flows];
+        for (int f = 0; f < flows; f++) {
+            srcIp[f] = 0x0a000000 | random.nextInt(1 << 20);
+            dstIp[f] = 0xc0a80000 | random.nextInt(1 << 16);
+            srcPort[f] = 49152 + random.nextInt(16384);
+            dstPort[f] = random.nextInt(4) == 0 ? 49152 + random.nextInt(16384) : (random.nextBoolean() ? 443 : 80);
+            seq[f] = random.nextInt();
+            udp[f] = random.nextDouble() < udpRatio;
+        }
+
+        byte[][] frames = new byte[packets][];
+        for (int i = 0; i < packets; i++) {
+            int f = random.nextInt(flows);
+            int payload = 64 + random.nextInt(1400);
+            if (udp[f]) {
+                frames[i] = udp(srcIp[f], dstIp[f], srcPort[f], dstPort[f], payload);
+            } else {
+                boolean resend = i > 0 && random.nextDouble() < retransmissionRatio;
+                int s = resend ? seq[f] - payload : seq[f];
+                frames[i] = tcp(srcIp[f], dstIp[f], srcPort[f], dstPort[f], s, PacketView.TCP_ACK | PacketView.TCP_PSH, payload);
+                if (!resend) seq[f] += payload;
+            }
+        }
+        return frames;
+    }
+
+    // フレームをあらかじめデコードしておく (分析処理だけを測るため)
+    public static PacketView[] decode(byte[][] frames) {
+        PacketView[] views = new PacketView[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            views[i] = new PacketView();
+            views[i].decode(frames[i], frames[i].length, START_NANOS + i * 1_000L);
+        }
+        return views;
+    }
+
+    public static long timestampOf(int index) {
+        return START_NANOS + index * 1_000L;
+    }
+
+    public static byte[] tcp(int src, int dst, int srcPort, int dstPort, int seq, int flags, int payload) {
+        byte[] frame = ipv4(src, dst, PacketView.PROTO_TCP, 20, payload);
+        int l4 = 34;
+        putShort(frame, l4, srcPort);
+        putShort(frame, l4 + 2, dstPort);
+        putInt(frame, l4 + 4, seq);
+        frame[l4 + 12] = 0x50; // データオフセット 5 (20バイト)
+        frame[l4 + 13] = (byte) flags;
+        return frame;
+    }
+
+    public static byte[] udp(int src, int dst, int srcPort, int dstPort, int payload) {
+        byte[] frame = ipv4(src, dst, PacketView.PROTO_UDP, 8, payload);
+        int l4 = 34;
+        putShort(frame, l4, srcPort);
+        putShort(frame, l4 + 2, dstPort);
+        putShort(frame, l4 + 4, 8 + payload);
+        return frame;
+    }
+
+    private static byte[] ipv4(int src, int dst, int protocol, int l4HeaderLength, int payload) {
+        byte[] frame = new byte[14 + 20 + l4HeaderLength + payload];
+        putShort(frame, 12, 0x0800);
+        frame[14] = 0x45;
+        putShort(frame, 16, 20 + l4HeaderLength + payload);
+        frame[22] = 64;
+        frame[23] = (byte) protocol;
+        putInt(frame, 26, src);
+        putInt(frame, 30, dst);
+        return frame;
+    }
+
+    // デコーダーのベンチマーク用: Ethernet/IPv4 のフレームを別のリンク層・IPv6 に包み直す
+    public enum Encapsulation {
+        ETHERNET_IPV4(PacketView.LINKTYPE_ETHERNET),
+        VLAN_IPV4(PacketView.LINKTYPE_ETHERNET),   // 802.1Q タグ1つ
+        QINQ_IPV4(PacketView.LINKTYPE_ETHERNET),   // 802.1ad + 802.1Q
+        ETHERNET_IPV6(PacketView.LINKTYPE_ETHERNET), // ホップバイホップ拡張ヘッダー付き
+        SLL2_IPV4(PacketView.LINKTYPE_LINUX_SLL2),
+        RAW_IPV6(PacketView.LINKTYPE_RAW);
+
+        public final int linkType;
+
+        Encapsulation(int linkType) {
+            this.linkType = linkType;
+        }
+    }
+
+    public static byte[][] encapsulate(byte[][] frames, Encapsulation encapsulation) {
+        byte[][] result = new byte[frames.length][];
+        for (int i = 0; i < frames.length; i++) {
+            byte[] ip = Arrays.copyOfRange(frames[i], 14, frames[i].length);
+            switch (encapsulation) {
+                case VLAN_IPV4: result[i] = concat(ethernet(0x8100, 0x0800), ip); break;
+                case QINQ_IPV4: result[i] = concat(ethernet(0x88a8, 0x8100, 0x0800), ip); break;
+                case ETHERNET_IPV6: result[i] = concat(ethernet(0x86dd), ipv6(ip, true)); break;
+                case SLL2_IPV4: result[i] = concat(sll2(0x0800), ip); break;
+                case RAW_IPV6: result[i] = ipv6(ip, false); break;
+                default: result[i] = frames[i]; break;
+            }
+        }
+        return result;
+    }
+
+    // 宛先・送信元MACのあとに EtherType (VLANタグは TPID + TCI 0) を並べる
+    private static byte[] ethernet(int... types) {
+        byte[] header = new byte[12 + types.length * 4 - 2];
+        int offset = 12;
+        for (int type : types) {
+            putShort(header, offset, type);
+            offset += 4;
+        }
+        return header;
+    }
+
+    private static byte[] sll2(int protocol) {
+        byte[] header = new byte[20];
+        putShort(header, 0, protocol);
+        return header;
+    }
+
+    // IPv4 パケットを同じ中身の IPv6 パケットにする (アドレスは 2001:db8::/96 に IPv4 アドレスを埋め込む)
+    private static byte[] ipv6(byte[] ipv4, boolean hopByHop) {
+        int ihl = (ipv4[0] & 0x0f) * 4;
+        int upperLength = ipv4.length - ihl;
+        int extension = hopByHop ? 8 : 0;
+        byte[] packet = new byte[40 + extension + upperLength];
+        packet[0] = 0x60;
+        putShort(packet, 4, extension + upperLength);
+        packet[6] = hopByHop ? 0 : ipv4[9];
+        packet[7] = 64;
+        for (int side = 0; side < 2; side++) {
+            int offset = 8 + side * 16;
+            putShort(packet, offset, 0x2001);
+            putShort(packet, offset + 2, 0x0db8);
+            System.arraycopy(ipv4, 12 + side * 4, packet, offset + 12, 4);
+        }
+        if (hopByHop) {
+            packet[40] = ipv4[9]; // 次のヘッダー。残りは PadN で埋まる長さ0 (8バイト) のヘッダー
+            packet[42] = 1;
+            packet[43] = 4;
+        }
+        System.arraycopy(ipv4, ihl, packet, 40 + extension, upperLength);
+        return packet;
+    }
+
+    private static byte[] concat(byte[] header, byte[] body) {
+        byte[] frame = Arrays.copyOf(header, header.length + body.length);
+        System.arraycopy(body, 0, frame, header.length, body.length);
+        return frame;
+    }
+
+    private static void putShort(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 8);
+        b[offset + 1] = (byte) value;
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+}
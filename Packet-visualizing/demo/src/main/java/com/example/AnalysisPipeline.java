@@ -0,0 +1,338 @@
+package com.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * キャプチャスレッドの後ろで動く分析パイプライン
+ * デコード済みパケットをフローのハッシュでN個のシャードに振り分け、各シャードは自分のスレッドで集計する
+ * 受け渡しはヒープの外のリング (OffHeapPacketRing) で、シャードごとのレーンに分けてある (遅いシャードが他を止めない)
+ * タイマーからの calculateAndReset / calculateFairness で全シャードの結果をまとめて返す
+ */
+public class AnalysisPipeline {
+    private static final int DEFAULT_RING_CAPACITY = 8192; // シャードあたり
+    private static final long FLOW_STATS_TIMEOUT_NANOS = 500_000_000L;
+    private static final long STATE_TIMEOUT_NANOS = 500_000_000L;
+    private static final long WINDOW_TIMEOUT_NANOS = 500_000_000L;
+
+    private final OffHeapPacketRing ring;
+    private final AnalysisShard[] shards;
+    private final TrafficRing[] rings; // 各シャードの通信量のリング (窓の問い合わせ用)
+    private final Thread[] threads;
+    private final int shardMask;
+
+    // 全シャードをまとめる側 (体温チェックはまとめた後のレートで行う)
+    private final AnomalyDetector detector = new AnomalyDetector();
+    private final TimeAndPortAggregator mergedAggregator = new TimeAndPortAggregator(detector);
+    private final FairnessCalculator mergedFairness; // 集中の警告はイベントに出す
+    private final CardinalityCounter mergedCardinality = new CardinalityCounter();
+    private final RhythmAnalyzer[] rhythmAnalyzers; // 各シャードの呼吸 (IAT)。まとめるときに合わせる
+
+    private final AtomicLong droppedPackets = new AtomicLong();
+    private final SelfMetrics metrics = SelfMetrics.get();
+    private volatile boolean started = false;
+    private volatile boolean stopping = false; // キャプチャを止めた (リングの空きを待たない)
+    private volatile PcapRecorder recorder; // 体温の警告で録画を始めさせる (録画しないなら null)
+
+    // 保存で持ち主のスレッドが時間内に答えなかったときに使う、前回の中身
+    private final byte[][] lastRhythmStates;
+    private final byte[][] lastShardStates;
+
+    public AnalysisPipeline(EventChannel events) {
+        this(defaultShardCount(), OffHeapPacketRing.DEFAULT_FRAME_BYTES, FlowTable.DEFAULT_CAPACITY, events);
+    }
+
+    public AnalysisPipeline(int shardCount, EventChannel events) {
+        this(shardCount, OffHeapPacketRing.DEFAULT_FRAME_BYTES, FlowTable.DEFAULT_CAPACITY, events);
+    }
+
+    /**
+     * shardCountは2のべき乗に切り上げる
+     * @param frameBytes リングに写すフレームの長さ (キャプチャの snaplen。OffHeapPacketRing.MAX_FRAME_BYTES まで)
+     * @param flowCapacity 追跡するフローの上限 (全シャード合わせて)。シャードごとのフロー表はこれを等分した大きさにする
+     */
+    public AnalysisPipeline(int shardCount, int frameBytes, int flowCapacity, EventChannel events) {
+        int size = Integer.highestOneBit(Math.max(1, shardCount));
+        if (size < shardCount) size <<= 1;
+        shards = new AnalysisShard[size];
+        rings = new TrafficRing[size];
+        threads = new Thread[size];
+        rhythmAnalyzers = new RhythmAnalyzer[size];
+        lastRhythmStates = new byte[size][];
+        lastShardStates = new byte[size][];
+        shardMask = size - 1;
+        mergedFairness = new FairnessCalculator(FairnessCalculator.Mode.AUTO, events);
+        int shardFlows = Math.max(1, flowCapacity / size);
+        ring = new OffHeapPacketRing(size, DEFAULT_RING_CAPACITY, frameBytes);
+        for (int i = 0; i < size; i++) {
+            shards[i] = new AnalysisShard(i, ring.consumer(i), shardFlows, events);
+            rings[i] = shards[i].getAggregator().getRing();
+            rhythmAnalyzers[i] = shards[i].getRhythmAnalyzer();
+            threads[i] = new Thread(shards[i], "analysis-shard-" + i);
+            threads[i].setDaemon(true);
+        }
+    }
+
+    // シャード数はCPUコア数から決める (キャプチャスレッドの分を1つ残す)
+    public static int defaultShardCount() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    // RST・再送・体温の警告を録画のきっかけにする (start の前に呼ぶ)
+    public synchronized void setRecorder(PcapRecorder recorder) {
+        this.recorder = recorder;
+        for (AnalysisShard shard : shards) {
+            shard.setRecorder(recorder);
+        }
+    }
+
+    public synchronized void start() {
+        if (started) return;
+        started = true;
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    // キャプチャを止めたことを知らせる (リングの空きを待っている dispatch を抜けさせる。どのスレッドからでもよい)
+    public void stop() {
+        stopping = true;
+    }
+
+    // 各シャードに残っているパケットを処理させてから停止する
+    public synchronized void finish() {
+        stopping = true;
+        for (AnalysisShard shard : shards) {
+            shard.stop();
+        }
+        if (!started) return;
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * キャプチャスレッドから呼ばれる。パケットを担当シャード宛てにリングへ写す
+     * @param waitIfFull trueなら空きができるまで待つ (ファイル再生用)。falseなら満杯時は捨てて数える
+     *                   待っている間にシャードのスレッドが止まったか、stop が呼ばれたら、待つのをやめて捨てる
+     */
+    public void dispatch(PacketView packet, boolean waitIfFull) {
+        int shard = packet.flowHash() & shardMask;
+        if (ring.offer(packet, shard)) return;
+        if (!waitIfFull) {
+            droppedPackets.incrementAndGet();
+            metrics.increment(SelfMetrics.Counter.RING_FULL_DROPS);
+            return;
+        }
+        long start = System.nanoTime();
+        int idle = 0;
+        while (!ring.offer(packet, shard)) {
+            if (stopping || !threads[shard].isAlive()) {
+                droppedPackets.incrementAndGet();
+                metrics.increment(SelfMetrics.Counter.RING_FULL_DROPS);
+                return;
+            }
+            idle = AnalysisShard.idle(idle);
+        }
+        metrics.increment(SelfMetrics.Counter.RING_FULL_WAITS);
+        metrics.record(SelfMetrics.Timer.RING_WAIT, System.nanoTime() - start);
+    }
+
+    public int getShardCount() { return shards.length; }
+    public OffHeapPacketRing getRing() { return ring; }
+
+    // リングが満杯で分析に回せなかったパケット数
+    public long getDroppedPackets() { return droppedPackets.get(); }
+
+    /**
+     * 全シャードを合わせた直近 windowNanos の通信量 (何もリセットしないので、GUIとコンソールなど何か所から読んでもよい)
+     * @param nowNanos 窓の終わり (キャプチャ時刻のエポックからのナノ秒)
+     */
+    public TrafficWindow trafficWindow(long nowNanos, long windowNanos) {
+        return TrafficRing.window(rings, nowNanos, windowNanos);
+    }
+
+    // 全シャードの脈拍・密輸率・再送数を合算して計算し、リセットする (呼吸は各シャードが直近に公開した値を合わせて付ける)
+    public synchronized VitalSignData calculateAndReset(Instant currentTime) {
+        SelfMetrics.Step step = metrics.beginStep(SelfMetrics.Timer.CALCULATE);
+        try {
+            return mergeAndReset(currentTime);
+        } finally {
+            metrics.endStep(step);
+        }
+    }
+
+    private VitalSignData mergeAndReset(Instant currentTime) {
+        for (AnalysisShard shard : shards) {
+            shard.getCardinalityCounter().requestWindow();
+        }
+        for (int i = 0; i < shards.length; i++) {
+            AnalysisShard shard = shards[i];
+            mergedAggregator.mergeFrom(shard.getAggregator());
+            if (!mergedCardinality.mergeFrom(shard.getCardinalityCounter(), threads[i], WINDOW_TIMEOUT_NANOS)) {
+                metrics.increment(SelfMetrics.Counter.WINDOW_TIMEOUTS);
+            }
+        }
+        FlowStats flows = collectFlowStats();
+        VitalSignData data = mergedAggregator.calculateAndReset(currentTime)
+                .withRetransmissions(new RetransmissionStats(flows.trackedFlows, flows.evictions, flows.retransmissions))
+                .withFlows(flows)
+                .withSmugglingRate(flows.smugglingRate())
+                .withCardinality(mergedCardinality.calculateAndReset(currentTime));
+        PcapRecorder r = recorder;
+        if (r != null && data.anomalies.size() > 0) {
+            r.trigger(currentTime.getEpochSecond() * 1_000_000_000L + currentTime.getNano());
+        }
+        return RhythmAnalyzer.attachTo(data, rhythmAnalyzers);
+    }
+
+    // 各シャードのスレッドに上位フローを作らせて合わせる (全シャードに先に頼んでから待つ)
+    private FlowStats collectFlowStats() {
+        for (AnalysisShard shard : shards) {
+            shard.requestFlowStats();
+        }
+        List<FlowStats> parts = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            FlowStats part = shards[i].awaitFlowStats(threads[i], FLOW_STATS_TIMEOUT_NANOS);
+            if (part != null) {
+                parts.add(part);
+            } else {
+                metrics.increment(SelfMetrics.Counter.FLOW_STATS_TIMEOUTS);
+            }
+        }
+        return FlowStats.merge(parts, FlowTable.TOP_FLOWS);
+    }
+
+    // 全シャードのIP別バイト数を合算して集中度を計算し、リセットする
+    public double calculateFairness() {
+        return calculateFairnessStats().entropy;
+    }
+
+    // 集中度の見積もりと範囲、トップトーカーをまとめて返す
+    public synchronized FairnessStats calculateFairnessStats() {
+        SelfMetrics.Step step = metrics.beginStep(SelfMetrics.Timer.FAIRNESS);
+        try {
+            mergeFairness();
+            return mergedFairness.calculateFairnessStats();
+        } finally {
+            metrics.endStep(step);
+        }
+    }
+
+    // 各シャードの集中度のウィンドウをシャードのスレッドに入れ替えさせて合わせる (全シャードに先に頼んでから待つ)
+    private void mergeFairness() {
+        for (AnalysisShard shard : shards) {
+            shard.getFairnessCalculator().requestWindow();
+        }
+        for (int i = 0; i < shards.length; i++) {
+            if (!mergedFairness.mergeFrom(shards[i].getFairnessCalculator(), threads[i], WINDOW_TIMEOUT_NANOS)) {
+                metrics.increment(SelfMetrics.Counter.WINDOW_TIMEOUTS);
+            }
+        }
+    }
+
+    /**
+     * 各分析器の状態を StateStore の区間にして書く (集計と同じロックの中で、何もリセットしない)
+     * シャードのフロー表と呼吸は、それぞれのスレッドにパケットの合間で書き出させるので、キャプチャは止めない
+     * 時間内に答えなかったものは前回の中身を書く
+     */
+    synchronized void writeState(DataOutputStream out) throws IOException {
+        for (AnalysisShard shard : shards) {
+            shard.requestState();
+            shard.getRhythmAnalyzer().requestState();
+        }
+
+        StateStore.writeSection(out, StateStore.DETECTOR, StateStore.toBytes(detector::writeState));
+        StateStore.writeSection(out, StateStore.TRAFFIC, StateStore.toBytes(o -> TrafficRing.writeState(rings, o)));
+        mergeFairness();
+        StateStore.writeSection(out, StateStore.FAIRNESS, StateStore.toBytes(mergedFairness::writeState));
+
+        // 呼吸はシャードの順に続けて書く (まだ一度も書けていないシャードは空のまま書く)
+        ByteArrayOutputStream rhythm = new ByteArrayOutputStream();
+        for (int i = 0; i < shards.length; i++) {
+            byte[] part = rhythmAnalyzers[i].awaitState(threads[i], STATE_TIMEOUT_NANOS);
+            if (part != null) {
+                lastRhythmStates[i] = part;
+            } else {
+                metrics.increment(SelfMetrics.Counter.STATE_TIMEOUTS);
+            }
+            rhythm.write((lastRhythmStates[i] != null) ? lastRhythmStates[i] : StateStore.toBytes(new RhythmAnalyzer()::writeState));
+        }
+        StateStore.writeSection(out, StateStore.RHYTHM, rhythm.toByteArray());
+
+        ByteArrayOutputStream flows = new ByteArrayOutputStream();
+        for (int i = 0; i < shards.length; i++) {
+            byte[] part = shards[i].awaitState(threads[i], STATE_TIMEOUT_NANOS);
+            if (part != null) {
+                lastShardStates[i] = part;
+            } else {
+                metrics.increment(SelfMetrics.Counter.STATE_TIMEOUTS);
+            }
+            if (lastShardStates[i] != null) flows.write(lastShardStates[i]);
+        }
+        StateStore.writeSection(out, StateStore.FLOWS, flows.toByteArray());
+    }
+
+    // 保存したフローのキーから、パケットと同じ振り分け先を求めるためのフローのハッシュ
+    static int flowHash(long keyA, long keyB, long keyC) {
+        return PacketView.flowHash(PacketView.ipOf(keyA), (int) (keyC >>> 24) & 0xffff,
+                PacketView.ipOf(keyB), (int) (keyC >>> 8) & 0xffff, (int) keyC & 0xff);
+    }
+
+    /**
+     * StateStore の区間を1つ戻す (start の前に呼ぶ)
+     * live でなければ (再生)、キャプチャの時刻に結びついた通信量・呼吸・フロー表は戻さない
+     * @return 戻したら true、知らない区間か戻さない区間なら false
+     */
+    synchronized boolean restoreState(int tag, ByteBuffer in, boolean live) {
+        if (started) throw new IllegalStateException("分析を始めた後には状態を戻せません");
+        switch (tag) {
+            case StateStore.DETECTOR:
+                detector.readState(in);
+                return true;
+            case StateStore.FAIRNESS:
+                mergedFairness.readState(in);
+                return true;
+            case StateStore.TRAFFIC:
+                if (!live) return false;
+                rings[0].readState(in);
+                return true;
+            case StateStore.RHYTHM:
+                if (!live) return false;
+                // シャードごとに続けて書いた呼吸を同じ番号のシャードに戻す (以前の1つだけの形はシャード0に戻る)
+                // シャードが減っていれば余った分は読み捨てる (ポートはシャードをまたぐので振り分け直せない)
+                for (int i = 0; in.hasRemaining(); i++) {
+                    int from = in.position();
+                    RhythmAnalyzer target = (i < shards.length) ? rhythmAnalyzers[i] : new RhythmAnalyzer();
+                    target.readState(in);
+                    if (i < shards.length) {
+                        lastRhythmStates[i] = new byte[in.position() - from];
+                        in.get(from, lastRhythmStates[i]);
+                    }
+                }
+                return true;
+            case StateStore.FLOWS:
+                if (!live) return false;
+                // シャードごとに書いたフロー表を続けて読み、今のシャード数で振り分け直す
+                while (in.hasRemaining()) {
+                    FlowTable.readState(in, (a, b, c, lastSeen, state, flags, initiatorIsLow, seqEndLow, seqEndHigh, ipv6) ->
+                            shards[flowHash(a, b, c) & shardMask].getFlowTable()
+                                    .restoreFlow(a, b, c, lastSeen, state, flags, initiatorIsLow, seqEndLow, seqEndHigh, ipv6));
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+}
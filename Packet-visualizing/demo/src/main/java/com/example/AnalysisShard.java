@@ -0,0 +1,161 @@
+package com.example;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * フローのハッシュで振り分けられたパケットを専用スレッドで分析するシャード
+ * 集計の状態はシャードごとに持ち、タイマーのタイミングで AnalysisPipeline がまとめる
+ */
+public class AnalysisShard implements Runnable {
+    private final int id;
+    private final OffHeapPacketRing.Consumer input; // リングのうち、このシャードのレーンを読む
+    private final PacketView packet = new PacketView(); // input からデコードする先 (使い回す)
+    private final EventChannel events;
+    private volatile boolean running = true;
+    private long errors = 0; // 分析で例外が出た回数 (このスレッドだけが触る)
+    private final SelfMetrics metrics = SelfMetrics.get();
+
+    private final TimeAndPortAggregator aggregator = new TimeAndPortAggregator(null);
+    private final FairnessCalculator fairnessCalculator = new FairnessCalculator();
+    private final CardinalityCounter cardinalityCounter = new CardinalityCounter();
+    private final RhythmAnalyzer rhythmAnalyzer = new RhythmAnalyzer(); // このシャードに来たパケットの呼吸 (IAT)
+
+    // 接続ごとの状態・RTT・再送 (シャードのスレッドだけが触るので、集計は requestFlowStats で頼んでこのスレッドで作る)
+    private final FlowTable flowTable;
+    private final Handoff<FlowStats> flowStats;
+
+    // 保存用のフロー表 (これもシャードのスレッドで書き出す)
+    private final Handoff<byte[]> state;
+
+    // RST・再送で録画を始めさせる (録画しないなら null。スレッドの開始前に設定する)
+    private PcapRecorder recorder;
+
+    // 自分専用のリングを持つ (単体で動かすとき・ベンチマーク用)
+    public AnalysisShard(int id, int ringCapacity, EventChannel events) {
+        this(id, new OffHeapPacketRing(1, ringCapacity, OffHeapPacketRing.DEFAULT_FRAME_BYTES).consumer(0),
+                FlowTable.DEFAULT_CAPACITY, events);
+    }
+
+    /**
+     * @param flowCapacity このシャードで追跡するフローの上限
+     */
+    public AnalysisShard(int id, OffHeapPacketRing.Consumer input, int flowCapacity, EventChannel events) {
+        this.id = id;
+        this.input = input;
+        this.flowTable = new FlowTable(flowCapacity);
+        this.state = new Handoff<>(() -> StateStore.toBytes(flowTable::writeState));
+        this.flowStats = new Handoff<>(() -> flowTable.takeIntervalStats(FlowTable.TOP_FLOWS));
+        this.events = events;
+    }
+
+    public int getId() { return id; }
+    public TimeAndPortAggregator getAggregator() { return aggregator; }
+    public FairnessCalculator getFairnessCalculator() { return fairnessCalculator; }
+    public CardinalityCounter getCardinalityCounter() { return cardinalityCounter; }
+    public RhythmAnalyzer getRhythmAnalyzer() { return rhythmAnalyzer; }
+    FlowTable getFlowTable() { return flowTable; } // 状態の読み戻し用 (スレッドを始める前だけ触る)
+
+    void setRecorder(PcapRecorder recorder) { this.recorder = recorder; }
+
+    // 残っているパケットを処理し終えたらスレッドを終了させる
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        int idle = 0;
+        while (true) {
+            flowStats.serve();
+            state.serve();
+            fairnessCalculator.serve();
+            cardinalityCounter.serve();
+            rhythmAnalyzer.serve();
+            boolean stopping = !running; // 止められた後に空を確かめたら終わる (止める前に置かれたものは読み切る)
+            if (!input.poll(packet)) {
+                if (stopping) break;
+                idle = idle(idle);
+                continue;
+            }
+            idle = 0;
+            long dispatched = packet.dispatchNanos();
+            try {
+                if (dispatched != 0) {
+                    // 自己計測の対象: 受け渡しから取り出すまでと、分析にかかった時間
+                    long start = System.nanoTime();
+                    metrics.record(SelfMetrics.Timer.QUEUE, start - dispatched);
+                    processPacket(packet);
+                    metrics.record(SelfMetrics.Timer.ANALYSIS, System.nanoTime() - start);
+                } else {
+                    processPacket(packet);
+                }
+            } catch (RuntimeException e) {
+                // 1パケットの失敗でシャードを止めない (止まると再生はこのレーンの空きを待ち続ける)
+                reportError(e);
+            }
+        }
+        flowStats.serve();
+        state.serve();
+        fairnessCalculator.serve();
+        cardinalityCounter.serve();
+        rhythmAnalyzer.serve();
+    }
+
+    // タイマー側: 今の期間の上位フローを作るよう頼む (結果は awaitFlowStats で受け取る)
+    void requestFlowStats() { flowStats.request(); }
+
+    /**
+     * requestFlowStats の結果を待つ。シャードのスレッドが動いていなければ (開始前・終了後) 呼び出し側で作る
+     * @return 時間内に返ってこなければ null (その期間の分は次の要求で捨てられる)
+     */
+    FlowStats awaitFlowStats(Thread owner, long timeoutNanos) { return flowStats.await(owner, timeoutNanos); }
+
+    // 保存: フロー表を書き出すよう頼み、待つ (パケットの処理の合間に書くので、キャプチャは止めない)
+    void requestState() { state.request(); }
+    byte[] awaitState(Thread owner, long timeoutNanos) { return state.await(owner, timeoutNanos); }
+
+    // 分析の例外は数え、知らせるのは1回目と2のべき乗回目だけ (同じ例外が続いてもメッセージを溢れさせない)
+    private void reportError(RuntimeException e) {
+        metrics.increment(SelfMetrics.Counter.ANALYSIS_ERRORS);
+        errors++;
+        if ((errors & (errors - 1)) == 0) {
+            events.message("⚠️ シャード " + id + " の分析でエラー (" + errors + " 回目、パケットを飛ばします): " + e);
+        }
+    }
+
+    // 待つ間はしばらくスピンし、それでも空かなければ yield、さらに続けば少し眠る (リングの空きを待つ側も使う)
+    static int idle(int idle) {
+        if (idle < 100) {
+            Thread.onSpinWait();
+        } else if (idle < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+        return idle + 1;
+    }
+
+    // 1パケット分の分析 (ベンチマークからも直接呼べるようにパッケージ内に公開)
+    void processPacket(PacketView packet) {
+        aggregator.aggregate(packet);
+        fairnessCalculator.aggregate(packet);
+        cardinalityCounter.aggregate(packet);
+        rhythmAnalyzer.analyzeRhythm(packet);
+        // 再送の判定もフロー表で行う (フローごとの再送数と、イベント・期間の合計が同じ判定になる)
+        boolean retransmission = flowTable.update(packet);
+
+        if (packet.isTcp()) {
+            // RSTフラグのチェック
+            if (packet.hasFlag(PacketView.TCP_RST)) {
+                events.publish(EventType.TCP_RST, packet.srcIp(), packet.srcPort());
+                if (recorder != null) recorder.trigger(packet.timestampNanos());
+            }
+
+            if (retransmission) {
+                events.publish(EventType.TCP_RETRANSMISSION, packet.srcIp(),
+                        ((long) packet.srcPort() << 32) | (packet.sequenceNumber() & 0xffffffffL));
+                if (recorder != null) recorder.trigger(packet.timestampNanos());
+            }
+        }
+    }
+}
@@ -1,46 +1,288 @@
 package com.example;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
 
+/**
+ * ポートごとの脈拍 (pkt/s) のベースラインを通信から学習し、体温 (Zスコア) で異常を判定する
+ * - ベースラインは指数移動平均 (EWMA) の平均と分散。時間帯 (時刻の「時」) ごとに分けて持つ
+ * - その時間帯の学習がまだ足りないときは、全時間帯まとめたベースラインで判定する
+ * - ポート番号を添字にした表で、追跡するポート数には上限がある (あふれたら長く来ていないポートから外す)
+ * 集計側 (タイマースレッド) だけが呼ぶ
+ */
 public class AnomalyDetector {
-    // 重要なポートのベースラインを格納する Map<ポート, ベースライン>
-    private static final Map<Integer, Baseline> BASELINES = new ConcurrentHashMap<>();
     private static final double THRESHOLD = 3.0; // 異常と見なす閾値 (3σルール)
+    private static final int MAX_PORTS = 1024;
+    private static final int HOURS = 24;
+    private static final int ALL_HOURS = HOURS; // 全時間帯まとめたベースラインの位置
+    private static final int BUCKETS = HOURS + 1;
+    private static final double TIME_CONSTANT_SECONDS = 900.0; // 約15分で入れ替わる重み
+    private static final int MIN_SAMPLES = 20; // これだけ学習するまでは判定しない
+    private static final double MIN_STDDEV = 0.5; // σが小さすぎて少しの揺れで警告しないための下限 (pkt/s)
+    private static final double MIN_RELATIVE_STDDEV = 0.1; // 同じく平均の10%を下限にする
+    private static final double ANOMALY_LEARNING_WEIGHT = 0.25; // 異常と判定した値は学習を弱める
+    private static final double MIN_SILENT_MEAN = 1.0; // 来なくなったことを判定するのは、普段これ以上 (pkt/s) 来ているポートだけ
+    private static final int MAX_SILENT_TICKS = 60; // 来なくなってからこの回数の集計までは警告する (その後は黙って追い出しを待つ)
 
-    public AnomalyDetector() {
-        // ベースラインの定義 (例: 443, 80)
-        BASELINES.put(80, new Baseline(3.0, 1.0));
-        BASELINES.put(443, new Baseline(5.0, 1.5));
+    private final int[] slotByPort = new int[65536]; // ポート -> 添字+1 (0は未登録)
+    private final int[] portOfSlot = new int[MAX_PORTS];
+    private final long[] lastSeenTick = new long[MAX_PORTS];
+    private final boolean[] referenced = new boolean[MAX_PORTS]; // 追い出し用の印 (来たら立てる)
+    private final double[] means = new double[MAX_PORTS * BUCKETS];
+    private final double[] variances = new double[MAX_PORTS * BUCKETS];
+    private final int[] samples = new int[MAX_PORTS * BUCKETS];
+    private int slotCount = 0;
+    private int evictHand = 0;
+    private long evictions = 0;
+
+    private final ZoneRules zoneRules = ZoneId.systemDefault().getRules();
+    private long tick = 0;
+    private int hour = 0;
+    private double alpha = 0;
+
+    // 今回の集計で見つかった異常 (使い回す作業用の配列)
+    private int found = 0;
+    private final int[] foundPorts = new int[MAX_PORTS];
+    private final double[] foundRates = new double[MAX_PORTS];
+    private final double[] foundExpected = new double[MAX_PORTS];
+    private final double[] foundStdDevs = new double[MAX_PORTS];
+    private final double[] foundScores = new double[MAX_PORTS];
+
+    /**
+     * 今回の集計期間に通信があったポートをすべて判定し、ベースラインを更新する
+     * 追跡中で今回来なかったポートは、学習が済んでいて普段よく来るものだけ脈拍0として判定する (普段来るポートが止まったことも異常として拾う)
+     * 来なかった間の0はベースラインに入れない (一時的なポートや夜間の停止で、学習が0に引っぱられないように)
+     * @param now 集計の時刻 (時間帯の判定に使う。再生時はファイル上の時刻)
+     * @return 閾値を超えたポート (なければ PortAnomalies.EMPTY)
+     */
+    public PortAnomalies check(PortStats stats, Instant now) {
+        beginTick(now, stats.getElapsedSeconds());
+        for (int i = 0; i < stats.size(); i++) {
+            if (stats.dstPackets(i) == 0) continue; // 送信元としてだけ使われたポート
+            int port = stats.port(i);
+            int slot = slotFor(port);
+            if (slot < 0) continue; // 今回の集計だけで上限を超えるポートが来た
+            lastSeenTick[slot] = tick;
+            referenced[slot] = true;
+            checkAnomaly(slot, port, stats.packetRate(i));
+        }
+        // 来なかったポート (追い出しの印は立てない。来ないまま針が回ってくれば外れる)
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (lastSeenTick[slot] != tick) checkSilence(slot, portOfSlot[slot]);
+        }
+        return endTick();
+    }
+
+    private void beginTick(Instant now, double elapsedSeconds) {
+        tick++;
+        long localSeconds = now.getEpochSecond() + zoneRules.getOffset(now).getTotalSeconds();
+        hour = (int) Math.floorMod(localSeconds / 3600, (long) HOURS);
+        // 集計間隔が変わっても同じ時間の長さで入れ替わるように重みを決める
+        alpha = 1.0 - Math.exp(-Math.max(elapsedSeconds, 0.0) / TIME_CONSTANT_SECONDS);
+        found = 0;
+    }
+
+    // 脈拍データを受け取り、体温を計算してベースラインを学習する
+    private void checkAnomaly(int slot, int port, double currentRate) {
+        int hourly = slot * BUCKETS + hour;
+        int overall = slot * BUCKETS + ALL_HOURS;
+        int base = (samples[hourly] >= MIN_SAMPLES) ? hourly : overall;
+
+        double score = 0.0;
+        if (samples[base] >= MIN_SAMPLES) {
+            double mu = means[base];
+            double sigma = Math.max(Math.sqrt(variances[base]), Math.max(MIN_STDDEV, mu * MIN_RELATIVE_STDDEV));
+            // 体温 (A) の計算: Zスコア A_p(t) = |R_p(t) - μ_p| / σ_p
+            score = Math.abs(currentRate - mu) / sigma;
+            if (score > THRESHOLD) {
+                foundPorts[found] = port;
+                foundRates[found] = currentRate;
+                foundExpected[found] = mu;
+                foundStdDevs[found] = sigma;
+                foundScores[found] = score;
+                found++;
+            }
+        }
+
+        double weight = (score > THRESHOLD) ? alpha * ANOMALY_LEARNING_WEIGHT : alpha;
+        learn(hourly, currentRate, weight);
+        learn(overall, currentRate, weight);
+    }
+
+    // 来なかったポートの判定 (学習はしない)。止まってから MAX_SILENT_TICKS 回までの間だけ警告する
+    private void checkSilence(int slot, int port) {
+        if (tick - lastSeenTick[slot] > MAX_SILENT_TICKS) return;
+        int hourly = slot * BUCKETS + hour;
+        int base = (samples[hourly] >= MIN_SAMPLES) ? hourly : slot * BUCKETS + ALL_HOURS;
+        if (samples[base] < MIN_SAMPLES) return;
+        double mu = means[base];
+        if (mu < MIN_SILENT_MEAN) return;
+        double sigma = Math.max(Math.sqrt(variances[base]), Math.max(MIN_STDDEV, mu * MIN_RELATIVE_STDDEV));
+        double score = mu / sigma;
+        if (score > THRESHOLD) {
+            foundPorts[found] = port;
+            foundRates[found] = 0.0;
+            foundExpected[found] = mu;
+            foundStdDevs[found] = sigma;
+            foundScores[found] = score;
+            found++;
+        }
     }
 
-    // 脈拍データを受け取り、体温を計算して警告を出す
-    public void checkAnomaly(int port, double currentRate) {
-        if (!BASELINES.containsKey(port)) {
-            return; 
+    // EWMAで平均と分散を更新する (最初の数回は単純平均に近い重みで立ち上げる)
+    private void learn(int bucket, double value, double weight) {
+        int n = ++samples[bucket];
+        double a = Math.max(weight, 1.0 / n);
+        if (n == 1) {
+            means[bucket] = value;
+            variances[bucket] = 0.0;
+            return;
         }
-        
-        Baseline base = BASELINES.get(port);
-        double mu = base.getAverage();
-        double sigma = base.getStdDev();
+        double delta = value - means[bucket];
+        means[bucket] += a * delta;
+        variances[bucket] = (1 - a) * (variances[bucket] + a * delta * delta);
+    }
+
+    private PortAnomalies endTick() {
+        if (found == 0) return PortAnomalies.EMPTY;
+        // スコアの高い順に並べる (件数は少ない想定なので挿入ソート)
+        for (int i = 1; i < found; i++) {
+            for (int j = i; j > 0 && foundScores[j - 1] < foundScores[j]; j--) {
+                swapFound(j, j - 1);
+            }
+        }
+        return new PortAnomalies(Arrays.copyOf(foundPorts, found), Arrays.copyOf(foundRates, found),
+                Arrays.copyOf(foundExpected, found), Arrays.copyOf(foundStdDevs, found), Arrays.copyOf(foundScores, found));
+    }
 
-        // 体温 (A) の計算: Zスコア A_p(t) = |R_p(t) - μ_p| / σ_p
-        double anomalyScore = Math.abs(currentRate - mu) / sigma;
-        
-        if (anomalyScore > THRESHOLD) {
-            System.err.println("🔥 警告 (体温): Port " + port + "が異常 (" + String.format("%.2f", anomalyScore) + ")");
+    private void swapFound(int a, int b) {
+        int port = foundPorts[a]; foundPorts[a] = foundPorts[b]; foundPorts[b] = port;
+        double t = foundRates[a]; foundRates[a] = foundRates[b]; foundRates[b] = t;
+        t = foundExpected[a]; foundExpected[a] = foundExpected[b]; foundExpected[b] = t;
+        t = foundStdDevs[a]; foundStdDevs[a] = foundStdDevs[b]; foundStdDevs[b] = t;
+        t = foundScores[a]; foundScores[a] = foundScores[b]; foundScores[b] = t;
+    }
+
+    private int slotFor(int port) {
+        int slot = slotByPort[port];
+        if (slot != 0) return slot - 1;
+        if (slotCount < MAX_PORTS) {
+            slot = slotCount++;
+        } else {
+            // CLOCK 方式: 針を進めながら、前回針が通ってから来ていないポートを外して使い回す
+            // 来ていたポートは印を消して1周だけ猶予を与える。今回の集計ですでに判定したポートは外さない
+            slot = -1;
+            for (int probe = 0; probe < 2 * MAX_PORTS; probe++) {
+                int candidate = evictHand;
+                evictHand = (evictHand + 1) % MAX_PORTS;
+                if (lastSeenTick[candidate] == tick) continue;
+                if (referenced[candidate]) {
+                    referenced[candidate] = false;
+                    continue;
+                }
+                slot = candidate;
+                break;
+            }
+            if (slot < 0) return -1;
+            slotByPort[portOfSlot[slot]] = 0;
+            evictions++;
         }
+        portOfSlot[slot] = port;
+        slotByPort[port] = slot + 1;
+        Arrays.fill(samples, slot * BUCKETS, (slot + 1) * BUCKETS, 0);
+        return slot;
     }
-    
-    // ベースラインデータを保持するための内部クラス
-    private static class Baseline {
-        private final double average;
-        private final double stdDev;
-        public Baseline(double average, double stdDev) {
-            this.average = average;
-            this.stdDev = stdDev;
+
+    /**
+     * 保存: 追跡中のポートごとに、学習済みの時間帯のベースライン (サンプル数・平均・分散) だけを書く
+     * 学習していない時間帯はビットマスクで省く
+     */
+    void writeState(DataOutputStream out) throws IOException {
+        out.writeInt(BUCKETS);
+        out.writeLong(tick);
+        out.writeLong(evictions);
+        out.writeInt(evictHand);
+        out.writeInt(slotCount);
+        for (int slot = 0; slot < slotCount; slot++) {
+            out.writeShort(portOfSlot[slot]);
+            out.writeLong(lastSeenTick[slot]);
+            out.writeBoolean(referenced[slot]);
+            int learned = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                if (samples[slot * BUCKETS + b] > 0) learned |= 1 << b;
+            }
+            out.writeInt(learned);
+            for (int b = 0; b < BUCKETS; b++) {
+                if ((learned & (1 << b)) == 0) continue;
+                int bucket = slot * BUCKETS + b;
+                out.writeInt(samples[bucket]);
+                out.writeDouble(means[bucket]);
+                out.writeDouble(variances[bucket]);
+            }
         }
-        public double getAverage() { return average; }
-        public double getStdDev() { return stdDev; }
     }
-}
\ No newline at end of file
+
+    /**
+     * writeState で書いたベースラインに置き換える (最初の check の前に呼ぶ)
+     * 全部読めてから置き換えるので、壊れていれば例外を投げて何も変えない
+     */
+    void readState(ByteBuffer in) {
+        if (in.getInt() != BUCKETS) throw new IllegalArgumentException("時間帯の数が違います");
+        long savedTick = in.getLong();
+        long savedEvictions = in.getLong();
+        int hand = in.getInt();
+        int count = in.getInt();
+        if (count < 0 || count > MAX_PORTS || hand < 0 || hand >= MAX_PORTS) {
+            throw new IllegalArgumentException("ポート数が範囲外です: " + count);
+        }
+        int[] ports = new int[count];
+        long[] seen = new long[count];
+        boolean[] marks = new boolean[count];
+        int[] n = new int[count * BUCKETS];
+        double[] mu = new double[count * BUCKETS];
+        double[] var = new double[count * BUCKETS];
+        boolean[] taken = new boolean[65536];
+        for (int slot = 0; slot < count; slot++) {
+            ports[slot] = in.getShort() & 0xffff;
+            if (taken[ports[slot]]) throw new IllegalArgumentException("ポートが重複しています: " + ports[slot]);
+            taken[ports[slot]] = true;
+            seen[slot] = in.getLong();
+            marks[slot] = in.get() != 0;
+            int learned = in.getInt();
+            for (int b = 0; b < BUCKETS; b++) {
+                if ((learned & (1 << b)) == 0) continue;
+                int bucket = slot * BUCKETS + b;
+                n[bucket] = in.getInt();
+                mu[bucket] = in.getDouble();
+                var[bucket] = in.getDouble();
+            }
+        }
+
+        for (int slot = 0; slot < slotCount; slot++) {
+            slotByPort[portOfSlot[slot]] = 0;
+        }
+        Arrays.fill(samples, 0);
+        System.arraycopy(ports, 0, portOfSlot, 0, count);
+        System.arraycopy(seen, 0, lastSeenTick, 0, count);
+        System.arraycopy(marks, 0, referenced, 0, count);
+        System.arraycopy(n, 0, samples, 0, n.length);
+        System.arraycopy(mu, 0, means, 0, mu.length);
+        System.arraycopy(var, 0, variances, 0, var.length);
+        for (int slot = 0; slot < count; slot++) {
+            slotByPort[ports[slot]] = slot + 1;
+        }
+        slotCount = count;
+        evictHand = hand;
+        evictions = savedEvictions;
+        tick = savedTick;
+    }
+
+    // 追跡中のポート数と、表があふれて外したポート数の累計
+    public int getTrackedPorts() { return slotCount; }
+    public long getEvictions() { return evictions; }
+}
@@ -0,0 +1,168 @@
+package com.example;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * フローの最初のペイロードからアプリケーションを見分ける (ポートは DNS の候補を絞るのにだけ使う)
+ * - HTTP のメソッドと応答、SSH のバナー、TLS のハンドシェイク、QUIC のロングヘッダーは、ペイロード先頭の
+ *   バイト列をまとめたプレフィックス木で1回なめて見分ける (枝は1バイトの完全一致か「何でもよい」)
+ * - DNS は 53/5353 番ポートのヘッダーの形で見分ける
+ * - TLS の ClientHello からは SNI (接続先のホスト名) を取り出す (スナップ長で切れていれば取れない)
+ * 読むのはキャプチャした範囲 (captureLength) だけ。FlowTable がフローの最初の数パケットにだけ使う
+ */
+final class AppClassifier {
+    private static final FlowStats.Application[] APPS = FlowStats.Application.values();
+
+    private static final int ANY = 256;       // 「何でもよい」の枝
+    private static final int EDGES = 257;     // ノードごとの枝の数 (0〜255 と ANY)
+    private static final int MAX_NODES = 128;
+
+    // プレフィックス木 (ノード 0 が根。子の番号 0 は「枝なし」)
+    private static final int[] next = new int[MAX_NODES * EDGES];
+    private static final byte[] label = new byte[MAX_NODES]; // そこで終わるパターンのアプリ (0 なら途中のノード)
+    private static int nodes = 1;
+    private static int maxDepth = 0;
+
+    static {
+        for (String method : new String[] {"GET ", "POST ", "PUT ", "HEAD ", "DELETE ", "OPTIONS ", "PATCH ", "CONNECT ", "TRACE ", "HTTP/1."}) {
+            add(ascii(method), FlowStats.Application.HTTP);
+        }
+        add(ascii("SSH-"), FlowStats.Application.SSH);
+        // TLS レコード: ハンドシェイク (0x16), バージョン 3.0〜3.4, 長さ2バイト, ClientHello (1) か ServerHello (2)
+        for (int minor = 0; minor <= 4; minor++) {
+            add(new int[] {0x16, 0x03, minor, ANY, ANY, 0x01}, FlowStats.Application.TLS);
+            add(new int[] {0x16, 0x03, minor, ANY, ANY, 0x02}, FlowStats.Application.TLS);
+        }
+        // QUIC のロングヘッダー: 先頭バイトのあとに32ビットのバージョン (v1, v2, draft-xx)
+        add(new int[] {ANY, 0x00, 0x00, 0x00, 0x01}, FlowStats.Application.QUIC);
+        add(new int[] {ANY, 0x6b, 0x33, 0x43, 0xcf}, FlowStats.Application.QUIC);
+        add(new int[] {ANY, 0xff, 0x00, 0x00, ANY}, FlowStats.Application.QUIC);
+    }
+
+    private AppClassifier() {}
+
+    private static int[] ascii(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        int[] pattern = new int[bytes.length];
+        for (int i = 0; i < bytes.length; i++) pattern[i] = bytes[i] & 0xff;
+        return pattern;
+    }
+
+    private static void add(int[] pattern, FlowStats.Application app) {
+        int node = 0;
+        for (int edge : pattern) {
+            int child = next[node * EDGES + edge];
+            if (child == 0) {
+                if (nodes == MAX_NODES) throw new IllegalStateException("AppClassifier: パターンが多すぎます");
+                child = nodes++;
+                next[node * EDGES + edge] = child;
+            }
+            node = child;
+        }
+        label[node] = (byte) app.ordinal();
+        maxDepth = Math.max(maxDepth, pattern.length);
+    }
+
+    /**
+     * ペイロードの先頭からアプリを見分ける。見分けられなければ UNKNOWN
+     */
+    static FlowStats.Application classify(PacketView packet) {
+        int offset = packet.payloadOffset();
+        int length = available(packet);
+        if (length <= 0) return FlowStats.Application.UNKNOWN;
+
+        if (isDnsPort(packet) && isDns(packet, offset, length, packet.isTcp())) return FlowStats.Application.DNS;
+
+        FlowStats.Application app = APPS[match(packet, offset, offset + Math.min(length, maxDepth), 0)];
+        switch (app) {
+            case HTTP, SSH, TLS:
+                return packet.isTcp() ? app : FlowStats.Application.UNKNOWN;
+            case QUIC:
+                // ロングヘッダーは上位2ビットが立っている
+                return (packet.isUdp() && (packet.byteAt(offset) & 0xc0) == 0xc0) ? app : FlowStats.Application.UNKNOWN;
+            default:
+                return FlowStats.Application.UNKNOWN;
+        }
+    }
+
+    // node からフレームの [pos, end) をたどり、一番深く一致したパターンのアプリ (完全一致の枝を先に試し、だめなら ANY の枝)
+    private static int match(PacketView packet, int pos, int end, int node) {
+        if (label[node] != 0) return label[node];
+        if (pos >= end) return 0;
+        int base = node * EDGES;
+        int exact = next[base + packet.byteAt(pos)];
+        if (exact != 0) {
+            int found = match(packet, pos + 1, end, exact);
+            if (found != 0) return found;
+        }
+        int any = next[base + ANY];
+        return (any != 0) ? match(packet, pos + 1, end, any) : 0;
+    }
+
+    private static boolean isDnsPort(PacketView packet) {
+        if (!packet.isUdp() && !packet.isTcp()) return false;
+        int src = packet.srcPort();
+        int dst = packet.dstPort();
+        return src == 53 || dst == 53 || src == 5353 || dst == 5353;
+    }
+
+    // DNS のヘッダー (12バイト): 問い合わせか応答の件数があり、opcode が定義済みのもの。TCP では先頭に2バイトの長さがある
+    private static boolean isDns(PacketView packet, int offset, int length, boolean tcp) {
+        if (tcp) {
+            offset += 2;
+            length -= 2;
+        }
+        if (length < 12) return false;
+        int opcode = (packet.byteAt(offset + 2) >>> 3) & 0x0f;
+        int questions = u16(packet, offset + 4);
+        int answers = u16(packet, offset + 6);
+        return opcode <= 6 && opcode != 3 && questions <= 64 && (questions > 0 || answers > 0);
+    }
+
+    /**
+     * TLS の ClientHello から SNI (server_name 拡張のホスト名) を取り出す。ClientHello でないか、切れていれば null
+     */
+    static String serverName(PacketView packet) {
+        int start = packet.payloadOffset();
+        int end = start + available(packet);
+        // レコードヘッダー (5) + ハンドシェイクヘッダー (4) + バージョン (2) + 乱数 (32)
+        int p = start + 43;
+        if (p > end || packet.byteAt(start) != 0x16 || packet.byteAt(start + 5) != 0x01) return null;
+        if (p + 1 > end) return null;
+        p += 1 + packet.byteAt(p);            // セッションID
+        if (p + 2 > end) return null;
+        p += 2 + u16(packet, p);              // 暗号スイート
+        if (p + 1 > end) return null;
+        p += 1 + packet.byteAt(p);            // 圧縮方式
+        if (p + 2 > end) return null;
+        int extensionsEnd = Math.min(end, p + 2 + u16(packet, p));
+        p += 2;
+        while (p + 4 <= extensionsEnd) {
+            int type = u16(packet, p);
+            int length = u16(packet, p + 2);
+            p += 4;
+            if (type == 0) {
+                // server_name_list の長さ (2), 種類 (1 = host_name は 0), 名前の長さ (2), 名前
+                if (p + 5 > extensionsEnd || packet.byteAt(p + 2) != 0) return null;
+                int nameLength = u16(packet, p + 3);
+                if (nameLength == 0 || p + 5 + nameLength > extensionsEnd) return null;
+                byte[] name = new byte[nameLength];
+                for (int i = 0; i < nameLength; i++) {
+                    name[i] = (byte) packet.byteAt(p + 5 + i);
+                }
+                return new String(name, StandardCharsets.US_ASCII);
+            }
+            p += length;
+        }
+        return null;
+    }
+
+    // ペイロードのうちキャプチャに入っているバイト数
+    private static int available(PacketView packet) {
+        return Math.min(packet.payloadLength(), packet.captureLength() - packet.payloadOffset());
+    }
+
+    private static int u16(PacketView packet, int offset) {
+        return (packet.byteAt(offset) << 8) | packet.byteAt(offset + 1);
+    }
+}
@@ -0,0 +1,187 @@
+package com.example;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * キャプチャと出力の設定 (読み取り専用)
+ * ヘッドレスで動かすときはコマンドライン引数から parse で作る
+ */
+public class CaptureConfig {
+    public enum Format { JSONL, CSV }
+
+    // 分析に使うのはヘッダーだけなので、既定の snaplen は ヘッダー + ペイロードの先頭 程度にする
+    public static final int HEADERS_SNAPLEN = 256;
+
+    // 既定の BPF フィルター: IPv4/IPv6 と、VLAN タグ (QinQ の2段まで) の中の IPv4/IPv6
+    // vlan は Ethernet でしか書けないので、他のリンク種別では PacketCapture が IP_FILTER に読み替える
+    public static final String DEFAULT_FILTER = "ip or ip6 or (vlan and (ip or ip6 or (vlan and (ip or ip6))))";
+    public static final String IP_FILTER = "ip or ip6";
+
+    public static final CaptureConfig DEFAULT = new CaptureConfig(Collections.emptyList(), Collections.emptyList(),
+            PacketCapture.ReplayMode.MAX_SPEED, DEFAULT_FILTER, HEADERS_SNAPLEN, 16 << 20, false, 10, true,
+            Duration.ofSeconds(60), Format.JSONL, null, CaptureManager.DEFAULT_REORDER_WINDOW,
+            Integer.getInteger("flows.capacity", FlowTable.DEFAULT_CAPACITY));
+
+    public final List<String> interfaceNames; // ライブキャプチャするデバイス名 (files と排他。複数なら時刻順にまとめて分析する)
+    public final List<Path> files;            // 再生する pcap/pcapng ファイル (複数なら時刻順にまとめて再生する)
+    public final PacketCapture.ReplayMode replayMode;
+    public final String filter;        // BPF フィルター (カーネルで絞り込む)
+    public final int snaplen;          // 1パケットで取り込む長さ (バイト)
+    public final int bufferSize;       // カーネルのキャプチャバッファ (バイト)
+    public final boolean immediateMode; // true ならバッファにためずにすぐ渡す (遅延は減るが負荷は増える)
+    public final int timeoutMillis;    // バッファにたまるのを待つ最大時間
+    public final boolean promiscuous;
+    public final Duration interval;    // 集計して出力する間隔
+    public final Format format;
+    public final Path output;          // 出力先 (null なら標準出力)
+    public final Duration reorderWindow; // 複数のキャプチャを時刻順に並べるときに、遅れて届くパケットを待つ最大時間
+    public final int flowCapacity;     // 追跡するフローの上限 (全シャード合わせて。シャードごとに等分する)
+
+    public CaptureConfig(List<String> interfaceNames, List<Path> files, PacketCapture.ReplayMode replayMode, String filter,
+                         int snaplen, int bufferSize, boolean immediateMode, int timeoutMillis, boolean promiscuous,
+                         Duration interval, Format format, Path output, Duration reorderWindow, int flowCapacity) {
+        this.interfaceNames = Collections.unmodifiableList(new ArrayList<>(interfaceNames));
+        this.files = Collections.unmodifiableList(new ArrayList<>(files));
+        this.replayMode = replayMode;
+        this.filter = filter;
+        this.snaplen = snaplen;
+        this.bufferSize = bufferSize;
+        this.immediateMode = immediateMode;
+        this.timeoutMillis = timeoutMillis;
+        this.promiscuous = promiscuous;
+        this.interval = interval;
+        this.format = format;
+        this.output = output;
+        this.reorderWindow = reorderWindow;
+        this.flowCapacity = flowCapacity;
+    }
+
+    public boolean isReplay() { return !files.isEmpty(); }
+
+    // 再生するファイルと再生モードだけを差し替えたもの (対話モードの再生用)
+    public CaptureConfig withReplay(List<Path> files, PacketCapture.ReplayMode replayMode) {
+        return new CaptureConfig(Collections.emptyList(), files, replayMode, filter, snaplen, bufferSize, immediateMode,
+                timeoutMillis, promiscuous, interval, format, output, reorderWindow, flowCapacity);
+    }
+
+    public static String usage() {
+        return String.join("\n",
+                "使い方: Main (--interface <名前>... | --file <pcap>...) [オプション]",
+                "  --interface / --file は繰り返すかカンマ区切りで複数指定でき、パケットを時刻順にまとめて分析する",
+                "  --realtime             ファイルを元のパケット間隔で再生する (既定は最大速度)",
+                "  --filter <BPF>         キャプチャフィルター (既定: IPv4/IPv6。Ethernet では VLAN・QinQ タグの中の IP も通す",
+                "                         = " + DEFAULT_FILTER + "。\"\" なら絞り込まない)",
+                "  --snaplen <バイト>     1パケットで取り込む長さ (既定: 256 = ヘッダーのみ。録画で中身も残すなら 65535)",
+                "  --buffer-size <MiB>    カーネルのキャプチャバッファ (既定: 16)",
+                "  --immediate            バッファにためずにすぐ受け取る (遅延は減るがCPU負荷が増える)",
+                "  --timeout <ミリ秒>     バッファにたまるのを待つ最大時間 (既定: 10)",
+                "  --no-promisc           プロミスキャスモードにしない",
+                "  --interval <秒>        集計と出力の間隔 (既定: 60。500ms, 10s, 1m のようにも書ける)",
+                "  --format <形式>        jsonl / csv (既定: jsonl)",
+                "  --output <パス>        出力ファイル (既定: 標準出力。- でも標準出力)",
+                "  --reorder-window <時間> 複数キャプチャの時刻順の並べ替えで遅れを待つ最大時間 (既定: 20ms)",
+                "  --flows <数>           追跡するフローの上限。全シャード合わせた数で、シャードごとに等分する",
+                "                         (既定: " + FlowTable.DEFAULT_CAPACITY + "。-Dflows.capacity でも変えられる)",
+                "                         上限の分を最初に確保する: 1フローあたり約 " + FlowTable.BYTES_PER_FLOW + " バイト"
+                        + " (100万フローで約 " + (1_000_000L * FlowTable.BYTES_PER_FLOW >> 20) + " MiB。ヒープを -Xmx で広げておく)");
+    }
+
+    // コマンドライン引数を読む (間違いがあれば IllegalArgumentException)
+    public static CaptureConfig parse(String[] args) {
+        List<String> interfaceNames = new ArrayList<>();
+        List<Path> files = new ArrayList<>();
+        PacketCapture.ReplayMode replayMode = DEFAULT.replayMode;
+        String filter = DEFAULT.filter;
+        int snaplen = DEFAULT.snaplen;
+        int bufferSize = DEFAULT.bufferSize;
+        boolean immediateMode = DEFAULT.immediateMode;
+        int timeoutMillis = DEFAULT.timeoutMillis;
+        boolean promiscuous = DEFAULT.promiscuous;
+        Duration interval = DEFAULT.interval;
+        Format format = DEFAULT.format;
+        Path output = null;
+        Duration reorderWindow = DEFAULT.reorderWindow;
+        int flowCapacity = DEFAULT.flowCapacity;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--interface": case "-i":
+                    for (String name : value(args, ++i, arg).split(",")) {
+                        if (!name.isEmpty()) interfaceNames.add(name);
+                    }
+                    break;
+                case "--file": case "-r":
+                    for (String name : value(args, ++i, arg).split(",")) {
+                        if (!name.isEmpty()) files.add(Paths.get(name));
+                    }
+                    break;
+                case "--realtime": replayMode = PacketCapture.ReplayMode.TIMESTAMP; break;
+                case "--filter": case "-f": filter = value(args, ++i, arg); break;
+                case "--snaplen": case "-s": snaplen = positive(value(args, ++i, arg), arg); break;
+                case "--buffer-size": case "-B": bufferSize = positive(value(args, ++i, arg), arg) << 20; break;
+                case "--immediate": immediateMode = true; break;
+                case "--timeout": timeoutMillis = positive(value(args, ++i, arg), arg); break;
+                case "--no-promisc": promiscuous = false; break;
+                case "--interval": interval = duration(value(args, ++i, arg), arg); break;
+                case "--reorder-window": reorderWindow = duration(value(args, ++i, arg), arg); break;
+                case "--flows": flowCapacity = positive(value(args, ++i, arg), arg); break;
+                case "--format": format = format(value(args, ++i, arg)); break;
+                case "--output": case "-o":
+                    String path = value(args, ++i, arg);
+                    output = path.equals("-") ? null : Paths.get(path);
+                    break;
+                default:
+                    throw new IllegalArgumentException("不明な引数です: " + arg);
+            }
+        }
+        if (interfaceNames.isEmpty() == files.isEmpty()) {
+            throw new IllegalArgumentException("--interface か --file のどちらか一方を指定してください");
+        }
+        return new CaptureConfig(interfaceNames, files, replayMode, filter, snaplen, bufferSize, immediateMode, timeoutMillis,
+                promiscuous, interval, format, output, reorderWindow, flowCapacity);
+    }
+
+    private static String value(String[] args, int i, String name) {
+        if (i >= args.length) throw new IllegalArgumentException(name + " の値がありません");
+        return args[i];
+    }
+
+    private static int positive(String text, String name) {
+        try {
+            int value = Integer.parseInt(text);
+            if (value > 0) return value;
+        } catch (NumberFormatException e) {
+            // 下でまとめて報告する
+        }
+        throw new IllegalArgumentException(name + " には正の整数を指定してください: " + text);
+    }
+
+    // "10" (秒), "500ms", "10s", "5m" を受け付ける
+    private static Duration duration(String text, String name) {
+        try {
+            Duration d;
+            if (text.endsWith("ms")) d = Duration.ofMillis(Long.parseLong(text.substring(0, text.length() - 2)));
+            else if (text.endsWith("s")) d = Duration.ofSeconds(Long.parseLong(text.substring(0, text.length() - 1)));
+            else if (text.endsWith("m")) d = Duration.ofMinutes(Long.parseLong(text.substring(0, text.length() - 1)));
+            else d = Duration.ofSeconds(Long.parseLong(text));
+            if (!d.isNegative() && !d.isZero()) return d;
+        } catch (NumberFormatException e) {
+            // 下でまとめて報告する
+        }
+        throw new IllegalArgumentException(name + " が読めません: " + text);
+    }
+
+    private static Format format(String text) {
+        switch (text.toLowerCase()) {
+            case "jsonl": case "json": return Format.JSONL;
+            case "csv": return Format.CSV;
+            default: throw new IllegalArgumentException("--format は jsonl か csv です: " + text);
+        }
+    }
+}
@@ -8,9 +8,11 @@ import javafx.scene.image.ImageView;
 
 import org.pcap4j.core.Pcaps;
 import org.pcap4j.core.PcapNetworkInterface;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.time.Duration;
 import java.time.Instant;
 
 public class CaptureController {
@@ -18,28 +20,56 @@ public class CaptureController {
     @FXML private ComboBox<String> nifComboBox;
     @FXML private Button startButton;
     @FXML private Button stopButton;
-    @FXML private TextArea logArea;
+    @FXML private ListView<String> logList;
     // UI要素をFXMLで定義したIDと一致させます
     @FXML private Label entropyLabel;
     @FXML private Label pulseRateLabel;
     @FXML private Label smugglingRateLabel;
     @FXML private Label mbpsLabel;
     @FXML private Label overheadLabel;
+    @FXML private Label rhythmLabel;
+    // 直近の推移 (血流量・パケットレートは1秒ごと、集中度は集計ごとに1点)
+    @FXML private Sparkline mbpsChart;
+    @FXML private Sparkline packetRateChart;
+    @FXML private Sparkline entropyChart;
     
     private List<PcapNetworkInterface> allDevs;
-    private PacketCapture captureTask;
+    private CaptureManager captureTask;
     private Thread captureThread;
     private ScheduledExecutorService scheduler; 
+    private volatile VitalHistory history; // 集計ごとの値を残す (開けなかったり書けなくなったら null)
+    private StateStore state; // 分析器の状態の保存先 (-Dstate.file がなければ null)
      // 体の画像表示用（将来使用予定）
-    // LogQueue（PacketCaptureとログモニターの連携に使用）
-    private final BlockingQueue<String> logQueue = new ArrayBlockingQueue<>(100);
+    // イベントチャネル（PacketCaptureとログ表示の連携に使用。書き込み側はブロックしない）
+    private final EventChannel events = new EventChannel();
+
+    // GUIの更新は RenderLoop が1フレームに1回まとめて行う (他のスレッドは置いていくだけ)
+    private static final int MAX_LOG_LINES = 2000;
+    private RenderLoop render;
+    private RenderLoop.Slot<AnalysisResult> resultSlot;
+    private RenderLoop.Slot<TrafficWindow> trafficSlot;
+
+    // 集計1回分の結果 (スケジューラーからFXスレッドへ渡す)
+    private static final class AnalysisResult {
+        final VitalSignData pulseData;
+        final FairnessStats fairness;
+        final TrafficWindow lastSecond;
+        final TrafficWindow lastMinute;
+
+        AnalysisResult(VitalSignData pulseData, FairnessStats fairness, TrafficWindow lastSecond, TrafficWindow lastMinute) {
+            this.pulseData = pulseData;
+            this.fairness = fairness;
+            this.lastSecond = lastSecond;
+            this.lastMinute = lastMinute;
+        }
+    }
 
     // FXMLロード後に自動で呼ばれる初期化メソッド
     public void initialize() {
         System.out.println("--- CaptureController: initialize() 実行開始 ---");
         // UI は常に表示できるように、デバイス列挙は非同期で行う
         stopButton.setDisable(true);
-        startLogMonitor(); // ログキューを監視するスレッドを開始
+        startRenderLoop(); // フレームごとにイベントと分析結果をまとめて表示する
 
         
         // ネットワークデバイスの検索はブロッキングになる可能性があるため別スレッドで実行
@@ -47,7 +77,7 @@ public class CaptureController {
             try {
                 List<PcapNetworkInterface> devs = Pcaps.findAllDevs();
                 if (devs == null || devs.isEmpty()) {
-                    Platform.runLater(() -> logArea.appendText("警告: ネットワークデバイスが見つかりません。Npcap/WinPcap が必要な場合があります。\n"));
+                    render.log("警告: ネットワークデバイスが見つかりません。Npcap/WinPcap が必要な場合があります。");
                 } else {
                     allDevs = devs;
                     Platform.runLater(() -> {
@@ -62,46 +92,60 @@ public class CaptureController {
                 // UIスレッドをブロックせず、ログに例外を表示する
                 e.printStackTrace();
                 String msg = "エラー: ネットワークデバイスの取得に失敗しました: " + e.getMessage();
-                Platform.runLater(() -> logArea.appendText(msg + "\n"));
+                render.log(msg);
             }
         });
 
         System.out.println("--- CaptureController: initialize() 実行完了 ---");
     }
 
-    // ログキューの内容をTextAreaに反映させるスレッド
-    private void startLogMonitor() {
-        Thread logMonitor = new Thread(() -> {
-            try {
-                while (!Thread.currentThread().isInterrupted()) {
-                    String log = logQueue.take();
-                    // GUIの更新はJavaFXのメインスレッド（Platform.runLater）で行う
-                    Platform.runLater(() -> logArea.appendText(log + "\n"));
-                }
-            } catch (InterruptedException e) {
-                // スレッド中断
-            }
+    // ログ・分析結果・チャートを1フレームに1回だけ反映する描画ループを動かす
+    private void startRenderLoop() {
+        render = new RenderLoop(logList, MAX_LOG_LINES, events);
+        resultSlot = render.slot(r -> updateGUI(r.pulseData, r.fairness, r.lastSecond, r.lastMinute));
+        trafficSlot = render.slot(w -> {
+            mbpsChart.add(w.mbps());
+            packetRateChart.add(w.packetRate());
         });
-        logMonitor.setDaemon(true);
-        logMonitor.start();
+        render.onFrame(() -> {
+            mbpsChart.redrawIfDirty();
+            packetRateChart.redrawIfDirty();
+            entropyChart.redrawIfDirty();
+        });
+        render.start();
     }
 
     @FXML
     private void startCapture() {
         if (nifComboBox.getSelectionModel().isEmpty() || allDevs.isEmpty()) {
-            logArea.appendText("エラー: デバイスを選択してください。\n");
+            render.log("エラー: デバイスを選択してください。");
             return;
         }
 
         int selectedIndex = nifComboBox.getSelectionModel().getSelectedIndex();
         PcapNetworkInterface selectedNif = allDevs.get(selectedIndex);
 
-        // ログキューを渡してPacketCaptureインスタンスを生成
-        captureTask = new PacketCapture(selectedNif, logQueue);
+        // ログキューを渡してキャプチャを生成 (複数インターフェースは CaptureManager がまとめる。GUIでは1つを選ぶ)
+        captureTask = new CaptureManager(selectedNif, events);
+        captureTask.setRecorder(PcapRecorder.fromSystemProperties(events)); // -Dcapture.record.dir があれば録画する
+        state = StateStore.fromSystemProperties(events); // -Dstate.file があれば前回の状態から始める
+        if (state != null) {
+            state.restore(captureTask);
+            state.start(captureTask);
+        }
         captureThread = new Thread(captureTask);
         captureThread.start();
         
-        logArea.appendText("✅ キャプチャを開始しました: " + selectedNif.getName() + "\n");
+        render.log("✅ キャプチャを開始しました: " + selectedNif.getName());
+        mbpsChart.clear();
+        packetRateChart.clear();
+        entropyChart.clear();
+
+        try {
+            history = new VitalHistory(VitalHistory.defaultDirectory());
+        } catch (IOException e) {
+            render.log("警告: 履歴を開けません。履歴は残しません: " + e.getMessage());
+        }
 
         startAnalysisScheduler(); // 定期分析タイマーを開始
         
@@ -115,7 +159,12 @@ public class CaptureController {
             captureTask.stopCapture();
             captureThread.interrupt();
             scheduler.shutdownNow(); // タイマーを停止
-            logArea.appendText("キャプチャと分析を停止しました。\n");
+            closeHistory();
+            if (state != null) {
+                state.close();
+                state = null;
+            }
+            render.log("キャプチャと分析を停止しました。");
             startButton.setDisable(false);
             stopButton.setDisable(true);
         }
@@ -127,36 +176,103 @@ public class CaptureController {
         // 実装されている前提でコードを記述します。
         
         scheduler = Executors.newSingleThreadScheduledExecutor();
+        SelfMetrics.Tick analysisTick = SelfMetrics.get().tick("gui-analysis", TimeUnit.SECONDS.toNanos(3));
+        SelfMetrics.Tick trafficTick = SelfMetrics.get().tick("gui-traffic", TimeUnit.SECONDS.toNanos(1));
         scheduler.scheduleAtFixedRate(() -> {
+            analysisTick.mark();
             try {
-                // 1. 脈拍・密輸率の計算と取得
-                VitalSignData pulseData = captureTask.getAggregator().calculateAndReset(Instant.now());
+                // 1. 脈拍・密輸率の計算と取得 (呼吸分析の結果も含む)
+                Instant now = captureTask.getCaptureTime();
+                VitalSignData pulseData = captureTask.calculateAndReset(now);
                 
                 // 2. 集中度の計算と取得
-                double entropy = captureTask.getFairnessCalculator().calculateFairness();
-                
-                // TODO: 呼吸分析の結果取得もここに追加
+                FairnessStats fairness = captureTask.calculateFairnessStats();
+
+                // 履歴に残す
+                recordHistory(now, pulseData, fairness);
 
-                // GUIの更新は必ず Platform.runLater で行う
-                Platform.runLater(() -> updateGUI(pulseData, entropy));
+                // 取りこぼしがあればログに出す (分析が追いついていないかどうかの目安)
+                CaptureStats capture = captureTask.takeIntervalStats();
+                if (capture.hasDrops()) {
+                    render.log(String.format("⚠️ 取りこぼし: カーネルで %d 件, インターフェースで %d 件 (%.2f%%), 分析に回せず %d 件",
+                            capture.dropped, capture.ifDropped, capture.dropRate(), capture.analysisDropped));
+                }
+
+                // 走査らしい送信元があればログに出す
+                CardinalityStats cardinality = pulseData.cardinality;
+                for (int i = 0; i < cardinality.scannerCount(); i++) {
+                    CardinalityStats.Scanner scanner = cardinality.scanner(i);
+                    render.log(String.format("🔍 走査の疑い: %s (宛先ポート 約%.0f, 宛先ホスト 約%.0f)",
+                            PacketView.formatIp(scanner.ip), scanner.dstPorts, scanner.dstHosts));
+                }
+
+                // タイマーが遅れていればログに出す (このツール自身が追いついていないかどうかの目安)
+                SelfMetrics.Snapshot self = SelfMetrics.get().endInterval();
+                if (self.count(SelfMetrics.Counter.LATE_TICKS) > 0) {
+                    render.log(String.format("⚠️ 処理の遅れ: タイマー %d 回 (最大 %.0f ms), 集計 %.1f ms", self.count(SelfMetrics.Counter.LATE_TICKS),
+                            self.max(SelfMetrics.Timer.TICK_LATENESS) / 1e6, self.max(SelfMetrics.Timer.CALCULATE) / 1e6));
+                }
+
+                // 3. 血流量は直近1秒と60秒の窓で見る (リセットしないので他の表示と取り合わない)
+                TrafficWindow lastSecond = captureTask.getTrafficWindow(Duration.ofSeconds(1));
+                TrafficWindow lastMinute = captureTask.getTrafficWindow(Duration.ofSeconds(60));
+
+                // GUIへは置いていくだけ (反映は次のフレームで1回だけ。まだ反映されていない古い結果は上書きされる)
+                resultSlot.set(new AnalysisResult(pulseData, fairness, lastSecond, lastMinute));
 
             } catch (Exception e) {
                 // スケジューラー内でのエラーはログに出力
-                Platform.runLater(() -> logArea.appendText("タイマー実行エラー: " + e.getMessage() + "\n"));
+                render.log("タイマー実行エラー: " + e.getMessage());
+            }
+        }, 0, 3, TimeUnit.SECONDS); // 3秒ごと
+
+        // チャート用に直近1秒の血流量とパケットレートを1秒ごとに取る (何もリセットしない)
+        scheduler.scheduleAtFixedRate(() -> {
+            trafficTick.mark();
+            try {
+                trafficSlot.set(captureTask.getTrafficWindow(Duration.ofSeconds(1)));
+            } catch (Exception e) {
+                render.log("タイマー実行エラー: " + e.getMessage());
             }
-        }, 0, 3, TimeUnit.SECONDS); // 60秒ごと
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    // 書けなくなったら一度だけ知らせて、それ以降は残さない
+    private void recordHistory(Instant now, VitalSignData pulseData, FairnessStats fairness) {
+        VitalHistory h = history;
+        if (h == null) return;
+        try {
+            h.record(now, pulseData, fairness);
+        } catch (IOException e) {
+            if (history != h) return; // 停止で閉じられただけ
+            closeHistory();
+            render.log("警告: 履歴に書けないため、以降は残しません: " + e.getMessage());
+        }
     }
 
-    // GUIの各ラベルを更新するメソッド
-    private void updateGUI(VitalSignData pulseData, double entropy) {
-        // 集中度の表示
-        entropyLabel.setText(String.format("%.2f", entropy));
+    private void closeHistory() {
+        VitalHistory h = history;
+        history = null;
+        if (h == null) return;
+        try {
+            h.close();
+        } catch (IOException e) {
+            System.err.println("警告: 履歴を閉じられません: " + e.getMessage());
+        }
+    }
+
+    // GUIの各ラベルを更新するメソッド (RenderLoop からFXスレッドで1フレームに1回だけ呼ばれる)
+    private void updateGUI(VitalSignData pulseData, FairnessStats fairness, TrafficWindow lastSecond, TrafficWindow lastMinute) {
+        // 集中度の表示 (スケッチで見積もった場合は範囲も出す)
+        entropyLabel.setText(fairness.exact ? String.format("%.2f", fairness.entropy)
+                : String.format("%.2f (%.2f〜%.2f)", fairness.entropy, fairness.entropyLower, fairness.entropyUpper));
+        entropyChart.add(fairness.entropy);
         
         // 密輸率の表示
         smugglingRateLabel.setText(String.format("%.2f%%", pulseData.smugglingRate));
         //mbpsの表示
         if (mbpsLabel != null) {
-        mbpsLabel.setText(String.format("%.2f Mbps", pulseData.mbps));
+        mbpsLabel.setText(String.format("%.2f Mbps (60秒平均 %.2f)", lastSecond.mbps(), lastMinute.mbps()));
         }
         //オーバーヘッドの表示
         if(overheadLabel != null){
@@ -164,12 +280,32 @@ public class CaptureController {
         }
 
         // 脈拍の表示 (例: 最もパケット数が多いポートのレートを表示)
-        pulseData.pulseRates.entrySet().stream()
-            .max(Map.Entry.comparingByValue())
-            .ifPresentOrElse(
-                entry -> pulseRateLabel.setText(String.format("Port %d: %.2f pkt/s", entry.getKey(), entry.getValue())),
-                () -> pulseRateLabel.setText("データなし")
-            );
+        PortStats ports = pulseData.portStats;
+        int[] top = ports.topByPackets(1);
+        if (top.length > 0) {
+            int i = top[0];
+            pulseRateLabel.setText(String.format("Port %d: %.2f pkt/s (%.1f kB/s)", ports.port(i), ports.packetRate(i), ports.byteRate(i) / 1000.0));
+        } else {
+            pulseRateLabel.setText("データなし");
+        }
+
+        // 体温の警告はログ欄に出す
+        PortAnomalies anomalies = pulseData.anomalies;
+        for (int i = 0; i < anomalies.size(); i++) {
+            render.log(String.format("🔥 警告 (体温): Port %d が異常 (%.2f) %.2f pkt/s (平常 %.2f ± %.2f)",
+                    anomalies.port(i), anomalies.score(i), anomalies.rate(i), anomalies.expected(i), anomalies.stdDev(i)));
+        }
+
+        // 呼吸の表示 (直近10秒の平均IATとジッタ)
+        if (rhythmLabel != null) {
+            RhythmWindow w = pulseData.rhythm.window(RhythmStats.SECOND_10);
+            if (w.count > 0) {
+                rhythmLabel.setText(String.format("IAT %.2f ms ±%.2f / ジッタ p99 %.2f ms%s",
+                        w.meanMillis(), w.stdDevMillis(), w.jitterP99Nanos / 1_000_000.0, w.isStable() ? " 🟢" : ""));
+            } else {
+                rhythmLabel.setText("データなし");
+            }
+        }
             
     }
     
@@ -0,0 +1,308 @@
+package com.example;
+
+import org.pcap4j.core.PcapNetworkInterface;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 複数のインターフェース (再生では複数の pcap ファイル) を同時にキャプチャし、1つの分析パイプラインで分析する
+ * - キャプチャはインターフェースごとのスレッドで行い、それぞれ自分のリングに置く (遅いインターフェースが他を止めない)
+ * - このスレッドが各リングの先頭をタイムスタンプの小さい順に取り出して (k-way マージ) パイプラインに渡す
+ * - ライブでは、パケットの来ていないインターフェースを待つのは reorderWindow まで。それより遅れて届いたものは順番を守らずに渡し、数える
+ * - 再生ではファイルを読む側が追いつくのを待つので、順番は正確になる
+ * キャプチャが1つだけなら並べ替えはせず、このスレッドでそのままキャプチャする
+ */
+public class CaptureManager implements Runnable {
+    public static final Duration DEFAULT_REORDER_WINDOW = Duration.ofMillis(20);
+    private static final int MERGE_RING_CAPACITY = 4096;
+
+    private final PacketCapture[] sources;
+    private final AnalysisPipeline pipeline;
+    private final EventChannel events;
+    private final boolean replay;
+    private final PacketCapture.ReplayMode replayMode;
+    private final long reorderWindowNanos;
+    private volatile boolean running = true;
+    private volatile boolean finished = false;
+    private PcapRecorder recorder;
+
+    // 並べ替えの状態 (このスレッドだけが書く)
+    private final AtomicLongArray latePackets; // キャプチャごとの、順番を守れなかったパケット数 (lazySet で公開する)
+    private volatile long mergedClockNanos = 0; // 渡したパケットの最大のタイムスタンプ
+
+    private CaptureStats takenStats = CaptureStats.EMPTY;          // takeIntervalStats で前回渡した累計
+    private InterfaceStats takenInterfaces;                        // takeInterfaceStats で前回渡した累計
+
+    /**
+     * config.files があればそれらを再生し、なければ nifs をキャプチャする
+     */
+    public CaptureManager(CaptureConfig config, List<PcapNetworkInterface> nifs, EventChannel events) {
+        this.events = events;
+        this.replay = config.isReplay();
+        this.replayMode = config.replayMode;
+        this.reorderWindowNanos = config.reorderWindow.toNanos();
+        this.pipeline = new AnalysisPipeline(AnalysisPipeline.defaultShardCount(), config.snaplen,
+                config.flowCapacity, events);
+        int count = replay ? config.files.size() : nifs.size();
+        if (count == 0) throw new IllegalArgumentException("キャプチャするインターフェースかファイルがありません");
+        sources = new PacketCapture[count];
+        for (int i = 0; i < count; i++) {
+            PacketRing ring = (count > 1) ? new PacketRing(MERGE_RING_CAPACITY) : null;
+            sources[i] = replay
+                    ? new PacketCapture(config, null, config.files.get(i).toFile(), pipeline, ring, events)
+                    : new PacketCapture(config, nifs.get(i), null, pipeline, ring, events);
+        }
+        latePackets = new AtomicLongArray(count);
+        takenInterfaces = emptyInterfaceStats();
+    }
+
+    public CaptureManager(PcapNetworkInterface nif, EventChannel events) {
+        this(CaptureConfig.DEFAULT, Collections.singletonList(nif), events);
+    }
+
+    // 保存済みの pcap/pcapng ファイルを同じ分析パイプラインに流す
+    public CaptureManager(List<File> files, PacketCapture.ReplayMode replayMode, EventChannel events) {
+        this(CaptureConfig.DEFAULT.withReplay(toPaths(files), replayMode), Collections.emptyList(), events);
+    }
+
+    private static List<Path> toPaths(List<File> files) {
+        List<Path> paths = new ArrayList<>(files.size());
+        for (File file : files) paths.add(file.toPath());
+        return paths;
+    }
+
+    // ✅ Main.java / CaptureController からの集計呼び出し (全シャードの結果をまとめて返す)
+    public VitalSignData calculateAndReset(Instant currentTime) { return pipeline.calculateAndReset(currentTime); }
+    public double calculateFairness() { return pipeline.calculateFairness(); }
+    public FairnessStats calculateFairnessStats() { return pipeline.calculateFairnessStats(); }
+    public AnalysisPipeline getPipeline() { return pipeline; }
+
+    // 分析器の状態の保存と復元 (StateStore から。復元は run の前、再生では時刻に結びついた状態を戻さない)
+    void writeState(DataOutputStream out) throws IOException { pipeline.writeState(out); }
+    boolean restoreState(int tag, ByteBuffer in) { return pipeline.restoreState(tag, in, !replay); }
+
+    // 録画しているキャプチャの録画係 (録画しないか、開けなかったなら null)
+    public PcapRecorder getRecorder() { return (recorder != null) ? sources[0].getRecorder() : null; }
+
+    /**
+     * 録画係を付ける (run の前に呼ぶ)
+     * 1つの pcap にはリンク種別が1つしか書けないので、録画するのは最初のキャプチャだけ
+     */
+    public void setRecorder(PcapRecorder recorder) {
+        this.recorder = recorder;
+        pipeline.setRecorder(recorder);
+        sources[0].setRecorder(recorder);
+    }
+
+    // 直近 window の通信量とレート (1秒・10秒・60秒など。キャプチャ時刻を基準にし、何もリセットしない)
+    public TrafficWindow getTrafficWindow(Duration window) {
+        Instant now = getCaptureTime();
+        return pipeline.trafficWindow(now.getEpochSecond() * 1_000_000_000L + now.getNano(), window.toNanos());
+    }
+
+    public boolean isReplay() { return replay; }
+    public int getSourceCount() { return sources.length; }
+
+    // 再生が最後まで終わったか (ライブキャプチャでは停止後にtrue)
+    public boolean isFinished() { return finished; }
+
+    // 集計タイマーが使う時刻。再生中は最後に分析に回したパケットのタイムスタンプを返す
+    public Instant getCaptureTime() {
+        if (replay) {
+            long nanos = (sources.length == 1) ? sources[0].getCaptureClockNanos() : mergedClockNanos;
+            return Instant.ofEpochSecond(0, nanos);
+        }
+        return Instant.now();
+    }
+
+    // 全キャプチャを合わせた取りこぼしの累計 (analysisDropped は並べ替え用とシャードのリングで捨てた数の合計)
+    public CaptureStats getCaptureStats() {
+        long received = 0, dropped = 0, ifDropped = 0, analysisDropped = pipeline.getDroppedPackets();
+        for (PacketCapture source : sources) {
+            CaptureStats s = source.getCaptureStats();
+            received += s.received;
+            dropped += s.dropped;
+            ifDropped += s.ifDropped;
+            analysisDropped += s.analysisDropped;
+        }
+        return new CaptureStats(received, dropped, ifDropped, analysisDropped);
+    }
+
+    // 前回呼んだときからの取りこぼし (集計タイマーから呼ぶ)
+    public synchronized CaptureStats takeIntervalStats() {
+        CaptureStats now = getCaptureStats();
+        CaptureStats interval = now.minus(takenStats);
+        takenStats = now;
+        return interval;
+    }
+
+    // キャプチャごとの件数の累計
+    public InterfaceStats getInterfaceStats() {
+        int n = sources.length;
+        String[] names = new String[n];
+        long[] packets = new long[n];
+        long[] bytes = new long[n];
+        long[] late = new long[n];
+        CaptureStats[] capture = new CaptureStats[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = sources[i].getName();
+            packets[i] = sources[i].getPackets();
+            bytes[i] = sources[i].getBytes();
+            late[i] = latePackets.get(i);
+            capture[i] = sources[i].getCaptureStats();
+        }
+        return new InterfaceStats(names, packets, bytes, late, capture);
+    }
+
+    // 前回呼んだときからのキャプチャごとの件数 (集計タイマーから呼ぶ)
+    public synchronized InterfaceStats takeInterfaceStats() {
+        InterfaceStats now = getInterfaceStats();
+        InterfaceStats interval = now.minus(takenInterfaces);
+        takenInterfaces = now;
+        return interval;
+    }
+
+    private InterfaceStats emptyInterfaceStats() {
+        int n = sources.length;
+        String[] names = new String[n];
+        CaptureStats[] capture = new CaptureStats[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = sources[i].getName();
+            capture[i] = CaptureStats.EMPTY;
+        }
+        return new InterfaceStats(names, new long[n], new long[n], new long[n], capture);
+    }
+
+    public void stopCapture() {
+        running = false;
+        pipeline.stop(); // 再生でリングの空きを待っていても抜けさせる
+        for (PacketCapture source : sources) {
+            source.stopCapture();
+        }
+    }
+
+    @Override
+    public void run() {
+        pipeline.start();
+        long wallStart = System.nanoTime();
+        try {
+            if (sources.length == 1) {
+                sources[0].run();
+            } else {
+                if (recorder != null) {
+                    events.message("⚠️ 録画は最初のキャプチャ (" + sources[0].getName() + ") だけです");
+                }
+                Thread[] threads = new Thread[sources.length];
+                for (int i = 0; i < sources.length; i++) {
+                    threads[i] = new Thread(sources[i], "capture-" + sources[i].getName());
+                    threads[i].setDaemon(true);
+                    threads[i].start();
+                }
+                merge();
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            }
+        } catch (InterruptedException e) {
+            stopCapture();
+            Thread.currentThread().interrupt();
+        } finally {
+            pipeline.finish(); // シャードに残ったパケットの分析が終わるまでを処理時間に含める
+            finished = true;
+        }
+        if (replay) {
+            long packets = 0;
+            for (PacketCapture source : sources) packets += source.getPackets();
+            double elapsedSeconds = (System.nanoTime() - wallStart) / 1_000_000_000.0;
+            double packetsPerSecond = (elapsedSeconds > 0) ? packets / elapsedSeconds : 0.0;
+            events.message("⏹ 再生が完了しました: " + packets + " パケット, "
+                    + String.format("%.1f 秒, %.0f pkt/s", elapsedSeconds, packetsPerSecond));
+        }
+    }
+
+    // 全キャプチャが終わってリングが空になるまで、タイムスタンプの小さい順にパイプラインへ渡す
+    private void merge() throws InterruptedException {
+        boolean paced = replay && replayMode == PacketCapture.ReplayMode.TIMESTAMP;
+        long wallStart = 0;
+        long firstTimestamp = Long.MIN_VALUE;
+        long lastEmitted = Long.MIN_VALUE;
+        int idle = 0;
+        while (true) {
+            int best = -1;
+            long bestTimestamp = Long.MAX_VALUE;
+            long newestTimestamp = Long.MIN_VALUE;
+            boolean waiting = false; // まだ先頭より前のパケットを出すかもしれないキャプチャがある
+            for (int i = 0; i < sources.length; i++) {
+                boolean done = sources[i].isFinished(); // 先に見ておく (見た後に置かれた最後のパケットを取りこぼさない)
+                PacketView head = sources[i].getMergeRing().peek();
+                if (head == null) {
+                    if (!done) waiting = true;
+                    continue;
+                }
+                long timestamp = head.timestampNanos();
+                if (timestamp < bestTimestamp) {
+                    best = i;
+                    bestTimestamp = timestamp;
+                }
+                newestTimestamp = Math.max(newestTimestamp, timestamp);
+            }
+            if (best < 0) {
+                if (!waiting) return;
+                idle = idle(idle);
+                continue;
+            }
+            if (waiting && running && (replay || bestTimestamp > watermark(newestTimestamp))) {
+                idle = idle(idle);
+                continue;
+            }
+            idle = 0;
+
+            if (bestTimestamp < lastEmitted) {
+                latePackets.lazySet(best, latePackets.get(best) + 1);
+            } else {
+                lastEmitted = bestTimestamp;
+                mergedClockNanos = bestTimestamp;
+            }
+            if (paced) {
+                if (firstTimestamp == Long.MIN_VALUE) {
+                    firstTimestamp = bestTimestamp;
+                    wallStart = System.nanoTime();
+                }
+                PacketCapture.waitUntil(wallStart, bestTimestamp - firstTimestamp);
+            }
+            PacketRing ring = sources[best].getMergeRing();
+            pipeline.dispatch(ring.peek(), replay);
+            ring.advance();
+        }
+    }
+
+    // ライブ: これより古い先頭は、来ていないキャプチャを待たずに渡す (壁時計か一番新しい先頭の reorderWindow 前)
+    private long watermark(long newestTimestamp) {
+        Instant now = Instant.now();
+        long nowNanos = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+        return Math.max(newestTimestamp, nowNanos) - reorderWindowNanos;
+    }
+
+    // 空のときはしばらくスピンし、それでも来なければ少し眠る
+    private int idle(int idle) {
+        if (idle < 100) {
+            Thread.onSpinWait();
+        } else if (idle < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+        return idle + 1;
+    }
+}
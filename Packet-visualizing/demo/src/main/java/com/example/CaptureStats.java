@@ -0,0 +1,36 @@
+package com.example;
+
+/**
+ * キャプチャの取りこぼし状況 (読み取り専用)
+ * received / dropped / ifDropped は libpcap の PcapStat (カーネル側)、analysisDropped は分析シャードに渡せなかった数
+ * 累計の値どうしの差 (minus) で、集計期間ごとの値にする
+ */
+public class CaptureStats {
+    public static final CaptureStats EMPTY = new CaptureStats(0, 0, 0, 0);
+
+    public final long received;        // カーネルが受け取ったパケット数
+    public final long dropped;         // バッファが満杯でカーネルが捨てた数 (読み出しが追いついていない)
+    public final long ifDropped;       // インターフェース (ドライバ) で捨てられた数
+    public final long analysisDropped; // シャードのリングが満杯で分析に回せなかった数
+
+    public CaptureStats(long received, long dropped, long ifDropped, long analysisDropped) {
+        this.received = received;
+        this.dropped = dropped;
+        this.ifDropped = ifDropped;
+        this.analysisDropped = analysisDropped;
+    }
+
+    // earlier からの増分 (カウンタが戻った場合は0とする)
+    public CaptureStats minus(CaptureStats earlier) {
+        return new CaptureStats(Math.max(0, received - earlier.received), Math.max(0, dropped - earlier.dropped),
+                Math.max(0, ifDropped - earlier.ifDropped), Math.max(0, analysisDropped - earlier.analysisDropped));
+    }
+
+    // カーネルで捨てられた割合 (%)
+    public double dropRate() {
+        long total = received + ifDropped;
+        return (total > 0) ? (double) (dropped + ifDropped) / total * 100.0 : 0.0;
+    }
+
+    public boolean hasDrops() { return dropped > 0 || ifDropped > 0 || analysisDropped > 0; }
+}
@@ -0,0 +1,199 @@
+package com.example;
+
+import java.time.Instant;
+
+/**
+ * 異なり数 (送信元IP・宛先IP・宛先ポート) と送信元ごとの広がりの集計
+ * - 期間ごとに HyperLogLog (2^PRECISION バイト、誤差およそ1.6%) で数える
+ * - 送信元ごとの広がりは FanOutTable で数え、閾値 (-Dscan.ports / -Dscan.hosts、既定100) を超えた送信元を走査として返す
+ * - まとめる側は、期間のスケッチを分ごと (60個) と時間ごと (24個) のリングに足し込み、長い窓は足し合わせるだけで求める
+ * シャードごとに aggregate で数え、タイマーで mergeFrom してから calculateAndReset する
+ * 書き込み中のウィンドウはシャードのスレッドだけが触り、入れ替えは requestWindow / serve で頼む (FairnessCalculator と同じ入れ替え方)
+ */
+public class CardinalityCounter {
+    private static final int PRECISION = 12;
+    private static final int FAN_OUT_CAPACITY = 2048;
+    private static final int SCANNERS = 10; // 結果に載せる走査元の数
+    private static final double PORT_SCAN_THRESHOLD = Integer.getInteger("scan.ports", 100);
+    private static final double HOST_SWEEP_THRESHOLD = Integer.getInteger("scan.hosts", 100);
+    private static final int MINUTES = 60;
+    private static final int HOURS = 24;
+
+    // 1回の集計期間分の状態
+    private static final class Window {
+        private final HyperLogLog sources = new HyperLogLog(PRECISION);
+        private final HyperLogLog destinations = new HyperLogLog(PRECISION);
+        private final HyperLogLog dstPorts = new HyperLogLog(PRECISION);
+        private final FanOutTable fanOut = new FanOutTable(FAN_OUT_CAPACITY);
+
+        private void add(PacketView packet) {
+            sources.add(packet.srcAddress());
+            destinations.add(packet.dstAddress());
+            if (packet.isTcp()) {
+                dstPorts.add(packet.dstPort());
+                // 接続の試み (SYN だけ) を送信元の広がりとして数える
+                if (packet.hasFlag(PacketView.TCP_SYN) && !packet.hasFlag(PacketView.TCP_ACK)) {
+                    fanOut.add(packet.srcAddress(), packet.srcIp(), packet.dstAddress(), packet.dstPort(), 1);
+                }
+            } else if (packet.isUdp()) {
+                dstPorts.add(packet.dstPort());
+                // 応答 (サービス側のポートから大きいポートへ) は数えない
+                if (packet.dstPort() <= packet.srcPort()) {
+                    fanOut.add(packet.srcAddress(), packet.srcIp(), packet.dstAddress(), packet.dstPort(), 1);
+                }
+            }
+        }
+
+        private void mergeFrom(Window other) {
+            sources.mergeFrom(other.sources);
+            destinations.mergeFrom(other.destinations);
+            dstPorts.mergeFrom(other.dstPorts);
+            fanOut.mergeFrom(other.fanOut);
+        }
+
+        private void reset() {
+            sources.reset();
+            destinations.reset();
+            dstPorts.reset();
+            fanOut.reset();
+        }
+    }
+
+    // 長い窓のための、分ごと・時間ごとにまとめたスケッチ (集計側だけが触る。最初の calculateAndReset で作る)
+    private static final class Bucket {
+        private long id = Long.MIN_VALUE; // エポックからの分 (時間) の番号
+        private final HyperLogLog sources = new HyperLogLog(PRECISION);
+        private final HyperLogLog destinations = new HyperLogLog(PRECISION);
+        private final HyperLogLog dstPorts = new HyperLogLog(PRECISION);
+
+        private void add(long id, Window window) {
+            if (this.id != id) {
+                this.id = id;
+                sources.reset();
+                destinations.reset();
+                dstPorts.reset();
+            }
+            sources.mergeFrom(window.sources);
+            destinations.mergeFrom(window.destinations);
+            dstPorts.mergeFrom(window.dstPorts);
+        }
+    }
+
+    private Window current = new Window(); // 書き込み中のウィンドウ (書き込み側のスレッドだけが触る)
+    private Window spare = new Window();   // 次の入れ替えで使う空のウィンドウ (集計側が返す)
+    private final Handoff<Window> handoff = new Handoff<>(this::swap);
+    private boolean waiting = false; // 入れ替えを頼んでまだ受け取っていない (集計側だけが触る)
+
+    private Bucket[] minutes;
+    private Bucket[] hours;
+    private Bucket union;
+
+    // デコード済みパケットを数える (シャードのスレッドから呼ぶ)
+    public void aggregate(PacketView packet) {
+        current.add(packet);
+    }
+
+    // 書き込み側のスレッドが処理の合間に呼ぶ (頼まれていれば入れ替える)
+    void serve() {
+        handoff.serve();
+    }
+
+    // 集計側: 書き込み中のウィンドウの入れ替えを頼む (前回受け取れなかった分があれば、それを待つ)
+    void requestWindow() {
+        if (waiting) return;
+        waiting = true;
+        handoff.request();
+    }
+
+    // 別のシャードで集計した値をこちらに移す (移した側はリセットされる)。other の書き込み側が呼んだスレッドか、止まっているときに使う
+    public void mergeFrom(CardinalityCounter other) {
+        other.requestWindow();
+        mergeFrom(other, null, 0);
+    }
+
+    /**
+     * requestWindow で頼んだ入れ替えを待ち、それまでのウィンドウをこちらに移す (移した側はリセットされる)
+     * @param owner other に書き込むスレッド (まだ決まっていなければ null)
+     * @return 時間内に入れ替わらなければ false (頼んだままにしておき、次に受け取る)
+     */
+    boolean mergeFrom(CardinalityCounter other, Thread owner, long timeoutNanos) {
+        Window filled = other.handoff.await(owner, timeoutNanos);
+        if (filled == null) return false;
+        other.waiting = false;
+        current.mergeFrom(filled);
+        filled.reset();
+        other.spare = filled;
+        return true;
+    }
+
+    /**
+     * 期間の異なり数と走査元を求めてリセットする (期間のスケッチは長い窓のリングに足し込む)
+     * @param currentTime 期間の終わり (キャプチャ上の時刻)。分・時間の区切りに使う
+     * 書き込み側と同じスレッドで呼ぶ
+     */
+    public CardinalityStats calculateAndReset(Instant currentTime) {
+        Window window = swap();
+        if (minutes == null) {
+            minutes = newBuckets(MINUTES);
+            hours = newBuckets(HOURS);
+            union = new Bucket();
+        }
+        long minute = Math.floorDiv(currentTime.getEpochSecond(), 60);
+        long hour = Math.floorDiv(minute, 60);
+        minutes[Math.floorMod(minute, MINUTES)].add(minute, window);
+        hours[Math.floorMod(hour, HOURS)].add(hour, window);
+
+        int w = CardinalityStats.WINDOW_MINUTES.length;
+        double[] windowSources = new double[w];
+        double[] windowDestinations = new double[w];
+        double[] windowDstPorts = new double[w];
+        for (int i = 0; i < w; i++) {
+            int span = CardinalityStats.WINDOW_MINUTES[i];
+            if (span <= MINUTES) {
+                unionOf(minutes, minute, span);
+            } else {
+                unionOf(hours, hour, Math.min(HOURS, span / 60));
+            }
+            windowSources[i] = union.sources.estimate();
+            windowDestinations[i] = union.destinations.estimate();
+            windowDstPorts[i] = union.dstPorts.estimate();
+        }
+
+        CardinalityStats stats = new CardinalityStats(window.sources.estimate(), window.destinations.estimate(),
+                window.dstPorts.estimate(), HyperLogLog.relativeError(PRECISION),
+                windowSources, windowDestinations, windowDstPorts, window.fanOut.size(), window.fanOut.getEvictions(),
+                window.fanOut.scanners(PORT_SCAN_THRESHOLD, HOST_SWEEP_THRESHOLD, SCANNERS));
+        window.reset();
+        spare = window;
+        return stats;
+    }
+
+    // id から数えて直近 count 個のバケットを union に足し合わせる
+    private void unionOf(Bucket[] ring, long id, int count) {
+        union.sources.reset();
+        union.destinations.reset();
+        union.dstPorts.reset();
+        for (Bucket b : ring) {
+            if (b.id <= id - count || b.id > id) continue;
+            union.sources.mergeFrom(b.sources);
+            union.destinations.mergeFrom(b.destinations);
+            union.dstPorts.mergeFrom(b.dstPorts);
+        }
+    }
+
+    private static Bucket[] newBuckets(int n) {
+        Bucket[] buckets = new Bucket[n];
+        for (int i = 0; i < n; i++) {
+            buckets[i] = new Bucket();
+        }
+        return buckets;
+    }
+
+    // 書き込み中のウィンドウを空のものと入れ替え、それまでのウィンドウを返す (書き込み側のスレッドで呼ぶ)
+    private Window swap() {
+        Window filled = current;
+        current = (spare != null) ? spare : new Window(); // 前回の受け取りが遅れて、まだ返ってきていない
+        spare = null;
+        return filled;
+    }
+}
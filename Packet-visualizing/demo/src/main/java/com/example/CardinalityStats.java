@@ -0,0 +1,73 @@
+package com.example;
+
+/**
+ * 異なり数 (送信元IP・宛先IP・宛先ポート) の見積もりと、走査らしい送信元 (読み取り専用)
+ * 期間の値に加えて、過去の期間をまとめた長い窓 (WINDOW_MINUTES) の値も持つ
+ * 見積もりの誤差は relativeError (相対標準誤差) 程度
+ */
+public class CardinalityStats {
+    public static final int[] WINDOW_MINUTES = {10, 60, 1440};
+    public static final CardinalityStats EMPTY = new CardinalityStats(0, 0, 0, 0,
+            new double[WINDOW_MINUTES.length], new double[WINDOW_MINUTES.length], new double[WINDOW_MINUTES.length],
+            0, 0, new Scanner[0]);
+
+    /**
+     * 1つの期間に多くの宛先ポート (縦の走査) か多くの宛先ホスト (横の走査) に向けて接続を試みた送信元
+     * 数えるのは TCP の SYN (ACKなし) と、サービス側 (小さい方) のポートへ向かう UDP だけ
+     */
+    public static final class Scanner {
+        public final int ip;          // 送信元 (PacketView.formatIp で表示する)
+        public final double dstPorts; // 宛先ポートの異なり数 (見積もり)
+        public final double dstHosts; // 宛先ホストの異なり数 (見積もり)
+        public final long packets;
+        public final boolean portScan;  // 宛先ポートが閾値以上
+        public final boolean hostSweep; // 宛先ホストが閾値以上
+
+        Scanner(int ip, double dstPorts, double dstHosts, long packets, boolean portScan, boolean hostSweep) {
+            this.ip = ip;
+            this.dstPorts = dstPorts;
+            this.dstHosts = dstHosts;
+            this.packets = packets;
+            this.portScan = portScan;
+            this.hostSweep = hostSweep;
+        }
+
+        double spread() { return Math.max(dstPorts, dstHosts); }
+    }
+
+    public final double sources;      // 期間中の送信元IPの異なり数
+    public final double destinations; // 期間中の宛先IPの異なり数
+    public final double dstPorts;     // 期間中の宛先ポートの異なり数 (TCP/UDP)
+    public final double relativeError;
+    public final long fanOutSources;   // 広がりを数えた送信元の数
+    public final long fanOutEvictions; // 表が満杯で追い出した送信元の数
+
+    private final double[] windowSources;
+    private final double[] windowDestinations;
+    private final double[] windowDstPorts;
+    private final Scanner[] scanners;
+
+    CardinalityStats(double sources, double destinations, double dstPorts, double relativeError,
+                     double[] windowSources, double[] windowDestinations, double[] windowDstPorts,
+                     long fanOutSources, long fanOutEvictions, Scanner[] scanners) {
+        this.sources = sources;
+        this.destinations = destinations;
+        this.dstPorts = dstPorts;
+        this.relativeError = relativeError;
+        this.windowSources = windowSources;
+        this.windowDestinations = windowDestinations;
+        this.windowDstPorts = windowDstPorts;
+        this.fanOutSources = fanOutSources;
+        this.fanOutEvictions = fanOutEvictions;
+        this.scanners = scanners;
+    }
+
+    // 直近 WINDOW_MINUTES[w] 分の異なり数 (集計した期間のぶんだけ。分・時間の区切りで丸める)
+    public double windowSources(int w) { return windowSources[w]; }
+    public double windowDestinations(int w) { return windowDestinations[w]; }
+    public double windowDstPorts(int w) { return windowDstPorts[w]; }
+
+    // 走査らしい送信元 (広がりの大きい順、添字 i は 0〜scannerCount()-1)
+    public int scannerCount() { return scanners.length; }
+    public Scanner scanner(int i) { return scanners[i]; }
+}
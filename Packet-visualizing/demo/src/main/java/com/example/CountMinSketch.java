@@ -0,0 +1,62 @@
+package com.example;
+
+import java.util.Arrays;
+
+/**
+ * Count-Min スケッチ (int のキーごとの重みの合計を、固定メモリで多めに見積もる)
+ * 見積もりは真の値以上で、確率 1 - e^-DEPTH (約98%) で真の値 + (e / WIDTH) × 合計 以下に収まる
+ * ハッシュは固定なので、同じ大きさのスケッチどうしは足し合わせられる (1つのスレッドから使う)
+ */
+class CountMinSketch {
+    static final int DEPTH = 4;
+    private static final int WIDTH_BITS = 11;
+    static final int WIDTH = 1 << WIDTH_BITS; // 2048列 × 4行 = 64KB
+    private static final long[] ROW_SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+    private final long[] counts = new long[DEPTH * WIDTH];
+    private long total = 0;
+
+    public void add(int key, long weight) {
+        long h = LinearCounter.mix(key);
+        for (int row = 0; row < DEPTH; row++) {
+            counts[row * WIDTH + column(h, row)] += weight;
+        }
+        total += weight;
+    }
+
+    // キーの重みの見積もり (真の値以上)
+    public long estimate(int key) {
+        long h = LinearCounter.mix(key);
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, counts[row * WIDTH + column(h, row)]);
+        }
+        return min;
+    }
+
+    // 見積もりが真の値を上回る幅の上限 (確率 1 - e^-DEPTH で成り立つ)
+    public long errorBound() {
+        return (long) Math.ceil(Math.E / WIDTH * total);
+    }
+
+    public long getTotal() { return total; }
+
+    public void mergeFrom(CountMinSketch other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+    }
+
+    public void reset() {
+        if (total == 0) return;
+        Arrays.fill(counts, 0);
+        total = 0;
+    }
+
+    private static int column(long h, int row) {
+        long x = (h ^ (h >>> 29)) * ROW_SEEDS[row];
+        return (int) (x >>> (64 - WIDTH_BITS));
+    }
+}
@@ -0,0 +1,185 @@
+package com.example;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * キャプチャ/分析スレッドから表示側 (GUI・コンソール) へイベントを渡すチャネル
+ * - 書き込み側は決してブロックしない。満杯なら捨てて件数を数える
+ * - 同じ種類・同じ送信元のイベントはまとめて数え、1秒に1行だけ「×件数」付きで表示する
+ * - 表示側は drainTo でたまった分を1回でまとめて取り出す (1フレームに1回などを想定)
+ */
+public class EventChannel {
+    private static final int TABLE_CAPACITY = 4096; // 2のべき乗
+    private static final int MAX_PROBES = 16;
+    private static final int MAX_MESSAGES = 1000;
+    private static final long COALESCE_NANOS = 1_000_000_000L; // 同じイベントは1秒に1行まで
+    private static final long RETIRE_GRACE_NANOS = 1_000_000_000L;
+    private static final long PENDING_EXPIRE_NANOS = 10_000_000_000L;
+    private static final int MAX_LINES_PER_DRAIN = 200;
+    private static final EventType[] TYPES = EventType.values();
+
+    // (種類, 送信元IP) ごとの件数を数える表。書き込み側はCASでキーを登録し、件数をアトミックに足す
+    private static final class Table {
+        private final AtomicLongArray keys = new AtomicLongArray(TABLE_CAPACITY);
+        private final AtomicLongArray counts = new AtomicLongArray(TABLE_CAPACITY);
+        private final AtomicLongArray details = new AtomicLongArray(TABLE_CAPACITY);
+        private final AtomicInteger used = new AtomicInteger();
+
+        private void wipe() {
+            for (int i = 0; i < TABLE_CAPACITY; i++) {
+                keys.set(i, 0);
+                counts.set(i, 0);
+                details.set(i, 0);
+            }
+            used.set(0);
+        }
+    }
+
+    // 表示側で保持する、まだ表示していない件数
+    private static final class Pending {
+        private long count;
+        private long detail;
+        private long lastEmitNanos = Long.MIN_VALUE;
+    }
+
+    private volatile Table current = new Table();
+    // ここから下は表示側 (drainTo を呼ぶ1つのスレッド) だけが触る
+    private Table spare = new Table();
+    private Table retiring = null;
+    private long retiredAtNanos = 0;
+    private final Map<Long, Pending> pending = new HashMap<>();
+    private long reportedDrops = 0;
+
+    // 通常の文字列メッセージ (開始・停止・エラーなど頻度の低いもの)
+    private final ConcurrentLinkedQueue<String> messages = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger messageCount = new AtomicInteger();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * ホットパスから呼ばれる。文字列は作らず、数値だけを記録する
+     * @param detail イベントの種類ごとの付加情報 (EventType を参照)
+     */
+    public void publish(EventType type, int srcIp, long detail) {
+        Table table = current;
+        long key = (1L << 62) | ((long) type.ordinal() << 32) | (srcIp & 0xffffffffL);
+        int slot = mix(key) & (TABLE_CAPACITY - 1);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            long existing = table.keys.get(slot);
+            if (existing == 0) {
+                if (!table.keys.compareAndSet(slot, 0, key)) {
+                    probe--; // 他のスレッドが先に登録したので同じ場所を見直す
+                    continue;
+                }
+                table.used.incrementAndGet();
+                existing = key;
+            }
+            if (existing == key) {
+                table.details.set(slot, detail);
+                table.counts.incrementAndGet(slot);
+                return;
+            }
+            slot = (slot + 1) & (TABLE_CAPACITY - 1);
+        }
+        dropped.incrementAndGet();
+    }
+
+    // 頻度の低いメッセージ用 (キャプチャ開始やエラーなど)。上限を超えたら捨てて数える
+    public void message(String text) {
+        if (messageCount.incrementAndGet() > MAX_MESSAGES) {
+            messageCount.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        messages.offer(text);
+    }
+
+    // 捨てたイベントの累計
+    public long getDroppedEvents() { return dropped.get(); }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * たまったイベントを整形して out に1行ずつ追加する (表示側の1つのスレッドから呼ぶ)
+     * @return 追加した行数
+     */
+    public int drainTo(StringBuilder out, long nowNanos) {
+        int lines = 0;
+
+        String text;
+        while (lines < MAX_LINES_PER_DRAIN && (text = messages.poll()) != null) {
+            messageCount.decrementAndGet();
+            out.append(text).append('\n');
+            lines++;
+        }
+
+        if (retiring != null) {
+            collect(retiring);
+            if (nowNanos - retiredAtNanos >= RETIRE_GRACE_NANOS) {
+                // 入れ替えから十分時間がたったので、次の入れ替え用に空にしておく
+                retiring.wipe();
+                spare = retiring;
+                retiring = null;
+            }
+        }
+        Table table = current;
+        collect(table);
+        // 種類と送信元の組み合わせで表が埋まってきたら、空の表に入れ替える
+        if (retiring == null && table.used.get() > TABLE_CAPACITY / 2) {
+            current = spare;
+            spare = null;
+            retiring = table;
+            retiredAtNanos = nowNanos;
+        }
+
+        Iterator<Map.Entry<Long, Pending>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Pending> entry = it.next();
+            Pending p = entry.getValue();
+            if (p.count == 0) {
+                if (nowNanos - p.lastEmitNanos >= PENDING_EXPIRE_NANOS) it.remove();
+                continue;
+            }
+            if (lines >= MAX_LINES_PER_DRAIN) continue; // 残りは次回に回す
+            if (p.lastEmitNanos != Long.MIN_VALUE && nowNanos - p.lastEmitNanos < COALESCE_NANOS) continue;
+            long key = entry.getKey();
+            EventType type = TYPES[(int) ((key >>> 32) & 0xff)];
+            out.append(type.format((int) key, p.detail, p.count)).append('\n');
+            lines++;
+            p.count = 0;
+            p.lastEmitNanos = nowNanos;
+        }
+
+        long drops = dropped.get();
+        if (drops != reportedDrops && lines < MAX_LINES_PER_DRAIN) {
+            out.append("⚠️ ログが混雑したため ").append(drops - reportedDrops).append(" 件のイベントを破棄しました\n");
+            reportedDrops = drops;
+            lines++;
+        }
+        return lines;
+    }
+
+    private void collect(Table table) {
+        for (int slot = 0; slot < TABLE_CAPACITY; slot++) {
+            if (table.counts.get(slot) == 0) continue;
+            long count = table.counts.getAndSet(slot, 0);
+            long key = table.keys.get(slot);
+            Pending p = pending.get(key);
+            if (p == null) {
+                p = new Pending();
+                pending.put(key, p);
+            }
+            p.count += count;
+            p.detail = table.details.get(slot);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example;
+
+/**
+ * EventChannel に流すイベントの種類
+ * ホットパスでは種類と数値だけを渡し、文字列への整形は表示側でまとめて行う
+ */
+public enum EventType {
+    TCP_RST,            // detail: 送信元ポート
+    TCP_RETRANSMISSION, // detail: (送信元ポート << 32) | シーケンス番号
+    PACKET_TRACE;       // detail: 宛先IP
+
+    // 1行分のログに整形する (count が2以上なら同じイベントをまとめた件数を付ける)
+    String format(int srcIp, long detail, long count) {
+        String src = PacketView.formatIp(srcIp);
+        String line;
+        switch (this) {
+            case TCP_RST:
+                line = "🚨 エラー: TCP RSTフラグ検出！(" + src + ":" + detail + "が接続をリセット)";
+                break;
+            case TCP_RETRANSMISSION:
+                line = "⚠️ 警告: TCP再送検出！ (Seq: " + (detail & 0xffffffffL) + " from " + src + ":" + (detail >>> 32) + ")";
+                break;
+            default:
+                line = ">> パケット: " + src + " -> " + PacketView.formatIp((int) detail);
+                break;
+        }
+        return (count > 1) ? line + " ×" + count + " (直近1秒)" : line;
+    }
+}
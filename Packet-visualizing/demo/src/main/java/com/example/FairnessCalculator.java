@@ -1,44 +1,329 @@
 package com.example;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
+/**
+ * 富の集中度 (送信元IPごとのバイト数のエントロピー) の集計
+ * - EXACT: IPごとに正確に数える (送信元の数だけメモリが増える)
+ * - SKETCH: Count-Min スケッチ + Space-Saving の上位K件 + 線形カウンティングで、固定メモリで見積もる
+ * - AUTO: 送信元が EXACT_LIMIT 個までは正確に数え、超えたらその期間はスケッチに切り替える (既定)
+ * 書き込み中のウィンドウは書き込み側のスレッドだけが触る (パケットごとのロックはない)
+ * 別のスレッドからまとめるときは requestWindow で頼み、書き込み側が処理の合間に serve で入れ替えたものを受け取る
+ */
 public class FairnessCalculator {
-    private final Map<String, Long> ipByteCounts = new ConcurrentHashMap<>();
-    private static final double LOW_ENTROPY_THRESHOLD = 1.0; 
+    public enum Mode { EXACT, SKETCH, AUTO }
 
-    // IPアドレス(匿名化済み)とバイト量を受け取る
-    public void aggregate(String anonSrcIp, int byteSize) {
-        ipByteCounts.merge(anonSrcIp, (long) byteSize, Long::sum);
+    private static final double LOW_ENTROPY_THRESHOLD = 1.0;
+    private static final int EXACT_LIMIT = 4096; // AUTO で正確に数える送信元の上限
+    private static final int TOP_K = 128; // Space-Saving で追跡する送信元の数
+    private static final int TALKERS = 10; // 結果に載せるトップトーカーの数
+    private static final double LOG2 = Math.log(2);
+
+    // 1回の集計期間分の状態
+    private final class Window {
+        private final IpByteMap exact = new IpByteMap(mode == Mode.EXACT ? 1024 : EXACT_LIMIT,
+                mode == Mode.EXACT ? Integer.MAX_VALUE : EXACT_LIMIT);
+        private final CountMinSketch counts = (mode == Mode.EXACT) ? null : new CountMinSketch();
+        private final SpaceSavingTopK topK = (mode == Mode.EXACT) ? null : new SpaceSavingTopK(TOP_K);
+        private final LinearCounter distinct = (mode == Mode.EXACT) ? null : new LinearCounter();
+        private boolean sketching = (mode == Mode.SKETCH);
+        private long totalBytes = 0;
+
+        private void add(int ip, long bytes) {
+            totalBytes += bytes;
+            if (!sketching) {
+                if (exact.add(ip, bytes)) return;
+                switchToSketch(); // AUTO で上限に達した
+            }
+            addToSketch(ip, bytes);
+        }
+
+        private void addToSketch(int ip, long bytes) {
+            counts.add(ip, bytes);
+            topK.add(ip, bytes);
+            distinct.add(ip);
+        }
+
+        // それまで正確に数えた分をスケッチに移して切り替える
+        private void switchToSketch() {
+            replayExactInto(this);
+            exact.reset();
+            sketching = true;
+        }
+
+        private void replayExactInto(Window into) {
+            for (int slot = 0; slot < exact.capacity(); slot++) {
+                long bytes = exact.valueAt(slot);
+                if (bytes != 0) into.addToSketch(exact.keyAt(slot), bytes);
+            }
+        }
+
+        private void mergeFrom(Window other) {
+            if (!sketching && other.sketching) switchToSketch();
+            if (sketching) {
+                if (other.sketching) {
+                    counts.mergeFrom(other.counts);
+                    topK.mergeFrom(other.topK);
+                    distinct.mergeFrom(other.distinct);
+                } else {
+                    other.replayExactInto(this);
+                }
+                totalBytes += other.totalBytes;
+                return;
+            }
+            for (int slot = 0; slot < other.exact.capacity(); slot++) {
+                long bytes = other.exact.valueAt(slot);
+                if (bytes != 0) add(other.exact.keyAt(slot), bytes);
+            }
+        }
+
+        // 送信元ごとのバイト数 (スケッチ中は上位K件の見積もり) と合計
+        private void writeState(DataOutputStream out) throws IOException {
+            out.writeLong(totalBytes);
+            if (!sketching) {
+                out.writeInt(exact.size());
+                for (int slot = 0; slot < exact.capacity(); slot++) {
+                    long bytes = exact.valueAt(slot);
+                    if (bytes == 0) continue;
+                    out.writeInt(exact.keyAt(slot));
+                    out.writeLong(bytes);
+                }
+                return;
+            }
+            long[][] top = topK.top(topK.size());
+            out.writeInt(top[0].length);
+            for (int i = 0; i < top[0].length; i++) {
+                out.writeInt((int) top[0][i]);
+                out.writeLong(top[1][i]);
+            }
+        }
+
+        private void reset() {
+            exact.reset();
+            if (counts != null) {
+                counts.reset();
+                topK.reset();
+                distinct.reset();
+            }
+            sketching = (mode == Mode.SKETCH);
+            totalBytes = 0;
+        }
+    }
+
+    private final Mode mode;
+    private final EventChannel events; // 集中の警告を出す先 (まとめ役だけが持つ。null なら出さない)
+    private Window current; // 書き込み中のウィンドウ (書き込み側のスレッドだけが触る)
+    private Window spare;   // 次の入れ替えで使う空のウィンドウ (集計側が返し、Handoff の受け渡しを通して書き込み側が使う)
+    private final Handoff<Window> handoff = new Handoff<>(this::swap);
+    private boolean waiting = false; // 入れ替えを頼んでまだ受け取っていない (集計側だけが触る)
+
+    private volatile FairnessStats lastStats = FairnessStats.EMPTY;
+
+    public FairnessCalculator() {
+        this(Mode.AUTO);
+    }
+
+    public FairnessCalculator(Mode mode) {
+        this(mode, null);
+    }
+
+    /**
+     * @param events エントロピーが低い (少数のIPに集中している) ときの警告を出す先 (null なら出さない)
+     */
+    public FairnessCalculator(Mode mode, EventChannel events) {
+        this.mode = mode;
+        this.events = events;
+        current = new Window();
+        spare = new Window();
+    }
+
+    public Mode getMode() { return mode; }
+
+    // デコード済みパケットから送信元IP(匿名化済み)とバイト量を集計する
+    public void aggregate(PacketView packet) {
+        current.add(packet.srcIp(), packet.wireLength());
+    }
+
+    // 書き込み側のスレッドが処理の合間に呼ぶ (頼まれていれば入れ替える。頼まれていなければ volatile を1回読むだけ)
+    void serve() {
+        handoff.serve();
+    }
+
+    // 集計側: 書き込み中のウィンドウの入れ替えを頼む (前回受け取れなかった分があれば、頼み直さずにそれを待つ)
+    void requestWindow() {
+        if (waiting) return;
+        waiting = true;
+        handoff.request();
+    }
+
+    // 別のシャードで集計した値をこちらに移す (移した側はリセットされる)。other の書き込み側が呼んだスレッドか、止まっているときに使う
+    public void mergeFrom(FairnessCalculator other) {
+        other.requestWindow();
+        mergeFrom(other, null, 0);
+    }
+
+    /**
+     * requestWindow で頼んだ入れ替えを待ち、それまでのウィンドウをこちらに移す (移した側はリセットされる)
+     * @param owner other に書き込むスレッド (まだ決まっていなければ null)
+     * @return 時間内に入れ替わらなければ false (頼んだままにしておき、次に受け取る)
+     */
+    boolean mergeFrom(FairnessCalculator other, Thread owner, long timeoutNanos) {
+        Window filled = other.handoff.await(owner, timeoutNanos);
+        if (filled == null) return false;
+        other.waiting = false;
+        current.mergeFrom(filled);
+        filled.reset();
+        other.spare = filled;
+        return true;
     }
 
     // MainAppのタイマーから定期的に呼び出され、計算とリセットを行う
     public double calculateFairness() { //void → double
-        if (ipByteCounts.size() < 2) {
-            ipByteCounts.clear(); 
-            return 0.0;
+        return calculateFairnessStats().entropy;
+    }
+
+    // エントロピーの見積もりと範囲、トップトーカーを計算してリセットする (書き込み側と同じスレッドで呼ぶ)
+    public FairnessStats calculateFairnessStats() {
+        Window window = swap();
+        FairnessStats stats = window.sketching ? fromSketch(window) : fromExact(window);
+        window.reset();
+        spare = window;
+
+        if (events != null && stats.distinctSources >= 2 && stats.entropy < LOW_ENTROPY_THRESHOLD) {
+            events.message(String.format("⚠️ 警告: 富が少数のIPに集中しています (エントロピー %.2f bit、送信元 %.0f)",
+                    stats.entropy, stats.distinctSources));
         }
+        lastStats = stats;
+        return stats;
+    }
+
+    // 直近に計算した結果
+    public FairnessStats getLastStats() { return lastStats; }
+
+    // 保存: 書き込み中のウィンドウ (集計側だけが使うまとめ役で、そのスレッドから呼ぶ)
+    void writeState(DataOutputStream out) throws IOException {
+        current.writeState(out);
+    }
 
-        double totalBytes = ipByteCounts.values().stream().mapToLong(Long::longValue).sum();
+    /**
+     * writeState で書いた送信元を書き込み中のウィンドウに足す (スケッチで追えていなかった裾は合計にだけ入れる)
+     * 全部読めてから足すので、壊れていれば例外を投げて何も変えない
+     */
+    void readState(ByteBuffer in) {
+        long total = in.getLong();
+        int count = in.getInt();
+        if (total < 0 || count < 0 || count > in.remaining() / 12) {
+            throw new IllegalArgumentException("送信元の数が範囲外です: " + count);
+        }
+        int[] ips = new int[count];
+        long[] bytes = new long[count];
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            ips[i] = in.getInt();
+            bytes[i] = in.getLong();
+            if (bytes[i] <= 0) throw new IllegalArgumentException("バイト数が不正です: " + bytes[i]);
+            sum += bytes[i];
+        }
+        for (int i = 0; i < count; i++) {
+            current.add(ips[i], bytes[i]);
+        }
+        current.totalBytes += Math.max(0, total - sum);
+    }
+
+    // 書き込み中のウィンドウを空のものと入れ替え、それまでのウィンドウを返す (書き込み側のスレッドで呼ぶ)
+    private Window swap() {
+        Window filled = current;
+        current = (spare != null) ? spare : new Window(); // 前回の受け取りが遅れて、まだ返ってきていない
+        spare = null;
+        return filled;
+    }
+
+    private static FairnessStats fromExact(Window window) {
+        IpByteMap exact = window.exact;
+        long total = window.totalBytes;
         double entropy = 0.0;
-        
-        // 富の集中度 (E) の計算
-        for (Long bytes : ipByteCounts.values()) {
-            double Pi = (double) bytes / totalBytes; 
-            
-            if (Pi > 0) { 
-                entropy -= Pi * (Math.log(Pi) / Math.log(2)); 
+        // 上位 TALKERS 件だけ挿入ソートで保持する
+        int[] ips = new int[Math.min(TALKERS, exact.size())];
+        long[] bytes = new long[ips.length];
+        int filled = 0;
+        for (int slot = 0; slot < exact.capacity(); slot++) {
+            long value = exact.valueAt(slot);
+            if (value == 0) continue;
+            // 富の集中度 (E) の計算
+            double p = (double) value / total;
+            entropy -= p * (Math.log(p) / LOG2);
+
+            if (filled == ips.length && (ips.length == 0 || value <= bytes[ips.length - 1])) continue;
+            int pos = (filled < ips.length) ? filled++ : ips.length - 1;
+            while (pos > 0 && bytes[pos - 1] < value) {
+                bytes[pos] = bytes[pos - 1];
+                ips[pos] = ips[pos - 1];
+                pos--;
             }
+            bytes[pos] = value;
+            ips[pos] = exact.keyAt(slot);
         }
-        
-        //System.out.println("[集中度] 富の集中度 (エントロピー): " + String.format("%.2f", entropy));
-        //GUIへの出力に変更
-        if (entropy < LOW_ENTROPY_THRESHOLD) { 
-            System.err.println("⚠️ 警告: 富が少数のIPに集中しています (エントロピー低)");
+        if (exact.size() < 2) entropy = 0.0;
+        return new FairnessStats(entropy, entropy, entropy, true, total, exact.size(), 0,
+                ips, bytes, new long[ips.length]);
+    }
+
+    /**
+     * スケッチからの見積もり
+     * 上位K件は Space-Saving と Count-Min の小さい方の値を使い、残り (裾) は分布が分からないので範囲で見積もる
+     * - 上限: 裾の送信元 (線形カウンティングの見積もり + 誤差) が均等に使った場合
+     * - 下限: 裾の各送信元が、表にないキーの上限 (Space-Saving の最小値) まで偏った場合
+     * - 見積もり: 裾が均等だと仮定した値
+     * 上位K件の値も多めに数えている可能性があり、その幅は countError に入れて返す
+     */
+    private static FairnessStats fromSketch(Window window) {
+        long total = window.totalBytes;
+        if (total == 0) return FairnessStats.EMPTY;
+        SpaceSavingTopK topK = window.topK;
+        long[][] top = topK.top(topK.size());
+
+        double heavyEntropy = 0.0;
+        long heavyBytes = 0;
+        for (int i = 0; i < top[0].length; i++) {
+            long estimate = Math.min(top[1][i], window.counts.estimate((int) top[0][i]));
+            top[1][i] = estimate;
+            top[2][i] = Math.min(top[2][i], window.counts.errorBound());
+            heavyBytes += estimate;
+            double p = (double) estimate / total;
+            if (p > 0) heavyEntropy -= p * (Math.log(p) / LOG2);
         }
-        
-        ipByteCounts.clear(); 
 
-        return entropy;
+        double distinct = Math.max(window.distinct.estimate(), top[0].length);
+        double tail = Math.max(0, total - heavyBytes) / (double) total;
+        double entropy = heavyEntropy, lower = heavyEntropy, upper = heavyEntropy;
+        if (tail > 0) {
+            double tailSources = Math.max(1, distinct - top[0].length);
+            double tailSourcesUpper = Math.max(1, distinct + 2 * window.distinct.standardError() - top[0].length);
+            double maxShare = (topK.minCount() > 0) ? Math.min(tail, (double) topK.minCount() / total) : tail;
+            upper += tail * (Math.log(tailSourcesUpper / tail) / LOG2);
+            entropy += tail * (Math.log(tailSources / tail) / LOG2);
+            lower += Math.min(tail * (Math.log(1.0 / maxShare) / LOG2), entropy - heavyEntropy);
+        }
+
+        // 見積もり値の多い順に並べ直してトップトーカーにする
+        int n = Math.min(TALKERS, top[0].length);
+        int[] ips = new int[n];
+        long[] bytes = new long[n];
+        long[] errors = new long[n];
+        boolean[] taken = new boolean[top[0].length];
+        for (int k = 0; k < n; k++) {
+            int best = -1;
+            for (int i = 0; i < top[0].length; i++) {
+                if (!taken[i] && (best < 0 || top[1][i] > top[1][best])) best = i;
+            }
+            taken[best] = true;
+            ips[k] = (int) top[0][best];
+            bytes[k] = top[1][best];
+            errors[k] = top[2][best];
+        }
+        return new FairnessStats(entropy, lower, upper, false, total, distinct,
+                window.counts.errorBound(), ips, bytes, errors);
     }
-}
\ No newline at end of file
+}
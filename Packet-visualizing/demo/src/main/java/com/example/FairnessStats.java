@@ -0,0 +1,49 @@
+package com.example;
+
+/**
+ * 富の集中度 (送信元IPごとのバイト数のエントロピー) と、上位の送信元 (トップトーカー) の読み取り専用ビュー
+ * スケッチで見積もった場合、エントロピーは [entropyLower, entropyUpper] の範囲に入る
+ * 正確に数えた場合は3つとも同じ値になる
+ */
+public class FairnessStats {
+    public static final FairnessStats EMPTY = new FairnessStats(0, 0, 0, true, 0, 0, 0,
+            new int[0], new long[0], new long[0]);
+
+    public final double entropy; // 見積もり (bit)
+    public final double entropyLower;
+    public final double entropyUpper;
+    public final boolean exact; // 正確に数えたか (false ならスケッチによる見積もり)
+    public final long totalBytes;
+    public final double distinctSources; // 送信元IPの異なり数 (見積もりの場合あり)
+    public final long countError; // 各送信元のバイト数の見積もりが多めにずれる幅の上限
+
+    private final int[] talkerIps;
+    private final long[] talkerBytes;
+    private final long[] talkerErrors;
+
+    FairnessStats(double entropy, double entropyLower, double entropyUpper, boolean exact, long totalBytes,
+                  double distinctSources, long countError, int[] talkerIps, long[] talkerBytes, long[] talkerErrors) {
+        this.entropy = entropy;
+        this.entropyLower = entropyLower;
+        this.entropyUpper = entropyUpper;
+        this.exact = exact;
+        this.totalBytes = totalBytes;
+        this.distinctSources = distinctSources;
+        this.countError = countError;
+        this.talkerIps = talkerIps;
+        this.talkerBytes = talkerBytes;
+        this.talkerErrors = talkerErrors;
+    }
+
+    // トップトーカー (バイト数の多い順、添字 i は 0〜talkerCount()-1)
+    public int talkerCount() { return talkerIps.length; }
+    public int talkerIp(int i) { return talkerIps[i]; }
+    public long talkerBytes(int i) { return talkerBytes[i]; }
+    // talkerBytes(i) から最大でこれだけ多めに数えている可能性がある
+    public long talkerError(int i) { return talkerErrors[i]; }
+
+    // 全体に占める割合 (%)
+    public double talkerShare(int i) {
+        return (totalBytes > 0) ? (double) talkerBytes[i] / totalBytes * 100.0 : 0.0;
+    }
+}
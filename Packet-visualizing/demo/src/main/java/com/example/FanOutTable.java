@@ -0,0 +1,122 @@
+package com.example;
+
+import java.util.Arrays;
+
+/**
+ * 送信元ごとの広がり (宛先ポートと宛先ホストの異なり数) を小さな HyperLogLog で数える固定サイズの表
+ * 表が満杯のときは、探す範囲のうちパケットの一番少ない送信元を追い出す (大量に送る走査元は残りやすい)
+ * 同じ送信元どうしはレジスタの最大値をとるだけでまとめられるので、シャードをまたいでも合わせられる
+ */
+class FanOutTable {
+    static final int PRECISION = 6; // 送信元ごとに 64 バイト × 2 (誤差およそ13%。閾値との比較には十分)
+    private static final int SKETCH = 1 << PRECISION;
+    private static final int PROBES = 8;
+
+    private final int mask;
+    private final long[] keys;    // 送信元アドレス (PacketView.srcAddress)
+    private final int[] ips;      // 表示用 (PacketView.srcIp)
+    private final long[] packets; // 0 なら空き
+    private final byte[] ports;   // 宛先ポートのスケッチ (添字 slot * SKETCH から)
+    private final byte[] hosts;   // 宛先アドレスのスケッチ
+    private final int[] used;     // 使っているスロット (リセットとマージで全体をなめないため)
+    private int usedCount = 0;
+    private long evictions = 0;
+
+    // capacityは2のべき乗に切り上げる
+    FanOutTable(int capacity) {
+        int size = Integer.highestOneBit(Math.max(PROBES, capacity - 1)) << 1;
+        mask = size - 1;
+        keys = new long[size];
+        ips = new int[size];
+        packets = new long[size];
+        ports = new byte[size * SKETCH];
+        hosts = new byte[size * SKETCH];
+        used = new int[size];
+    }
+
+    /**
+     * @param dstPort 宛先ポート (ポートのないプロトコルなら負の値)
+     */
+    void add(long src, int srcIp, long dst, int dstPort, long count) {
+        int slot = slotFor(src, srcIp);
+        packets[slot] += count;
+        HyperLogLog.addHash(hosts, slot * SKETCH, PRECISION, HyperLogLog.mix64(dst));
+        if (dstPort >= 0) HyperLogLog.addHash(ports, slot * SKETCH, PRECISION, HyperLogLog.mix64(dstPort));
+    }
+
+    // other の送信元をこちらに足す (other はそのまま)
+    void mergeFrom(FanOutTable other) {
+        for (int i = 0; i < other.usedCount; i++) {
+            int from = other.used[i];
+            int slot = slotFor(other.keys[from], other.ips[from]);
+            packets[slot] += other.packets[from];
+            HyperLogLog.merge(hosts, slot * SKETCH, other.hosts, from * SKETCH, PRECISION);
+            HyperLogLog.merge(ports, slot * SKETCH, other.ports, from * SKETCH, PRECISION);
+        }
+        evictions += other.evictions;
+    }
+
+    void reset() {
+        for (int i = 0; i < usedCount; i++) {
+            clear(used[i]);
+        }
+        usedCount = 0;
+        evictions = 0;
+    }
+
+    int size() { return usedCount; }
+    long getEvictions() { return evictions; }
+
+    /**
+     * 宛先ポートか宛先ホストの見積もりが閾値以上の送信元を、広がりの大きい順に最大 n 件返す
+     */
+    CardinalityStats.Scanner[] scanners(double portThreshold, double hostThreshold, int n) {
+        CardinalityStats.Scanner[] found = new CardinalityStats.Scanner[Math.min(n, usedCount)];
+        int filled = 0;
+        for (int i = 0; i < usedCount; i++) {
+            int slot = used[i];
+            double p = HyperLogLog.estimate(ports, slot * SKETCH, PRECISION);
+            double h = HyperLogLog.estimate(hosts, slot * SKETCH, PRECISION);
+            if (p < portThreshold && h < hostThreshold) continue;
+            CardinalityStats.Scanner s = new CardinalityStats.Scanner(ips[slot], p, h, packets[slot],
+                    p >= portThreshold, h >= hostThreshold);
+            // 上位 n 件だけ挿入ソートで保持する
+            if (filled == found.length && (found.length == 0 || s.spread() <= found[found.length - 1].spread())) continue;
+            int pos = (filled < found.length) ? filled++ : found.length - 1;
+            while (pos > 0 && found[pos - 1].spread() < s.spread()) {
+                found[pos] = found[pos - 1];
+                pos--;
+            }
+            found[pos] = s;
+        }
+        return Arrays.copyOf(found, filled);
+    }
+
+    // 送信元のスロットを探す。なければ空きか、探す範囲でパケットの一番少ないスロットを使う
+    private int slotFor(long src, int srcIp) {
+        int start = (int) HyperLogLog.mix64(src) & mask;
+        int victim = -1;
+        for (int probe = 0; probe < PROBES; probe++) {
+            int slot = (start + probe) & mask;
+            if (packets[slot] == 0) {
+                keys[slot] = src;
+                ips[slot] = srcIp;
+                used[usedCount++] = slot;
+                return slot;
+            }
+            if (keys[slot] == src) return slot;
+            if (victim < 0 || packets[slot] < packets[victim]) victim = slot;
+        }
+        evictions++;
+        clear(victim);
+        keys[victim] = src;
+        ips[victim] = srcIp;
+        return victim; // used にはすでに入っている
+    }
+
+    private void clear(int slot) {
+        packets[slot] = 0;
+        Arrays.fill(ports, slot * SKETCH, (slot + 1) * SKETCH, (byte) 0);
+        Arrays.fill(hosts, slot * SKETCH, (slot + 1) * SKETCH, (byte) 0);
+    }
+}
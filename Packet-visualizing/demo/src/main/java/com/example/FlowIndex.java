@@ -0,0 +1,182 @@
+package com.example;
+
+/**
+ * 5タプルのキーからフロー番号 (0〜capacity-1) を引くオープンアドレス法のハッシュ表
+ * キーと最終観測時刻はプリミティブ配列に持ち、フローごとの値は呼び出し側がフロー番号を添字にした配列で持つ
+ * 上限 (capacity) に達したら、しばらく見ていないフローを追い出して空きを作る
+ * 1つのスレッドからだけ使う前提 (シャードごとに1つ持つ)
+ */
+public class FlowIndex {
+    public static final int NOT_FOUND = -1;
+
+    private static final int EVICTION_SAMPLES = 8;
+
+    private final int capacity;
+    private final int[] table; // フロー番号+1 (0は空き)
+    private final int tableMask;
+
+    private final long[] keyA;
+    private final long[] keyB;
+    private final long[] keyC;
+    private final long[] lastSeenNanos;
+    private final boolean[] used;
+
+    private final int[] freeIds;
+    private int freeCount;
+    private int evictionHand = 0;
+
+    private long evictions = 0;
+    private boolean lastInsertWasNew = false;
+
+    public FlowIndex(int capacity) {
+        this.capacity = capacity;
+        // 負荷率を0.5以下に保つ
+        int tableSize = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+        this.table = new int[tableSize];
+        this.tableMask = tableSize - 1;
+        this.keyA = new long[capacity];
+        this.keyB = new long[capacity];
+        this.keyC = new long[capacity];
+        this.lastSeenNanos = new long[capacity];
+        this.used = new boolean[capacity];
+        this.freeIds = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            freeIds[i] = capacity - 1 - i;
+        }
+        this.freeCount = capacity;
+    }
+
+    // ポート番号とプロトコルからキーの3要素目を作る
+    public static long portsKey(int srcPort, int dstPort, int protocol) {
+        return ((long) srcPort << 24) | ((long) dstPort << 8) | protocol;
+    }
+
+    public int capacity() { return capacity; }
+    public int size() { return capacity - freeCount; }
+    public boolean isUsed(int id) { return used[id]; }
+    public long lastSeenNanos(int id) { return lastSeenNanos[id]; }
+    public long keyA(int id) { return keyA[id]; }
+    public long keyB(int id) { return keyB[id]; }
+    public long keyC(int id) { return keyC[id]; }
+
+    // これまでに追い出したフローの数 (累計)
+    public long evictions() { return evictions; }
+
+    // キーの位置を決めるハッシュ (表の端で折り返す並びを作れるよう、テストからも使う)
+    static int hash(long a, long b, long c) {
+        long h = a * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 29) ^ b) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 32) ^ c) * 0x94D049BB133111EBL;
+        return (int) (h ^ (h >>> 31));
+    }
+
+    public int find(long a, long b, long c) {
+        int slot = hash(a, b, c) & tableMask;
+        while (true) {
+            int entry = table[slot];
+            if (entry == 0) return NOT_FOUND;
+            int id = entry - 1;
+            if (keyA[id] == a && keyB[id] == b && keyC[id] == c) return id;
+            slot = (slot + 1) & tableMask;
+        }
+    }
+
+    /**
+     * キーのフロー番号を返す。なければ新しく登録する (満杯なら古いフローを1つ追い出す)
+     * 新規登録かどうかは isNew で確認する
+     */
+    public int findOrInsert(long a, long b, long c, long nowNanos) {
+        int slot = hash(a, b, c) & tableMask;
+        while (true) {
+            int entry = table[slot];
+            if (entry == 0) break;
+            int id = entry - 1;
+            if (keyA[id] == a && keyB[id] == b && keyC[id] == c) {
+                lastSeenNanos[id] = nowNanos;
+                lastInsertWasNew = false;
+                return id;
+            }
+            slot = (slot + 1) & tableMask;
+        }
+
+        if (freeCount == 0) {
+            evictOne();
+            // 追い出しで表の並びが変わったので挿入位置を探し直す
+            slot = hash(a, b, c) & tableMask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & tableMask;
+            }
+        }
+        int id = freeIds[--freeCount];
+        keyA[id] = a;
+        keyB[id] = b;
+        keyC[id] = c;
+        lastSeenNanos[id] = nowNanos;
+        used[id] = true;
+        table[slot] = id + 1;
+        lastInsertWasNew = true;
+        return id;
+    }
+
+    // 直前の findOrInsert が新規登録だったか
+    public boolean isNew() { return lastInsertWasNew; }
+
+    // いくつかのフローを見て、最も長く見ていないものを追い出す (近似LRU)
+    private void evictOne() {
+        int victim = NOT_FOUND;
+        int sampled = 0;
+        for (int scanned = 0; scanned < capacity && sampled < EVICTION_SAMPLES; scanned++) {
+            int id = evictionHand;
+            evictionHand = (evictionHand + 1) % capacity;
+            if (!used[id]) continue;
+            sampled++;
+            if (victim == NOT_FOUND || lastSeenNanos[id] < lastSeenNanos[victim]) {
+                victim = id;
+            }
+        }
+        if (victim != NOT_FOUND) {
+            remove(victim);
+            evictions++;
+        }
+    }
+
+    /**
+     * idleNanos以上観測されていないフローをすべて追い出す
+     * @return 追い出したフロー数
+     */
+    public int evictIdle(long nowNanos, long idleNanos) {
+        int removed = 0;
+        for (int id = 0; id < capacity; id++) {
+            if (used[id] && nowNanos - lastSeenNanos[id] >= idleNanos) {
+                remove(id);
+                removed++;
+            }
+        }
+        evictions += removed;
+        return removed;
+    }
+
+    // フローを削除し、後ろに続くエントリーを詰め直す (墓標を使わない削除)
+    public void remove(int id) {
+        int slot = hash(keyA[id], keyB[id], keyC[id]) & tableMask;
+        while (table[slot] != id + 1) {
+            slot = (slot + 1) & tableMask;
+        }
+        int hole = slot;
+        int next = (hole + 1) & tableMask;
+        while (table[next] != 0) {
+            int other = table[next] - 1;
+            int home = hash(keyA[other], keyB[other], keyC[other]) & tableMask;
+            // home が (hole, next] の範囲外なら hole に移せる
+            boolean movable = (hole <= next) ? (home <= hole || home > next) : (home <= hole && home > next);
+            if (movable) {
+                table[hole] = table[next];
+                hole = next;
+            }
+            next = (next + 1) & tableMask;
+        }
+        table[hole] = 0;
+        used[id] = false;
+        freeIds[freeCount++] = id;
+    }
+}
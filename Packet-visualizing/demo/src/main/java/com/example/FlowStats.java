@@ -0,0 +1,162 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 1回の集計期間におけるフローごとの状況 (読み取り専用)
+ * 期間中にパケットのあったフローのうち、バイト数の多い上位と RTT (往復時間) の大きい上位を持つ
+ * 期間中のバイト数をフローのアプリ (AppClassifier で見分けたもの) ごとに分けた値も持つ
+ */
+public class FlowStats {
+    public static final FlowStats EMPTY = new FlowStats(0, 0, 0, 0, 0, 0, new long[Application.values().length], 0, new Flow[0], new Flow[0]);
+
+    // TCPの接続状態 (途中から見え始めた接続は ESTABLISHED、TCP以外は OTHER)
+    public enum State { OTHER, SYN_SENT, SYN_RECEIVED, ESTABLISHED, CLOSING, CLOSED, RESET }
+
+    // フローの最初のペイロードから見分けたアプリ (見分けられなかったものと、まだ見ているものは UNKNOWN)
+    public enum Application { UNKNOWN, TLS, QUIC, HTTP, DNS, SSH }
+
+    /**
+     * 1つのフロー (向きは接続を始めた側 → 受けた側。始まりを見ていなければ最初に見えたパケットの向き)
+     * RTT はキャプチャした地点から見た往復時間 (ナノ秒)。測れていなければ 0
+     */
+    public static final class Flow {
+        public final String srcAddress; // 表記 (IPv4 / IPv6)
+        public final int srcPort;
+        public final String dstAddress;
+        public final int dstPort;
+        public final int protocol;
+        public final State state;
+        public final long intervalBytes;  // 期間中のバイト数 (両方向)
+        public final long bytesForward;   // 接続してからの累計 (src → dst)
+        public final long bytesReverse;   // 接続してからの累計 (dst → src)
+        public final long packetsForward;
+        public final long packetsReverse;
+        public final long handshakeRttNanos; // SYN から3つ目のACKまで
+        public final long srttNanos;         // 平滑化したRTT (1/8 の指数移動平均)
+        public final long minRttNanos;
+        public final int rttSamples;
+        public final int dupAcks;
+        public final int retransmissions;
+        public final long durationNanos;     // 最初に見えてから最後に見えるまで
+        public final Application application;
+        public final String serverName;      // TLS の SNI (なければ null)
+
+        Flow(String srcAddress, int srcPort, String dstAddress, int dstPort, int protocol, State state, long intervalBytes,
+             long bytesForward, long bytesReverse, long packetsForward, long packetsReverse, long handshakeRttNanos,
+             long srttNanos, long minRttNanos, int rttSamples, int dupAcks, int retransmissions, long durationNanos,
+             Application application, String serverName) {
+            this.srcAddress = srcAddress;
+            this.srcPort = srcPort;
+            this.dstAddress = dstAddress;
+            this.dstPort = dstPort;
+            this.protocol = protocol;
+            this.state = state;
+            this.intervalBytes = intervalBytes;
+            this.bytesForward = bytesForward;
+            this.bytesReverse = bytesReverse;
+            this.packetsForward = packetsForward;
+            this.packetsReverse = packetsReverse;
+            this.handshakeRttNanos = handshakeRttNanos;
+            this.srttNanos = srttNanos;
+            this.minRttNanos = minRttNanos;
+            this.rttSamples = rttSamples;
+            this.dupAcks = dupAcks;
+            this.retransmissions = retransmissions;
+            this.durationNanos = durationNanos;
+            this.application = application;
+            this.serverName = serverName;
+        }
+
+        // ログ表示用 (例: "TCP 10.0.0.1:50000 → 10.0.0.2:443", IPv6 は "[2001:db8::1]:443")
+        public String endpoints() {
+            String proto = (protocol == PacketView.PROTO_TCP) ? "TCP" : (protocol == PacketView.PROTO_UDP) ? "UDP" : "IP/" + protocol;
+            return proto + " " + endpoint(srcAddress, srcPort) + " → " + endpoint(dstAddress, dstPort);
+        }
+
+        // ログ表示用のアプリ (例: "TLS example.com"。見分けられなければ空)
+        public String applicationLabel() {
+            if (application == Application.UNKNOWN) return "";
+            return (serverName != null) ? application + " " + serverName : application.toString();
+        }
+
+        static String endpoint(String address, int port) {
+            return (address.indexOf(':') >= 0 ? "[" + address + "]" : address) + ":" + port;
+        }
+    }
+
+    public final long trackedFlows;  // 追跡中のフロー数
+    public final long activeFlows;   // 期間中にパケットのあったフロー数
+    public final long evictions;     // 期間中に追い出したフロー数 (無通信 + 満杯)
+    public final long rttSamples;    // 期間中に測れたRTTの数
+    public final long dupAcks;       // 期間中の重複ACKの数
+    public final long retransmissions; // 期間中に検出したTCP再送の数 (フローごとの retransmissions と同じ判定)
+    public final long totalBytes;    // 期間中のバイト数 (全フロー)
+    public final long smuggledBytes; // そのうち、アプリを見分けられず両端とも 1024 以上のポートの TCP/UDP
+
+    private final long[] applicationBytes; // 添字は Application.ordinal()
+    private final Flow[] topBytes;
+    private final Flow[] topRtt;
+
+    FlowStats(long trackedFlows, long activeFlows, long evictions, long rttSamples, long dupAcks, long retransmissions,
+              long[] applicationBytes, long smuggledBytes, Flow[] topBytes, Flow[] topRtt) {
+        this.trackedFlows = trackedFlows;
+        this.activeFlows = activeFlows;
+        this.evictions = evictions;
+        this.rttSamples = rttSamples;
+        this.dupAcks = dupAcks;
+        this.retransmissions = retransmissions;
+        this.applicationBytes = applicationBytes;
+        this.smuggledBytes = smuggledBytes;
+        long total = 0;
+        for (long b : applicationBytes) total += b;
+        this.totalBytes = total;
+        this.topBytes = topBytes;
+        this.topRtt = topRtt;
+    }
+
+    // アプリごとの期間中のバイト数
+    public long applicationBytes(Application app) { return applicationBytes[app.ordinal()]; }
+
+    // 期間中のバイト数に占める、見分けられない高いポートどうしの通信の割合 (%)
+    public double smugglingRate() { return (totalBytes > 0) ? (double) smuggledBytes / totalBytes * 100.0 : 0.0; }
+
+    // 期間中のバイト数の多い順 (添字 i は 0〜topByBytesCount()-1)
+    public int topByBytesCount() { return topBytes.length; }
+    public Flow topByBytes(int i) { return topBytes[i]; }
+
+    // 平滑化したRTTの大きい順 (RTTを測れたフローだけ)
+    public int topByRttCount() { return topRtt.length; }
+    public Flow topByRtt(int i) { return topRtt[i]; }
+
+    static final Comparator<Flow> BY_BYTES = Comparator.comparingLong((Flow f) -> f.intervalBytes).reversed();
+    static final Comparator<Flow> BY_RTT = Comparator.comparingLong((Flow f) -> f.srttNanos).reversed();
+
+    // シャードごとの結果を合わせる (フローはシャードをまたがないので、上位を並べ直すだけでよい)
+    static FlowStats merge(List<FlowStats> parts, int n) {
+        long tracked = 0, active = 0, evictions = 0, rttSamples = 0, dupAcks = 0, retransmissions = 0, smuggled = 0;
+        long[] applications = new long[Application.values().length];
+        List<Flow> bytes = new ArrayList<>();
+        List<Flow> rtt = new ArrayList<>();
+        for (FlowStats part : parts) {
+            tracked += part.trackedFlows;
+            active += part.activeFlows;
+            evictions += part.evictions;
+            rttSamples += part.rttSamples;
+            dupAcks += part.dupAcks;
+            retransmissions += part.retransmissions;
+            smuggled += part.smuggledBytes;
+            for (int a = 0; a < applications.length; a++) applications[a] += part.applicationBytes[a];
+            bytes.addAll(Arrays.asList(part.topBytes));
+            rtt.addAll(Arrays.asList(part.topRtt));
+        }
+        bytes.sort(BY_BYTES);
+        rtt.sort(BY_RTT);
+        return new FlowStats(tracked, active, evictions, rttSamples, dupAcks, retransmissions, applications, smuggled,
+                bytes.subList(0, Math.min(n, bytes.size())).toArray(new Flow[0]),
+                rtt.subList(0, Math.min(n, rtt.size())).toArray(new Flow[0]));
+    }
+}
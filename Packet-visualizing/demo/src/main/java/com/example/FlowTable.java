@@ -0,0 +1,590 @@
+package com.example;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 接続 (5タプル、向きはまとめて1つ) ごとの状態と遅さの指標を持つフロー表
+ * - TCPの状態 (SYN/FIN/RST から)、向きごとのバイト数・パケット数
+ * - RTT: SYN から3つ目のACKまで (ハンドシェイク) と、データの SEQ がACKされるまでの時間 (向きごとに1つずつ計測)
+ * - 重複ACKと再送の数 (再送の判定はここだけで行う。向きごとに送信済みのシーケンス番号の最大値を覚え、
+ *   それより手前を運ぶセグメントを再送とする。データなしのACKとキープアライブは数えない)
+ * - アプリ (TLS/QUIC/HTTP/DNS/SSH): ペイロードのある最初の INSPECT_PACKETS 個だけ AppClassifier で調べ、決まったらフローに覚えておく
+ * キーは FlowIndex (負荷率0.5以下のオープンアドレス法) で引き、値はフロー番号を添字にしたプリミティブ配列に持つので、
+ * フロー数が増えても1パケットあたりの処理は一定。しばらく通信のないフローはタイマーホイールで追い出す
+ * シャードのスレッドだけが使う前提 (集計は takeIntervalStats をそのスレッドで呼ぶ)
+ */
+public class FlowTable {
+    // 既定の上限 (全シャード合わせて)。配列は上限の分を最初に確保するので、1フローあたり約 BYTES_PER_FLOW バイト
+    // (65536 で約13MB) かかる。100万フローなら約200MBになるため、既定は抑えて --flows / -Dflows.capacity で広げる
+    public static final int DEFAULT_CAPACITY = 65536;
+    // 上限1つあたりに確保するおおよそのバイト数 (この表の配列と FlowIndex。IPv6 のアドレスと SNI は使ったときだけ別に取る)
+    static final int BYTES_PER_FLOW = 200;
+    public static final int TOP_FLOWS = 10;
+
+    // 無通信で追い出すまでの時間 (状態ごと)
+    private static final long IDLE_NANOS = 120_000_000_000L;      // 通信中・TCP以外
+    private static final long HANDSHAKE_NANOS = 30_000_000_000L;  // 応答のないSYN
+    private static final long CLOSED_NANOS = 10_000_000_000L;     // FIN/RSTで閉じたもの
+
+    // タイマーホイール: 1秒刻みで512枠 (一番長い期限より長く一周する)
+    private static final long TICK_NANOS = 1_000_000_000L;
+    private static final int WHEEL_SLOTS = 512;
+    private static final int WHEEL_MASK = WHEEL_SLOTS - 1;
+    private static final int NONE = -1;
+
+    // アプリを調べるのは、フローのペイロードのある最初の数パケットだけ (それ以降は覚えたラベルを使う)
+    static final int INSPECT_PACKETS = 4;
+    private static final int UNKNOWN = FlowStats.Application.UNKNOWN.ordinal();
+
+    private static final FlowStats.State[] STATES = FlowStats.State.values();
+    private static final FlowStats.Application[] APPLICATIONS = FlowStats.Application.values();
+
+    // flags のビット (向き d = 0: 始めた側から, 1: 受けた側から)
+    private static final int SEQ_SEEN = 0x01; // << d
+    private static final int ACK_SEEN = 0x04; // << d
+    private static final int FIN_SEEN = 0x10; // << d
+
+    private final FlowIndex flows;
+    private final int capacity;
+
+    // フロー番号ごとの値
+    private final byte[] state;
+    private final byte[] flags;
+    private final boolean[] initiatorIsLow; // キーの小さい側の端点が接続を始めたか
+    private final long[] firstSeenNanos;
+    private final long[] synNanos;          // 最初のSYNの時刻 (再送されたら 0 にして測らない)
+    private final long[] handshakeRttNanos;
+    private final long[] srttNanos;
+    private final long[] minRttNanos;
+    private final int[] rttSamples;
+    private final int[] dupAcks;
+    private final int[] retransmissions;
+    private final long[] intervalBytes;
+    private final byte[] application;      // FlowStats.Application の ordinal
+    private final byte[] inspected;        // アプリを調べたパケット数
+    private final boolean[] highPorts;     // 両端とも 1024 以上のポートの TCP/UDP
+    // 向きごとの値 (添字は id * 2 + 向き)
+    private final long[] bytes;
+    private final long[] packets;
+    private final int[] highestSeqEnd;
+    private final int[] lastAck;
+    private final int[] sampleSeqEnd;      // RTTを測っているデータの終わり
+    private final long[] sampleSentNanos;  // そのデータを見た時刻 (0 なら測っていない)
+    // IPv6 のアドレス (表示用。キーは畳み込んだ値なので元に戻せない。最初の IPv6 フローで確保する)
+    private long[] ipv6Words;              // 添字は id * 4 (小さい側の上位・下位, 大きい側の上位・下位)
+    // TLS の SNI (最初に見つけたときに確保する)
+    private String[] serverNames;
+
+    // タイマーホイール (フローは期限の枠の双方向リストに1回だけ入る)
+    private final int[] wheelHeads = new int[WHEEL_SLOTS];
+    private final int[] wheelNext;
+    private final int[] wheelPrev;
+    private final int[] wheelSlot;
+    private long currentTick = Long.MIN_VALUE;
+
+    // 期間中にパケットのあったフロー (集計はこれだけを見るので、表全体をなめない)
+    private final int[] touched;
+    private final boolean[] isTouched;
+    private int touchedCount = 0;
+
+    private long intervalEvictions = 0;
+    private long intervalRttSamples = 0;
+    private long intervalDupAcks = 0;
+    private long intervalRetransmissions = 0;
+    private final long[] intervalApplicationBytes = new long[APPLICATIONS.length];
+    private long intervalSmuggledBytes = 0;
+
+    public FlowTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public FlowTable(int capacity) {
+        this.capacity = capacity;
+        this.flows = new FlowIndex(capacity);
+        this.state = new byte[capacity];
+        this.flags = new byte[capacity];
+        this.initiatorIsLow = new boolean[capacity];
+        this.firstSeenNanos = new long[capacity];
+        this.synNanos = new long[capacity];
+        this.handshakeRttNanos = new long[capacity];
+        this.srttNanos = new long[capacity];
+        this.minRttNanos = new long[capacity];
+        this.rttSamples = new int[capacity];
+        this.dupAcks = new int[capacity];
+        this.retransmissions = new int[capacity];
+        this.intervalBytes = new long[capacity];
+        this.application = new byte[capacity];
+        this.inspected = new byte[capacity];
+        this.highPorts = new boolean[capacity];
+        this.bytes = new long[capacity * 2];
+        this.packets = new long[capacity * 2];
+        this.highestSeqEnd = new int[capacity * 2];
+        this.lastAck = new int[capacity * 2];
+        this.sampleSeqEnd = new int[capacity * 2];
+        this.sampleSentNanos = new long[capacity * 2];
+        this.wheelNext = new int[capacity];
+        this.wheelPrev = new int[capacity];
+        this.wheelSlot = new int[capacity];
+        Arrays.fill(wheelHeads, NONE);
+        Arrays.fill(wheelSlot, NONE);
+        this.touched = new int[capacity];
+        this.isTouched = new boolean[capacity];
+    }
+
+    public int size() { return flows.size(); }
+    public int capacity() { return capacity; }
+
+    /**
+     * パケットごとに呼ばれる
+     * @return TCPの再送と判定したら true
+     */
+    public boolean update(PacketView packet) {
+        long now = packet.timestampNanos();
+        advance(now);
+
+        // 向きによらないキー: (アドレス, ポート) の小さい側を先にする
+        long src = packet.srcAddress();
+        long dst = packet.dstAddress();
+        boolean srcIsLow = src < dst || (src == dst && packet.srcPort() <= packet.dstPort());
+        long evictedBefore = flows.evictions();
+        boolean opened = false;
+        int id = srcIsLow ? flows.findOrInsert(src, dst, FlowIndex.portsKey(packet.srcPort(), packet.dstPort(), packet.protocol()), now)
+                : flows.findOrInsert(dst, src, FlowIndex.portsKey(packet.dstPort(), packet.srcPort(), packet.protocol()), now);
+        if (flows.isNew()) {
+            intervalEvictions += flows.evictions() - evictedBefore;
+            open(id, packet, srcIsLow, now);
+            opened = true;
+        } else if (packet.isTcp() && isReopened(id, packet)) {
+            // 閉じた接続と同じポートで新しい接続が始まった
+            open(id, packet, srcIsLow, now);
+            opened = true;
+        }
+
+        int d = (srcIsLow == initiatorIsLow[id]) ? 0 : 1;
+        int wireLength = packet.wireLength();
+        bytes[id * 2 + d] += wireLength;
+        packets[id * 2 + d]++;
+        intervalBytes[id] += wireLength;
+        if (!isTouched[id]) {
+            isTouched[id] = true;
+            touched[touchedCount++] = id;
+        }
+        int app = application[id];
+        intervalApplicationBytes[app] += wireLength;
+        if (app == UNKNOWN) {
+            if (highPorts[id]) intervalSmuggledBytes += wireLength;
+            if (inspected[id] < INSPECT_PACKETS && packet.payloadLength() > 0) classify(id, packet);
+        }
+        return packet.isTcp() && updateTcp(id, d, packet, now, opened);
+    }
+
+    // まだアプリの決まらないフローのペイロードを調べる。決まったら、期間中にこのフローで数えた分も付け替える
+    private void classify(int id, PacketView packet) {
+        inspected[id]++;
+        FlowStats.Application app = AppClassifier.classify(packet);
+        if (app == FlowStats.Application.UNKNOWN) return;
+        application[id] = (byte) app.ordinal();
+        intervalApplicationBytes[UNKNOWN] -= intervalBytes[id];
+        intervalApplicationBytes[app.ordinal()] += intervalBytes[id];
+        if (highPorts[id]) intervalSmuggledBytes -= intervalBytes[id];
+        if (app == FlowStats.Application.TLS) {
+            String name = AppClassifier.serverName(packet);
+            if (name != null) {
+                if (serverNames == null) serverNames = new String[capacity];
+                serverNames[id] = name;
+            }
+        }
+    }
+
+    private boolean isReopened(int id, PacketView packet) {
+        int s = state[id];
+        return (s == FlowStats.State.CLOSED.ordinal() || s == FlowStats.State.RESET.ordinal())
+                && packet.hasFlag(PacketView.TCP_SYN) && !packet.hasFlag(PacketView.TCP_ACK);
+    }
+
+    private void open(int id, PacketView packet, boolean srcIsLow, long now) {
+        FlowStats.State s = FlowStats.State.OTHER;
+        boolean srcIsInitiator = true;
+        if (packet.isTcp()) {
+            boolean syn = packet.hasFlag(PacketView.TCP_SYN);
+            boolean ack = packet.hasFlag(PacketView.TCP_ACK);
+            if (syn && !ack) {
+                s = FlowStats.State.SYN_SENT;
+            } else if (syn) {
+                // SYN-ACK から見え始めたなら、宛先が接続を始めた側
+                s = FlowStats.State.SYN_RECEIVED;
+                srcIsInitiator = false;
+            } else {
+                s = FlowStats.State.ESTABLISHED;
+            }
+        }
+        state[id] = (byte) s.ordinal();
+        flags[id] = 0;
+        initiatorIsLow[id] = (srcIsLow == srcIsInitiator);
+        if (packet.isIpv6()) {
+            if (ipv6Words == null) ipv6Words = new long[capacity * 4];
+            int w = id * 4;
+            ipv6Words[w] = srcIsLow ? packet.srcIpv6High() : packet.dstIpv6High();
+            ipv6Words[w + 1] = srcIsLow ? packet.srcIpv6Low() : packet.dstIpv6Low();
+            ipv6Words[w + 2] = srcIsLow ? packet.dstIpv6High() : packet.srcIpv6High();
+            ipv6Words[w + 3] = srcIsLow ? packet.dstIpv6Low() : packet.srcIpv6Low();
+        }
+        firstSeenNanos[id] = now;
+        synNanos[id] = (s == FlowStats.State.SYN_SENT) ? now : 0;
+        highPorts[id] = (packet.isTcp() || packet.isUdp()) && Math.min(packet.srcPort(), packet.dstPort()) >= 1024;
+        clearCounters(id);
+        schedule(id, now + idleNanos(s.ordinal()));
+    }
+
+    private void clearCounters(int id) {
+        handshakeRttNanos[id] = 0;
+        srttNanos[id] = 0;
+        minRttNanos[id] = 0;
+        rttSamples[id] = 0;
+        dupAcks[id] = 0;
+        retransmissions[id] = 0;
+        intervalBytes[id] = 0;
+        application[id] = (byte) UNKNOWN;
+        inspected[id] = 0;
+        if (serverNames != null) serverNames[id] = null;
+        for (int i = id * 2; i < id * 2 + 2; i++) {
+            bytes[i] = 0;
+            packets[i] = 0;
+            sampleSentNanos[i] = 0;
+        }
+    }
+
+    private boolean updateTcp(int id, int d, PacketView packet, long now, boolean opened) {
+        int r = d ^ 1;
+        boolean syn = packet.hasFlag(PacketView.TCP_SYN);
+        boolean ack = packet.hasFlag(PacketView.TCP_ACK);
+        boolean fin = packet.hasFlag(PacketView.TCP_FIN);
+        int s = state[id];
+
+        // 状態の遷移
+        if (packet.hasFlag(PacketView.TCP_RST)) {
+            setState(id, FlowStats.State.RESET, now);
+        } else if (syn && !ack) {
+            // SYNの再送はどちらの応答か区別できないのでハンドシェイクRTTを測らない
+            if (!opened && s == FlowStats.State.SYN_SENT.ordinal() && d == 0) synNanos[id] = 0;
+        } else if (syn) {
+            if (s == FlowStats.State.SYN_SENT.ordinal() && d == 1) setState(id, FlowStats.State.SYN_RECEIVED, now);
+        } else if (ack && d == 0 && s == FlowStats.State.SYN_RECEIVED.ordinal()) {
+            setState(id, FlowStats.State.ESTABLISHED, now);
+            if (synNanos[id] != 0) {
+                handshakeRttNanos[id] = now - synNanos[id];
+                addRttSample(id, now - synNanos[id]);
+            }
+        }
+        if (fin) {
+            int f = flags[id] | (FIN_SEEN << d);
+            flags[id] = (byte) f;
+            s = state[id];
+            if ((f & (FIN_SEEN | FIN_SEEN << 1)) == (FIN_SEEN | FIN_SEEN << 1)) {
+                if (s != FlowStats.State.RESET.ordinal()) setState(id, FlowStats.State.CLOSED, now);
+            } else if (s != FlowStats.State.RESET.ordinal() && s != FlowStats.State.CLOSED.ordinal()) {
+                setState(id, FlowStats.State.CLOSING, now);
+            }
+        }
+
+        // この向きのデータ (SYNとFINはシーケンス番号を1つ消費する)
+        int i = id * 2 + d;
+        int seq = packet.sequenceNumber();
+        int segmentLength = packet.payloadLength() + (syn ? 1 : 0) + (fin ? 1 : 0);
+        boolean retransmission = false;
+        if (segmentLength > 0) {
+            int seqEnd = seq + segmentLength;
+            if ((flags[id] & (SEQ_SEEN << d)) == 0) {
+                flags[id] |= (byte) (SEQ_SEEN << d);
+                highestSeqEnd[i] = seqEnd;
+            } else if (isRetransmission(seq, segmentLength, packet.payloadLength(), highestSeqEnd[i])) {
+                retransmission = true;
+                retransmissions[id]++;
+                intervalRetransmissions++;
+                // 再送された範囲のACKは元の送信と区別できないので、その計測は捨てる (Karn のアルゴリズム)
+                if (sampleSentNanos[i] != 0 && seq - sampleSeqEnd[i] < 0) sampleSentNanos[i] = 0;
+            }
+            if (seqEnd - highestSeqEnd[i] > 0) {
+                highestSeqEnd[i] = seqEnd;
+                // 新しいデータを1つ選んで、ACKが返るまでの時間を測る (SYNはハンドシェイクで測る)
+                if (sampleSentNanos[i] == 0 && !syn) {
+                    sampleSeqEnd[i] = seqEnd;
+                    sampleSentNanos[i] = now;
+                }
+            }
+        }
+
+        // 逆向きのデータへのACK
+        if (ack) {
+            int ackNumber = packet.ackNumber();
+            int j = id * 2 + r;
+            if (sampleSentNanos[j] != 0 && ackNumber - sampleSeqEnd[j] >= 0) {
+                addRttSample(id, now - sampleSentNanos[j]);
+                sampleSentNanos[j] = 0;
+            }
+            // データを運ばないACKが、未確認のデータを残したまま同じ番号を繰り返したら重複ACK
+            boolean pure = segmentLength == 0 && !packet.hasFlag(PacketView.TCP_RST);
+            if (pure && (flags[id] & (ACK_SEEN << d)) != 0 && ackNumber == lastAck[i]
+                    && (flags[id] & (SEQ_SEEN << r)) != 0 && highestSeqEnd[j] - ackNumber > 0) {
+                dupAcks[id]++;
+                intervalDupAcks++;
+            }
+            flags[id] |= (byte) (ACK_SEEN << d);
+            lastAck[i] = ackNumber;
+        }
+        return retransmission;
+    }
+
+    /**
+     * 送信済みの最大値 highestSeqEnd より手前を運ぶセグメントなら再送 (シーケンス番号は32ビットで一周するので差の符号で比べる)
+     * キープアライブ (送信済みの最後の1バイトを載せた1バイトのセグメント) は再送に数えない
+     */
+    static boolean isRetransmission(int seq, int segmentLength, int payloadLength, int highestSeqEnd) {
+        boolean keepAlive = segmentLength == 1 && payloadLength == 1 && seq == highestSeqEnd - 1;
+        return segmentLength > 0 && seq - highestSeqEnd < 0 && !keepAlive;
+    }
+
+    private void addRttSample(int id, long rtt) {
+        if (rtt <= 0) return;
+        if (rttSamples[id] == 0) {
+            srttNanos[id] = rtt;
+            minRttNanos[id] = rtt;
+        } else {
+            srttNanos[id] += (rtt - srttNanos[id]) / 8;
+            minRttNanos[id] = Math.min(minRttNanos[id], rtt);
+        }
+        rttSamples[id]++;
+        intervalRttSamples++;
+    }
+
+    // 状態を変える。期限が短くなる状態ならホイールの枠も付け替える
+    private void setState(int id, FlowStats.State s, long now) {
+        if (state[id] == s.ordinal()) return;
+        state[id] = (byte) s.ordinal();
+        if (idleNanos(s.ordinal()) < IDLE_NANOS) {
+            unlink(id);
+            schedule(id, now + idleNanos(s.ordinal()));
+        }
+    }
+
+    private static long idleNanos(int s) {
+        if (s == FlowStats.State.CLOSED.ordinal() || s == FlowStats.State.RESET.ordinal()) return CLOSED_NANOS;
+        if (s == FlowStats.State.SYN_SENT.ordinal()) return HANDSHAKE_NANOS;
+        return IDLE_NANOS;
+    }
+
+    // ---- タイマーホイール ----
+    // パケットを見るたびに期限を延ばすのではなく、枠が回ってきたときに最終観測時刻を見て
+    // まだ期限前なら枠を付け替える (1パケットあたりの処理は最終観測時刻の更新だけ)
+
+    private void schedule(int id, long deadlineNanos) {
+        long tick = Math.max(deadlineNanos / TICK_NANOS, currentTick + 1);
+        if (currentTick != Long.MIN_VALUE) tick = Math.min(tick, currentTick + WHEEL_SLOTS - 1);
+        int slot = (int) (tick & WHEEL_MASK);
+        if (wheelSlot[id] != NONE) unlink(id);
+        int head = wheelHeads[slot];
+        wheelNext[id] = head;
+        wheelPrev[id] = NONE;
+        if (head != NONE) wheelPrev[head] = id;
+        wheelHeads[slot] = id;
+        wheelSlot[id] = slot;
+    }
+
+    private void unlink(int id) {
+        int slot = wheelSlot[id];
+        if (slot == NONE) return;
+        int prev = wheelPrev[id];
+        int next = wheelNext[id];
+        if (prev != NONE) wheelNext[prev] = next;
+        else wheelHeads[slot] = next;
+        if (next != NONE) wheelPrev[next] = prev;
+        wheelSlot[id] = NONE;
+    }
+
+    // キャプチャ時刻を進め、通り過ぎた枠のフローを調べる
+    private void advance(long now) {
+        long nowTick = now / TICK_NANOS;
+        if (currentTick == Long.MIN_VALUE) {
+            currentTick = nowTick;
+            return;
+        }
+        if (nowTick <= currentTick) return;
+        // 長く間が空いても一周分だけ調べればよい
+        long target = nowTick;
+        currentTick = Math.max(currentTick, nowTick - WHEEL_SLOTS);
+        while (currentTick < target) {
+            currentTick++;
+            expireSlot((int) (currentTick & WHEEL_MASK), now);
+        }
+    }
+
+    private void expireSlot(int slot, long now) {
+        int id = wheelHeads[slot];
+        wheelHeads[slot] = NONE;
+        while (id != NONE) {
+            int next = wheelNext[id];
+            wheelSlot[id] = NONE;
+            long deadline = flows.lastSeenNanos(id) + idleNanos(state[id]);
+            if (now - deadline >= 0) {
+                flows.remove(id);
+                intervalEvictions++;
+            } else {
+                schedule(id, deadline);
+            }
+            id = next;
+        }
+    }
+
+    /**
+     * 期間中にパケットのあったフローから上位 n 件ずつを選び、期間の値をリセットする
+     */
+    public FlowStats takeIntervalStats(int n) {
+        int[] byBytes = new int[n];
+        long[] bytesKeys = new long[n];
+        int bytesCount = 0;
+        int[] byRtt = new int[n];
+        long[] rttKeys = new long[n];
+        int rttCount = 0;
+        int active = 0;
+        for (int k = 0; k < touchedCount; k++) {
+            int id = touched[k];
+            isTouched[id] = false;
+            // 期間中に追い出されたフロー (番号が別のフローに使われていることもある) は intervalBytes が 0
+            if (!flows.isUsed(id) || intervalBytes[id] == 0) continue;
+            active++;
+            bytesCount = insertTop(byBytes, bytesKeys, bytesCount, id, intervalBytes[id]);
+            if (rttSamples[id] > 0) rttCount = insertTop(byRtt, rttKeys, rttCount, id, srttNanos[id]);
+        }
+        FlowStats.Flow[] topBytes = new FlowStats.Flow[bytesCount];
+        for (int k = 0; k < bytesCount; k++) topBytes[k] = flow(byBytes[k]);
+        FlowStats.Flow[] topRtt = new FlowStats.Flow[rttCount];
+        for (int k = 0; k < rttCount; k++) topRtt[k] = flow(byRtt[k]);
+
+        for (int k = 0; k < touchedCount; k++) {
+            intervalBytes[touched[k]] = 0;
+        }
+        touchedCount = 0;
+        FlowStats stats = new FlowStats(flows.size(), active, intervalEvictions, intervalRttSamples, intervalDupAcks,
+                intervalRetransmissions, intervalApplicationBytes.clone(), intervalSmuggledBytes, topBytes, topRtt);
+        intervalEvictions = 0;
+        intervalRttSamples = 0;
+        intervalDupAcks = 0;
+        intervalRetransmissions = 0;
+        Arrays.fill(intervalApplicationBytes, 0);
+        intervalSmuggledBytes = 0;
+        return stats;
+    }
+
+    /**
+     * 保存: TCPのフローごとにキー・最終観測時刻・状態と、向きごとの送信済みシーケンス番号の最大値 (シャードのスレッドから呼ぶ)
+     * 再起動直後に続きのセグメントを新しい接続と見誤らず、再送も見逃さないため。RTTやバイト数は期間の値なので書かない
+     */
+    void writeState(DataOutputStream out) throws IOException {
+        int count = 0;
+        for (int id = 0; id < capacity; id++) {
+            if (flows.isUsed(id) && (flows.keyC(id) & 0xff) == PacketView.PROTO_TCP) count++;
+        }
+        out.writeInt(count);
+        for (int id = 0; id < capacity; id++) {
+            if (!flows.isUsed(id) || (flows.keyC(id) & 0xff) != PacketView.PROTO_TCP) continue;
+            out.writeLong(flows.keyA(id));
+            out.writeLong(flows.keyB(id));
+            out.writeLong(flows.keyC(id));
+            out.writeLong(flows.lastSeenNanos(id));
+            out.writeByte(state[id]);
+            out.writeByte(flags[id]);
+            out.writeBoolean(initiatorIsLow[id]);
+            out.writeInt(highestSeqEnd[id * 2]);
+            out.writeInt(highestSeqEnd[id * 2 + 1]);
+            if (flows.keyA(id) < 0) {
+                for (int w = id * 4; w < id * 4 + 4; w++) out.writeLong(ipv6Words[w]);
+            }
+        }
+    }
+
+    // writeState で書いたフローの数を読み、1つずつ restoreFlow に渡す (シャードのスレッドを始める前に呼ぶ)
+    static void readState(ByteBuffer in, Restorer into) {
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining() / SAVED_FLOW_BYTES) throw new IllegalArgumentException("フローの数が範囲外です: " + count);
+        for (int i = 0; i < count; i++) {
+            long a = in.getLong(), b = in.getLong(), c = in.getLong(), lastSeen = in.getLong();
+            int s = in.get(), f = in.get();
+            boolean initiatorIsLow = in.get() != 0;
+            int seqEndLow = in.getInt(), seqEndHigh = in.getInt();
+            long[] ipv6 = null;
+            if (a < 0) {
+                ipv6 = new long[4];
+                for (int w = 0; w < 4; w++) ipv6[w] = in.getLong();
+            }
+            into.restoreFlow(a, b, c, lastSeen, s, f, initiatorIsLow, seqEndLow, seqEndHigh, ipv6);
+        }
+    }
+
+    static final int SAVED_FLOW_BYTES = 8 * 4 + 3 + 4 * 2;
+
+    // readState の読み先 (パイプラインはキーのハッシュで担当シャードの FlowTable に振り分ける)
+    interface Restorer {
+        void restoreFlow(long keyA, long keyB, long keyC, long lastSeenNanos, int state, int flags, boolean initiatorIsLow,
+                         int seqEndLow, int seqEndHigh, long[] ipv6Words);
+    }
+
+    // 保存したフローを1つ戻す (満杯なら古いものから追い出す)
+    void restoreFlow(long keyA, long keyB, long keyC, long lastSeenNanos, int s, int f, boolean initiatorIsLow,
+                     int seqEndLow, int seqEndHigh, long[] words) {
+        if (s < 0 || s >= STATES.length) throw new IllegalArgumentException("フローの状態が範囲外です: " + s);
+        int id = flows.findOrInsert(keyA, keyB, keyC, lastSeenNanos);
+        state[id] = (byte) s;
+        flags[id] = (byte) (f & ~(ACK_SEEN | ACK_SEEN << 1)); // 直前のACK番号は保存しないので、重複ACKの比較は次のACKから
+        this.initiatorIsLow[id] = initiatorIsLow;
+        firstSeenNanos[id] = lastSeenNanos;
+        synNanos[id] = 0;
+        int lowPort = (int) (keyC >>> 24), highPort = (int) (keyC >>> 8) & 0xffff;
+        highPorts[id] = Math.min(lowPort, highPort) >= 1024;
+        clearCounters(id);
+        highestSeqEnd[id * 2] = seqEndLow;
+        highestSeqEnd[id * 2 + 1] = seqEndHigh;
+        if (words != null) {
+            if (ipv6Words == null) ipv6Words = new long[capacity * 4];
+            System.arraycopy(words, 0, ipv6Words, id * 4, 4);
+        }
+        schedule(id, lastSeenNanos + idleNanos(s));
+    }
+
+    // 大きい順に並んだ上位 n 件 (ids, keys) に入れる
+    private static int insertTop(int[] ids, long[] keys, int count, int id, long key) {
+        int n = ids.length;
+        if (n == 0 || (count == n && key <= keys[n - 1])) return count;
+        int pos = (count < n) ? count++ : n - 1;
+        while (pos > 0 && keys[pos - 1] < key) {
+            ids[pos] = ids[pos - 1];
+            keys[pos] = keys[pos - 1];
+            pos--;
+        }
+        ids[pos] = id;
+        keys[pos] = key;
+        return count;
+    }
+
+    private FlowStats.Flow flow(int id) {
+        boolean low = initiatorIsLow[id];
+        int lowPort = (int) (flows.keyC(id) >>> 24);
+        int highPort = (int) (flows.keyC(id) >>> 8) & 0xffff;
+        int f = id * 2;
+        return new FlowStats.Flow(address(id, low), low ? lowPort : highPort, address(id, !low), low ? highPort : lowPort,
+                (int) flows.keyC(id) & 0xff, STATES[state[id]], intervalBytes[id], bytes[f], bytes[f + 1], packets[f], packets[f + 1],
+                handshakeRttNanos[id], srttNanos[id], minRttNanos[id], rttSamples[id], dupAcks[id], retransmissions[id],
+                flows.lastSeenNanos(id) - firstSeenNanos[id], APPLICATIONS[application[id]],
+                (serverNames != null) ? serverNames[id] : null);
+    }
+
+    // キーの小さい側 (lowSide) か大きい側のアドレスの表記
+    private String address(int id, boolean lowSide) {
+        long key = lowSide ? flows.keyA(id) : flows.keyB(id);
+        if (key >= 0) return PacketView.formatIp((int) key);
+        int w = id * 4 + (lowSide ? 0 : 2);
+        return PacketView.formatIpv6(ipv6Words[w], ipv6Words[w + 1]);
+    }
+}
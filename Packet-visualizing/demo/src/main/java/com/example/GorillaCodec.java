@@ -0,0 +1,205 @@
+package com.example;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 時系列ブロックの圧縮 (Facebook Gorilla 方式)
+ * - 時刻 (ミリ秒): 差分の差分 (delta-of-delta) を可変長のビット列にする
+ * - 値 (double): 前の値との XOR のうち、意味のあるビットだけを書く
+ * ブロックの先頭に各列のバイト位置を書いておくので、必要な列だけを読める
+ */
+final class GorillaCodec {
+    private GorillaCodec() {
+    }
+
+    // 上位ビットから詰めていくビット列
+    static final class BitWriter {
+        private byte[] bytes = new byte[256];
+        private long bitPosition = 0;
+
+        void writeBit(boolean bit) {
+            write(bit ? 1 : 0, 1);
+        }
+
+        void write(long value, int bits) {
+            while (bits > 0) {
+                int byteIndex = (int) (bitPosition >>> 3);
+                if (byteIndex >= bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                int free = 8 - (int) (bitPosition & 7);
+                int take = Math.min(free, bits);
+                int chunk = (int) (value >>> (bits - take)) & ((1 << take) - 1);
+                bytes[byteIndex] |= (byte) (chunk << (free - take));
+                bits -= take;
+                bitPosition += take;
+            }
+        }
+
+        // 次の書き込みをバイト境界から始める
+        void align() {
+            bitPosition = (bitPosition + 7) & ~7L;
+        }
+
+        int byteLength() { return (int) ((bitPosition + 7) >>> 3); }
+
+        byte[] toBytes() { return Arrays.copyOf(bytes, byteLength()); }
+    }
+
+    static final class BitReader {
+        private final ByteBuffer buffer;
+        private final int start;
+        private long bitPosition = 0;
+
+        BitReader(ByteBuffer buffer, int start) {
+            this.buffer = buffer;
+            this.start = start;
+        }
+
+        boolean readBit() {
+            return read(1) != 0;
+        }
+
+        long read(int bits) {
+            long value = 0;
+            while (bits > 0) {
+                int b = buffer.get(start + (int) (bitPosition >>> 3)) & 0xff;
+                int available = 8 - (int) (bitPosition & 7);
+                int take = Math.min(available, bits);
+                value = (value << take) | ((b >>> (available - take)) & ((1 << take) - 1));
+                bits -= take;
+                bitPosition += take;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * count 行分の時刻と各列を1つのブロックに圧縮する
+     * 形式: int[列数+1] 各ストリームの開始位置 (ブロック先頭から) → 時刻のストリーム → 列ごとのストリーム
+     */
+    static byte[] encode(long[] timestamps, double[][] columns, int from, int count) {
+        int streams = columns.length + 1;
+        int headerBytes = streams * 4;
+        BitWriter writer = new BitWriter();
+        int[] offsets = new int[streams];
+
+        offsets[0] = headerBytes;
+        encodeTimestamps(writer, timestamps, from, count);
+        for (int c = 0; c < columns.length; c++) {
+            writer.align();
+            offsets[c + 1] = headerBytes + writer.byteLength();
+            encodeValues(writer, columns[c], from, count);
+        }
+
+        byte[] body = writer.toBytes();
+        ByteBuffer block = ByteBuffer.allocate(headerBytes + body.length);
+        for (int offset : offsets) {
+            block.putInt(offset);
+        }
+        block.put(body);
+        return block.array();
+    }
+
+    // ブロックの時刻をすべて読む
+    static void decodeTimestamps(ByteBuffer buffer, int blockStart, int count, long[] out) {
+        BitReader reader = new BitReader(buffer, blockStart + buffer.getInt(blockStart));
+        long previous = reader.read(64);
+        long delta = 0;
+        if (count > 0) out[0] = previous;
+        for (int i = 1; i < count; i++) {
+            delta += readDeltaOfDelta(reader);
+            previous += delta;
+            out[i] = previous;
+        }
+    }
+
+    // ブロックの column 列目 (0始まり) の値をすべて読む
+    static void decodeColumn(ByteBuffer buffer, int blockStart, int column, int count, double[] out) {
+        BitReader reader = new BitReader(buffer, blockStart + buffer.getInt(blockStart + (column + 1) * 4));
+        long previous = reader.read(64);
+        int leading = -1, trailing = 0;
+        if (count > 0) out[0] = Double.longBitsToDouble(previous);
+        for (int i = 1; i < count; i++) {
+            if (reader.readBit()) {
+                if (reader.readBit()) {
+                    leading = (int) reader.read(5);
+                    int length = (int) reader.read(6) + 1;
+                    trailing = 64 - leading - length;
+                }
+                int length = 64 - leading - trailing;
+                previous ^= reader.read(length) << trailing;
+            }
+            out[i] = Double.longBitsToDouble(previous);
+        }
+    }
+
+    private static void encodeTimestamps(BitWriter writer, long[] timestamps, int from, int count) {
+        long previous = timestamps[from];
+        long previousDelta = 0;
+        writer.write(previous, 64);
+        for (int i = from + 1; i < from + count; i++) {
+            long delta = timestamps[i] - previous;
+            long dod = delta - previousDelta;
+            if (dod == 0) {
+                writer.write(0b0, 1);
+            } else if (dod >= -63 && dod <= 64) {
+                writer.write(0b10, 2);
+                writer.write(dod + 63, 7);
+            } else if (dod >= -255 && dod <= 256) {
+                writer.write(0b110, 3);
+                writer.write(dod + 255, 9);
+            } else if (dod >= -2047 && dod <= 2048) {
+                writer.write(0b1110, 4);
+                writer.write(dod + 2047, 12);
+            } else if (dod >= Integer.MIN_VALUE && dod <= Integer.MAX_VALUE) {
+                writer.write(0b11110, 5);
+                writer.write(dod, 32);
+            } else {
+                writer.write(0b11111, 5);
+                writer.write(dod, 64);
+            }
+            previous = timestamps[i];
+            previousDelta = delta;
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader reader) {
+        if (!reader.readBit()) return 0;
+        if (!reader.readBit()) return reader.read(7) - 63;
+        if (!reader.readBit()) return reader.read(9) - 255;
+        if (!reader.readBit()) return reader.read(12) - 2047;
+        if (!reader.readBit()) return (int) reader.read(32);
+        return reader.read(64);
+    }
+
+    private static void encodeValues(BitWriter writer, double[] values, int from, int count) {
+        long previous = Double.doubleToLongBits(values[from]);
+        int previousLeading = -1, previousTrailing = 0;
+        writer.write(previous, 64);
+        for (int i = from + 1; i < from + count; i++) {
+            long bits = Double.doubleToLongBits(values[i]);
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                writer.writeBit(false);
+                continue;
+            }
+            writer.writeBit(true);
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                // 前回の範囲に収まるので、範囲の情報は書かない
+                writer.writeBit(false);
+                writer.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            } else {
+                int length = 64 - leading - trailing;
+                writer.writeBit(true);
+                writer.write(leading, 5);
+                writer.write(length - 1, 6);
+                writer.write(xor >>> trailing, length);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+    }
+}
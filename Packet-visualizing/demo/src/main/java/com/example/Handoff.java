@@ -0,0 +1,56 @@
+package com.example;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * 1つのスレッドだけが触る状態から、別のスレッドが値を作ってもらうための受け渡し
+ * 頼む側は request してから await で待ち、持ち主のスレッドは処理の合間に serve を呼ぶ (頼まれていなければ volatile を2回読むだけ)
+ * 持ち主のスレッドが動いていないか (開始前・終了後)、頼んだ側が持ち主自身なら、頼んだ側で作る
+ * 要求には番号を振り、作った値にはどの要求に答えたかの番号を付ける
+ * 時間切れで諦めた要求の値が後から届いても、次の要求の await はそれを受け取らない
+ * 頼む側は1つのスレッド (か、同じロックの中) から呼ぶ
+ */
+final class Handoff<T> {
+    private final Supplier<T> producer;
+    private volatile long requested = 0; // 最後に頼んだ要求の番号 (頼む側だけが書く)
+    private volatile long served = 0;    // ready がどの要求に答えた値か (ready を書いてから書く)
+    private volatile T ready;
+
+    Handoff(Supplier<T> producer) {
+        this.producer = producer;
+    }
+
+    // 頼む側: 作るよう頼む (結果は await で受け取る。前の値は手放す)
+    void request() {
+        ready = null;
+        requested = requested + 1;
+    }
+
+    // 持ち主のスレッド: 答えていない要求があれば作って渡す (値を書いてから番号を書く)
+    void serve() {
+        long seq = requested;
+        if (seq == served) return;
+        ready = producer.get();
+        served = seq;
+    }
+
+    /**
+     * 最後の request の結果を待つ (それより前の要求に答えた値は受け取らない)
+     * @param owner 持ち主のスレッド (まだ決まっていなければ null)
+     * @return 時間内に返ってこなければ null
+     */
+    T await(Thread owner, long timeoutNanos) {
+        long seq = requested;
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (served != seq) {
+            if (owner == null || owner == Thread.currentThread() || !owner.isAlive()) {
+                serve();
+                break;
+            }
+            if (System.nanoTime() - deadline >= 0) return null;
+            LockSupport.parkNanos(20_000);
+        }
+        return ready;
+    }
+}
@@ -0,0 +1,102 @@
+package com.example;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog による異なりキー数の見積もり (2^precision バイトの固定メモリ、標準誤差 1.04/√(2^precision))
+ * レジスタごとの最大値をとるだけで足し合わせられるので、シャードどうしでも期間どうしでもまとめられる
+ * 登録数が少ないうちは線形カウンティングに切り替える
+ */
+class HyperLogLog {
+    private final int precision;
+    private final byte[] registers;
+    private boolean empty = true;
+
+    HyperLogLog(int precision) {
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    public void add(long key) {
+        addHash(registers, 0, precision, mix64(key));
+        empty = false;
+    }
+
+    public double estimate() {
+        return empty ? 0 : estimate(registers, 0, precision);
+    }
+
+    // 見積もりの相対標準誤差
+    public double relativeError() {
+        return relativeError(precision);
+    }
+
+    public void mergeFrom(HyperLogLog other) {
+        if (other.empty) return;
+        merge(registers, 0, other.registers, 0, precision);
+        empty = false;
+    }
+
+    // other と同じ内容にする
+    public void copyFrom(HyperLogLog other) {
+        System.arraycopy(other.registers, 0, registers, 0, registers.length);
+        empty = other.empty;
+    }
+
+    public void reset() {
+        if (empty) return;
+        Arrays.fill(registers, (byte) 0);
+        empty = true;
+    }
+
+    public boolean isEmpty() { return empty; }
+
+    // ---- 1つの配列にたくさんのスケッチを並べる表 (FanOutTable) からも使う ----
+
+    static void addHash(byte[] registers, int offset, int precision, long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // 残りのビットの先頭の0の数 + 1 (番兵のビットで上限を 64 - precision + 1 にする)
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[offset + index]) registers[offset + index] = (byte) rank;
+    }
+
+    static double estimate(byte[] registers, int offset, int precision) {
+        int m = 1 << precision;
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < m; i++) {
+            int r = registers[offset + i];
+            sum += Math.scalb(1.0, -r);
+            if (r == 0) zeros++;
+        }
+        double alpha = (m == 16) ? 0.673 : (m == 32) ? 0.697 : (m == 64) ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double raw = alpha * m * m / sum;
+        if (raw <= 2.5 * m && zeros > 0) {
+            return m * Math.log((double) m / zeros); // 少ないうちは線形カウンティングの方が正確
+        }
+        return raw;
+    }
+
+    static void merge(byte[] into, int intoOffset, byte[] from, int fromOffset, int precision) {
+        int m = 1 << precision;
+        for (int i = 0; i < m; i++) {
+            byte r = from[fromOffset + i];
+            if (r > into[intoOffset + i]) into[intoOffset + i] = r;
+        }
+    }
+
+    static double relativeError(int precision) {
+        return 1.04 / Math.sqrt(1 << precision);
+    }
+
+    // 64ビットのキーをよく混ぜる (MurmurHash3 の fmix64。よく使われる 0 が 0 にならないよう先にずらす)
+    static long mix64(long key) {
+        long h = key + 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
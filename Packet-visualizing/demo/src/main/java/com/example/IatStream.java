@@ -0,0 +1,166 @@
+package com.example;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 1つのストリーム (全体、または1つのポート) の呼吸 (IAT) をストリーミングで集計する
+ * 平均と分散は Welford 法で1パケットごとに O(1) で更新し、サンプルは保持しない
+ * RhythmAnalyzer を呼ぶ1つのスレッドだけが触る
+ */
+class IatStream {
+    private static final int LAST_PACKETS = 100;
+    private static final long[] WINDOW_NANOS = {0, 1_000_000_000L, 10_000_000_000L, 60_000_000_000L};
+    private static final double EWMA_ALPHA = 1.0 / 16;
+
+    // 1つの窓の途中経過
+    private static final class Accumulator {
+        private long count;
+        private double mean;
+        private double m2;
+        private long min;
+        private long max;
+        private final LogHistogram jitter = new LogHistogram();
+        private long windowEndNanos = Long.MIN_VALUE; // 時間窓の締め時刻 (パケット数の窓では使わない)
+
+        private void add(long iat, long jitterNanos) {
+            count++;
+            double delta = iat - mean;
+            mean += delta / count;
+            m2 += delta * (iat - mean);
+            if (count == 1 || iat < min) min = iat;
+            if (count == 1 || iat > max) max = iat;
+            if (jitterNanos >= 0) jitter.record(jitterNanos);
+        }
+
+        private RhythmWindow close() {
+            RhythmWindow window = (count == 0) ? RhythmWindow.EMPTY
+                    : new RhythmWindow(count, mean, Math.sqrt(m2 / count), min, max,
+                            jitter.percentile(0.50), jitter.percentile(0.90), jitter.percentile(0.99));
+            count = 0;
+            mean = 0;
+            m2 = 0;
+            jitter.reset();
+            return window;
+        }
+    }
+
+    private int port;
+    private long lastPacketNanos;
+    private long lastIat;
+    private double ewmaIat;
+    private double ewmaJitter;
+    private boolean restored = false; // 保存から戻した直後 (次のパケットは間隔を測らずに起点にする)
+    private final Accumulator[] accumulators = new Accumulator[RhythmStats.WINDOWS];
+    private final RhythmWindow[] closed = new RhythmWindow[RhythmStats.WINDOWS];
+
+    IatStream(int port) {
+        for (int w = 0; w < RhythmStats.WINDOWS; w++) {
+            accumulators[w] = new Accumulator();
+        }
+        reset(port);
+    }
+
+    // 別のポート用に使い回すため、状態をすべて消す
+    void reset(int port) {
+        this.port = port;
+        lastPacketNanos = Long.MIN_VALUE;
+        lastIat = -1;
+        ewmaIat = 0;
+        ewmaJitter = 0;
+        restored = false;
+        for (int w = 0; w < RhythmStats.WINDOWS; w++) {
+            accumulators[w].close();
+            accumulators[w].windowEndNanos = Long.MIN_VALUE;
+            closed[w] = RhythmWindow.EMPTY;
+        }
+    }
+
+    int getPort() { return port; }
+    long getLastPacketNanos() { return lastPacketNanos; }
+
+    // 10秒窓で最後に締めたサンプル数 (一覧の並べ替え用)
+    long recentCount() { return closed[RhythmStats.SECOND_10].count; }
+
+    void add(long timestampNanos) {
+        if (lastPacketNanos == Long.MIN_VALUE || restored) {
+            // 止まっていた間を1つの長いIATとして数えない
+            restored = false;
+            lastPacketNanos = timestampNanos;
+            return;
+        }
+        // タイムスタンプが前後した場合は0として扱う
+        long iat = Math.max(0, timestampNanos - lastPacketNanos);
+        lastPacketNanos = timestampNanos;
+        long jitter = (lastIat < 0) ? -1 : Math.abs(iat - lastIat);
+        lastIat = iat;
+
+        ewmaIat = (ewmaIat == 0) ? iat : ewmaIat + EWMA_ALPHA * (iat - ewmaIat);
+        if (jitter >= 0) ewmaJitter += EWMA_ALPHA * (jitter - ewmaJitter);
+
+        for (int w = RhythmStats.SECOND_1; w < RhythmStats.WINDOWS; w++) {
+            roll(w, timestampNanos);
+            accumulators[w].add(iat, jitter);
+        }
+
+        Accumulator last = accumulators[RhythmStats.LAST_100];
+        last.add(iat, jitter);
+        if (last.count >= LAST_PACKETS) {
+            closed[RhythmStats.LAST_100] = last.close();
+        }
+    }
+
+    // 時間窓の締め時刻を過ぎていたら締める。丸ごと空の窓を挟んだ場合は直近の窓を空として扱う
+    private void roll(int w, long timestampNanos) {
+        Accumulator acc = accumulators[w];
+        long length = WINDOW_NANOS[w];
+        if (acc.windowEndNanos != Long.MIN_VALUE && timestampNanos >= acc.windowEndNanos) {
+            RhythmWindow window = acc.close();
+            closed[w] = (timestampNanos >= acc.windowEndNanos + length) ? RhythmWindow.EMPTY : window;
+        }
+        if (acc.windowEndNanos == Long.MIN_VALUE || timestampNanos >= acc.windowEndNanos) {
+            acc.windowEndNanos = Math.floorDiv(timestampNanos, length) * length + length;
+        }
+    }
+
+    // 保存: EWMA と締めた窓 (途中の窓は保存しない)
+    void writeState(DataOutputStream out) throws IOException {
+        out.writeInt(port);
+        out.writeLong(lastPacketNanos);
+        out.writeDouble(ewmaIat);
+        out.writeDouble(ewmaJitter);
+        for (RhythmWindow window : closed) {
+            out.writeLong(window.count);
+            out.writeDouble(window.meanNanos);
+            out.writeDouble(window.stdDevNanos);
+            out.writeLong(window.minNanos);
+            out.writeLong(window.maxNanos);
+            out.writeLong(window.jitterP50Nanos);
+            out.writeLong(window.jitterP90Nanos);
+            out.writeLong(window.jitterP99Nanos);
+        }
+    }
+
+    // writeState で書いたストリームを読む
+    static IatStream readState(ByteBuffer in) {
+        int port = in.getInt();
+        if (port < RhythmStats.ALL_PORTS || port > 65535) throw new IllegalArgumentException("ポートが範囲外です: " + port);
+        IatStream stream = new IatStream(port);
+        stream.lastPacketNanos = in.getLong();
+        stream.ewmaIat = in.getDouble();
+        stream.ewmaJitter = in.getDouble();
+        for (int w = 0; w < RhythmStats.WINDOWS; w++) {
+            long count = in.getLong();
+            RhythmWindow window = new RhythmWindow(count, in.getDouble(), in.getDouble(),
+                    in.getLong(), in.getLong(), in.getLong(), in.getLong(), in.getLong());
+            stream.closed[w] = (count == 0) ? RhythmWindow.EMPTY : window;
+        }
+        stream.restored = stream.lastPacketNanos != Long.MIN_VALUE;
+        return stream;
+    }
+
+    RhythmStats snapshot() {
+        return new RhythmStats(port, closed.clone(), ewmaIat, ewmaJitter);
+    }
+}
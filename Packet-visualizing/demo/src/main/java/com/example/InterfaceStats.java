@@ -0,0 +1,51 @@
+package com.example;
+
+/**
+ * キャプチャ (インターフェースまたは pcap ファイル) ごとの件数 (読み取り専用)
+ * 累計の値どうしの差 (minus) で、集計期間ごとの値にする
+ */
+public class InterfaceStats {
+    private final String[] names;
+    private final long[] packets;
+    private final long[] bytes;
+    private final long[] latePackets;
+    private final CaptureStats[] capture;
+
+    InterfaceStats(String[] names, long[] packets, long[] bytes, long[] latePackets, CaptureStats[] capture) {
+        this.names = names;
+        this.packets = packets;
+        this.bytes = bytes;
+        this.latePackets = latePackets;
+        this.capture = capture;
+    }
+
+    public int size() { return names.length; }
+
+    public String name(int i) { return names[i]; }
+
+    // 分析に回したパケット数とバイト数 (フレーム長)
+    public long packets(int i) { return packets[i]; }
+    public long bytes(int i) { return bytes[i]; }
+
+    // 並べ替えの待ち時間を過ぎてから届き、時刻順を守れなかったパケット数
+    public long latePackets(int i) { return latePackets[i]; }
+
+    // カーネル側の取りこぼしと、並べ替え用のリングが満杯で捨てた数 (analysisDropped)
+    public CaptureStats capture(int i) { return capture[i]; }
+
+    // earlier からの増分 (同じ CaptureManager から取ったものどうしで使う)
+    public InterfaceStats minus(InterfaceStats earlier) {
+        int n = names.length;
+        long[] p = new long[n];
+        long[] b = new long[n];
+        long[] l = new long[n];
+        CaptureStats[] c = new CaptureStats[n];
+        for (int i = 0; i < n; i++) {
+            p[i] = Math.max(0, packets[i] - earlier.packets[i]);
+            b[i] = Math.max(0, bytes[i] - earlier.bytes[i]);
+            l[i] = Math.max(0, latePackets[i] - earlier.latePackets[i]);
+            c[i] = capture[i].minus(earlier.capture[i]);
+        }
+        return new InterfaceStats(names, p, b, l, c);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example;
+
+import java.util.Arrays;
+
+/**
+ * IPv4アドレス (int) ごとのバイト数を数える表 (文字列やボクシングを使わない線形探索のハッシュ表)
+ * maxEntries を超える新しいキーは受け付けず add が false を返す。値0は空きを表す (1つのスレッドから使う)
+ */
+class IpByteMap {
+    private final int maxEntries;
+    private int[] keys;
+    private long[] values;
+    private int mask;
+    private int size = 0;
+
+    IpByteMap(int initialCapacity, int maxEntries) {
+        int capacity = Integer.highestOneBit(Math.max(16, initialCapacity) * 2 - 1);
+        this.maxEntries = maxEntries;
+        keys = new int[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return キーが新しく、上限に達していて数えられなかったとき false
+     */
+    public boolean add(int key, long bytes) {
+        if (bytes <= 0) return true;
+        int slot = find(key);
+        if (values[slot] != 0) {
+            values[slot] += bytes;
+            return true;
+        }
+        if (size >= maxEntries) return false;
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+            slot = find(key);
+        }
+        keys[slot] = key;
+        values[slot] = bytes;
+        size++;
+        return true;
+    }
+
+    public int size() { return size; }
+
+    // 添字 0〜capacity()-1 で中身をたどる (valueAt が0の場所は空き)
+    public int capacity() { return keys.length; }
+    public int keyAt(int slot) { return keys[slot]; }
+    public long valueAt(int slot) { return values[slot]; }
+
+    public void reset() {
+        if (size == 0) return;
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    private int find(int key) {
+        int slot = mix(key) & mask;
+        while (values[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new long[oldValues.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == 0) continue;
+            int slot = find(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private static int mix(int key) {
+        long h = (key & 0xffffffffL) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32);
+    }
+}
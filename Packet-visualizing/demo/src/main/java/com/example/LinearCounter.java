@@ -0,0 +1,68 @@
+package com.example;
+
+import java.util.Arrays;
+
+/**
+ * 線形カウンティングによる異なりキー数の見積もり (ビットマップ 2^16 ビット = 8KB の固定メモリ)
+ * ビットマップの大きさの数倍程度までは誤差数%で数えられる。ビットの OR で足し合わせられる
+ */
+class LinearCounter {
+    private static final int BITS_LOG2 = 16;
+    private static final int BITS = 1 << BITS_LOG2;
+
+    private final long[] words = new long[BITS / 64];
+    private boolean empty = true;
+
+    public void add(int key) {
+        int bit = (int) (mix(key) >>> (64 - BITS_LOG2));
+        words[bit >>> 6] |= 1L << bit;
+        empty = false;
+    }
+
+    // 異なりキー数の見積もり
+    public double estimate() {
+        int zeros = zeroBits();
+        if (zeros == 0) return BITS * Math.log(BITS); // 飽和したので見積もれる上限を返す
+        return -BITS * Math.log((double) zeros / BITS);
+    }
+
+    // 見積もりの標準誤差 (個数)
+    public double standardError() {
+        double n = estimate();
+        if (n == 0) return 0;
+        double t = n / BITS;
+        return Math.sqrt(BITS * (Math.exp(t) - t - 1));
+    }
+
+    public void mergeFrom(LinearCounter other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] |= other.words[i];
+        }
+        empty &= other.empty;
+    }
+
+    public void reset() {
+        if (empty) return;
+        Arrays.fill(words, 0);
+        empty = true;
+    }
+
+    // 連続したアドレスでも偏りなく散らばるようにビットをよく混ぜる (MurmurHash3 の fmix64)
+    static long mix(int key) {
+        long h = key & 0xffffffffL;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private int zeroBits() {
+        int ones = 0;
+        for (long word : words) {
+            ones += Long.bitCount(word);
+        }
+        return BITS - ones;
+    }
+}
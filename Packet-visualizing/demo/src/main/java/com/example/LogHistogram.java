@@ -0,0 +1,71 @@
+package com.example;
+
+import java.util.Arrays;
+
+/**
+ * 大きさの決まった対数ヒストグラム (ナノ秒などの正の long 値用)
+ * 2のべき乗ごとの区間を4つに分けて数えるので、パーセンタイルの誤差はおよそ ±12.5% に収まる
+ * 配列の大きさは固定で、記録のたびにメモリを確保しない (1つのスレッドから使う)
+ */
+class LogHistogram {
+    private static final int SUB_BITS = 2;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40; // 2^40 ns ≒ 18分。これを超える値は最後の区間に入れる
+    static final int BUCKETS = (MAX_EXPONENT + 1) * SUB_COUNT;
+
+    private final int[] counts = new int[BUCKETS];
+    private long total = 0;
+
+    public void record(long value) {
+        counts[bucketOf(value)]++;
+        total++;
+    }
+
+    public long getTotal() { return total; }
+
+    public void reset() {
+        if (total == 0) return;
+        Arrays.fill(counts, 0);
+        total = 0;
+    }
+
+    // 他のヒストグラムの件数を足し込む
+    public void mergeFrom(LogHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+    }
+
+    /**
+     * @param quantile 0.0〜1.0 (0.99 なら99パーセンタイル)
+     * @return 該当する区間の代表値。記録がなければ0
+     */
+    public long percentile(double quantile) {
+        if (total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) return midpointOf(i);
+        }
+        return midpointOf(BUCKETS - 1);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_COUNT) return (int) Math.max(value, 0); // 0〜3 はそのまま
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return exponent * SUB_COUNT + sub;
+    }
+
+    static long midpointOf(int bucket) {
+        if (bucket < SUB_COUNT) return bucket;
+        int exponent = bucket / SUB_COUNT;
+        int sub = bucket % SUB_COUNT;
+        long width = 1L << (exponent - SUB_BITS);
+        long lower = (long) (SUB_COUNT + sub) * width;
+        return lower + width / 2;
+    }
+}
@@ -2,13 +2,20 @@ package com.example;
 
 import org.pcap4j.core.*;
 import org.pcap4j.core.PcapNetworkInterface.PromiscuousMode;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.Timer;     // ✅ 新規追加
 import java.util.TimerTask; // ✅ 新規追加
 import java.time.Instant;   // ✅ 新規追加
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.time.Duration;
 
 
 // 既存の CountPorts, PacketBital, Defining クラスは削除してください。
@@ -16,9 +23,30 @@ import java.time.Instant;   // ✅ 新規追加
 public class Main {
     public static void main(String[] args) {
 
+        // history: 残しておいたバイタルサインの履歴を表示する
+        if (args.length > 0 && args[0].equals("history")) {
+            printHistory(args);
+            return;
+        }
+
+        // 自己計測を JMX と JFR から見えるようにする
+        SelfMetrics.get().register();
+
+        // --interface / --file などのオプションがあれば対話なしで動かす
+        if (args.length > 0 && args[0].startsWith("-")) {
+            runHeadless(args);
+            return;
+        }
+
+        // 引数に pcap/pcapng ファイルが指定された場合はオフライン再生
+        if (args.length > 0) {
+            runReplay(args);
+            return;
+        }
+
         // 既存の CountPorts TCPcp = new CountPorts(); などは削除
 
-        PcapNetworkInterface selectedNif = null;
+        List<PcapNetworkInterface> selectedNifs = new ArrayList<>();
         
         try (Scanner scanner = new Scanner(System.in)) {
             
@@ -39,67 +67,70 @@ public class Main {
                 System.out.printf("  [%d]: %s (%s)%n", i, nif.getName(), nif.getDescription());
             }
 
-            int selection = -1;
-            while (selectedNif == null) {
-                System.out.print("\nキャプチャに使用するデバイスの番号を入力してください (0〜" + (allDevs.size() - 1) + "): ");
-                
-                if (scanner.hasNextInt()) {
-                    selection = scanner.nextInt();
-                    if (selection >= 0 && selection < allDevs.size()) {
-                        selectedNif = allDevs.get(selection);
-                    } else {
+            // 複数のデバイスは "0,2" のようにカンマ区切りで選ぶ (時刻順にまとめて分析する)
+            while (selectedNifs.isEmpty()) {
+                System.out.print("\nキャプチャに使用するデバイスの番号を入力してください (0〜" + (allDevs.size() - 1) + "、複数は 0,2 のように): ");
+                if (!scanner.hasNext()) return;
+                for (String token : scanner.next().split(",")) {
+                    int selection;
+                    try {
+                        selection = Integer.parseInt(token.trim());
+                    } catch (NumberFormatException e) {
+                        System.out.println("無効な入力です。数字を入力してください。");
+                        selectedNifs.clear();
+                        break;
+                    }
+                    if (selection < 0 || selection >= allDevs.size()) {
                         System.out.println("無効な番号です。リストの範囲内 (0〜" + (allDevs.size() - 1) + ") で入力してください。");
+                        selectedNifs.clear();
+                        break;
                     }
-                } else {
-                    System.out.println("無効な入力です。数字を入力してください。");
-                    scanner.next(); // 不正な入力をスキップ
+                    if (!selectedNifs.contains(allDevs.get(selection))) selectedNifs.add(allDevs.get(selection));
                 }
             }
-            
-            System.out.println("=> デバイス " + selection + " (" + selectedNif.getDescription() + ") で分析を開始します。");
+
+            for (PcapNetworkInterface nif : selectedNifs) {
+                System.out.println("=> デバイス " + nif.getName() + " (" + nif.getDescription() + ") で分析を開始します。");
+            }
             System.out.println("------------------------------------");
             
             // --- ✅ 修正後のキャプチャ実行ロジック ---
             
             // 3. ログキューとキャプチャスレッドの準備
-            BlockingQueue<String> logQueue = new ArrayBlockingQueue<>(100);
-            PacketCapture captureTask = new PacketCapture(selectedNif, logQueue);
+            EventChannel events = new EventChannel();
+            CaptureManager captureTask = new CaptureManager(CaptureConfig.DEFAULT, selectedNifs, events);
+            captureTask.setRecorder(PcapRecorder.fromSystemProperties(events));
+            VitalHistory history = openHistory();
+            StateStore state = openState(captureTask, events);
+            if (state != null) {
+                // Ctrl+C で終わるので、最後の状態は終了時に保存する
+                Runtime.getRuntime().addShutdownHook(new Thread(state::close, "state-save"));
+            }
             
-            // PacketCaptureを別スレッドで実行
+            // キャプチャ (と複数デバイスの並べ替え) を別スレッドで実行
             Thread captureThread = new Thread(captureTask);
             captureThread.start();
             
             // 4. タイマーによる分析処理の定期実行 (60秒ごと)
             Timer timer = new Timer(true);
             timer.scheduleAtFixedRate(new TimerTask() {
+                private final SelfMetrics.Tick tick = SelfMetrics.get().tick("console-analysis", 60_000_000_000L);
+
                 @Override
                 public void run() {
+                    tick.mark();
                     try {
-                        // 脈拍、密輸率、体温の計算とリセット (Aggregator)
-                        //GUIへ変更captureTask.getAggregator().calculateAndReset(Instant.now());
-                        VitalSignData pulseData = captureTask.getAggregator().calculateAndReset(Instant.now());
-                        double entropy = captureTask.getFairnessCalculator().calculateFairness();
-                        // 富の集中度の計算とリセット (FairnessCalculator)
-                        //GUIへ変更captureTask.getFairnessCalculator().calculateFairness();
-                        // **結果をコンソールに出力し直す**
-                        System.out.println("--- 60秒分析結果 ---");
-                        System.out.println("[密輸] 密輸率: " + String.format("%.2f%%", pulseData.smugglingRate));
-                        System.out.println("[集中度] 富の集中度 (エントロピー): " + String.format("%.2f", entropy));
-            
-                        // 脈拍データも出力
-                        pulseData.pulseRates.forEach((port, rate) -> {
-                    System.out.println("[脈拍] Port " + port + ": " + String.format("%.2f", rate) + " pkt/s");
-                });
+                        printAnalysis(captureTask, history);
                     } catch (Exception e) {
                         System.err.println("タイマー実行エラー: " + e.getMessage());
                     }
                 }
             }, 0, 60000); // 60秒（60000ミリ秒）ごとに実行
             
-            // 5. メインスレッドでのログ出力処理 (BlockingQueueからログを取り出してコンソールに出力)
+            // 5. メインスレッドでのログ出力処理 (たまったイベントを0.1秒ごとにまとめてコンソールに出力)
             while (true) {
-                String log = logQueue.take();
-                System.out.println(log);
+                flushEvents(events);
+                Thread.sleep(100);
             }
 
         } catch (InterruptedException e) {
@@ -112,7 +143,7 @@ public class Main {
             e.printStackTrace();
         } finally {
             // クリーンアップ処理
-            if (selectedNif != null) {
+            if (!selectedNifs.isEmpty()) {
                 // captureTask.stopCapture() は try-with-resources の外側で、かつ catch/finallyブロック内で安全に呼び出されるべき
                 // ここでは finally ブロックの外で処理を中断させるため、明示的に呼び出す
                 // ただし、try-with-resourcesのスコープ外でキャプチャ停止とタイマー停止のロジックが確実に実行されるようにする必要があります。
@@ -122,4 +153,353 @@ public class Main {
         // プログラム終了時に停止処理が実行されることを保証
         System.exit(0);
     }
-}
\ No newline at end of file
+
+    // 保存済みキャプチャを再生し、読み切ったら最終結果を出力して終了する
+    // 使い方: Main <pcapファイル>... [max|realtime] (複数のファイルは時刻順にまとめて再生する)
+    private static void runReplay(String[] args) {
+        PacketCapture.ReplayMode mode = PacketCapture.ReplayMode.MAX_SPEED;
+        List<File> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equalsIgnoreCase("realtime")) {
+                mode = PacketCapture.ReplayMode.TIMESTAMP;
+            } else if (!arg.equalsIgnoreCase("max")) {
+                File file = new File(arg);
+                if (!file.isFile()) {
+                    System.err.println("エラー: ファイルが見つかりません: " + file);
+                    return;
+                }
+                files.add(file);
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("エラー: 再生するファイルを指定してください");
+            return;
+        }
+
+        EventChannel events = new EventChannel();
+        CaptureManager captureTask = new CaptureManager(files, mode, events);
+        captureTask.setRecorder(PcapRecorder.fromSystemProperties(events));
+        VitalHistory history = openHistory();
+        StateStore state = openState(captureTask, events);
+        Thread captureThread = new Thread(captureTask);
+        captureThread.start();
+
+        try {
+            // 再生が終わるまでログを出力し続ける
+            while (captureThread.isAlive()) {
+                flushEvents(events);
+                captureThread.join(100);
+            }
+            flushEvents(events);
+            printAnalysis(captureTask, history);
+        } catch (InterruptedException e) {
+            captureTask.stopCapture();
+            System.out.println("\nプログラムが中断されました。");
+        } finally {
+            closeHistory(history);
+            if (state != null) state.close();
+            flushEvents(events);
+        }
+    }
+
+    /**
+     * ヘッドレスモード: 引数の設定でキャプチャし、interval ごとの結果を JSONL/CSV で出力する
+     * ログは標準エラーに出す。SIGTERM (Ctrl+C) を受けたら、そこまでの途中の集計も書いてから終了する
+     * 例: Main --interface eth0 --interval 10s --format jsonl --output vitals.jsonl
+     */
+    private static void runHeadless(String[] args) {
+        CaptureConfig config;
+        try {
+            config = CaptureConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("エラー: " + e.getMessage());
+            System.err.println(CaptureConfig.usage());
+            System.exit(2);
+            return;
+        }
+
+        EventChannel events = new EventChannel();
+        CaptureManager captureTask;
+        try {
+            List<PcapNetworkInterface> nifs = new ArrayList<>();
+            for (String name : config.interfaceNames) {
+                PcapNetworkInterface nif = Pcaps.getDevByName(name);
+                if (nif == null) {
+                    System.err.println("エラー: デバイスが見つかりません: " + name);
+                    System.exit(2);
+                    return;
+                }
+                nifs.add(nif);
+            }
+            for (Path file : config.files) {
+                if (!file.toFile().isFile()) {
+                    System.err.println("エラー: ファイルが見つかりません: " + file);
+                    System.exit(2);
+                    return;
+                }
+            }
+            captureTask = new CaptureManager(config, nifs, events);
+        } catch (PcapNativeException e) {
+            System.err.println("致命的なエラー: Pcap4Jの初期化、または管理者権限が必要です: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        captureTask.setRecorder(PcapRecorder.fromSystemProperties(events));
+        StateStore state = openState(captureTask, events);
+
+        Thread captureThread = new Thread(captureTask, "capture");
+        AtomicBoolean stopRequested = new AtomicBoolean();
+        CountDownLatch finished = new CountDownLatch(1);
+        // 終了シグナルでは止める合図だけを出し、最後の集計を書き終えるまで待つ
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stopRequested.set(true);
+            captureTask.stopCapture();
+            try {
+                finished.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "shutdown"));
+
+        try (MetricsWriter writer = new MetricsWriter(config)) {
+            captureThread.start();
+            Instant next = null;
+            while (!stopRequested.get() && captureThread.isAlive()) {
+                flushEvents(events, System.err);
+                captureThread.join(100);
+                // 集計の区切りはキャプチャ上の時刻で決める (再生では最初のパケットが来るまで始めない)
+                Instant now = captureTask.getCaptureTime();
+                if (now.equals(Instant.EPOCH)) continue;
+                if (next == null) {
+                    next = now.plus(config.interval);
+                } else if (!now.isBefore(next)) {
+                    writeMetrics(writer, captureTask, now, false);
+                    next = next.plus(config.interval);
+                    if (next.isBefore(now)) next = now.plus(config.interval); // 再生が速すぎて追いつかないとき
+                }
+            }
+            captureTask.stopCapture();
+            captureThread.join();
+            flushEvents(events, System.err);
+            // 間隔に満たない最後の分も書く
+            writeMetrics(writer, captureTask, captureTask.getCaptureTime(), true);
+        } catch (IOException e) {
+            System.err.println("エラー: 出力に書けません: " + e.getMessage());
+        } catch (InterruptedException e) {
+            captureTask.stopCapture();
+            Thread.currentThread().interrupt();
+        } finally {
+            // 終了シグナルのときも、ここで最後の状態を保存し終えてから終わる
+            if (state != null) state.close();
+            flushEvents(events, System.err);
+            finished.countDown();
+        }
+    }
+
+    private static void writeMetrics(MetricsWriter writer, CaptureManager captureTask, Instant now, boolean last) throws IOException {
+        VitalSignData data = captureTask.calculateAndReset(now);
+        FairnessStats fairness = captureTask.calculateFairnessStats();
+        writer.write(now, data, fairness, captureTask.takeIntervalStats(), captureTask.takeInterfaceStats(),
+                SelfMetrics.get().endInterval(), last);
+    }
+
+    // 履歴を開く (開けなければ履歴なしで続ける)
+    private static VitalHistory openHistory() {
+        try {
+            return new VitalHistory(VitalHistory.defaultDirectory());
+        } catch (IOException e) {
+            System.err.println("警告: 履歴を開けません。履歴は残しません: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // -Dstate.file があれば保存済みの状態を読み戻し、定期保存を始める (なければ null)
+    private static StateStore openState(CaptureManager captureTask, EventChannel events) {
+        StateStore state = StateStore.fromSystemProperties(events);
+        if (state == null) return null;
+        state.restore(captureTask);
+        state.start(captureTask);
+        return state;
+    }
+
+    private static void closeHistory(VitalHistory history) {
+        if (history == null) return;
+        try {
+            history.close();
+        } catch (IOException e) {
+            System.err.println("警告: 履歴を閉じられません: " + e.getMessage());
+        }
+    }
+
+    // 直近の履歴を区間ごとの最小・平均・最大で表示する
+    // 使い方: Main history [時間 (既定24)] [区間の分 (既定60)]
+    private static void printHistory(String[] args) {
+        int hours = (args.length > 1) ? Integer.parseInt(args[1]) : 24;
+        int bucketMinutes = (args.length > 2) ? Integer.parseInt(args[2]) : 60;
+        Instant to = Instant.now();
+        Instant from = to.minus(Duration.ofHours(hours));
+        try (VitalHistory history = new VitalHistory(VitalHistory.defaultDirectory())) {
+            for (int column : new int[] {VitalHistory.MBPS, VitalHistory.SMUGGLING_RATE, VitalHistory.ENTROPY, VitalHistory.IAT_MEAN_MS}) {
+                TimeSeriesStore.Downsampled series = history.vitals(column, from, to, Duration.ofMinutes(bucketMinutes));
+                System.out.println("--- " + VitalHistory.VITAL_NAMES[column] + " (直近" + hours + "時間, " + bucketMinutes + "分ごと) ---");
+                for (int i = 0; i < series.size(); i++) {
+                    if (series.count(i) == 0) continue;
+                    System.out.println(Instant.ofEpochMilli(series.bucketStart(i)) + String.format("  最小 %.2f / 平均 %.2f / 最大 %.2f (%d件)",
+                            series.min(i), series.average(i), series.max(i), series.count(i)));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("エラー: 履歴を読めません: " + e.getMessage());
+        }
+    }
+
+    // たまったイベントを1回の書き込みでまとめて出力する
+    private static void flushEvents(EventChannel events) {
+        flushEvents(events, System.out);
+    }
+
+    private static void flushEvents(EventChannel events, PrintStream out) {
+        StringBuilder batch = new StringBuilder();
+        if (events.drainTo(batch, System.nanoTime()) > 0) {
+            out.print(batch);
+            out.flush();
+        }
+    }
+
+    // 脈拍、密輸率、集中度を計算してコンソールに出力し、履歴に残す (計算後に集計はリセットされる)
+    private static void printAnalysis(CaptureManager captureTask, VitalHistory history) {
+        // 脈拍、密輸率、体温の計算とリセット (Aggregator)
+        Instant now = captureTask.getCaptureTime();
+        VitalSignData pulseData = captureTask.calculateAndReset(now);
+        // 富の集中度の計算とリセット (FairnessCalculator)
+        FairnessStats fairness = captureTask.calculateFairnessStats();
+        // 履歴に残す (書けなくても表示は続ける)
+        if (history != null) {
+            try {
+                history.record(now, pulseData, fairness);
+            } catch (IOException e) {
+                System.err.println("警告: 履歴に書けません: " + e.getMessage());
+            }
+        }
+        // **結果をコンソールに出力し直す**
+        System.out.println("--- 分析結果 ---");
+        System.out.println("[密輸] 密輸率: " + String.format("%.2f%%", pulseData.smugglingRate) + " (アプリ不明・高ポートどうし)");
+        System.out.println("[血流量] " + String.format("%.2f Mbps (前回から), 呼吸効率 %.2f%%", pulseData.mbps, pulseData.overheadRate));
+        for (int seconds : new int[] {1, 10, 60}) {
+            TrafficWindow window = captureTask.getTrafficWindow(Duration.ofSeconds(seconds));
+            System.out.println("[血流量] 直近" + seconds + "秒: " + String.format("%.2f Mbps, %.1f pkt/s", window.mbps(), window.packetRate()));
+        }
+        System.out.println("[集中度] 富の集中度 (エントロピー): " + String.format("%.2f", fairness.entropy)
+                + (fairness.exact ? "" : String.format(" (範囲 %.2f〜%.2f, 送信元 約%.0f)", fairness.entropyLower, fairness.entropyUpper, fairness.distinctSources)));
+        for (int i = 0; i < Math.min(5, fairness.talkerCount()); i++) {
+            System.out.println("[集中度] 上位 " + (i + 1) + ": " + PacketView.formatIp(fairness.talkerIp(i))
+                    + String.format(" %d B (%.1f%%)", fairness.talkerBytes(i), fairness.talkerShare(i))
+                    + (fairness.talkerError(i) > 0 ? " 誤差 +" + fairness.talkerError(i) + " B以内" : ""));
+        }
+        System.out.println("[再送] 検出数: " + pulseData.retransmissions.retransmissions
+                + " (追跡フロー: " + pulseData.retransmissions.trackedFlows + ", 追い出し: " + pulseData.retransmissions.evictions + ")");
+        FlowStats flows = pulseData.flows;
+        System.out.println("[フロー] 期間中 " + flows.activeFlows + " (追跡 " + flows.trackedFlows + ", 追い出し " + flows.evictions
+                + ", RTT計測 " + flows.rttSamples + ", 重複ACK " + flows.dupAcks + ")");
+        for (int i = 0; i < Math.min(5, flows.topByBytesCount()); i++) {
+            FlowStats.Flow f = flows.topByBytes(i);
+            System.out.println("[フロー] 通信量 " + (i + 1) + ": " + f.endpoints() + " " + f.intervalBytes + " B " + f.state
+                    + (f.application != FlowStats.Application.UNKNOWN ? " " + f.applicationLabel() : ""));
+        }
+        if (flows.totalBytes > 0) {
+            StringBuilder apps = new StringBuilder("[アプリ]");
+            for (FlowStats.Application app : FlowStats.Application.values()) {
+                long bytes = flows.applicationBytes(app);
+                if (bytes == 0) continue;
+                apps.append(' ').append(app == FlowStats.Application.UNKNOWN ? "不明" : app.toString())
+                        .append(String.format(" %.1f%%", (double) bytes / flows.totalBytes * 100.0));
+            }
+            System.out.println(apps);
+        }
+        for (int i = 0; i < Math.min(5, flows.topByRttCount()); i++) {
+            FlowStats.Flow f = flows.topByRtt(i);
+            System.out.println("[フロー] 遅い接続 " + (i + 1) + ": " + f.endpoints()
+                    + String.format(" RTT %.2f ms (最小 %.2f, ハンドシェイク %.2f, %d回計測)", f.srttNanos / 1e6, f.minRttNanos / 1e6,
+                    f.handshakeRttNanos / 1e6, f.rttSamples)
+                    + (f.retransmissions > 0 || f.dupAcks > 0 ? " 再送 " + f.retransmissions + ", 重複ACK " + f.dupAcks : ""));
+        }
+        CardinalityStats cardinality = pulseData.cardinality;
+        System.out.println("[異なり数] " + String.format("送信元 約%.0f, 宛先 約%.0f, 宛先ポート 約%.0f (誤差 ±%.1f%%)",
+                cardinality.sources, cardinality.destinations, cardinality.dstPorts, cardinality.relativeError * 100));
+        for (int w = 0; w < CardinalityStats.WINDOW_MINUTES.length; w++) {
+            System.out.println("[異なり数] 直近" + CardinalityStats.WINDOW_MINUTES[w] + "分: " + String.format("送信元 約%.0f, 宛先 約%.0f, 宛先ポート 約%.0f",
+                    cardinality.windowSources(w), cardinality.windowDestinations(w), cardinality.windowDstPorts(w)));
+        }
+        for (int i = 0; i < cardinality.scannerCount(); i++) {
+            CardinalityStats.Scanner scanner = cardinality.scanner(i);
+            System.out.println("🔍 警告 (走査): " + PacketView.formatIp(scanner.ip)
+                    + (scanner.portScan ? " ポート走査" : "") + (scanner.hostSweep ? " ホスト走査" : "")
+                    + String.format(" (宛先ポート 約%.0f, 宛先ホスト 約%.0f, %d パケット)", scanner.dstPorts, scanner.dstHosts, scanner.packets));
+        }
+        CaptureStats capture = captureTask.takeIntervalStats();
+        if (!captureTask.isReplay() || capture.analysisDropped > 0) {
+            System.out.println("[取りこぼし] 受信 " + capture.received + ", カーネルで破棄 " + capture.dropped
+                    + ", インターフェースで破棄 " + capture.ifDropped + ", 分析に回せず " + capture.analysisDropped
+                    + String.format(" (%.2f%%)", capture.dropRate()));
+        }
+        InterfaceStats interfaces = captureTask.takeInterfaceStats();
+        if (interfaces.size() > 1) {
+            for (int i = 0; i < interfaces.size(); i++) {
+                CaptureStats c = interfaces.capture(i);
+                System.out.println("[インターフェース] " + interfaces.name(i) + ": " + interfaces.packets(i) + " パケット, "
+                        + (interfaces.bytes(i) >> 10) + " KiB, カーネルで破棄 " + (c.dropped + c.ifDropped)
+                        + ", 並べ替えで破棄 " + c.analysisDropped + ", 順序遅れ " + interfaces.latePackets(i));
+            }
+        }
+        PcapRecorder recorder = captureTask.getRecorder();
+        if (recorder != null) {
+            System.out.println("[録画] " + recorder.getWrittenPackets() + " パケット, " + (recorder.getWrittenBytes() >> 10) + " KiB 書き出し"
+                    + " (きっかけ " + recorder.getTriggers() + " 回, 取りこぼし " + recorder.getDroppedPackets() + ")");
+        }
+
+        // 呼吸 (IAT) の出力: 全体の各窓と、サンプルの多いポート
+        RhythmStats rhythm = pulseData.rhythm;
+        String[] windowNames = {"直近100", "1秒", "10秒", "60秒"};
+        for (int w = 0; w < RhythmStats.WINDOWS; w++) {
+            RhythmWindow window = rhythm.window(w);
+            if (window.count == 0) continue;
+            System.out.println("[呼吸] " + windowNames[w] + ": 平均IAT=" + String.format("%.3f ms", window.meanMillis())
+                    + ", 標準偏差=" + String.format("%.3f ms", window.stdDevMillis())
+                    + ", ジッタ p50/p90/p99=" + String.format("%.3f/%.3f/%.3f ms", window.jitterP50Nanos / 1e6, window.jitterP90Nanos / 1e6, window.jitterP99Nanos / 1e6)
+                    + (window.isStable() ? " 🟢 リズム安定" : ""));
+        }
+        for (int i = 0; i < Math.min(5, pulseData.portRhythms.size()); i++) {
+            RhythmStats port = pulseData.portRhythms.get(i);
+            RhythmWindow window = port.window(RhythmStats.SECOND_10);
+            if (window.count == 0) continue;
+            System.out.println("[呼吸] Port " + port.port + " (10秒): 平均IAT=" + String.format("%.3f ms", window.meanMillis())
+                    + ", 標準偏差=" + String.format("%.3f ms", window.stdDevMillis())
+                    + (window.isStable() ? " 🟢 リアルタイム通信の可能性" : ""));
+        }
+
+        // 体温 (学習したベースラインからのずれ) の出力
+        PortAnomalies anomalies = pulseData.anomalies;
+        for (int i = 0; i < anomalies.size(); i++) {
+            System.out.println("🔥 警告 (体温): Port " + anomalies.port(i) + "が異常 (" + String.format("%.2f", anomalies.score(i)) + ") "
+                    + String.format("%.2f pkt/s (平常 %.2f ± %.2f)", anomalies.rate(i), anomalies.expected(i), anomalies.stdDev(i)));
+        }
+
+        // 脈拍データも出力
+        PortStats ports = pulseData.portStats;
+        for (int i = 0; i < ports.size(); i++) {
+            if (ports.dstPackets(i) == 0) continue;
+            System.out.println("[脈拍] Port " + ports.port(i) + ": " + String.format("%.2f pkt/s, %.0f B/s", ports.packetRate(i), ports.byteRate(i)));
+        }
+
+        // このツール自身の処理時間 (パケットごとの時間は SelfMetrics.SAMPLE_EVERY 個に1個を測ったもの)
+        SelfMetrics.Snapshot self = SelfMetrics.get().endInterval();
+        System.out.println("[自己計測] フレーム 約" + self.count(SelfMetrics.Counter.FRAMES) + " (IP以外 " + self.count(SelfMetrics.Counter.NON_IP_FRAMES)
+                + "), リング満杯 待ち " + self.count(SelfMetrics.Counter.RING_FULL_WAITS) + " / 破棄 " + self.count(SelfMetrics.Counter.RING_FULL_DROPS)
+                + ", タイマー遅れ " + self.count(SelfMetrics.Counter.LATE_TICKS) + "/" + self.count(SelfMetrics.Counter.TICKS)
+                + ", フロー集計の時間切れ " + self.count(SelfMetrics.Counter.FLOW_STATS_TIMEOUTS));
+        for (SelfMetrics.Timer timer : SelfMetrics.Timer.values()) {
+            if (self.samples(timer) == 0) continue;
+            System.out.println("[自己計測] " + self.format(timer));
+        }
+    }
+}
@@ -54,6 +54,8 @@ public class MainGUI extends Application {
     }
 
     public static void main(String[] args) {
+        // 自己計測を JMX と JFR から見えるようにする
+        SelfMetrics.get().register();
         // JavaFXアプリケーションを起動
         launch(args);
     }
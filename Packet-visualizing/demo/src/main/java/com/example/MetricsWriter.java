@@ -0,0 +1,329 @@
+package com.example;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Locale;
+
+/**
+ * ヘッドレス用: 集計ごとの結果を機械で読める形 (JSON Lines か CSV) で1行ずつ書く
+ * 書き込みはバッファにため、1行ごとに flush する (行の途中で読まれないように)
+ */
+public class MetricsWriter implements Closeable {
+    private static final int TOP_PORTS = 10;
+    private static final String CSV_HEADER = "time,final,interval_s,mbps,smuggling_rate,overhead_rate,"
+            + "entropy,entropy_lower,entropy_upper,entropy_exact,distinct_sources,"
+            + "retransmissions,tracked_flows,iat_mean_ms,iat_stddev_ms,jitter_p99_ms,iat_samples,"
+            + "anomalies,top_port,top_port_pps,pcap_received,pcap_dropped,pcap_if_dropped,analysis_dropped,"
+            + "active_flows,flow_rtt_samples,flow_dup_acks,slowest_flow_srtt_ms,"
+            + "tls_bytes,quic_bytes,http_bytes,dns_bytes,ssh_bytes,unknown_bytes,"
+            + "distinct_src,distinct_dst,distinct_dst_ports,scanners,"
+            + "self_decode_p99_us,self_queue_p99_us,self_analysis_p99_us,self_calculate_max_ms";
+
+    private final CaptureConfig.Format format;
+    private final Writer out;
+    private final boolean closeOut; // 標準出力は閉じない
+    private final StringBuilder line = new StringBuilder(1024);
+
+    public MetricsWriter(CaptureConfig config) throws IOException {
+        this.format = config.format;
+        if (config.output != null) {
+            this.out = Files.newBufferedWriter(config.output, StandardCharsets.UTF_8);
+            this.closeOut = true;
+        } else {
+            this.out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+            this.closeOut = false;
+        }
+        if (format == CaptureConfig.Format.CSV) {
+            out.write(CSV_HEADER);
+            out.write('\n');
+            out.flush();
+        }
+    }
+
+    /**
+     * 1回分の結果を書く
+     * @param capture その期間の取りこぼし (PacketCapture.takeIntervalStats)
+     * @param interfaces その期間のキャプチャごとの件数 (CaptureManager.takeInterfaceStats)
+     * @param self その期間の自己計測 (SelfMetrics.endInterval)
+     * @param last 停止時の最後の (間隔に満たない) 集計なら true
+     */
+    public void write(Instant time, VitalSignData data, FairnessStats fairness, CaptureStats capture,
+                      InterfaceStats interfaces, SelfMetrics.Snapshot self, boolean last) throws IOException {
+        line.setLength(0);
+        if (format == CaptureConfig.Format.CSV) {
+            appendCsv(time, data, fairness, capture, self, last);
+        } else {
+            appendJson(time, data, fairness, capture, interfaces, self, last);
+        }
+        line.append('\n');
+        out.append(line);
+        out.flush();
+    }
+
+    private void appendJson(Instant time, VitalSignData data, FairnessStats fairness, CaptureStats capture,
+                            InterfaceStats interfaces, SelfMetrics.Snapshot self, boolean last) {
+        RhythmWindow rhythm = data.rhythm.window(RhythmStats.SECOND_10);
+        line.append("{\"time\":\"").append(time).append('"');
+        line.append(",\"final\":").append(last);
+        number("interval_s", data.portStats.getElapsedSeconds());
+        number("mbps", data.mbps);
+        number("smuggling_rate", data.smugglingRate);
+        number("overhead_rate", data.overheadRate);
+        line.append(",\"entropy\":{");
+        line.append("\"value\":").append(decimal(fairness.entropy));
+        number("lower", fairness.entropyLower);
+        number("upper", fairness.entropyUpper);
+        line.append(",\"exact\":").append(fairness.exact);
+        number("distinct_sources", fairness.distinctSources);
+        line.append(",\"top_talkers\":[");
+        for (int i = 0; i < fairness.talkerCount(); i++) {
+            if (i > 0) line.append(',');
+            line.append("{\"ip\":\"").append(PacketView.formatIp(fairness.talkerIp(i))).append('"');
+            line.append(",\"bytes\":").append(fairness.talkerBytes(i));
+            line.append(",\"error\":").append(fairness.talkerError(i)).append('}');
+        }
+        line.append("]}");
+        line.append(",\"retransmissions\":{\"count\":").append(data.retransmissions.retransmissions);
+        line.append(",\"tracked_flows\":").append(data.retransmissions.trackedFlows);
+        line.append(",\"evictions\":").append(data.retransmissions.evictions).append('}');
+        line.append(",\"rhythm\":{\"samples\":").append(rhythm.count);
+        number("iat_mean_ms", rhythm.meanMillis());
+        number("iat_stddev_ms", rhythm.stdDevMillis());
+        number("jitter_p50_ms", rhythm.jitterP50Nanos / 1e6);
+        number("jitter_p99_ms", rhythm.jitterP99Nanos / 1e6);
+        line.append(",\"stable\":").append(rhythm.isStable()).append('}');
+        line.append(",\"ports\":[");
+        PortStats ports = data.portStats;
+        int[] top = ports.topByPackets(TOP_PORTS);
+        for (int k = 0; k < top.length; k++) {
+            int i = top[k];
+            if (k > 0) line.append(',');
+            line.append("{\"port\":").append(ports.port(i));
+            number("pps", ports.packetRate(i));
+            number("bps", ports.byteRate(i));
+            line.append('}');
+        }
+        line.append(']');
+        line.append(",\"anomalies\":[");
+        PortAnomalies anomalies = data.anomalies;
+        for (int i = 0; i < anomalies.size(); i++) {
+            if (i > 0) line.append(',');
+            line.append("{\"port\":").append(anomalies.port(i));
+            number("rate", anomalies.rate(i));
+            number("expected", anomalies.expected(i));
+            number("stddev", anomalies.stdDev(i));
+            number("score", anomalies.score(i));
+            line.append('}');
+        }
+        line.append(']');
+        FlowStats flows = data.flows;
+        line.append(",\"flows\":{\"active\":").append(flows.activeFlows);
+        line.append(",\"tracked\":").append(flows.trackedFlows);
+        line.append(",\"evictions\":").append(flows.evictions);
+        line.append(",\"rtt_samples\":").append(flows.rttSamples);
+        line.append(",\"dup_acks\":").append(flows.dupAcks);
+        line.append(",\"applications\":{");
+        for (FlowStats.Application app : FlowStats.Application.values()) {
+            if (app.ordinal() > 0) line.append(',');
+            line.append('"').append(app.name().toLowerCase()).append("\":").append(flows.applicationBytes(app));
+        }
+        line.append(",\"smuggled\":").append(flows.smuggledBytes).append('}');
+        line.append(",\"top_bytes\":[");
+        for (int i = 0; i < flows.topByBytesCount(); i++) {
+            if (i > 0) line.append(',');
+            appendFlow(flows.topByBytes(i));
+        }
+        line.append("],\"top_rtt\":[");
+        for (int i = 0; i < flows.topByRttCount(); i++) {
+            if (i > 0) line.append(',');
+            appendFlow(flows.topByRtt(i));
+        }
+        line.append("]}");
+        CardinalityStats cardinality = data.cardinality;
+        line.append(",\"cardinality\":{");
+        line.append("\"sources\":").append(decimal(cardinality.sources));
+        number("destinations", cardinality.destinations);
+        number("dst_ports", cardinality.dstPorts);
+        number("relative_error", cardinality.relativeError);
+        for (int w = 0; w < CardinalityStats.WINDOW_MINUTES.length; w++) {
+            String suffix = "_" + CardinalityStats.WINDOW_MINUTES[w] + "m";
+            number("sources" + suffix, cardinality.windowSources(w));
+            number("destinations" + suffix, cardinality.windowDestinations(w));
+            number("dst_ports" + suffix, cardinality.windowDstPorts(w));
+        }
+        line.append(",\"fan_out_sources\":").append(cardinality.fanOutSources);
+        line.append(",\"fan_out_evictions\":").append(cardinality.fanOutEvictions);
+        line.append(",\"scanners\":[");
+        for (int i = 0; i < cardinality.scannerCount(); i++) {
+            CardinalityStats.Scanner scanner = cardinality.scanner(i);
+            if (i > 0) line.append(',');
+            line.append("{\"ip\":\"").append(PacketView.formatIp(scanner.ip)).append('"');
+            number("dst_ports", scanner.dstPorts);
+            number("dst_hosts", scanner.dstHosts);
+            line.append(",\"packets\":").append(scanner.packets);
+            line.append(",\"port_scan\":").append(scanner.portScan);
+            line.append(",\"host_sweep\":").append(scanner.hostSweep);
+            line.append('}');
+        }
+        line.append("]}");
+        line.append(",\"capture\":{\"received\":").append(capture.received);
+        line.append(",\"dropped\":").append(capture.dropped);
+        line.append(",\"if_dropped\":").append(capture.ifDropped);
+        line.append(",\"analysis_dropped\":").append(capture.analysisDropped);
+        number("drop_rate", capture.dropRate());
+        line.append('}');
+        line.append(",\"interfaces\":[");
+        for (int i = 0; i < interfaces.size(); i++) {
+            CaptureStats c = interfaces.capture(i);
+            if (i > 0) line.append(',');
+            line.append("{\"name\":\"").append(interfaces.name(i)).append('"');
+            line.append(",\"packets\":").append(interfaces.packets(i));
+            line.append(",\"bytes\":").append(interfaces.bytes(i));
+            line.append(",\"late\":").append(interfaces.latePackets(i));
+            line.append(",\"received\":").append(c.received);
+            line.append(",\"dropped\":").append(c.dropped);
+            line.append(",\"if_dropped\":").append(c.ifDropped);
+            line.append(",\"merge_dropped\":").append(c.analysisDropped);
+            line.append('}');
+        }
+        line.append(']');
+        line.append(",\"self\":{");
+        boolean first = true;
+        for (SelfMetrics.Counter c : SelfMetrics.Counter.values()) {
+            if (!first) line.append(',');
+            first = false;
+            line.append('"').append(c.key).append("\":").append(self.count(c));
+        }
+        for (SelfMetrics.Timer t : SelfMetrics.Timer.values()) {
+            number(t.key + "_p50_us", self.percentile(t, 0.5) / 1e3);
+            number(t.key + "_p99_us", self.percentile(t, 0.99) / 1e3);
+            number(t.key + "_max_us", self.max(t) / 1e3);
+        }
+        line.append("}}");
+    }
+
+    private void appendFlow(FlowStats.Flow f) {
+        line.append("{\"src\":\"").append(f.srcAddress).append('"');
+        line.append(",\"src_port\":").append(f.srcPort);
+        line.append(",\"dst\":\"").append(f.dstAddress).append('"');
+        line.append(",\"dst_port\":").append(f.dstPort);
+        line.append(",\"protocol\":").append(f.protocol);
+        line.append(",\"state\":\"").append(f.state).append('"');
+        line.append(",\"application\":\"").append(f.application.name().toLowerCase()).append('"');
+        if (f.serverName != null) {
+            line.append(",\"server_name\":");
+            string(f.serverName);
+        }
+        line.append(",\"interval_bytes\":").append(f.intervalBytes);
+        line.append(",\"bytes_fwd\":").append(f.bytesForward);
+        line.append(",\"bytes_rev\":").append(f.bytesReverse);
+        line.append(",\"packets_fwd\":").append(f.packetsForward);
+        line.append(",\"packets_rev\":").append(f.packetsReverse);
+        number("handshake_rtt_ms", f.handshakeRttNanos / 1e6);
+        number("srtt_ms", f.srttNanos / 1e6);
+        number("min_rtt_ms", f.minRttNanos / 1e6);
+        line.append(",\"rtt_samples\":").append(f.rttSamples);
+        line.append(",\"dup_acks\":").append(f.dupAcks);
+        line.append(",\"retransmissions\":").append(f.retransmissions);
+        number("duration_s", f.durationNanos / 1e9);
+        line.append('}');
+    }
+
+    private void appendCsv(Instant time, VitalSignData data, FairnessStats fairness, CaptureStats capture,
+                           SelfMetrics.Snapshot self, boolean last) {
+        RhythmWindow rhythm = data.rhythm.window(RhythmStats.SECOND_10);
+        PortStats ports = data.portStats;
+        int[] top = ports.topByPackets(1);
+        line.append(time).append(',').append(last);
+        cell(ports.getElapsedSeconds());
+        cell(data.mbps);
+        cell(data.smugglingRate);
+        cell(data.overheadRate);
+        cell(fairness.entropy);
+        cell(fairness.entropyLower);
+        cell(fairness.entropyUpper);
+        line.append(',').append(fairness.exact);
+        cell(fairness.distinctSources);
+        line.append(',').append(data.retransmissions.retransmissions);
+        line.append(',').append(data.retransmissions.trackedFlows);
+        cell(rhythm.meanMillis());
+        cell(rhythm.stdDevMillis());
+        cell(rhythm.jitterP99Nanos / 1e6);
+        line.append(',').append(rhythm.count);
+        line.append(',').append(data.anomalies.size());
+        if (top.length > 0) {
+            line.append(',').append(ports.port(top[0]));
+            cell(ports.packetRate(top[0]));
+        } else {
+            line.append(",,");
+        }
+        line.append(',').append(capture.received).append(',').append(capture.dropped);
+        line.append(',').append(capture.ifDropped).append(',').append(capture.analysisDropped);
+        FlowStats flows = data.flows;
+        line.append(',').append(flows.activeFlows).append(',').append(flows.rttSamples).append(',').append(flows.dupAcks);
+        if (flows.topByRttCount() > 0) {
+            cell(flows.topByRtt(0).srttNanos / 1e6);
+        } else {
+            line.append(',');
+        }
+        line.append(',').append(flows.applicationBytes(FlowStats.Application.TLS));
+        line.append(',').append(flows.applicationBytes(FlowStats.Application.QUIC));
+        line.append(',').append(flows.applicationBytes(FlowStats.Application.HTTP));
+        line.append(',').append(flows.applicationBytes(FlowStats.Application.DNS));
+        line.append(',').append(flows.applicationBytes(FlowStats.Application.SSH));
+        line.append(',').append(flows.applicationBytes(FlowStats.Application.UNKNOWN));
+        CardinalityStats cardinality = data.cardinality;
+        cell(cardinality.sources);
+        cell(cardinality.destinations);
+        cell(cardinality.dstPorts);
+        line.append(',').append(cardinality.scannerCount());
+        cell(self.percentile(SelfMetrics.Timer.DECODE, 0.99) / 1e3);
+        cell(self.percentile(SelfMetrics.Timer.QUEUE, 0.99) / 1e3);
+        cell(self.percentile(SelfMetrics.Timer.ANALYSIS, 0.99) / 1e3);
+        cell(self.max(SelfMetrics.Timer.CALCULATE) / 1e6);
+    }
+
+    // 通信から取り出した文字列 (SNI など) を JSON の文字列として書く
+    private void string(String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7e) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    private void number(String name, double value) {
+        line.append(",\"").append(name).append("\":").append(decimal(value));
+    }
+
+    private void cell(double value) {
+        line.append(',').append(decimal(value));
+    }
+
+    // NaN や無限大は JSON にできないので null (CSV では空) にする
+    private String decimal(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return (format == CaptureConfig.Format.CSV) ? "" : "null";
+        }
+        return String.format(Locale.ROOT, "%.4f", value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.flush();
+        if (closeOut) out.close();
+    }
+}
@@ -0,0 +1,141 @@
+package com.example;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * キャプチャスレッド (1つ) から分析シャードへフレームを渡す、ヒープの外に置いたリングバッファ
+ * - 作るときにスロットをまとめて確保し、シャードごとのレーン (1つの領域の切り出し) に分ける
+ *   レーンは生産者1・消費者1なので、あるシャードが遅れても埋まるのはそのシャードのレーンだけ
+ * - スロットにはフレームのキャプチャした部分 (frameBytes まで) と、キャプチャスレッドでのデコード結果を写す
+ *   キャプチャスレッドのフレームのバッファは次のパケットで使い回せるので、リングにヒープのオブジェクトが残らない
+ * - 消費者はデコード結果をそのまま受け取り、フレームのバイト列もスロットの中を直接読む (作業用のコピーはしない)
+ * メモリは ByteBuffer.allocateDirect なので、リングが使われなくなれば GC が解放する
+ */
+public class OffHeapPacketRing {
+    public static final int DEFAULT_FRAME_BYTES = 256;
+    public static final int MAX_FRAME_BYTES = 512; // 分析に要るのはヘッダーとペイロードの先頭だけ (録画は別に全体を持つ)
+
+    // スロットの先頭のメタデータ (この後ろにフレーム)
+    private static final int TIMESTAMP = 0;
+    private static final int DISPATCH = 8;
+    private static final int WIRE_LENGTH = 16;
+    private static final int CAPTURE_LENGTH = 20;
+    private static final int LINK_TYPE = 24;
+    private static final int LAYERS = 28; // PacketView.saveLayers の並び
+    private static final int FRAME = (LAYERS + 4 * PacketView.LAYER_FIELDS + 15) & ~15;
+    private static final int SLOT_ALIGN = 64; // スロットをキャッシュラインにそろえる
+
+    private final ByteBuffer buffer;
+    private final int slotSize;
+    private final int frameBytes;
+    private final int size; // レーンあたりのスロット数
+    private final int mask;
+    private final Lane[] lanes;
+    private final int[] layers = new int[PacketView.LAYER_FIELDS]; // 生産者の作業用
+
+    /**
+     * @param laneCount レーン (消費者) の数
+     * @param capacity レーンあたりのスロット数 (2のべき乗に切り上げる)
+     * @param frameBytes 1フレームでコピーする長さ (MAX_FRAME_BYTES まで。それより長いフレームは切り詰める)
+     */
+    public OffHeapPacketRing(int laneCount, int capacity, int frameBytes) {
+        size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        this.frameBytes = Math.max(1, Math.min(frameBytes, MAX_FRAME_BYTES));
+        slotSize = (FRAME + this.frameBytes + SLOT_ALIGN - 1) / SLOT_ALIGN * SLOT_ALIGN;
+        int laneBytes = Math.multiplyExact(slotSize, size);
+        buffer = ByteBuffer.allocateDirect(Math.addExact(Math.multiplyExact(laneBytes, laneCount), SLOT_ALIGN))
+                .alignedSlice(SLOT_ALIGN);
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(buffer.slice(laneBytes * i, laneBytes));
+        }
+    }
+
+    public Consumer consumer(int lane) { return lanes[lane].consumer; }
+    public int getLaneCount() { return lanes.length; }
+    public int getFrameBytes() { return frameBytes; }
+    public long getAllocatedBytes() { return buffer.capacity(); }
+
+    // 生産者: デコード済みのパケットを lane に写して公開する。そのレーンが満杯ならfalse
+    public boolean offer(PacketView packet, int lane) {
+        Lane l = lanes[lane];
+        long t = l.cursor.get();
+        if (t - l.cachedSequence >= size) {
+            l.cachedSequence = l.consumer.sequence.getAcquire();
+            if (t - l.cachedSequence >= size) {
+                return false;
+            }
+        }
+        ByteBuffer slots = l.slots;
+        int base = (int) (t & mask) * slotSize;
+        int length = Math.min(packet.captureLength(), frameBytes);
+        slots.putLong(base + TIMESTAMP, packet.timestampNanos());
+        slots.putLong(base + DISPATCH, packet.dispatchNanos());
+        slots.putInt(base + WIRE_LENGTH, packet.wireLength());
+        slots.putInt(base + CAPTURE_LENGTH, length);
+        slots.putInt(base + LINK_TYPE, packet.linkType());
+        packet.saveLayers(layers);
+        for (int i = 0; i < layers.length; i++) {
+            slots.putInt(base + LAYERS + 4 * i, layers[i]);
+        }
+        packet.copyFrame(slots, base + FRAME, length);
+        l.cursor.setRelease(t + 1);
+        return true;
+    }
+
+    // 1つのシャード用のレーン (生産者の位置と、消費者の読んだ位置)
+    private final class Lane {
+        private final ByteBuffer slots;
+        private final AtomicLong cursor = new AtomicLong(); // 次に書く位置 (生産者だけが進める)
+        private long cachedSequence = 0;                    // 生産者が覚えておく消費者の位置
+        private final Consumer consumer;
+
+        private Lane(ByteBuffer slots) {
+            this.slots = slots;
+            this.consumer = new Consumer(this);
+        }
+    }
+
+    /**
+     * 1つのレーンの消費者 (1つのスレッドだけが使う)
+     * poll で渡したパケットはスロットのフレームを直接読むので、スロットは次の poll まで返さない
+     * (渡したパケットは次の poll までしか読めない)
+     */
+    public final class Consumer {
+        private final Lane lane;
+        private final AtomicLong sequence = new AtomicLong(); // 返し終えた位置 (この消費者だけが進める)
+        private final int[] layers = new int[PacketView.LAYER_FIELDS];
+        private long next = 0;          // 次に読む位置
+        private long cachedCursor = 0;
+        private boolean held = false;   // 直前に渡したスロットをまだ返していないか
+
+        private Consumer(Lane lane) {
+            this.lane = lane;
+        }
+
+        // 次のフレームを packet に渡す。なければ false (直前に渡したスロットはここで返す)
+        public boolean poll(PacketView packet) {
+            if (held) {
+                sequence.setRelease(next);
+                held = false;
+            }
+            if (next >= cachedCursor) {
+                cachedCursor = lane.cursor.getAcquire();
+                if (next >= cachedCursor) return false;
+            }
+            ByteBuffer slots = lane.slots;
+            int base = (int) (next & mask) * slotSize;
+            for (int i = 0; i < layers.length; i++) {
+                layers[i] = slots.getInt(base + LAYERS + 4 * i);
+            }
+            packet.restore(slots.getInt(base + LINK_TYPE), slots.getInt(base + CAPTURE_LENGTH),
+                    slots.getInt(base + WIRE_LENGTH), slots.getLong(base + TIMESTAMP), layers, slots, base + FRAME);
+            packet.setDispatchNanos(slots.getLong(base + DISPATCH));
+            held = true;
+            next++;
+            return true;
+        }
+    }
+}
@@ -1,75 +1,142 @@
 package com.example;
 
 import org.pcap4j.core.*;
-import org.pcap4j.packet.*;
-import org.pcap4j.packet.namednumber.TcpPort;
-import org.pcap4j.packet.TcpPacket.TcpHeader; // 修正後のcheckRetransmissionで必要
-import java.net.Inet4Address;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.time.Instant; // 追加
+import org.pcap4j.packet.namednumber.DataLinkType;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 1つのインターフェース (または1つの pcap ファイル) のキャプチャループ
+ * 自分だけのときは分析パイプラインに直接渡し、複数のときは自分のリングに置いて CaptureManager に時刻順に並べてもらう
+ */
 public class PacketCapture implements Runnable {
 
+    // オフライン再生 (pcap/pcapng) の再生モード
+    public enum ReplayMode {
+        MAX_SPEED,  // できるだけ速く流す (スループット計測用)
+        TIMESTAMP   // 元のパケット間隔を守って流す
+    }
+
     private boolean openorclose = false ;
     private final PcapNetworkInterface nif;
-    private final BlockingQueue<String> logQueue;
+    private final File replayFile;      // nullならライブキャプチャ
+    private final ReplayMode replayMode; // 時刻どおりの再生は直接渡すときだけここで行う (並べるときは CaptureManager が行う)
+    private final CaptureConfig config; // フィルターと snaplen
+    private final EventChannel events;
     private volatile boolean running = true;
+    private volatile boolean finished = false;
     private PcapHandle handle;
+    private PcapReader reader; // handle からフレームを読む (キャプチャスレッドだけが使う)
+
+    // libpcap の統計 (キャプチャスレッドが STATS_INTERVAL_NANOS ごとに読んで公開する。ハンドルは他のスレッドから触らない)
+    private static final long STATS_INTERVAL_NANOS = 1_000_000_000L;
+    private volatile CaptureStats captureStats = CaptureStats.EMPTY;
+    private long lastStatsNanos;
+    private boolean statsSupported = true;
+
+    // 分析に使う「キャプチャ上の現在時刻」(再生時はファイルのタイムスタンプ, エポックからのナノ秒)
+    private volatile long captureClockNanos = 0;
+    private long packetCount = 0;
+    private long byteCount = 0;
+    // インターフェースごとの件数 (キャプチャスレッドだけが書き、lazySet で公開する)
+    private final AtomicLong packets = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong mergeDropped = new AtomicLong(); // 並べ替え用のリングが満杯で捨てた数 (ライブ時)
 
-    // TCP再送を検出するためのデータ構造 (TcpPortをIntegerに変更)
-    private final Map<Integer, Map<Integer, Integer>> retransmissionTracker = new HashMap<>();
+    // 生フレームの解析結果 (キャプチャスレッドだけが使い回す)
+    private final PacketView view = new PacketView();
+    private int linkType = PacketView.LINKTYPE_ETHERNET; // 開いたハンドルのリンク種別 (キャプチャスレッドだけが触る)
 
-    // ✅ 新規追加: 分析クラスのインスタンス
-    private final AnomalyDetector detector = new AnomalyDetector(); 
-    private final TimeAndPortAggregator aggregator = new TimeAndPortAggregator(detector); 
-    private final FairnessCalculator fairnessCalculator = new FairnessCalculator();
-    private final RhythmAnalyzer rhythmAnalyzer = new RhythmAnalyzer();
+    // 自己計測 (デコードと受け渡しの時間。frameCount はキャプチャスレッドだけが数える)
+    private final SelfMetrics metrics = SelfMetrics.get();
+    private long frameCount = 0;
 
-    // ✅ 新規追加: Main.javaからアクセスするためのGetterメソッド
-    public TimeAndPortAggregator getAggregator() { return aggregator; }
-    public FairnessCalculator getFairnessCalculator() { return fairnessCalculator; }
-    // (他のGetterも必要に応じて追加可能)
+    // ✅ 分析はキャプチャスレッドの外 (シャードごとのスレッド) で行う
+    private final AnalysisPipeline pipeline;
+    private final PacketRing mergeRing; // 複数キャプチャのときの渡し先 (null ならパイプラインに直接渡す)
 
+    // 生フレームの pcap への書き出し (キャプチャスレッドはリングにコピーするだけ。使わないなら null)
+    private PcapRecorder recorder;
 
-    public PacketCapture(PcapNetworkInterface nif, BlockingQueue<String> logQueue) {
+    /**
+     * nif か replayFile のどちらかを指定する (CaptureManager が作る)
+     * @param mergeRing 複数キャプチャを時刻順に並べるときの渡し先。null ならパイプラインに直接渡す
+     */
+    PacketCapture(CaptureConfig config, PcapNetworkInterface nif, File replayFile, AnalysisPipeline pipeline,
+                  PacketRing mergeRing, EventChannel events) {
         this.nif = nif;
-        this.logQueue = logQueue;
+        this.replayFile = replayFile;
+        this.replayMode = (replayFile != null) ? config.replayMode : null;
+        this.config = config;
+        this.events = events;
+        this.pipeline = pipeline;
+        this.mergeRing = mergeRing;
     }
 
+    public boolean isReplay() { return replayFile != null; }
+
+    // 表示用の名前 (デバイス名かファイル名)
+    public String getName() { return isReplay() ? replayFile.getName() : nif.getName(); }
+
+    PacketRing getMergeRing() { return mergeRing; }
+    PcapRecorder getRecorder() { return recorder; }
+
+    // 録画係を付ける (run の前に呼ぶ。録画のきっかけはパイプライン側で付ける)
+    void setRecorder(PcapRecorder recorder) { this.recorder = recorder; }
+
+    // 分析に回したパケット数とバイト数 (フレーム長) の累計
+    public long getPackets() { return packets.get(); }
+    public long getBytes() { return bytes.get(); }
+
+    // このキャプチャの取りこぼしの累計 (カーネル側の値は最大1秒遅れ。analysisDropped は並べ替え用のリングが満杯で捨てた数)
+    public CaptureStats getCaptureStats() {
+        CaptureStats kernel = captureStats;
+        return new CaptureStats(kernel.received, kernel.dropped, kernel.ifDropped, mergeDropped.get());
+    }
+
+    // 再生が最後まで終わったか (ライブキャプチャでは停止後にtrue)
+    public boolean isFinished() { return finished; }
+
+    // 最後に分析に回したパケットのタイムスタンプ (エポックからのナノ秒)
+    long getCaptureClockNanos() { return captureClockNanos; }
+
+    // ループを止める (ハンドルは読んでいる最中に閉じられないので、キャプチャスレッドが抜けるときに閉じる。ライブでもタイムアウトごとに戻る)
     public void stopCapture() {
         this.running = false;
-        if (handle != null && handle.isOpen()) {
-            try {
-                handle.close();
-            } catch (Exception e) {
-                // クローズ時のエラーは無視
-            }
-        }
     }
 
     // ✅ 新規追加: logError メソッド (以前のエラーを解消)
     private void logError(String message) {
-        try {
-            logQueue.put(message);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
+        events.message(message);
     }
 
     @Override
     public void run() {
         try {
-            handle = nif.openLive(65536, PcapNetworkInterface.PromiscuousMode.PROMISCUOUS, 10);
-            handle.setFilter("ip", BpfProgram.BpfCompileMode.OPTIMIZE); // TCPだけでなくIPパケット全体を対象に
+            if (isReplay()) {
+                replay();
+            } else {
+                handle = openLive();
+                reader = new PcapReader(handle, handle.getSnapshot());
+                checkDatalink();
+                startRecorder();
 
-            logQueue.put("✅ キャプチャを開始しました: " + nif.getName());
+                events.message("✅ キャプチャを開始しました: " + nif.getName() + " (snaplen " + config.snaplen
+                        + ", バッファ " + (config.bufferSize >> 20) + " MiB" + (config.immediateMode ? ", 即時モード" : "")
+                        + ", フィルター \"" + config.filter + "\")");
 
-            while (running) {
-                Packet packet = handle.getNextPacket();
-                if (packet != null) {
-                    processPacket(packet);
+                int sincePoll = 0;
+                lastStatsNanos = System.nanoTime() - STATS_INTERVAL_NANOS;
+                while (running) {
+                    boolean read = reader.next() == PcapReader.OK;
+                    if (read) {
+                        processFrame(reader.timestampNanos());
+                    }
+                    // 統計の読み出しは時々だけ (タイムアウトで何も来なかったときと1024パケットごと)
+                    if (!read || ++sincePoll >= 1024) {
+                        sincePoll = 0;
+                        pollStats();
+                    }
                 }
             }
         } catch (PcapNativeException e) {
@@ -82,63 +149,178 @@ public class PacketCapture implements Runnable {
             if (handle != null && handle.isOpen()) {
                 handle.close();
             }
+            if (recorder != null) recorder.close();
+            finished = true;
         }
     }
 
-    private void processPacket(Packet packet) throws InterruptedException {
-        IpV4Packet ipPacket = packet.get(IpV4Packet.class);
-        
-        if (ipPacket == null) return; 
+    // ファイルを読み切るまで processFrame に流す (処理速度は CaptureManager がまとめて報告する)
+    private void replay() throws PcapNativeException, NotOpenException, InterruptedException {
+        handle = Pcaps.openOffline(replayFile.getPath(), PcapHandle.TimestampPrecision.NANO);
+        reader = new PcapReader(handle, handle.getSnapshot());
+        String filter = filterFor(config.filter, handle.getDlt().value());
+        if (!filter.isEmpty()) {
+            handle.setFilter(filter, BpfProgram.BpfCompileMode.OPTIMIZE);
+        }
+        checkDatalink();
+        startRecorder();
 
-        Inet4Address srcAddr = ipPacket.getHeader().getSrcAddr();
-        
-        // --- ✅ 新規追加: 分析に必要な基本データ ---
-        Instant currentTime = Instant.now(); 
-        int byteSize = packet.length();
-        String anonSrcIp = String.valueOf(srcAddr.hashCode()); // 簡易匿名化
-
-        // --- ✅ 新規追加: 分析ロジックの呼び出し ---
-        aggregator.aggregate(currentTime, packet); 
-        fairnessCalculator.aggregate(anonSrcIp, byteSize);
-        rhythmAnalyzer.analyzeRhythm(currentTime);
-        // ------------------------------------
-        
-        // 既存のログ出力
-        String logMessage = ">> パケット: " + srcAddr.getHostAddress() + " -> " + ipPacket.getHeader().getDstAddr().getHostAddress();
-        if(openorclose == true){
-            logQueue.put(logMessage);
+        events.message("▶ 再生を開始しました: " + replayFile.getName() + " (" + replayMode + ")");
+
+        long wallStart = System.nanoTime();
+        long firstTimestamp = Long.MIN_VALUE;
+
+        while (running) {
+            int read = reader.next();
+            if (read == PcapReader.EOF) break; // ファイル末尾
+            if (read != PcapReader.OK) continue;
+
+            long timestamp = reader.timestampNanos();
+            if (firstTimestamp == Long.MIN_VALUE) {
+                firstTimestamp = timestamp;
+            }
+            if (replayMode == ReplayMode.TIMESTAMP && mergeRing == null) {
+                waitUntil(wallStart, timestamp - firstTimestamp);
+            }
+            processFrame(timestamp);
+        }
+    }
+
+    // 元のパケット間隔を再現するため、壁時計がファイル上の経過時間に追いつくまで待つ
+    static void waitUntil(long wallStart, long offsetNanos) throws InterruptedException {
+        long sleepNanos = wallStart + offsetNanos - System.nanoTime();
+        if (sleepNanos > 0) {
+            Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
         }
+    }
 
-        TcpPacket tcpPacket = packet.get(TcpPacket.class);
-        if (tcpPacket != null) { 
-            TcpHeader tcpHeader = tcpPacket.getHeader();
+    // リンク種別を覚えておく (デコーダーが対応していない種別なら警告する)
+    private void checkDatalink() {
+        DataLinkType dlt = handle.getDlt();
+        linkType = dlt.value();
+        if (!PacketView.isSupportedLinkType(linkType)) {
+            events.message("⚠️ 警告: 未対応のデータリンク種別です (" + dlt + ")。フレームは解析されません");
+        }
+    }
 
-            // RSTフラグのチェック
-            if (tcpHeader.getRst()) {
-                logQueue.put("🚨 エラー: TCP RSTフラグ検出！(" + srcAddr.getHostAddress() + "が接続をリセット)");
+    // 設定に従ってライブキャプチャを開く (snaplen・カーネルバッファ・即時モード・タイムアウト・BPF)
+    private PcapHandle openLive() throws PcapNativeException, NotOpenException {
+        PcapHandle opened = new PcapHandle.Builder(nif.getName())
+                .snaplen(config.snaplen)
+                .promiscuousMode(config.promiscuous ? PcapNetworkInterface.PromiscuousMode.PROMISCUOUS
+                        : PcapNetworkInterface.PromiscuousMode.NONPROMISCUOUS)
+                .timeoutMillis(config.timeoutMillis)
+                .bufferSize(config.bufferSize)
+                .immediateMode(config.immediateMode)
+                .build();
+        String filter = filterFor(config.filter, opened.getDlt().value());
+        try {
+            if (!filter.isEmpty()) {
+                opened.setFilter(filter, BpfProgram.BpfCompileMode.OPTIMIZE);
             }
+        } catch (PcapNativeException e) {
+            opened.close();
+            throw new PcapNativeException("BPF フィルターが正しくありません (\"" + filter + "\"): " + e.getMessage());
+        }
+        return opened;
+    }
 
-            // TCP再送のチェック
-            checkRetransmission(tcpHeader, srcAddr.getHostAddress());
+    // 既定のフィルターの vlan は Ethernet でしか使えないので、他のリンク種別では IP だけのフィルターにする
+    static String filterFor(String filter, int linkType) {
+        if (filter.equals(CaptureConfig.DEFAULT_FILTER) && linkType != PacketView.LINKTYPE_ETHERNET) {
+            return CaptureConfig.IP_FILTER;
         }
+        return filter;
     }
 
-    // ✅ 修正後の checkRetransmission メソッド
-    private synchronized void checkRetransmission(TcpHeader tcpHeader, String srcIp) throws InterruptedException {
-        // TcpPortではなくIntegerを使用
-        int srcPort = tcpHeader.getSrcPort().valueAsInt(); 
-        int sequenceNumber = tcpHeader.getSequenceNumber();
+    // PcapStat を読んで公開する (キャプチャスレッドから呼ぶ。読めない環境では何もしない)
+    private void pollStats() {
+        long now = System.nanoTime();
+        if (!statsSupported || now - lastStatsNanos < STATS_INTERVAL_NANOS) return;
+        lastStatsNanos = now;
+        try {
+            PcapStat stat = handle.getStats();
+            captureStats = new CaptureStats(stat.getNumPacketsReceived(), stat.getNumPacketsDropped(),
+                    stat.getNumPacketsDroppedByIf(), 0);
+        } catch (PcapNativeException | NotOpenException e) {
+            statsSupported = false; // 対応していなければ以後は読まない
+        }
+    }
 
-        // Integerポートをキーにマップを取得
-        retransmissionTracker.computeIfAbsent(srcPort, k -> new HashMap<>());
+    // 録画係にリンク種別を伝えて書き出しスレッドを動かす (開けなければ録画なしで続ける)
+    private void startRecorder() {
+        if (recorder == null) return;
+        try {
+            recorder.start(handle.getDlt().value(), handle.getSnapshot());
+            events.message("⏺ 録画を開始しました (" + recorder.getMode() + ")");
+        } catch (Exception e) {
+            events.message("⚠️ 録画を開始できません: " + e.getMessage());
+            recorder = null;
+            pipeline.setRecorder(null);
+        }
+    }
 
-        Map<Integer, Integer> sequenceMap = retransmissionTracker.get(srcPort);
-        int count = sequenceMap.getOrDefault(sequenceNumber, 0);
+    // reader が直前に読んだフレームを録画と分析に回す (フレームのバッファは次に読むまでしか使えない)
+    private void processFrame(long timestampNanos) {
+        byte[] frame = reader.frame();
+        int captureLength = reader.captureLength();
+        int wireLength = reader.wireLength();
 
-        if (count > 0) {
-            logQueue.put("⚠️ 警告: TCP再送検出！ (Seq: " + sequenceNumber + " from " + srcIp + ")");
+        // 録画はデコード前の生フレームをそのまま渡す (IP以外も残す)
+        if (recorder != null) recorder.offer(frame, captureLength, wireLength, timestampNanos);
+
+        // 自己計測: SAMPLE_EVERY フレームに1つだけ時間を測る (件数もそのときまとめて足す)
+        boolean sampled = SelfMetrics.sampled(++frameCount);
+        long start = sampled ? System.nanoTime() : 0;
+        if (sampled) metrics.add(SelfMetrics.Counter.FRAMES, SelfMetrics.SAMPLE_EVERY);
+
+        if (!view.decode(linkType, frame, captureLength, wireLength, timestampNanos)) { // IP以外
+            metrics.increment(SelfMetrics.Counter.NON_IP_FRAMES);
+            return;
+        }
+
+        // --- ✅ 新規追加: 分析に必要な基本データ ---
+        captureClockNanos = timestampNanos;
+        packets.lazySet(++packetCount);
+        bytes.lazySet(byteCount += wireLength);
+
+        // --- ✅ 分析ロジックの呼び出し (担当シャードへ渡す。ファイル再生時は取りこぼさないよう待つ) ---
+        if (sampled) {
+            long decoded = System.nanoTime();
+            metrics.record(SelfMetrics.Timer.DECODE, decoded - start);
+            view.setDispatchNanos(decoded);
+            dispatch();
+            metrics.record(SelfMetrics.Timer.DISPATCH, System.nanoTime() - decoded);
+        } else {
+            view.setDispatchNanos(0);
+            dispatch();
+        }
+        // ------------------------------------
+
+        // 既存のログ出力 (文字列への整形は表示側で行う)
+        if(openorclose == true){
+            events.publish(EventType.PACKET_TRACE, view.srcIp(), view.dstIp());
         }
+    }
 
-        sequenceMap.put(sequenceNumber, count + 1);
+    // パイプラインに直接渡すか、並べ替え用のリングに置く (再生時は空くまで待ち、ライブでは満杯なら捨てて数える)
+    private void dispatch() {
+        if (mergeRing == null) {
+            pipeline.dispatch(view, isReplay());
+            return;
+        }
+        if (mergeRing.offer(view)) return;
+        if (!isReplay()) {
+            mergeDropped.lazySet(mergeDropped.get() + 1);
+            metrics.increment(SelfMetrics.Counter.RING_FULL_DROPS);
+            return;
+        }
+        long start = System.nanoTime();
+        while (!mergeRing.offer(view)) {
+            if (!running) return;
+            Thread.onSpinWait();
+        }
+        metrics.increment(SelfMetrics.Counter.RING_FULL_WAITS);
+        metrics.record(SelfMetrics.Timer.RING_WAIT, System.nanoTime() - start);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,61 @@
+package com.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * キャプチャスレッド(1つ)から分析シャード(1つ)へパケットを渡すためのロックフリーなリングバッファ
+ * スロットのPacketViewは最初に確保したものを使い回すので、受け渡しでオブジェクトは生成されない
+ */
+public class PacketRing {
+    private final PacketView[] slots;
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong(); // 次に読む位置 (消費側だけが進める)
+    private final AtomicLong tail = new AtomicLong(); // 次に書く位置 (生産側だけが進める)
+    private long cachedHead = 0; // 生産側が覚えておく消費位置
+    private long cachedTail = 0; // 消費側が覚えておく生産位置
+
+    // capacityは2のべき乗に切り上げる
+    public PacketRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new PacketView[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new PacketView();
+        }
+        mask = size - 1;
+    }
+
+    // 生産側: 空きがあればコピーして公開する。満杯ならfalse
+    public boolean offer(PacketView packet) {
+        long t = tail.get();
+        if (t - cachedHead >= slots.length) {
+            cachedHead = head.getAcquire();
+            if (t - cachedHead >= slots.length) {
+                return false;
+            }
+        }
+        slots[(int) t & mask].copyFrom(packet);
+        tail.setRelease(t + 1);
+        return true;
+    }
+
+    // 消費側: 先頭のパケットを返す (空ならnull)。処理し終えたら advance() を呼ぶ
+    public PacketView peek() {
+        long h = head.get();
+        if (h >= cachedTail) {
+            cachedTail = tail.getAcquire();
+            if (h >= cachedTail) {
+                return null;
+            }
+        }
+        return slots[(int) h & mask];
+    }
+
+    public void advance() {
+        head.setRelease(head.get() + 1);
+    }
+
+    public boolean isEmpty() {
+        return head.getAcquire() >= tail.getAcquire();
+    }
+}
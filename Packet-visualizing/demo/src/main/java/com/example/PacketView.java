@@ -0,0 +1,530 @@
+package com.example;
+
+import java.nio.ByteBuffer;
+
+/**
+ * キャプチャした生フレーム (byte[]) をオフセットで直接読むための再利用可能なビュー
+ * pcap4jのPacketオブジェクトを組み立てずに、分析に必要な項目だけを一度で取り出す
+ * リンク層 (Ethernet + VLANタグ / Linux cooked SLL・SLL2 / ヘッダーなしIP / BSDループバック) → IPv4・IPv6 (拡張ヘッダー込み) → TCP/UDP の順にたどる
+ * (1つのインスタンスを使い回すので、decode後の値は次のdecodeまでしか有効でない)
+ * 別スレッドで受け取るときは restore でデコード結果とフレームの場所 (リングのスロット) だけを受け取り、フレームは写さずにその場で読む
+ */
+public final class PacketView {
+
+    public static final int PROTO_TCP = 6;
+    public static final int PROTO_UDP = 17;
+    public static final int PROTO_ICMPV6 = 58;
+
+    // TCPフラグ
+    public static final int TCP_FIN = 0x01;
+    public static final int TCP_SYN = 0x02;
+    public static final int TCP_RST = 0x04;
+    public static final int TCP_PSH = 0x08;
+    public static final int TCP_ACK = 0x10;
+
+    // pcap のリンク種別 (DataLinkType の値)
+    public static final int LINKTYPE_NULL = 0;         // BSDループバック (4バイトのアドレスファミリー)
+    public static final int LINKTYPE_ETHERNET = 1;
+    public static final int DLT_RAW = 12;              // ヘッダーなしのIP (環境によって 12 か 14 になる)
+    public static final int DLT_RAW_OPENBSD = 14;
+    public static final int LINKTYPE_RAW = 101;
+    public static final int LINKTYPE_LINUX_SLL = 113;  // Linux の any デバイス
+    public static final int LINKTYPE_IPV4 = 228;
+    public static final int LINKTYPE_IPV6 = 229;
+    public static final int LINKTYPE_LINUX_SLL2 = 276;
+
+    private static final int ETHER_HEADER_LENGTH = 14;
+    private static final int SLL_HEADER_LENGTH = 16;
+    private static final int SLL2_HEADER_LENGTH = 20;
+    private static final int NULL_HEADER_LENGTH = 4;
+    private static final int ETHER_TYPE_IPV4 = 0x0800;
+    private static final int ETHER_TYPE_IPV6 = 0x86dd;
+    private static final int ETHER_TYPE_VLAN = 0x8100;
+    private static final int ETHER_TYPE_QINQ = 0x88a8;
+    private static final int ETHER_TYPE_QINQ_OLD = 0x9100;
+    private static final int MAX_VLAN_TAGS = 4;
+    private static final int IPV6_HEADER_LENGTH = 40;
+    private static final int MAX_IPV6_EXTENSIONS = 8;
+
+    // IPv6 アドレスを int に畳み込むときは 240.0.0.0/6 (予約済みで実際には使われない範囲) に入れる
+    private static final int IPV6_FOLD_PREFIX = 0xf0000000;
+    private static final int IPV6_FOLD_MASK = 0xfc000000;
+
+    private byte[] data;     // decode したフレーム (restore で受け取ったときは null)
+    private ByteBuffer frame; // restore で受け取ったフレームの入れ物 (frameBase から先がフレーム)
+    private int frameBase;
+    private byte[] copy;      // copyFrom で写したフレームの置き場 (使うときに一度だけ作る)
+    private int linkType;
+    private int captureLength;
+    private int wireLength;
+    private long timestampNanos;
+    private long dispatchNanos; // シャードへ渡した時刻 (System.nanoTime。自己計測の対象でなければ0)
+
+    private int l2HeaderLength;
+    private int ipOffset;
+    private int ipHeaderLength;
+    private int l4Offset;
+    private int l4HeaderLength;
+    private int payloadOffset;
+    private int payloadLength;
+
+    private int ipVersion;
+    private int protocol;
+    private int srcIp;
+    private int dstIp;
+    private long srcAddress;
+    private long dstAddress;
+    private int srcPort;
+    private int dstPort;
+    private int tcpFlags;
+    private int sequenceNumber;
+    private int ackNumber;
+
+    // saveLayers / restore でやり取りするデコード結果の並び
+    static final int LAYER_FIELDS = 20;
+
+    /**
+     * Ethernetフレームを解析する。IPでなければfalseを返す
+     * @param data キャプチャしたフレーム
+     * @param wireLength 回線上の元の長さ (snaplenで切り詰められる前の長さ)
+     * @param timestampNanos キャプチャ時刻 (エポックからのナノ秒)
+     */
+    public boolean decode(byte[] data, int wireLength, long timestampNanos) {
+        return decode(LINKTYPE_ETHERNET, data, wireLength, timestampNanos);
+    }
+
+    /**
+     * リンク種別に合わせてフレームを解析する。IPでない、または未対応のリンク種別ならfalseを返す
+     * @param linkType pcap のリンク種別 (LINKTYPE_*)
+     */
+    public boolean decode(int linkType, byte[] data, int wireLength, long timestampNanos) {
+        return decode(linkType, data, data.length, wireLength, timestampNanos);
+    }
+
+    /**
+     * data の先頭 captureLength バイトをフレームとして解析する (使い回すバッファから読むとき用)
+     */
+    public boolean decode(int linkType, byte[] data, int captureLength, int wireLength, long timestampNanos) {
+        this.data = data;
+        this.frame = null;
+        this.linkType = linkType;
+        this.captureLength = captureLength;
+        this.wireLength = Math.max(wireLength, captureLength);
+        this.timestampNanos = timestampNanos;
+        clearLayers();
+
+        switch (linkType) {
+            case LINKTYPE_ETHERNET:
+                if (captureLength < ETHER_HEADER_LENGTH) return false;
+                return decodeEtherType(readUnsignedShort(12), ETHER_HEADER_LENGTH);
+            case LINKTYPE_LINUX_SLL:
+                if (captureLength < SLL_HEADER_LENGTH) return false;
+                return decodeEtherType(readUnsignedShort(14), SLL_HEADER_LENGTH);
+            case LINKTYPE_LINUX_SLL2:
+                if (captureLength < SLL2_HEADER_LENGTH) return false;
+                return decodeEtherType(readUnsignedShort(0), SLL2_HEADER_LENGTH);
+            case LINKTYPE_RAW: case DLT_RAW: case DLT_RAW_OPENBSD: case LINKTYPE_IPV4: case LINKTYPE_IPV6:
+                return decodeIp(0);
+            case LINKTYPE_NULL:
+                // アドレスファミリーは書いた機械のバイト順なので、IPのバージョンで見分ける
+                return decodeIp(NULL_HEADER_LENGTH);
+            default:
+                return false;
+        }
+    }
+
+    public static boolean isSupportedLinkType(int linkType) {
+        switch (linkType) {
+            case LINKTYPE_ETHERNET: case LINKTYPE_LINUX_SLL: case LINKTYPE_LINUX_SLL2: case LINKTYPE_NULL:
+            case LINKTYPE_RAW: case DLT_RAW: case DLT_RAW_OPENBSD: case LINKTYPE_IPV4: case LINKTYPE_IPV6:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // EtherType から先をたどる (802.1Q / QinQ のタグは読み飛ばしてリンク層ヘッダーに数える)
+    private boolean decodeEtherType(int type, int offset) {
+        for (int tags = 0; (type == ETHER_TYPE_VLAN || type == ETHER_TYPE_QINQ || type == ETHER_TYPE_QINQ_OLD) && tags < MAX_VLAN_TAGS; tags++) {
+            if (offset + 4 > captureLength) return false;
+            type = readUnsignedShort(offset + 2);
+            offset += 4;
+        }
+        l2HeaderLength = offset;
+        if (type == ETHER_TYPE_IPV4) return decodeIpV4(offset);
+        if (type == ETHER_TYPE_IPV6) return decodeIpV6(offset);
+        return false;
+    }
+
+    // リンク層ヘッダーのない (または種類を示さない) IP パケット
+    private boolean decodeIp(int offset) {
+        if (offset >= captureLength) return false;
+        l2HeaderLength = offset;
+        int version = (data[offset] & 0xff) >>> 4;
+        if (version == 4) return decodeIpV4(offset);
+        if (version == 6) return decodeIpV6(offset);
+        return false;
+    }
+
+    private boolean decodeIpV4(int offset) {
+        if (offset + 20 > captureLength) return false;
+        int versionAndIhl = data[offset] & 0xff;
+        if ((versionAndIhl >>> 4) != 4) return false;
+        int ihl = (versionAndIhl & 0x0f) * 4;
+        if (ihl < 20 || offset + ihl > captureLength) return false;
+
+        ipVersion = 4;
+        ipOffset = offset;
+        ipHeaderLength = ihl;
+        protocol = data[offset + 9] & 0xff;
+        srcIp = readInt(offset + 12);
+        dstIp = readInt(offset + 16);
+        srcAddress = srcIp & 0xffffffffL;
+        dstAddress = dstIp & 0xffffffffL;
+
+        int totalLength = readUnsignedShort(offset + 2);
+        int fragmentOffset = readUnsignedShort(offset + 6) & 0x1fff;
+        l4Offset = offset + ihl;
+        payloadOffset = l4Offset;
+        payloadLength = Math.max(0, totalLength - ihl);
+
+        // 先頭以外のフラグメントにはL4ヘッダーがない
+        if (fragmentOffset != 0) return true;
+        decodeTransport();
+        return true;
+    }
+
+    /**
+     * IPv6 と拡張ヘッダー (ホップバイホップ・経路・フラグメント・終点・AH など) をたどり、上位プロトコルを見つける
+     * 拡張ヘッダーは ipHeaderLength に含める (オーバーヘッドとして数える)
+     */
+    private boolean decodeIpV6(int offset) {
+        if (offset + IPV6_HEADER_LENGTH > captureLength) return false;
+        if (((data[offset] & 0xff) >>> 4) != 6) return false;
+
+        ipVersion = 6;
+        ipOffset = offset;
+        srcAddress = foldIpv6(readLong(offset + 8), readLong(offset + 16));
+        dstAddress = foldIpv6(readLong(offset + 24), readLong(offset + 32));
+        srcIp = foldToInt(srcAddress);
+        dstIp = foldToInt(dstAddress);
+
+        int ipPayloadLength = readUnsignedShort(offset + 4);
+        if (ipPayloadLength == 0) {
+            // ジャンボグラム (長さはホップバイホップのオプションにある) は回線上の長さから求める
+            ipPayloadLength = Math.max(0, wireLength - offset - IPV6_HEADER_LENGTH);
+        }
+        int next = data[offset + 6] & 0xff;
+        int headerEnd = offset + IPV6_HEADER_LENGTH;
+        boolean firstFragment = true;
+        for (int i = 0; i < MAX_IPV6_EXTENSIONS && headerEnd + 8 <= captureLength; i++) {
+            int length;
+            if (next == 0 || next == 43 || next == 60 || next == 135 || next == 139 || next == 140) {
+                length = ((data[headerEnd + 1] & 0xff) + 1) * 8;
+            } else if (next == 44) {
+                length = 8;
+                if ((readUnsignedShort(headerEnd + 2) & 0xfff8) != 0) firstFragment = false;
+            } else if (next == 51) {
+                length = ((data[headerEnd + 1] & 0xff) + 2) * 4;
+            } else {
+                break;
+            }
+            next = data[headerEnd] & 0xff;
+            headerEnd += length;
+        }
+
+        protocol = next;
+        ipHeaderLength = headerEnd - offset;
+        l4Offset = headerEnd;
+        payloadOffset = l4Offset;
+        payloadLength = Math.max(0, ipPayloadLength - (ipHeaderLength - IPV6_HEADER_LENGTH));
+
+        if (!firstFragment) return true;
+        decodeTransport();
+        return true;
+    }
+
+    // TCP/UDP ヘッダー (キャプチャに収まっている場合だけ)
+    private void decodeTransport() {
+        if (protocol == PROTO_TCP && l4Offset + 20 <= captureLength) {
+            int dataOffset = ((data[l4Offset + 12] & 0xff) >>> 4) * 4;
+            l4HeaderLength = Math.max(20, dataOffset);
+            srcPort = readUnsignedShort(l4Offset);
+            dstPort = readUnsignedShort(l4Offset + 2);
+            sequenceNumber = readInt(l4Offset + 4);
+            ackNumber = readInt(l4Offset + 8);
+            tcpFlags = data[l4Offset + 13] & 0xff;
+        } else if (protocol == PROTO_UDP && l4Offset + 8 <= captureLength) {
+            l4HeaderLength = 8;
+            srcPort = readUnsignedShort(l4Offset);
+            dstPort = readUnsignedShort(l4Offset + 2);
+        }
+        payloadOffset = l4Offset + l4HeaderLength;
+        payloadLength = Math.max(0, payloadLength - l4HeaderLength);
+    }
+
+    // 128ビットのアドレスを64ビットのキーにする (最上位ビットを立てて IPv4 のキーと重ならないようにする)
+    private static long foldIpv6(long high, long low) {
+        long h = (high ^ (high >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ low ^ (low >>> 29)) * 0xC4CEB9FE1A85EC53L;
+        return (h ^ (h >>> 32)) | Long.MIN_VALUE;
+    }
+
+    private static int foldToInt(long key) {
+        return IPV6_FOLD_PREFIX | ((int) (key ^ (key >>> 32)) & ~IPV6_FOLD_MASK);
+    }
+
+    // アドレスのキー (srcAddress/dstAddress) から表示用の32ビット (srcIp/dstIp と同じ値) を求める
+    static int ipOf(long address) {
+        return (address >= 0) ? (int) address : foldToInt(address);
+    }
+
+    private void clearLayers() {
+        ipVersion = 0;
+        l2HeaderLength = 0;
+        ipOffset = 0;
+        ipHeaderLength = 0;
+        l4Offset = 0;
+        l4HeaderLength = 0;
+        payloadOffset = 0;
+        payloadLength = 0;
+        protocol = 0;
+        srcIp = 0;
+        dstIp = 0;
+        srcAddress = 0;
+        dstAddress = 0;
+        srcPort = 0;
+        dstPort = 0;
+        tcpFlags = 0;
+        sequenceNumber = 0;
+        ackNumber = 0;
+    }
+
+    private int readUnsignedShort(int offset) {
+        return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+    }
+
+    private int readInt(int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    private long readLong(int offset) {
+        if (frame != null) return frame.getLong(frameBase + offset);
+        return ((long) readInt(offset) << 32) | (readInt(offset + 4) & 0xffffffffL);
+    }
+
+    // フレームの offset バイト目 (0〜255。captureLength より前だけ読める)
+    public int byteAt(int offset) {
+        return (frame != null) ? frame.get(frameBase + offset) & 0xff : data[offset] & 0xff;
+    }
+
+    // フレームの先頭 length バイトを into の at から先に写す (リングへ渡すとき用)
+    void copyFrame(ByteBuffer into, int at, int length) {
+        if (frame != null) {
+            into.put(at, frame, frameBase, length);
+        } else {
+            into.put(at, data, 0, length);
+        }
+    }
+
+    /**
+     * 別のスレッドへ渡すためにデコード結果を int の並び (LAYER_FIELDS 個) に書く
+     * 受け取る側は restore でフレームを読み直さずに同じ結果を得る
+     */
+    void saveLayers(int[] into) {
+        into[0] = l2HeaderLength;
+        into[1] = ipOffset;
+        into[2] = ipHeaderLength;
+        into[3] = l4Offset;
+        into[4] = l4HeaderLength;
+        into[5] = payloadOffset;
+        into[6] = payloadLength;
+        into[7] = ipVersion;
+        into[8] = protocol;
+        into[9] = srcIp;
+        into[10] = dstIp;
+        into[11] = (int) (srcAddress >>> 32);
+        into[12] = (int) srcAddress;
+        into[13] = (int) (dstAddress >>> 32);
+        into[14] = (int) dstAddress;
+        into[15] = srcPort;
+        into[16] = dstPort;
+        into[17] = tcpFlags;
+        into[18] = sequenceNumber;
+        into[19] = ackNumber;
+    }
+
+    /**
+     * saveLayers で書いたデコード結果を受け取る (decode の代わり)
+     * フレームは frame の base から先を写さずに読むので、渡した側は次にこのビューを使うまでそこを書き換えないこと
+     */
+    void restore(int linkType, int captureLength, int wireLength, long timestampNanos, int[] layers,
+                 ByteBuffer frame, int base) {
+        this.data = null;
+        this.frame = frame;
+        this.frameBase = base;
+        this.linkType = linkType;
+        this.captureLength = captureLength;
+        this.wireLength = wireLength;
+        this.timestampNanos = timestampNanos;
+        l2HeaderLength = layers[0];
+        ipOffset = layers[1];
+        ipHeaderLength = layers[2];
+        l4Offset = layers[3];
+        l4HeaderLength = layers[4];
+        payloadOffset = layers[5];
+        payloadLength = layers[6];
+        ipVersion = layers[7];
+        protocol = layers[8];
+        srcIp = layers[9];
+        dstIp = layers[10];
+        srcAddress = ((long) layers[11] << 32) | (layers[12] & 0xffffffffL);
+        dstAddress = ((long) layers[13] << 32) | (layers[14] & 0xffffffffL);
+        srcPort = layers[15];
+        dstPort = layers[16];
+        tcpFlags = layers[17];
+        sequenceNumber = layers[18];
+        ackNumber = layers[19];
+    }
+
+    /**
+     * 別スレッドへ渡すためにデコード結果を丸ごと写す
+     * 渡した側はフレームのバッファを使い回すので、フレームも先頭 OffHeapPacketRing.MAX_FRAME_BYTES まで自分の置き場に写す
+     * (分析シャードへのリングもそこで切り詰めるので、結果は変わらない)
+     */
+    public void copyFrom(PacketView other) {
+        if (copy == null) copy = new byte[OffHeapPacketRing.MAX_FRAME_BYTES];
+        captureLength = Math.min(other.captureLength, copy.length);
+        if (other.frame != null) {
+            other.frame.get(other.frameBase, copy, 0, captureLength);
+        } else {
+            System.arraycopy(other.data, 0, copy, 0, captureLength);
+        }
+        data = copy;
+        frame = null;
+        linkType = other.linkType;
+        wireLength = other.wireLength;
+        timestampNanos = other.timestampNanos;
+        l2HeaderLength = other.l2HeaderLength;
+        ipOffset = other.ipOffset;
+        ipHeaderLength = other.ipHeaderLength;
+        l4Offset = other.l4Offset;
+        l4HeaderLength = other.l4HeaderLength;
+        payloadOffset = other.payloadOffset;
+        payloadLength = other.payloadLength;
+        ipVersion = other.ipVersion;
+        protocol = other.protocol;
+        srcIp = other.srcIp;
+        dstIp = other.dstIp;
+        srcAddress = other.srcAddress;
+        dstAddress = other.dstAddress;
+        srcPort = other.srcPort;
+        dstPort = other.dstPort;
+        tcpFlags = other.tcpFlags;
+        sequenceNumber = other.sequenceNumber;
+        ackNumber = other.ackNumber;
+        dispatchNanos = other.dispatchNanos;
+    }
+
+    // 向きに依存しないフローのハッシュ (A->B と B->A が同じ値になる)
+    public int flowHash() {
+        return flowHash(srcIp, srcPort, dstIp, dstPort, protocol);
+    }
+
+    static int flowHash(int srcIp, int srcPort, int dstIp, int dstPort, int protocol) {
+        long endpointA = ((srcIp & 0xffffffffL) << 16) | srcPort;
+        long endpointB = ((dstIp & 0xffffffffL) << 16) | dstPort;
+        long lo = Math.min(endpointA, endpointB);
+        long hi = Math.max(endpointA, endpointB);
+        long h = (lo * 0x9E3779B97F4A7C15L) ^ (hi * 0xC2B2AE3D27D4EB4FL) ^ protocol;
+        h ^= (h >>> 31);
+        h *= 0xBF58476D1CE4E5B9L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public int linkType() { return linkType; }
+    public int captureLength() { return captureLength; }
+    public int wireLength() { return wireLength; }
+    public long timestampNanos() { return timestampNanos; }
+    public long dispatchNanos() { return dispatchNanos; }
+    void setDispatchNanos(long dispatchNanos) { this.dispatchNanos = dispatchNanos; }
+
+    public int protocol() { return protocol; }
+    public boolean isTcp() { return protocol == PROTO_TCP && l4HeaderLength > 0; }
+    public boolean isUdp() { return protocol == PROTO_UDP && l4HeaderLength > 0; }
+
+    public int ipVersion() { return ipVersion; }
+    public boolean isIpv6() { return ipVersion == 6; }
+
+    // IPv4 アドレス。IPv6 は 240.0.0.0/6 に畳み込んだ値 (集計のキー用。formatIp では "IPv6#..." と表示される)
+    public int srcIp() { return srcIp; }
+    public int dstIp() { return dstIp; }
+    // フロー表のキー用の64ビット値 (IPv4 はそのまま、IPv6 は畳み込んで最上位ビットを立てた値)
+    public long srcAddress() { return srcAddress; }
+    public long dstAddress() { return dstAddress; }
+    // IPv6 のアドレスの上位・下位64ビット (IPv6 のときだけ)
+    public long srcIpv6High() { return readLong(ipOffset + 8); }
+    public long srcIpv6Low() { return readLong(ipOffset + 16); }
+    public long dstIpv6High() { return readLong(ipOffset + 24); }
+    public long dstIpv6Low() { return readLong(ipOffset + 32); }
+    // TCP/UDP以外は0
+    public int srcPort() { return srcPort; }
+    public int dstPort() { return dstPort; }
+
+    public int tcpFlags() { return tcpFlags; }
+    public boolean hasFlag(int flag) { return (tcpFlags & flag) != 0; }
+    public int sequenceNumber() { return sequenceNumber; }
+    public int ackNumber() { return ackNumber; }
+
+    public int l2HeaderLength() { return l2HeaderLength; }
+    public int ipOffset() { return ipOffset; }
+    public int ipHeaderLength() { return ipHeaderLength; }
+    public int l4Offset() { return l4Offset; }
+    public int l4HeaderLength() { return l4HeaderLength; }
+    public int payloadOffset() { return payloadOffset; }
+    public int payloadLength() { return payloadLength; }
+
+    // リンク層 (VLANタグ込み) + IP (IPv6 拡張ヘッダー込み) + TCP/UDP のヘッダー合計 (オーバーヘッド計算用)
+    public int headerLength() { return l2HeaderLength + ipHeaderLength + l4HeaderLength; }
+
+    // ログ表示用 (ホットパスでは使わない)
+    public static String formatIp(int ip) {
+        if ((ip & IPV6_FOLD_MASK) == IPV6_FOLD_PREFIX) {
+            return "IPv6#" + Integer.toHexString(ip & ~IPV6_FOLD_MASK);
+        }
+        return ((ip >>> 24) & 0xff) + "." + ((ip >>> 16) & 0xff) + "." + ((ip >>> 8) & 0xff) + "." + (ip & 0xff);
+    }
+
+    // IPv6 アドレスの表記 (RFC 5952: 小文字、一番長い0の並び (2つ以上) を :: に縮める)
+    public static String formatIpv6(long high, long low) {
+        int[] groups = new int[8];
+        for (int i = 0; i < 4; i++) {
+            groups[i] = (int) (high >>> (48 - i * 16)) & 0xffff;
+            groups[i + 4] = (int) (low >>> (48 - i * 16)) & 0xffff;
+        }
+        int bestStart = -1, bestLength = 1;
+        for (int i = 0; i < 8; ) {
+            if (groups[i] != 0) { i++; continue; }
+            int j = i;
+            while (j < 8 && groups[j] == 0) j++;
+            if (j - i > bestLength) { bestStart = i; bestLength = j - i; }
+            i = j;
+        }
+        StringBuilder text = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            if (i == bestStart) {
+                text.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (text.length() > 0 && text.charAt(text.length() - 1) != ':') text.append(':');
+            text.append(Integer.toHexString(groups[i]));
+        }
+        return text.toString();
+    }
+
+    // 直前に decode したパケットの送信元・宛先の表記
+    public String formatSrc() { return isIpv6() ? formatIpv6(srcIpv6High(), srcIpv6Low()) : formatIp(srcIp); }
+    public String formatDst() { return isIpv6() ? formatIpv6(dstIpv6High(), dstIpv6Low()) : formatIp(dstIp); }
+}
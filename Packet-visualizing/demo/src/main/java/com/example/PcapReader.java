@@ -0,0 +1,140 @@
+package com.example;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+import org.pcap4j.core.NotOpenException;
+import org.pcap4j.core.PcapHandle;
+import org.pcap4j.core.PcapNativeException;
+
+import java.io.EOFException;
+import java.lang.reflect.Field;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * キャプチャループ用のフレームの読み手 (キャプチャスレッドだけが使う)
+ * - libpcap の pcap_next_ex を JNA の直接呼び出しで呼び、フレームを使い回すバッファに写す
+ *   pcap4j の getNextRawPacket は1パケットごとに byte[]・Timestamp・Integer を作るので、それを通らない
+ * - ヘッダーとデータの場所は、作っておいた Pointer の指す先を付け替えて読む (読むたびの確保はない)
+ * - ハンドルを開く・フィルター・統計・閉じるは pcap4j のまま。直接呼べない環境では pcap4j の読み出しに戻る
+ * pcap_next_ex の最中にハンドルを閉じてはいけないので、閉じるのはこれを使うスレッド自身が行う
+ */
+final class PcapReader {
+    static final int OK = 1;
+    static final int TIMEOUT = 0;
+    static final int EOF = -2;
+
+    // pcap_pkthdr: struct timeval (long 2つ。macOS の tv_usec は int + 詰め物) + caplen + len
+    private static final int TV_USEC = NativeLong.SIZE;
+    private static final int CAPLEN = 2 * NativeLong.SIZE;
+    private static final int LEN = CAPLEN + 4;
+
+    private static final Field HANDLE_FIELD;
+    private static final boolean DIRECT;
+
+    static {
+        Field field = null;
+        boolean direct = false;
+        try {
+            String name = System.getProperty("org.pcap4j.core.NativeMappings.pcapLibName", Platform.isWindows() ? "wpcap" : "pcap");
+            Native.register(PcapReader.class, NativeLibrary.getInstance(name));
+            field = PcapHandle.class.getDeclaredField("handle");
+            field.setAccessible(true);
+            direct = Boolean.parseBoolean(System.getProperty("capture.directRead", "true"));
+        } catch (Throwable e) {
+            // ライブラリが見つからない・pcap4j の中身が違うときは pcap4j の API で読む
+        }
+        HANDLE_FIELD = field;
+        DIRECT = direct;
+    }
+
+    private static native int pcap_next_ex(Pointer pcap, Pointer header, Pointer data);
+
+    private final PcapHandle handle;
+    private final Pointer pcap;                    // pcap_t* (直接読まないときは null)
+    private final Memory out;                      // pcap_next_ex が書く2つのポインタの置き場 (ヘッダー, データ)
+    private final Pointer dataOut;
+    private final Pointer header = new Pointer(0); // 指す先を付け替えて使う
+    private final Pointer data = new Pointer(0);
+    private final boolean nanos;                   // tv_usec がナノ秒か (NANO で開いたファイル)
+
+    private final byte[] frame;
+    private int captureLength;
+    private int wireLength;
+    private long timestampNanos;
+
+    PcapReader(PcapHandle handle, int snaplen) {
+        this.handle = handle;
+        this.frame = new byte[Math.max(snaplen, 1)];
+        this.nanos = handle.getTimestampPrecision() == PcapHandle.TimestampPrecision.NANO;
+        Pointer p = null;
+        if (DIRECT) {
+            try {
+                p = (Pointer) HANDLE_FIELD.get(handle);
+            } catch (ReflectiveOperationException e) {
+                p = null;
+            }
+        }
+        this.pcap = p;
+        this.out = (p != null) ? new Memory(2L * Native.POINTER_SIZE) : null;
+        this.dataOut = (p != null) ? out.share(Native.POINTER_SIZE) : null;
+    }
+
+    // pcap_next_ex を直接呼んでいるか (false なら pcap4j の API で読んでいる)
+    boolean isDirect() { return pcap != null; }
+
+    /**
+     * 次のフレームを読む。OK なら frame() などで読める (次の next まで)
+     * @return OK, TIMEOUT (ライブで何も来なかった), EOF (ファイル末尾)
+     */
+    int next() throws PcapNativeException, NotOpenException {
+        if (pcap == null) return nextByPcap4j();
+        int rc = pcap_next_ex(pcap, out, dataOut);
+        if (rc != OK) {
+            if (rc == TIMEOUT || rc == EOF) return rc;
+            throw new PcapNativeException(handle.getError(), rc);
+        }
+        Pointer.nativeValue(header, address(0));
+        Pointer.nativeValue(data, address(Native.POINTER_SIZE));
+        long seconds = (NativeLong.SIZE == 8) ? header.getLong(0) : header.getInt(0);
+        long fraction = (NativeLong.SIZE == 8 && !Platform.isMac()) ? header.getLong(TV_USEC) : header.getInt(TV_USEC);
+        timestampNanos = seconds * 1_000_000_000L + (nanos ? fraction : fraction * 1000L);
+        captureLength = Math.min(header.getInt(CAPLEN), frame.length);
+        wireLength = header.getInt(LEN);
+        data.read(0, frame, 0, captureLength);
+        return OK;
+    }
+
+    private long address(long offset) {
+        return (Native.POINTER_SIZE == 8) ? out.getLong(offset) : out.getInt(offset) & 0xffffffffL;
+    }
+
+    // pcap4j の API で読む (1パケットごとに確保があるが、どの環境でも動く)
+    private int nextByPcap4j() throws PcapNativeException, NotOpenException {
+        byte[] raw;
+        try {
+            raw = handle.getNextRawPacketEx();
+        } catch (EOFException e) {
+            return EOF;
+        } catch (TimeoutException e) {
+            return TIMEOUT;
+        }
+        captureLength = Math.min(raw.length, frame.length);
+        System.arraycopy(raw, 0, frame, 0, captureLength);
+        Integer original = handle.getOriginalLength();
+        wireLength = (original != null) ? original : raw.length;
+        Timestamp ts = handle.getTimestamp();
+        timestampNanos = Math.floorDiv(ts.getTime(), 1000L) * 1_000_000_000L + ts.getNanos();
+        return OK;
+    }
+
+    // 直前に読んだフレーム (先頭 captureLength() バイト。バッファは使い回す)
+    byte[] frame() { return frame; }
+    int captureLength() { return captureLength; }
+    int wireLength() { return wireLength; }
+    long timestampNanos() { return timestampNanos; }
+}
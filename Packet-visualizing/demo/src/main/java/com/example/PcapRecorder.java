@@ -0,0 +1,326 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 生フレームを pcap ファイルに書き出す録画係
+ * - キャプチャスレッドは offer でメモリ上のリングにコピーするだけ (満杯なら捨てて数える。決して待たない)
+ * - 書き出しは専用スレッドが行い、まとめたレコードを大きな単位で FileChannel に書く
+ * - ファイルは maxFileBytes で切り替え、maxFiles を超えたら古いものから消す
+ * - TRIGGERED では、リング自体を「直前 preTrigger 分」の保管場所として使い、trigger が呼ばれたら
+ *   その前後 (preTrigger + postTrigger) だけを書き出す
+ */
+public class PcapRecorder {
+
+    public enum Mode {
+        CONTINUOUS, // すべて書き出す
+        TRIGGERED   // RST・再送・体温の警告の前後だけ書き出す
+    }
+
+    private static final int DEFAULT_RING_BYTES = 64 << 20;
+    private static final int OUT_BUFFER_BYTES = 1 << 20;
+    private static final int RECORD_HEADER = 24; // リング上: 長さ(4) + 時刻(8) + 元の長さ(4) + 記録した長さ(4) + 詰め物(4)
+    private static final int PCAP_MAGIC_NANOS = 0xa1b23c4d; // タイムスタンプがナノ秒の pcap
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final Path directory;
+    private final Mode mode;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final long preTriggerNanos;
+    private final long postTriggerNanos;
+    private final EventChannel events;
+
+    // キャプチャスレッド → 書き出しスレッドのリング (PacketRing と同じく1対1)
+    private final byte[] ring;
+    private final ByteBuffer ringBuffer;
+    private final int ringMask;
+    private final AtomicLong head = new AtomicLong(); // 書き出し側だけが進める
+    private final AtomicLong tail = new AtomicLong(); // キャプチャ側だけが進める
+    private long cachedHead = 0;
+    private long latestTimestampNanos = Long.MIN_VALUE; // tail の公開で一緒に見える
+    private int snaplen = 65535;
+
+    // trigger: [triggerFromNanos, triggerUntilNanos] の時刻のパケットを書き出す
+    private volatile long triggerFromNanos = Long.MAX_VALUE;
+    private volatile long triggerUntilNanos = Long.MIN_VALUE;
+
+    private final AtomicLong droppedPackets = new AtomicLong(); // リング満杯で捨てた
+    private final AtomicLong writtenPackets = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong triggers = new AtomicLong(); // 書き出しを始めたきっかけの回数
+
+    // ここから下は書き出しスレッドだけが触る
+    private final ByteBuffer out = ByteBuffer.allocateDirect(OUT_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final ArrayDeque<Path> files = new ArrayDeque<>();
+    private FileChannel channel;
+    private long fileBytes;
+    private int fileSequence;
+    private long writtenEpisode = Long.MIN_VALUE; // 今のファイルに書いている trigger の開始時刻
+    private int linkType;
+
+    private volatile boolean running = false;
+    private Thread writerThread;
+
+    public PcapRecorder(Path directory, Mode mode, long maxFileBytes, int maxFiles,
+                        Duration preTrigger, Duration postTrigger, EventChannel events) {
+        this(directory, mode, maxFileBytes, maxFiles, preTrigger, postTrigger, DEFAULT_RING_BYTES, events);
+    }
+
+    // ringBytes は2のべき乗に切り上げる (TRIGGERED では直前 preTrigger 分がここに収まる大きさにする)
+    public PcapRecorder(Path directory, Mode mode, long maxFileBytes, int maxFiles,
+                        Duration preTrigger, Duration postTrigger, int ringBytes, EventChannel events) {
+        this.directory = directory;
+        this.mode = mode;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.preTriggerNanos = preTrigger.toNanos();
+        this.postTriggerNanos = postTrigger.toNanos();
+        this.events = events;
+        int size = Integer.highestOneBit(Math.max(1 << 20, ringBytes - 1)) << 1;
+        this.ring = new byte[size];
+        this.ringBuffer = ByteBuffer.wrap(ring).order(ByteOrder.LITTLE_ENDIAN);
+        this.ringMask = size - 1;
+    }
+
+    /**
+     * -Dcapture.record.dir が指定されていれば、その設定で録画係を作る (指定がなければ null)
+     * capture.record.mode (triggered/continuous), capture.record.maxFileMB, capture.record.maxFiles,
+     * capture.record.preSeconds, capture.record.postSeconds で細かく変えられる
+     */
+    public static PcapRecorder fromSystemProperties(EventChannel events) {
+        String dir = System.getProperty("capture.record.dir");
+        if (dir == null || dir.isEmpty()) return null;
+        Mode mode = "continuous".equalsIgnoreCase(System.getProperty("capture.record.mode")) ? Mode.CONTINUOUS : Mode.TRIGGERED;
+        return new PcapRecorder(Paths.get(dir), mode,
+                Long.getLong("capture.record.maxFileMB", 100) << 20,
+                Integer.getInteger("capture.record.maxFiles", 10),
+                Duration.ofSeconds(Long.getLong("capture.record.preSeconds", 10)),
+                Duration.ofSeconds(Long.getLong("capture.record.postSeconds", 10)),
+                events);
+    }
+
+    public Mode getMode() { return mode; }
+    public long getDroppedPackets() { return droppedPackets.get(); }
+    public long getWrittenPackets() { return writtenPackets.get(); }
+    public long getWrittenBytes() { return writtenBytes.get(); }
+    public long getTriggers() { return triggers.get(); }
+
+    /**
+     * キャプチャを開いたあと、最初の offer の前に呼ぶ
+     * @param linkType pcap のリンク種別 (DataLinkType の値)
+     */
+    public synchronized void start(int linkType, int snaplen) throws IOException {
+        if (running) return;
+        Files.createDirectories(directory);
+        this.linkType = linkType;
+        this.snaplen = snaplen;
+        running = true;
+        writerThread = new Thread(this::writeLoop, "pcap-recorder");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * キャプチャスレッドから呼ぶ。frame の先頭 captureLength バイトをリングにコピーする (空きがなければ捨てて数える)
+     * @param wireLength 回線上の元の長さ
+     */
+    public void offer(byte[] frame, int captureLength, int wireLength, long timestampNanos) {
+        int captured = Math.min(captureLength, snaplen);
+        int length = (RECORD_HEADER + captured + 7) & ~7;
+        long t = tail.get();
+        int offset = (int) t & ringMask;
+        int untilEnd = ring.length - offset;
+        int needed = (length <= untilEnd) ? length : untilEnd + length; // 末尾に収まらなければ先頭に回す
+        if (t + needed - cachedHead > ring.length) {
+            cachedHead = head.getAcquire();
+            if (t + needed - cachedHead > ring.length) {
+                droppedPackets.incrementAndGet();
+                return;
+            }
+        }
+        if (length > untilEnd) {
+            ringBuffer.putInt(offset, -untilEnd); // 詰め物 (読み側は飛ばす)
+            t += untilEnd;
+            offset = 0;
+        }
+        ringBuffer.putInt(offset, length);
+        ringBuffer.putLong(offset + 4, timestampNanos);
+        ringBuffer.putInt(offset + 12, Math.max(wireLength, captured));
+        ringBuffer.putInt(offset + 16, captured);
+        System.arraycopy(frame, 0, ring, offset + RECORD_HEADER, captured);
+        latestTimestampNanos = timestampNanos;
+        tail.setRelease(t + length);
+    }
+
+    /**
+     * どのスレッドからでも呼べる。timestampNanos の前 preTrigger から後 postTrigger までを書き出す
+     * 書き出し中にまた呼ばれたら、その分だけ延ばす (CONTINUOUS では何もしない)
+     */
+    public void trigger(long timestampNanos) {
+        if (mode != Mode.TRIGGERED) return;
+        long until = timestampNanos + postTriggerNanos;
+        // 延長は postTrigger の1/16単位にまとめて、RSTが大量に来てもロックを取りに行かない
+        if (until <= triggerUntilNanos + (postTriggerNanos >>> 4)) return;
+        synchronized (this) {
+            if (timestampNanos > triggerUntilNanos) {
+                triggerFromNanos = timestampNanos - preTriggerNanos; // 新しいきっかけ
+                triggers.incrementAndGet();
+            }
+            if (until > triggerUntilNanos) triggerUntilNanos = until;
+        }
+    }
+
+    // 残っているフレームを書き出してからファイルを閉じる
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+            thread = writerThread;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            int idle = 0;
+            while (true) {
+                boolean stopping = !running;
+                boolean progressed = drain(stopping);
+                if (!progressed) flushOut(); // 追いついたら、たまった分をまとめて書く
+                if (stopping) break;
+                if (progressed) {
+                    idle = 0;
+                } else {
+                    LockSupport.parkNanos(idle < 10 ? 100_000 : 1_000_000);
+                    idle++;
+                }
+            }
+        } catch (IOException e) {
+            events.message("⚠️ pcap の書き出しに失敗したため録画を止めます: " + e.getMessage());
+            running = false;
+        } finally {
+            closeFile();
+        }
+    }
+
+    /**
+     * リングからレコードを読み、書き出す分は out にためる
+     * @param stopping 停止中なら、まだ trigger の範囲外のフレームは捨てる
+     * @return 1つでも進めたら true
+     */
+    private boolean drain(boolean stopping) throws IOException {
+        long h = head.get();
+        long t = tail.getAcquire();
+        long latest = latestTimestampNanos;
+        long start = h;
+        while (h < t) {
+            int offset = (int) h & ringMask;
+            int length = ringBuffer.getInt(offset);
+            if (length < 0) {
+                h -= length;
+                continue;
+            }
+            long timestamp = ringBuffer.getLong(offset + 4);
+            if (mode == Mode.TRIGGERED) {
+                long until = triggerUntilNanos;
+                long from = triggerFromNanos;
+                if (timestamp > until) {
+                    // まだ trigger がかかっていない。直前 preTrigger 分と、リングの3/4までは残しておく
+                    boolean keep = timestamp >= latest - preTriggerNanos && t - h <= (ring.length >>> 2) * 3;
+                    if (keep && !stopping) break;
+                    h += length;
+                    continue;
+                }
+                if (timestamp < from) {
+                    h += length;
+                    continue;
+                }
+                if (from != writtenEpisode) {
+                    // きっかけごとに新しいファイルにする
+                    flushOut();
+                    closeFile();
+                    writtenEpisode = from;
+                }
+            }
+            int captured = ringBuffer.getInt(offset + 16);
+            if (out.remaining() < 16 + captured) flushOut();
+            if (channel == null || fileBytes + out.position() + 16 + captured > maxFileBytes) {
+                flushOut();
+                rotate();
+            }
+            out.putInt((int) Math.floorDiv(timestamp, 1_000_000_000L));
+            out.putInt((int) Math.floorMod(timestamp, 1_000_000_000L));
+            out.putInt(captured);
+            out.putInt(ringBuffer.getInt(offset + 12));
+            out.put(ring, offset + RECORD_HEADER, captured);
+            writtenPackets.lazySet(writtenPackets.get() + 1);
+            h += length;
+        }
+        if (h != start) head.setRelease(h);
+        return h != start;
+    }
+
+    private void flushOut() throws IOException {
+        if (out.position() == 0) return;
+        out.flip();
+        int bytes = out.remaining();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+        fileBytes += bytes;
+        writtenBytes.lazySet(writtenBytes.get() + bytes);
+    }
+
+    // 新しいファイルを開き、上限を超えた古いファイルを消す
+    private void rotate() throws IOException {
+        closeFile();
+        String name = (mode == Mode.TRIGGERED ? "trigger-" : "capture-")
+                + LocalDateTime.now().format(FILE_TIME) + String.format("-%04d.pcap", fileSequence++);
+        Path path = directory.resolve(name);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        files.addLast(path);
+        while (files.size() > maxFiles) {
+            Files.deleteIfExists(files.removeFirst());
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(PCAP_MAGIC_NANOS).putShort((short) 2).putShort((short) 4);
+        header.putInt(0).putInt(0).putInt(snaplen).putInt(linkType);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        fileBytes = 24;
+    }
+
+    private void closeFile() {
+        if (channel == null) return;
+        try {
+            flushOut();
+            channel.close();
+        } catch (IOException e) {
+            events.message("⚠️ pcap ファイルを閉じられません: " + e.getMessage());
+        }
+        channel = null;
+    }
+}
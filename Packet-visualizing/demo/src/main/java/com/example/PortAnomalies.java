@@ -0,0 +1,33 @@
+package com.example;
+
+/**
+ * 1回の集計で体温 (Zスコア) が閾値を超えたポートの一覧 (読み取り専用、スコアの高い順)
+ * 添字 i (0〜size()-1) でポートを指定する
+ */
+public class PortAnomalies {
+    public static final PortAnomalies EMPTY = new PortAnomalies(new int[0], new double[0], new double[0], new double[0], new double[0]);
+
+    private final int[] ports;
+    private final double[] rates;
+    private final double[] expected;
+    private final double[] stdDevs;
+    private final double[] scores;
+
+    PortAnomalies(int[] ports, double[] rates, double[] expected, double[] stdDevs, double[] scores) {
+        this.ports = ports;
+        this.rates = rates;
+        this.expected = expected;
+        this.stdDevs = stdDevs;
+        this.scores = scores;
+    }
+
+    public int size() { return ports.length; }
+    public int port(int i) { return ports[i]; }
+    public double rate(int i) { return rates[i]; }         // 今回の脈拍 (pkt/s)
+    public double expected(int i) { return expected[i]; } // 学習済みの平均 (pkt/s)
+    public double stdDev(int i) { return stdDevs[i]; }     // 学習済みの標準偏差 (pkt/s)
+    public double score(int i) { return scores[i]; }       // 体温 |R - μ| / σ
+
+    // 平均より多いか (false なら急に減った)
+    public boolean isSpike(int i) { return rates[i] > expected[i]; }
+}
@@ -0,0 +1,87 @@
+package com.example;
+
+/**
+ * 1回の集計期間に使われたポートだけを詰めて持つ、ポート別統計の読み取り専用ビュー
+ * 添字 i (0〜size()-1) でポートを指定する。ポート番号は昇順に並ぶ
+ */
+public class PortStats {
+    public static final PortStats EMPTY = new PortStats(new int[0],
+            new long[PortStatsTable.CATEGORIES][0], new long[PortStatsTable.CATEGORIES][0], 0.0);
+
+    private final int[] ports;
+    private final long[][] packets; // [区分][添字]
+    private final long[][] bytes;
+    private final double elapsedSeconds;
+
+    PortStats(int[] ports, long[][] packets, long[][] bytes, double elapsedSeconds) {
+        this.ports = ports;
+        this.packets = packets;
+        this.bytes = bytes;
+        this.elapsedSeconds = elapsedSeconds;
+    }
+
+    public int size() { return ports.length; }
+    public int port(int i) { return ports[i]; }
+    public double getElapsedSeconds() { return elapsedSeconds; }
+
+    // 区分ごとの値 (proto: PortStatsTable.PROTO_TCP/UDP, dir: PortStatsTable.DIR_DST/SRC)
+    public long packets(int i, int proto, int dir) { return packets[PortStatsTable.category(proto, dir)][i]; }
+    public long bytes(int i, int proto, int dir) { return bytes[PortStatsTable.category(proto, dir)][i]; }
+
+    // そのポート宛てのパケット数 (TCP + UDP)
+    public long dstPackets(int i) {
+        return packets(i, PortStatsTable.PROTO_TCP, PortStatsTable.DIR_DST) + packets(i, PortStatsTable.PROTO_UDP, PortStatsTable.DIR_DST);
+    }
+
+    // そのポート宛てのバイト数 (TCP + UDP)
+    public long dstBytes(int i) {
+        return bytes(i, PortStatsTable.PROTO_TCP, PortStatsTable.DIR_DST) + bytes(i, PortStatsTable.PROTO_UDP, PortStatsTable.DIR_DST);
+    }
+
+    // 脈拍 (pkt/s): そのポート宛てのパケットレート
+    public double packetRate(int i) {
+        return (elapsedSeconds > 0) ? dstPackets(i) / elapsedSeconds : 0.0;
+    }
+
+    // そのポート宛てのバイトレート (byte/s)
+    public double byteRate(int i) {
+        return (elapsedSeconds > 0) ? dstBytes(i) / elapsedSeconds : 0.0;
+    }
+
+    // 宛先パケット数の多い順に最大k件の添字を返す
+    public int[] topByPackets(int k) {
+        return top(k, true);
+    }
+
+    // 宛先バイト数の多い順に最大k件の添字を返す
+    public int[] topByBytes(int k) {
+        return top(k, false);
+    }
+
+    // 小さいkを想定した部分選択 (挿入ソートで上位k件だけ保持する)
+    private int[] top(int k, boolean byPackets) {
+        int n = Math.min(k, size());
+        int[] result = new int[n];
+        long[] values = new long[n];
+        int filled = 0;
+        for (int i = 0; i < size(); i++) {
+            long value = byPackets ? dstPackets(i) : dstBytes(i);
+            if (value == 0) continue;
+            if (filled == n && (n == 0 || value <= values[n - 1])) continue;
+            int pos = (filled < n) ? filled++ : n - 1;
+            while (pos > 0 && values[pos - 1] < value) {
+                values[pos] = values[pos - 1];
+                result[pos] = result[pos - 1];
+                pos--;
+            }
+            values[pos] = value;
+            result[pos] = i;
+        }
+        if (filled < n) {
+            int[] trimmed = new int[filled];
+            System.arraycopy(result, 0, trimmed, 0, filled);
+            return trimmed;
+        }
+        return result;
+    }
+}
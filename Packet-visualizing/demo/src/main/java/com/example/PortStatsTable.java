@@ -0,0 +1,107 @@
+package com.example;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ポート番号 (0〜65535) を添字にしたパケット数・バイト数の表
+ * TCP/UDP と 宛先/送信元 の4区分ごとに持ち、Integer/Longの箱詰めをせずにパケットごとに加算できる
+ * 加算と回収はどちらもアトミック操作なので、書き込み側と回収側が同時に動いても数え漏れはない
+ */
+public class PortStatsTable {
+    public static final int PROTO_TCP = 0;
+    public static final int PROTO_UDP = 1;
+    public static final int DIR_DST = 0; // そのポート宛て
+    public static final int DIR_SRC = 1; // そのポートから
+    public static final int CATEGORIES = 4;
+
+    private static final int PORTS = 65536;
+    private static final int WORDS_PER_CATEGORY = PORTS / 64;
+
+    private final AtomicIntegerArray packets = new AtomicIntegerArray(CATEGORIES * PORTS);
+    private final AtomicLongArray bytes = new AtomicLongArray(CATEGORIES * PORTS);
+    // 値が入っているポートの印。回収時に全ポートを走査しないために使う
+    private final AtomicLongArray active = new AtomicLongArray(CATEGORIES * WORDS_PER_CATEGORY);
+
+    static int category(int proto, int dir) {
+        return proto * 2 + dir;
+    }
+
+    // パケットごとに呼ばれる (TCP/UDPのパケットだけ)
+    public void record(PacketView packet) {
+        int proto = packet.isTcp() ? PROTO_TCP : PROTO_UDP;
+        int byteSize = packet.wireLength();
+        add(category(proto, DIR_DST), packet.dstPort(), 1, byteSize);
+        add(category(proto, DIR_SRC), packet.srcPort(), 1, byteSize);
+    }
+
+    private void add(int category, int port, int packetCount, long byteCount) {
+        int index = (category << 16) | port;
+        packets.getAndAdd(index, packetCount);
+        bytes.getAndAdd(index, byteCount);
+        // 加算してから印を付ける (回収側は印を消してから値を読むので、この順番なら取りこぼさない)
+        int word = index >>> 6;
+        long bit = 1L << (index & 63);
+        if ((active.get(word) & bit) == 0) {
+            active.getAndAccumulate(word, bit, (a, b) -> a | b);
+        }
+    }
+
+    // このテーブルの値をすべて target に移す (移した分はこちらから消える)
+    public void drainInto(PortStatsTable target) {
+        for (int word = 0; word < active.length(); word++) {
+            if (active.get(word) == 0) continue;
+            long bits = active.getAndSet(word, 0);
+            while (bits != 0) {
+                int index = (word << 6) | Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                int packetCount = packets.getAndSet(index, 0);
+                long byteCount = bytes.getAndSet(index, 0);
+                if (packetCount != 0 || byteCount != 0) {
+                    target.add(index >>> 16, index & 0xffff, packetCount, byteCount);
+                }
+            }
+        }
+    }
+
+    /**
+     * 溜まっている値をレートに変換して取り出し、テーブルを空にする
+     * 取り出すのは値のあるポートだけなので、コストは使われたポート数に比例する
+     */
+    public PortStats snapshotAndReset(double elapsedSeconds) {
+        // 印を先に消して手元に写す (この後に届いた加算は印が付け直され、次回に回収される)
+        long[] portBits = new long[WORDS_PER_CATEGORY];
+        int count = 0;
+        for (int w = 0; w < WORDS_PER_CATEGORY; w++) {
+            long bits = 0;
+            for (int c = 0; c < CATEGORIES; c++) {
+                int word = c * WORDS_PER_CATEGORY + w;
+                if (active.get(word) != 0) {
+                    bits |= active.getAndSet(word, 0);
+                }
+            }
+            portBits[w] = bits;
+            count += Long.bitCount(bits);
+        }
+
+        int[] ports = new int[count];
+        long[][] packetCounts = new long[CATEGORIES][count];
+        long[][] byteCounts = new long[CATEGORIES][count];
+        int i = 0;
+        for (int w = 0; w < WORDS_PER_CATEGORY; w++) {
+            long bits = portBits[w];
+            while (bits != 0) {
+                int port = (w << 6) | Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                ports[i] = port;
+                for (int c = 0; c < CATEGORIES; c++) {
+                    int index = (c << 16) | port;
+                    packetCounts[c][i] = packets.getAndSet(index, 0);
+                    byteCounts[c][i] = bytes.getAndSet(index, 0);
+                }
+                i++;
+            }
+        }
+        return new PortStats(ports, packetCounts, byteCounts, elapsedSeconds);
+    }
+}
@@ -0,0 +1,123 @@
+package com.example;
+
+import javafx.animation.AnimationTimer;
+import javafx.collections.ObservableList;
+import javafx.scene.control.ListView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * GUIの更新を1フレームに1回にまとめる描画ループ
+ * - 他のスレッドは Platform.runLater を使わず、Slot.set (最新の値だけが残る) と log に置いていくだけ
+ * - FXスレッドはフレームごとにそれらを1回だけ反映する。ログは ListView に最大 maxLines 行だけ残す
+ */
+final class RenderLoop extends AnimationTimer {
+    private static final int MAX_PENDING_LINES = 10_000; // 表示が追いつかないときにためておく上限
+
+    // 最新の値だけを持つ受け渡し口 (途中の値は捨てて構わないもの用)
+    static final class Slot<T> {
+        private final AtomicReference<T> latest = new AtomicReference<>();
+        private final Consumer<T> apply;
+
+        private Slot(Consumer<T> apply) {
+            this.apply = apply;
+        }
+
+        // どのスレッドからでも呼べる。次のフレームで apply に渡される
+        void set(T value) {
+            latest.set(value);
+        }
+
+        private void flush() {
+            T value = latest.getAndSet(null);
+            if (value != null) apply.accept(value);
+        }
+    }
+
+    private final ListView<String> logView;
+    private final int maxLines;
+    private final EventChannel events;
+    private final List<Slot<?>> slots = new ArrayList<>();
+    private final List<Runnable> frameTasks = new ArrayList<>();
+
+    private final ConcurrentLinkedQueue<String> pendingLines = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicInteger droppedLines = new AtomicInteger();
+
+    // ここから下はFXスレッドだけが触る
+    private final StringBuilder batch = new StringBuilder();
+    private final List<String> newLines = new ArrayList<>();
+
+    RenderLoop(ListView<String> logView, int maxLines, EventChannel events) {
+        this.logView = logView;
+        this.maxLines = maxLines;
+        this.events = events;
+    }
+
+    // FXスレッドで、start の前に登録する
+    <T> Slot<T> slot(Consumer<T> apply) {
+        Slot<T> slot = new Slot<>(apply);
+        slots.add(slot);
+        return slot;
+    }
+
+    // 毎フレーム呼ぶ処理 (チャートの再描画など。変化がなければすぐ戻ること)
+    void onFrame(Runnable task) {
+        frameTasks.add(task);
+    }
+
+    // どのスレッドからでも呼べる。1行分のログを次のフレームで表示する
+    void log(String line) {
+        if (pendingCount.incrementAndGet() > MAX_PENDING_LINES) {
+            pendingCount.decrementAndGet();
+            droppedLines.incrementAndGet();
+            return;
+        }
+        pendingLines.offer(line);
+    }
+
+    @Override
+    public void handle(long now) {
+        for (Slot<?> slot : slots) {
+            slot.flush();
+        }
+        for (Runnable task : frameTasks) {
+            task.run();
+        }
+        flushLog(now);
+    }
+
+    private void flushLog(long now) {
+        newLines.clear();
+        batch.setLength(0);
+        if (events.drainTo(batch, now) > 0) {
+            int start = 0;
+            for (int i = 0; i < batch.length(); i++) {
+                if (batch.charAt(i) != '\n') continue;
+                newLines.add(batch.substring(start, i));
+                start = i + 1;
+            }
+        }
+        String line;
+        while ((line = pendingLines.poll()) != null) {
+            pendingCount.decrementAndGet();
+            newLines.add(line);
+        }
+        int dropped = droppedLines.getAndSet(0);
+        if (dropped > 0) newLines.add("⚠️ 表示が追いつかないため " + dropped + " 行のログを省略しました");
+        if (newLines.isEmpty()) return;
+
+        // 追加と削除はそれぞれ1回の変更通知にまとめる
+        ObservableList<String> items = logView.getItems();
+        int from = Math.max(0, newLines.size() - maxLines);
+        items.addAll(newLines.subList(from, newLines.size()));
+        int excess = items.size() - maxLines;
+        if (excess > 0) items.remove(0, excess);
+        logView.scrollTo(items.size() - 1);
+    }
+}
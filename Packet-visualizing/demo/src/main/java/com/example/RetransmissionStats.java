@@ -0,0 +1,18 @@
+package com.example;
+
+/**
+ * 1回の集計期間における再送検出の状況 (全シャードの合計)
+ */
+public class RetransmissionStats {
+    public static final RetransmissionStats EMPTY = new RetransmissionStats(0, 0, 0);
+
+    public final long trackedFlows;    // 追跡中のフロー数
+    public final long evictions;       // 期間中に追い出したフロー数
+    public final long retransmissions; // 期間中に検出した再送の数
+
+    public RetransmissionStats(long trackedFlows, long evictions, long retransmissions) {
+        this.trackedFlows = trackedFlows;
+        this.evictions = evictions;
+        this.retransmissions = retransmissions;
+    }
+}
@@ -1,46 +1,191 @@
 package com.example;
 
-import java.time.Instant;
-import java.time.Duration;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * 呼吸 (IAT: パケットの到着間隔) の分析
+ * 全体とポートごとに、直近100パケット・1秒・10秒・60秒の窓でIATの平均・標準偏差・ジッタのパーセンタイルを求める
+ * 分析シャードごとに1つ持ち、analyzeRhythm はそのシャードのスレッドだけが呼ぶ (シャードに来た順 = タイムスタンプ順で測る)
+ * 結果は1秒ごとに読み取り専用のスナップショットとして公開し、attachTo で全シャードの分を合わせる
+ * 保存用の書き出しも requestState で頼んで、シャードのスレッドが serve で行う
+ */
 public class RhythmAnalyzer {
-    private Instant lastPacketTime = null;
-    private final List<Long> iatList = new ArrayList<>(); 
-    private final int MAX_SAMPLES = 100;
-    private static final double STABLE_THRESHOLD = 30.0; // IAT標準偏差の閾値 (ms)
-
-    // パケットごとに呼ばれ、リズムの計測と分析を行う
-    public void analyzeRhythm(Instant currentTime) {
-        if (lastPacketTime != null) {
-            // 呼吸 (IAT) の計測
-            long iatMillis = Duration.between(lastPacketTime, currentTime).toMillis();
-            iatList.add(iatMillis);
-        }
-        lastPacketTime = currentTime;
-
-        // 100個のサンプルが溜まったら分析を実行
-        if (iatList.size() >= MAX_SAMPLES) {
-            double averageIat = iatList.stream().mapToLong(Long::longValue).average().orElse(0.0);
-            double stdDevIat = calculateStdDev(averageIat); 
-
-            System.out.println("🎵 呼吸分析: 平均IAT=" + String.format("%.1f ms", averageIat) + 
-                               ", 標準偏差=" + String.format("%.1f ms", stdDevIat));
-            
-            // 性質の判断（標準偏差が小さい＝リアルタイム通信）
-            if (stdDevIat < STABLE_THRESHOLD) { 
-                System.out.println("🟢 リズム安定: リアルタイム通信の可能性");
+    private static final int MAX_PORTS = 256; // ポート別に追跡する上限
+    private static final long PUBLISH_INTERVAL_NANOS = 1_000_000_000L;
+    private static final long PORT_IDLE_NANOS = 60_000_000_000L; // これより長く来ないポートは表から外す
+
+    // 公開用 (全体とポート別を1つの参照でまとめて差し替える)
+    private static final class Snapshot {
+        private final RhythmStats global;
+        private final List<RhythmStats> ports;
+
+        private Snapshot(RhythmStats global, List<RhythmStats> ports) {
+            this.global = global;
+            this.ports = ports;
+        }
+    }
+
+    private IatStream global = new IatStream(RhythmStats.ALL_PORTS);
+    private final int[] slotByPort = new int[65536]; // ポート -> streams の添字+1 (0は未登録)
+    private final IatStream[] streams = new IatStream[MAX_PORTS];
+    private int streamCount = 0;
+    private volatile long untrackedPackets = 0; // 表が満杯でポート別に数えられなかったパケット数
+    private long nextPublishNanos = Long.MIN_VALUE;
+
+    private volatile Snapshot latest = new Snapshot(RhythmStats.EMPTY, Collections.emptyList());
+    private final Handoff<byte[]> state = new Handoff<>(() -> StateStore.toBytes(this::writeState));
+
+    // パケットごとに呼ばれ、リズムの計測を行う
+    public void analyzeRhythm(PacketView packet) {
+        long now = packet.timestampNanos();
+        global.add(now);
+
+        if (packet.isTcp() || packet.isUdp()) {
+            // サービス側と思われる小さい方のポートで数える
+            IatStream stream = streamFor(Math.min(packet.srcPort(), packet.dstPort()));
+            if (stream != null) {
+                stream.add(now);
+            } else {
+                untrackedPackets++;
             }
+        }
+
+        if (nextPublishNanos == Long.MIN_VALUE || now >= nextPublishNanos) {
+            evictIdlePorts(now);
+            publish();
+            nextPublishNanos = now + PUBLISH_INTERVAL_NANOS;
+        }
+    }
+
+    private IatStream streamFor(int port) {
+        int slot = slotByPort[port];
+        if (slot != 0) return streams[slot - 1];
+        if (streamCount == MAX_PORTS) return null;
+        IatStream stream = streams[streamCount];
+        if (stream == null) {
+            stream = new IatStream(port);
+            streams[streamCount] = stream;
+        } else {
+            stream.reset(port);
+        }
+        slotByPort[port] = ++streamCount;
+        return stream;
+    }
+
+    // しばらくパケットが来ていないポートを外し、最後の要素で穴を埋める
+    private void evictIdlePorts(long now) {
+        for (int i = streamCount - 1; i >= 0; i--) {
+            IatStream stream = streams[i];
+            if (now - stream.getLastPacketNanos() < PORT_IDLE_NANOS) continue;
+            slotByPort[stream.getPort()] = 0;
+            int last = --streamCount;
+            if (i != last) {
+                streams[i] = streams[last];
+                streams[last] = stream;
+                slotByPort[streams[i].getPort()] = i + 1;
+            }
+        }
+    }
 
-            iatList.clear();
+    private void publish() {
+        List<RhythmStats> ports = new ArrayList<>(streamCount);
+        IatStream[] order = new IatStream[streamCount];
+        System.arraycopy(streams, 0, order, 0, streamCount);
+        // 直近10秒のサンプルが多いポートから並べる
+        Arrays.sort(order, Comparator.comparingLong(IatStream::recentCount).reversed());
+        for (IatStream stream : order) {
+            ports.add(stream.snapshot());
         }
+        latest = new Snapshot(global.snapshot(), Collections.unmodifiableList(ports));
     }
 
-    private double calculateStdDev(double average) {
-        double sumOfSquaredDifferences = iatList.stream()
-            .mapToDouble(iat -> Math.pow(iat - average, 2))
-            .sum();
-        return Math.sqrt(sumOfSquaredDifferences / iatList.size());
+    // 保存: 全体とポート別のストリームを書き出すよう頼み、待つ (持ち主のスレッドが次に serve を呼んだときに書かれる)
+    void requestState() { state.request(); }
+    void serve() { state.serve(); }
+    byte[] awaitState(Thread owner, long timeoutNanos) { return state.await(owner, timeoutNanos); }
+
+    void writeState(DataOutputStream out) throws IOException {
+        global.writeState(out);
+        out.writeInt(streamCount);
+        for (int i = 0; i < streamCount; i++) {
+            streams[i].writeState(out);
+        }
+    }
+
+    /**
+     * writeState で書いたストリームに置き換えて公開する (最初の analyzeRhythm の前に呼ぶ)
+     * 全部読めてから置き換えるので、壊れていれば例外を投げて何も変えない
+     */
+    void readState(ByteBuffer in) {
+        IatStream restoredGlobal = IatStream.readState(in);
+        int count = in.getInt();
+        if (count < 0 || count > MAX_PORTS) throw new IllegalArgumentException("ポート数が範囲外です: " + count);
+        IatStream[] restored = new IatStream[count];
+        boolean[] taken = new boolean[65536];
+        for (int i = 0; i < count; i++) {
+            restored[i] = IatStream.readState(in);
+            int port = restored[i].getPort();
+            if (port < 0 || taken[port]) throw new IllegalArgumentException("ポートが不正です: " + port);
+            taken[port] = true;
+        }
+
+        for (int i = 0; i < streamCount; i++) {
+            slotByPort[streams[i].getPort()] = 0;
+        }
+        global = restoredGlobal;
+        System.arraycopy(restored, 0, streams, 0, count);
+        for (int i = 0; i < count; i++) {
+            slotByPort[streams[i].getPort()] = i + 1;
+        }
+        streamCount = count;
+        publish();
+    }
+
+    // 全体の呼吸 (直近に公開したもの)
+    public RhythmStats getGlobalRhythm() { return latest.global; }
+
+    // ポート別の呼吸 (直近10秒のサンプルが多い順)
+    public List<RhythmStats> getPortRhythms() { return latest.ports; }
+
+    // 表が満杯でポート別に数えられなかったパケット数
+    public long getUntrackedPackets() { return untrackedPackets; }
+
+    // 直近のスナップショットを VitalSignData に付け加える (全体とポート別の組み合わせがずれないよう1回だけ読む)
+    public VitalSignData attachTo(VitalSignData data) {
+        Snapshot snapshot = latest;
+        return data.withRhythm(snapshot.global, snapshot.ports);
+    }
+
+    /**
+     * 全シャードの直近のスナップショットを合わせて VitalSignData に付け加える
+     * 同じポートは RhythmStats.merge で1つにし、直近10秒のサンプルが多い順に MAX_PORTS まで並べる
+     */
+    static VitalSignData attachTo(VitalSignData data, RhythmAnalyzer[] analyzers) {
+        if (analyzers.length == 1) return analyzers[0].attachTo(data);
+        List<RhythmStats> globals = new ArrayList<>(analyzers.length);
+        Map<Integer, List<RhythmStats>> byPort = new HashMap<>();
+        for (RhythmAnalyzer analyzer : analyzers) {
+            Snapshot snapshot = analyzer.latest;
+            globals.add(snapshot.global);
+            for (RhythmStats port : snapshot.ports) {
+                byPort.computeIfAbsent(port.port, k -> new ArrayList<>(analyzers.length)).add(port);
+            }
+        }
+        List<RhythmStats> ports = new ArrayList<>(byPort.size());
+        for (Map.Entry<Integer, List<RhythmStats>> entry : byPort.entrySet()) {
+            ports.add(RhythmStats.merge(entry.getKey(), entry.getValue()));
+        }
+        ports.sort(Comparator.comparingLong((RhythmStats stats) -> stats.window(RhythmStats.SECOND_10).count).reversed());
+        if (ports.size() > MAX_PORTS) ports = ports.subList(0, MAX_PORTS);
+        return data.withRhythm(RhythmStats.merge(RhythmStats.ALL_PORTS, globals), Collections.unmodifiableList(ports));
     }
-}
\ No newline at end of file
+}
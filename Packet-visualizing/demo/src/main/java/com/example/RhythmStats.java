@@ -0,0 +1,62 @@
+package com.example;
+
+import java.util.List;
+
+/**
+ * 1つのストリーム (全体、または1つのポート) の呼吸 (IAT) 分析結果
+ * 窓ごとの統計と、パケットごとに更新される指数移動平均 (EWMA) を持つ
+ */
+public class RhythmStats {
+    public static final int ALL_PORTS = -1;
+
+    // 窓の種類 (window(int) の引数)
+    public static final int LAST_100 = 0;
+    public static final int SECOND_1 = 1;
+    public static final int SECOND_10 = 2;
+    public static final int SECOND_60 = 3;
+    public static final int WINDOWS = 4;
+
+    public static final RhythmStats EMPTY = new RhythmStats(ALL_PORTS,
+            new RhythmWindow[] {RhythmWindow.EMPTY, RhythmWindow.EMPTY, RhythmWindow.EMPTY, RhythmWindow.EMPTY}, 0, 0);
+
+    public final int port; // 全体なら ALL_PORTS
+    public final double ewmaIatNanos;
+    public final double ewmaJitterNanos; // RFC 3550 と同じく 1/16 ずつ追従する
+    private final RhythmWindow[] windows;
+
+    RhythmStats(int port, RhythmWindow[] windows, double ewmaIatNanos, double ewmaJitterNanos) {
+        this.port = port;
+        this.windows = windows;
+        this.ewmaIatNanos = ewmaIatNanos;
+        this.ewmaJitterNanos = ewmaJitterNanos;
+    }
+
+    // 直近に締めた窓の統計 (LAST_100, SECOND_1, SECOND_10, SECOND_60)
+    public RhythmWindow window(int window) {
+        return windows[window];
+    }
+
+    /**
+     * 別々のシャードで測った同じストリームを合わせる (窓は RhythmWindow.merge、EWMA も到着レートの和から求める)
+     * 1つだけならそのまま返す
+     */
+    static RhythmStats merge(int port, List<RhythmStats> parts) {
+        if (parts.size() == 1) return parts.get(0);
+        RhythmWindow[] merged = new RhythmWindow[WINDOWS];
+        RhythmWindow[] column = new RhythmWindow[parts.size()];
+        for (int w = 0; w < WINDOWS; w++) {
+            for (int i = 0; i < column.length; i++) {
+                column[i] = parts.get(i).windows[w];
+            }
+            merged[w] = RhythmWindow.merge(column);
+        }
+        double rate = 0, jitterRatio = 0;
+        for (RhythmStats part : parts) {
+            if (part.ewmaIatNanos <= 0) continue;
+            rate += 1 / part.ewmaIatNanos;
+            jitterRatio += part.ewmaJitterNanos / part.ewmaIatNanos / part.ewmaIatNanos; // レートで重み付けした比
+        }
+        double ewmaIat = (rate > 0) ? 1 / rate : 0;
+        return new RhythmStats(port, merged, ewmaIat, jitterRatio * ewmaIat * ewmaIat);
+    }
+}
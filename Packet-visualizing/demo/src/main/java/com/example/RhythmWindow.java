@@ -0,0 +1,76 @@
+package com.example;
+
+/**
+ * 1つの窓 (直近100パケット・1秒・10秒・60秒のどれか) で見た呼吸 (IAT) の統計
+ * 値はすべてナノ秒。ジッタは連続するIATの差の絶対値
+ */
+public class RhythmWindow {
+    public static final RhythmWindow EMPTY = new RhythmWindow(0, 0, 0, 0, 0, 0, 0, 0);
+
+    private static final double STABLE_THRESHOLD_NANOS = 30_000_000.0; // IAT標準偏差の閾値 (30ms)
+
+    public final long count; // IATのサンプル数
+    public final double meanNanos;
+    public final double stdDevNanos;
+    public final long minNanos;
+    public final long maxNanos;
+    public final long jitterP50Nanos;
+    public final long jitterP90Nanos;
+    public final long jitterP99Nanos;
+
+    public RhythmWindow(long count, double meanNanos, double stdDevNanos, long minNanos, long maxNanos,
+                        long jitterP50Nanos, long jitterP90Nanos, long jitterP99Nanos) {
+        this.count = count;
+        this.meanNanos = meanNanos;
+        this.stdDevNanos = stdDevNanos;
+        this.minNanos = minNanos;
+        this.maxNanos = maxNanos;
+        this.jitterP50Nanos = jitterP50Nanos;
+        this.jitterP90Nanos = jitterP90Nanos;
+        this.jitterP99Nanos = jitterP99Nanos;
+    }
+
+    public double meanMillis() { return meanNanos / 1_000_000.0; }
+    public double stdDevMillis() { return stdDevNanos / 1_000_000.0; }
+
+    /**
+     * 別々のシャードで測った窓を1つの到着の流れとして合わせる (シャードはフローで分けてあるので、流れの重ね合わせになる)
+     * - サンプル数は足し、平均IATは到着レート (1/平均) の和から求める
+     * - 標準偏差・最小・最大・ジッタは平均に対する比をサンプル数で重み付けして平均し、合わせた平均に掛ける
+     * 中身のある窓が1つだけなら (そのストリームが1つのシャードにしか来ていなければ) そのまま返すので、測った値と同じ
+     */
+    static RhythmWindow merge(RhythmWindow[] parts) {
+        RhythmWindow only = null;
+        int filled = 0;
+        long count = 0;
+        double rate = 0;
+        for (RhythmWindow part : parts) {
+            if (part.count == 0 || part.meanNanos <= 0) continue;
+            only = part;
+            filled++;
+            count += part.count;
+            rate += 1 / part.meanNanos;
+        }
+        if (filled == 0) return EMPTY;
+        if (filled == 1) return only;
+        double mean = 1 / rate;
+        double stdDev = 0, min = 0, max = 0, p50 = 0, p90 = 0, p99 = 0;
+        for (RhythmWindow part : parts) {
+            if (part.count == 0 || part.meanNanos <= 0) continue;
+            double weight = (double) part.count / count / part.meanNanos;
+            stdDev += part.stdDevNanos * weight;
+            min += part.minNanos * weight;
+            max += part.maxNanos * weight;
+            p50 += part.jitterP50Nanos * weight;
+            p90 += part.jitterP90Nanos * weight;
+            p99 += part.jitterP99Nanos * weight;
+        }
+        return new RhythmWindow(count, mean, stdDev * mean, Math.round(min * mean), Math.round(max * mean),
+                Math.round(p50 * mean), Math.round(p90 * mean), Math.round(p99 * mean));
+    }
+
+    // 標準偏差が小さい＝リアルタイム通信の可能性
+    public boolean isStable() {
+        return count > 1 && stdDevNanos < STABLE_THRESHOLD_NANOS;
+    }
+}
@@ -0,0 +1,376 @@
+package com.example;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Timespan;
+
+/**
+ * このツール自身の処理時間と件数 (どこで時間を使っているか、追いついているか)
+ * - 件数は LongAdder、処理時間は LogHistogram と同じ区間の対数ヒストグラム (AtomicLongArray) に記録し、記録でメモリを確保しない
+ * - パケットごとの処理時間は SAMPLE_EVERY 個に1個だけ測る (System.nanoTime の分の負荷を抑える)
+ * - 集計期間ごとに endInterval で区切り、その期間の値を CLI の出力・JMX (com.example:type=SelfMetrics)・JFR で見られるようにする
+ * プロセスで1つ (get で取る)
+ */
+public final class SelfMetrics {
+    public static final int SAMPLE_EVERY = 64;
+    public static final int SAMPLE_MASK = SAMPLE_EVERY - 1;
+    private static final long LATE_TICK_NANOS = 100_000_000L; // これより遅れたタイマーを「遅れ」と数える
+
+    public enum Counter {
+        FRAMES("frames"),                   // キャプチャしたフレーム (SAMPLE_EVERY 個ごとにまとめて足す)
+        NON_IP_FRAMES("non_ip_frames"),     // IPでない・解析できないフレーム
+        RING_FULL_WAITS("ring_full_waits"), // シャードのリングが満杯で待った回数 (再生時)
+        RING_FULL_DROPS("ring_full_drops"), // シャードのリングが満杯で捨てた数 (ライブ時)
+        FLOW_STATS_TIMEOUTS("flow_stats_timeouts"), // 集計時にシャードから上位フローが返ってこなかった回数
+        WINDOW_TIMEOUTS("window_timeouts"), // 集計時にシャードが集中度・異なり数のウィンドウを時間内に入れ替えなかった回数
+        STATE_TIMEOUTS("state_timeouts"),   // 状態の保存時にシャードか呼吸の状態が返ってこなかった回数
+        ANALYSIS_ERRORS("analysis_errors"), // シャードの分析で例外が出て飛ばしたパケット
+        TICKS("ticks"),
+        LATE_TICKS("late_ticks");
+
+        public final String key;
+
+        Counter(String key) {
+            this.key = key;
+        }
+    }
+
+    public enum Timer {
+        DECODE("decode"),               // キャプチャスレッド: フレームのデコード
+        DISPATCH("dispatch"),           // キャプチャスレッド: 呼吸の計測とシャードへの受け渡し
+        QUEUE("queue"),                 // 受け渡しからシャードが取り出すまで
+        ANALYSIS("analysis"),           // シャード: 1パケットの分析
+        RING_WAIT("ring_wait"),         // リングが満杯で待った時間 (測るのは待ったときだけ)
+        CALCULATE("calculate"),         // calculateAndReset (全シャードの合算)
+        FAIRNESS("fairness"),           // calculateFairnessStats
+        TICK_LATENESS("tick_lateness"); // 定期実行のタイマーが予定より遅れた時間
+
+        public final String key;
+
+        Timer(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final SelfMetrics INSTANCE = new SelfMetrics();
+
+    public static SelfMetrics get() { return INSTANCE; }
+
+    private final LongAdder[] counters = new LongAdder[Counter.values().length];
+    private final AtomicLongArray[] histograms = new AtomicLongArray[Timer.values().length];
+
+    private Snapshot previous;
+    private volatile Snapshot lastInterval;
+    private boolean registered = false;
+
+    private SelfMetrics() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new AtomicLongArray(LogHistogram.BUCKETS);
+        }
+        previous = snapshot();
+        lastInterval = previous.minus(previous);
+    }
+
+    // パケットごとの処理時間を測る番か (seq は呼び出し側が数える通し番号)
+    public static boolean sampled(long seq) {
+        return (seq & SAMPLE_MASK) == 0;
+    }
+
+    public void increment(Counter counter) {
+        counters[counter.ordinal()].increment();
+    }
+
+    public void add(Counter counter, long n) {
+        counters[counter.ordinal()].add(n);
+    }
+
+    public void record(Timer timer, long nanos) {
+        histograms[timer.ordinal()].getAndIncrement(LogHistogram.bucketOf(nanos));
+    }
+
+    // 始めてからの累計
+    public Snapshot snapshot() {
+        long[] counts = new long[counters.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = counters[i].sum();
+        }
+        long[][] buckets = new long[histograms.length][LogHistogram.BUCKETS];
+        for (int t = 0; t < histograms.length; t++) {
+            for (int b = 0; b < LogHistogram.BUCKETS; b++) {
+                buckets[t][b] = histograms[t].get(b);
+            }
+        }
+        return new Snapshot(counts, buckets);
+    }
+
+    /**
+     * 集計期間を区切る (集計のたびに1回呼ぶ)
+     * @return 前回の区切りからの値
+     */
+    public synchronized Snapshot endInterval() {
+        Snapshot now = snapshot();
+        Snapshot interval = now.minus(previous);
+        previous = now;
+        lastInterval = interval;
+        return interval;
+    }
+
+    // 直前の集計期間の値 (JMX と JFR から読む)
+    public Snapshot getLastInterval() { return lastInterval; }
+
+    /**
+     * JMX に登録し、JFR の定期イベントを追加する (何度呼んでもよい。使えない環境では何もしない)
+     */
+    public synchronized void register() {
+        if (registered) return;
+        registered = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MXBeanImpl(), new ObjectName("com.example:type=SelfMetrics"));
+        } catch (Exception | LinkageError e) {
+            System.err.println("警告: 自己計測を JMX に登録できません: " + e);
+        }
+        try {
+            FlightRecorder.addPeriodicEvent(IntervalEvent.class, () -> {
+                IntervalEvent event = new IntervalEvent();
+                if (!event.shouldCommit()) return;
+                Snapshot s = getLastInterval();
+                event.frames = s.count(Counter.FRAMES);
+                event.nonIpFrames = s.count(Counter.NON_IP_FRAMES);
+                event.ringFullDrops = s.count(Counter.RING_FULL_DROPS);
+                event.lateTicks = s.count(Counter.LATE_TICKS);
+                event.decodeP99 = s.percentile(Timer.DECODE, 0.99);
+                event.queueP99 = s.percentile(Timer.QUEUE, 0.99);
+                event.analysisP99 = s.percentile(Timer.ANALYSIS, 0.99);
+                event.calculateMax = s.max(Timer.CALCULATE);
+                event.tickLatenessMax = s.max(Timer.TICK_LATENESS);
+                event.commit();
+            });
+        } catch (Exception | LinkageError e) {
+            System.err.println("警告: 自己計測を JFR に登録できません: " + e);
+        }
+    }
+
+    // 集計1回分の処理 (calculateAndReset など) を測る。JFR の AnalysisStep イベントにもなる
+    public Step beginStep(Timer timer) {
+        Step step = new Step(timer);
+        step.begin();
+        return step;
+    }
+
+    public void endStep(Step step) {
+        step.end();
+        record(step.timer, System.nanoTime() - step.startNanos);
+        if (step.shouldCommit()) {
+            step.name = step.timer.key;
+            step.commit();
+        }
+    }
+
+    /**
+     * 一定間隔で動くタイマーの遅れを測る (scheduleAtFixedRate の処理の先頭で mark を呼ぶ)
+     * 最初の mark を基準に、n 回目は 基準 + n × 間隔 に動くはずとみなす
+     */
+    public Tick tick(String name, long periodNanos) {
+        return new Tick(name, periodNanos);
+    }
+
+    public final class Tick {
+        private final String name;
+        private final long periodNanos;
+        private long firstNanos = Long.MIN_VALUE;
+        private long count = 0;
+
+        private Tick(String name, long periodNanos) {
+            this.name = name;
+            this.periodNanos = periodNanos;
+        }
+
+        // タイマーのスレッドから呼ぶ
+        public synchronized void mark() {
+            long now = System.nanoTime();
+            if (firstNanos == Long.MIN_VALUE) firstNanos = now;
+            long lateness = Math.max(0, now - (firstNanos + count * periodNanos));
+            count++;
+            record(Timer.TICK_LATENESS, lateness);
+            increment(Counter.TICKS);
+            if (lateness > LATE_TICK_NANOS) increment(Counter.LATE_TICKS);
+            TickEvent event = new TickEvent();
+            if (event.shouldCommit()) {
+                event.name = name;
+                event.lateness = lateness;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * ある時点の累計、または2つの時点の差 (読み取り専用)
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long[][] buckets;
+
+        private Snapshot(long[] counts, long[][] buckets) {
+            this.counts = counts;
+            this.buckets = buckets;
+        }
+
+        public Snapshot minus(Snapshot earlier) {
+            long[] c = new long[counts.length];
+            for (int i = 0; i < c.length; i++) {
+                c[i] = Math.max(0, counts[i] - earlier.counts[i]);
+            }
+            long[][] b = new long[buckets.length][LogHistogram.BUCKETS];
+            for (int t = 0; t < b.length; t++) {
+                for (int i = 0; i < LogHistogram.BUCKETS; i++) {
+                    b[t][i] = Math.max(0, buckets[t][i] - earlier.buckets[t][i]);
+                }
+            }
+            return new Snapshot(c, b);
+        }
+
+        public long count(Counter counter) { return counts[counter.ordinal()]; }
+
+        // 記録された回数
+        public long samples(Timer timer) {
+            long n = 0;
+            for (long c : buckets[timer.ordinal()]) n += c;
+            return n;
+        }
+
+        // 区間の代表値 (ナノ秒、誤差およそ ±12.5%)。記録がなければ0
+        public long percentile(Timer timer, double quantile) {
+            long[] b = buckets[timer.ordinal()];
+            long total = samples(timer);
+            if (total == 0) return 0;
+            long target = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < b.length; i++) {
+                seen += b[i];
+                if (seen >= target) return LogHistogram.midpointOf(i);
+            }
+            return LogHistogram.midpointOf(b.length - 1);
+        }
+
+        // 記録のあった一番上の区間の代表値
+        public long max(Timer timer) {
+            long[] b = buckets[timer.ordinal()];
+            for (int i = b.length - 1; i >= 0; i--) {
+                if (b[i] > 0) return LogHistogram.midpointOf(i);
+            }
+            return 0;
+        }
+
+        // CLI 用の1行 (例: "decode p50/p99/max=0.1/0.4/2.0 µs (512件)")
+        public String format(Timer timer) {
+            return String.format("%s p50/p99/max=%.1f/%.1f/%.1f µs (%d件)", timer.key,
+                    percentile(timer, 0.5) / 1e3, percentile(timer, 0.99) / 1e3, max(timer) / 1e3, samples(timer));
+        }
+    }
+
+    // JMX から見える値 (直前の集計期間。件数だけは始めてからの累計も出す)
+    public interface SelfMetricsMXBean {
+        Map<String, Long> getCounters();
+        Map<String, Long> getIntervalCounters();
+        Map<String, Long> getIntervalP50Nanos();
+        Map<String, Long> getIntervalP99Nanos();
+        Map<String, Long> getIntervalMaxNanos();
+    }
+
+    private final class MXBeanImpl implements SelfMetricsMXBean {
+        @Override
+        public Map<String, Long> getCounters() {
+            Map<String, Long> map = new LinkedHashMap<>();
+            for (Counter c : Counter.values()) map.put(c.key, counters[c.ordinal()].sum());
+            return map;
+        }
+
+        @Override
+        public Map<String, Long> getIntervalCounters() {
+            Snapshot s = lastInterval;
+            Map<String, Long> map = new LinkedHashMap<>();
+            for (Counter c : Counter.values()) map.put(c.key, s.count(c));
+            return map;
+        }
+
+        @Override
+        public Map<String, Long> getIntervalP50Nanos() { return timers(0.5); }
+
+        @Override
+        public Map<String, Long> getIntervalP99Nanos() { return timers(0.99); }
+
+        @Override
+        public Map<String, Long> getIntervalMaxNanos() { return timers(Double.NaN); }
+
+        private Map<String, Long> timers(double quantile) {
+            Snapshot s = lastInterval;
+            Map<String, Long> map = new LinkedHashMap<>();
+            for (Timer t : Timer.values()) map.put(t.key, Double.isNaN(quantile) ? s.max(t) : s.percentile(t, quantile));
+            return map;
+        }
+    }
+
+    // ---- JFR イベント ----
+
+    @Name("com.example.AnalysisStep")
+    @Label("Analysis Step")
+    @Category({"Packet Visualizing"})
+    @Description("集計1回分の処理 (全シャードの合算など)")
+    public static final class Step extends Event {
+        private final transient Timer timer;
+        private final transient long startNanos = System.nanoTime();
+
+        @Label("Step")
+        String name;
+
+        private Step(Timer timer) {
+            this.timer = timer;
+        }
+    }
+
+    @Name("com.example.TimerTick")
+    @Label("Timer Tick")
+    @Category({"Packet Visualizing"})
+    @Description("定期実行のタイマーが予定より遅れた時間")
+    static final class TickEvent extends Event {
+        @Label("Timer")
+        String name;
+
+        @Label("Lateness")
+        @Timespan(Timespan.NANOSECONDS)
+        long lateness;
+    }
+
+    @Name("com.example.SelfMetrics")
+    @Label("Self Metrics")
+    @Category({"Packet Visualizing"})
+    @Description("直前の集計期間の件数と処理時間")
+    @Period("10 s")
+    static final class IntervalEvent extends Event {
+        @Label("Frames") long frames;
+        @Label("Non-IP Frames") long nonIpFrames;
+        @Label("Ring Full Drops") long ringFullDrops;
+        @Label("Late Ticks") long lateTicks;
+        @Label("Decode p99") @Timespan(Timespan.NANOSECONDS) long decodeP99;
+        @Label("Queue p99") @Timespan(Timespan.NANOSECONDS) long queueP99;
+        @Label("Analysis p99") @Timespan(Timespan.NANOSECONDS) long analysisP99;
+        @Label("Calculate Max") @Timespan(Timespan.NANOSECONDS) long calculateMax;
+        @Label("Tick Lateness Max") @Timespan(Timespan.NANOSECONDS) long tickLatenessMax;
+    }
+}
@@ -0,0 +1,204 @@
+package com.example;
+
+import java.util.Arrays;
+
+/**
+ * Space-Saving による上位K件 (int のキーごとの重みの合計が大きいもの) の追跡
+ * 表に載ったキーの値は真の値以上で、真の値は count - error 以上。表にないキーの真の値は minCount() 以下
+ * カウンタは最小ヒープに並べ、キーからヒープ上の位置をハッシュ表で引く (1つのスレッドから使う)
+ */
+class SpaceSavingTopK {
+    private final int capacity;
+    // ヒープ (添字0が最小)
+    private final int[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private final int[] slotOf; // ヒープ上の位置 -> index の位置
+    private int size = 0;
+
+    // キー -> ヒープ上の位置+1 (0は空き)。線形探索で、削除は後ろ詰め
+    private final int[] index;
+    private final int[] indexKeys;
+    private final int indexMask;
+
+    SpaceSavingTopK(int capacity) {
+        this.capacity = capacity;
+        keys = new int[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+        slotOf = new int[capacity];
+        int tableSize = Integer.highestOneBit(capacity * 4 - 1);
+        index = new int[tableSize];
+        indexKeys = new int[tableSize];
+        indexMask = tableSize - 1;
+    }
+
+    public int size() { return size; }
+    public int capacity() { return capacity; }
+
+    // 表が埋まっていれば、表にないキーの真の値の上限。埋まっていなければ0
+    public long minCount() {
+        return (size < capacity) ? 0 : counts[0];
+    }
+
+    public void add(int key, long weight) {
+        int slot = find(key);
+        if (index[slot] != 0) {
+            int pos = index[slot] - 1;
+            counts[pos] += weight;
+            siftDown(pos);
+            return;
+        }
+        if (size < capacity) {
+            int pos = size++;
+            place(pos, key, weight, 0, slot);
+            siftUp(pos);
+            return;
+        }
+        // 最小のカウンタを新しいキーに譲る (それまでの値を誤差として持つ)
+        long min = counts[0];
+        removeSlot(slotOf[0]);
+        place(0, key, min + weight, min, find(key));
+        siftDown(0);
+    }
+
+    /**
+     * 別の表を足し合わせる (Agarwal らの mergeable summaries と同じ手順)
+     * 片方にしかないキーは、もう片方の minCount() を値と誤差に足してから上位K件を残す
+     */
+    public void mergeFrom(SpaceSavingTopK other) {
+        int n = size + other.size;
+        int[] mergedKeys = new int[n];
+        long[] mergedCounts = new long[n];
+        long[] mergedErrors = new long[n];
+        long thisMin = minCount();
+        long otherMin = other.minCount();
+        int m = 0;
+        for (int i = 0; i < size; i++) {
+            int slot = other.find(keys[i]);
+            mergedKeys[m] = keys[i];
+            if (other.index[slot] != 0) {
+                int pos = other.index[slot] - 1;
+                mergedCounts[m] = counts[i] + other.counts[pos];
+                mergedErrors[m] = errors[i] + other.errors[pos];
+            } else {
+                mergedCounts[m] = counts[i] + otherMin;
+                mergedErrors[m] = errors[i] + otherMin;
+            }
+            m++;
+        }
+        for (int i = 0; i < other.size; i++) {
+            if (index[find(other.keys[i])] != 0) continue; // 上で足し合わせ済み
+            mergedKeys[m] = other.keys[i];
+            mergedCounts[m] = other.counts[i] + thisMin;
+            mergedErrors[m] = other.errors[i] + thisMin;
+            m++;
+        }
+
+        // 値の大きい順に capacity 件だけ入れ直す
+        Integer[] order = new Integer[m];
+        for (int i = 0; i < m; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(mergedCounts[b], mergedCounts[a]));
+        reset();
+        for (int i = 0; i < Math.min(m, capacity); i++) {
+            int j = order[i];
+            int pos = size++;
+            place(pos, mergedKeys[j], mergedCounts[j], mergedErrors[j], find(mergedKeys[j]));
+            siftUp(pos);
+        }
+    }
+
+    /**
+     * 値の大きい順に最大k件の (キー, 値, 誤差) を詰めて返す
+     * @return [0]: キー, [1]: 値, [2]: 誤差 (いずれも長さ min(k, size()))
+     */
+    public long[][] top(int k) {
+        int n = Math.min(k, size);
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(counts[b], counts[a]));
+        long[][] result = new long[3][n];
+        for (int i = 0; i < n; i++) {
+            result[0][i] = keys[order[i]];
+            result[1][i] = counts[order[i]];
+            result[2][i] = errors[order[i]];
+        }
+        return result;
+    }
+
+    public void reset() {
+        if (size == 0) return;
+        Arrays.fill(index, 0);
+        size = 0;
+    }
+
+    private void place(int pos, int key, long count, long error, int slot) {
+        keys[pos] = key;
+        counts[pos] = count;
+        errors[pos] = error;
+        slotOf[pos] = slot;
+        index[slot] = pos + 1;
+        indexKeys[slot] = key;
+    }
+
+    private int find(int key) {
+        int slot = mix(key) & indexMask;
+        while (index[slot] != 0 && indexKeys[slot] != key) {
+            slot = (slot + 1) & indexMask;
+        }
+        return slot;
+    }
+
+    // 削除した場所より後ろの要素を、本来の位置に近づくように詰める
+    private void removeSlot(int slot) {
+        index[slot] = 0;
+        int next = (slot + 1) & indexMask;
+        while (index[next] != 0) {
+            int home = mix(indexKeys[next]) & indexMask;
+            // 本来の位置 (home) が slot と next の間にある要素は動かせない
+            if (((next - home) & indexMask) >= ((next - slot) & indexMask)) {
+                index[slot] = index[next];
+                indexKeys[slot] = indexKeys[next];
+                slotOf[index[slot] - 1] = slot;
+                index[next] = 0;
+                slot = next;
+            }
+            next = (next + 1) & indexMask;
+        }
+    }
+
+    private void siftUp(int pos) {
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (counts[parent] <= counts[pos]) return;
+            swap(pos, parent);
+            pos = parent;
+        }
+    }
+
+    private void siftDown(int pos) {
+        while (true) {
+            int left = pos * 2 + 1;
+            if (left >= size) return;
+            int right = left + 1;
+            int smaller = (right < size && counts[right] < counts[left]) ? right : left;
+            if (counts[pos] <= counts[smaller]) return;
+            swap(pos, smaller);
+            pos = smaller;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int key = keys[a]; keys[a] = keys[b]; keys[b] = key;
+        long count = counts[a]; counts[a] = counts[b]; counts[b] = count;
+        long error = errors[a]; errors[a] = errors[b]; errors[b] = error;
+        int slot = slotOf[a]; slotOf[a] = slotOf[b]; slotOf[b] = slot;
+        index[slotOf[a]] = a + 1;
+        index[slotOf[b]] = b + 1;
+    }
+
+    private static int mix(int key) {
+        long h = (key & 0xffffffffL) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32);
+    }
+}
@@ -0,0 +1,102 @@
+package com.example;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * 直近 capacity 点の値を折れ線で描く小さなチャート (FXMLから使えるように public)
+ * 値は double の固定長リングに持ち、描画用の座標配列も使い回すので、点を足してもオブジェクトは増えない
+ * add はFXスレッドから呼び、redrawIfDirty で変化があったときだけ描き直す
+ */
+public class Sparkline extends Canvas {
+    private static final int DEFAULT_CAPACITY = 120;
+    private static final double TITLE_HEIGHT = 14;
+
+    private double[] values = new double[DEFAULT_CAPACITY];
+    private double[] xs = new double[DEFAULT_CAPACITY];
+    private double[] ys = new double[DEFAULT_CAPACITY];
+    private int count = 0;
+    private int next = 0; // 次に書く位置
+    private boolean dirty = true;
+
+    private String title = "";
+    private String unit = "";
+    private Color lineColor = Color.web("#1f4e79");
+
+    public Sparkline() {
+        super(280, 60);
+    }
+
+    public String getTitle() { return title; }
+    public void setTitle(String title) { this.title = title; dirty = true; }
+    public String getUnit() { return unit; }
+    public void setUnit(String unit) { this.unit = unit; dirty = true; }
+    public String getLineColor() { return lineColor.toString(); }
+    public void setLineColor(String color) { this.lineColor = Color.web(color); dirty = true; }
+
+    public int getCapacity() { return values.length; }
+
+    // 保持する点の数を変える (今までの点は消える)
+    public void setCapacity(int capacity) {
+        values = new double[capacity];
+        xs = new double[capacity];
+        ys = new double[capacity];
+        clear();
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) value = 0.0;
+        values[next] = value;
+        next = (next + 1) % values.length;
+        if (count < values.length) count++;
+        dirty = true;
+    }
+
+    public void clear() {
+        count = 0;
+        next = 0;
+        dirty = true;
+    }
+
+    // 前回描いてから点が増えていれば描き直す
+    public void redrawIfDirty() {
+        if (!dirty) return;
+        dirty = false;
+        draw();
+    }
+
+    private void draw() {
+        GraphicsContext g = getGraphicsContext2D();
+        double width = getWidth();
+        double height = getHeight();
+        g.clearRect(0, 0, width, height);
+        g.setFill(Color.rgb(255, 255, 255, 0.35));
+        g.fillRect(0, 0, width, height);
+
+        int start = (next - count + values.length) % values.length;
+        double max = 0.0;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, values[(start + i) % values.length]);
+        }
+        double top = TITLE_HEIGHT + 2;
+        double plotHeight = height - top - 2;
+        double step = (values.length > 1) ? width / (values.length - 1) : width;
+        double scale = (max > 0) ? plotHeight / max : 0.0;
+        // 右端が最新になるように詰める
+        double offset = width - (count - 1) * step;
+        for (int i = 0; i < count; i++) {
+            xs[i] = offset + i * step;
+            ys[i] = top + plotHeight - values[(start + i) % values.length] * scale;
+        }
+        if (count > 1) {
+            g.setStroke(lineColor);
+            g.setLineWidth(1.5);
+            g.strokePolyline(xs, ys, count);
+        }
+
+        g.setFill(Color.BLACK);
+        double latest = (count > 0) ? values[(next - 1 + values.length) % values.length] : 0.0;
+        g.fillText(title + "  " + String.format("%.2f %s (最大 %.2f)", latest, unit, max), 4, TITLE_HEIGHT - 2);
+    }
+}
@@ -0,0 +1,189 @@
+package com.example;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分析器の状態 (体温のベースライン・通信量のリング・集中度・呼吸・フロー表) をファイルに保存し、起動時に読み戻す
+ * - 保存は interval ごとと close のとき。シャードと呼吸の状態は持ち主のスレッドにパケットの合間で書き出させるので (Handoff)、キャプチャは止めない
+ * - 一時ファイルに書いてから置き換える (書いている途中で落ちても前回のファイルが残る)
+ * - 読み込みはファイルをメモリにマップし、区間ごとにそのまま読む。知らない区間や壊れた区間は飛ばして知らせる
+ * 形式: "PVST" (4) + 版 (4) + 保存時刻のミリ秒 (8) + 区間 [タグ (4) + 長さ (4) + 中身] の繰り返し。数値はビッグエンディアン
+ */
+public class StateStore implements AutoCloseable {
+    // 区間のタグ
+    static final int DETECTOR = 1;       // AnomalyDetector のベースライン
+    static final int TRAFFIC = 2;        // TrafficRing のバケット (全シャードの合計)
+    static final int FAIRNESS = 3;       // FairnessCalculator の書き込み中のウィンドウ
+    static final int RHYTHM = 4;         // RhythmAnalyzer のストリーム (シャードの順に続けて)
+    static final int FLOWS = 6;          // FlowTable の TCP フロー (全シャード分。5 は以前の再送の表で、今は読まずに飛ばす)
+
+    private static final int MAGIC = 0x50565354; // "PVST"
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+
+    // 区間の中身を書く処理
+    interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private final Path file;
+    private final Duration interval;
+    private final EventChannel events;
+    private ScheduledExecutorService scheduler;
+    private CaptureManager target;
+
+    /**
+     * -Dstate.file があればそこに保存する (なければ null)。間隔は -Dstate.intervalSeconds (既定60秒)
+     */
+    public static StateStore fromSystemProperties(EventChannel events) {
+        String file = System.getProperty("state.file");
+        if (file == null || file.isEmpty()) return null;
+        return new StateStore(Paths.get(file), Duration.ofSeconds(Math.max(1, Long.getLong("state.intervalSeconds", 60))), events);
+    }
+
+    public StateStore(Path file, Duration interval, EventChannel events) {
+        this.file = file;
+        this.interval = interval;
+        this.events = events;
+    }
+
+    public Path getFile() { return file; }
+
+    /**
+     * 保存済みの状態を読み戻す (キャプチャを始める前に呼ぶ)。ファイルがなければ何もしない
+     * 再生では、キャプチャの時刻に結びついた状態 (通信量・呼吸・フロー表) は戻さない
+     */
+    public void restore(CaptureManager manager) {
+        int restored = 0, skipped = 0;
+        long savedMillis;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < HEADER || in.getInt() != MAGIC) {
+                events.message("⚠️ 状態ファイルの形式が違うため読み戻しません: " + file);
+                return;
+            }
+            int version = in.getInt();
+            if (version != VERSION) {
+                events.message("⚠️ 状態ファイルの版が違うため読み戻しません: " + file + " (版 " + version + ")");
+                return;
+            }
+            savedMillis = in.getLong();
+            while (in.remaining() >= 8) {
+                int tag = in.getInt();
+                int length = in.getInt();
+                if (length < 0 || length > in.remaining()) {
+                    events.message("⚠️ 状態ファイルが途中で切れています: " + file);
+                    skipped++;
+                    break;
+                }
+                ByteBuffer body = in.slice(in.position(), length);
+                in.position(in.position() + length);
+                try {
+                    if (manager.restoreState(tag, body)) {
+                        restored++;
+                    } else {
+                        skipped++;
+                    }
+                } catch (RuntimeException e) {
+                    events.message("⚠️ 状態ファイルの区間 " + tag + " を読めないため飛ばします: " + e);
+                    skipped++;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            events.message("⚠️ 状態ファイルを読めません: " + e.getMessage());
+            return;
+        }
+        long ageSeconds = Math.max(0, (System.currentTimeMillis() - savedMillis) / 1000);
+        events.message("♻ 状態を読み戻しました: " + file + " (" + restored + " 区間, 飛ばした区間 " + skipped
+                + ", " + ageSeconds + " 秒前に保存)");
+    }
+
+    // interval ごとの保存を始める (キャプチャを始めた後でも前でもよい)
+    public synchronized void start(CaptureManager manager) {
+        if (scheduler != null) return;
+        target = manager;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "state-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = interval.toMillis();
+        scheduler.scheduleAtFixedRate(this::saveQuietly, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    // 今の状態を保存する
+    public synchronized void save() throws IOException {
+        if (target == null) return;
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            target.writeState(out);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (IOException | RuntimeException e) {
+            events.message("⚠️ 状態を保存できません: " + e.getMessage());
+        }
+    }
+
+    // 定期保存を止め、最後の状態を保存する
+    @Override
+    public void close() {
+        ScheduledExecutorService s;
+        synchronized (this) {
+            s = scheduler;
+            scheduler = null;
+        }
+        if (s != null) s.shutdown();
+        saveQuietly();
+    }
+
+    // 区間を1つ書く
+    static void writeSection(DataOutputStream out, int tag, byte[] body) throws IOException {
+        out.writeInt(tag);
+        out.writeInt(body.length);
+        out.write(body);
+    }
+
+    // 区間の中身をバイト列にする (メモリ上に書くだけなので IOException は起きない)
+    static byte[] toBytes(Writer writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -1,23 +1,22 @@
 package com.example;
 
-import org.pcap4j.packet.Packet;
-import org.pcap4j.packet.IpV4Packet;
-import org.pcap4j.packet.TcpPacket;
-import org.pcap4j.packet.UdpPacket;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.Map;
-import java.time.Instant;
-import java.time.Duration;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Arrays;
 
 public class TimeAndPortAggregator {
-    private final Map<Integer, Long> portPacketCounts = new ConcurrentHashMap<>();
-    private long highPortBytes = 0;
-    private long totalBytes = 0;
-    private long totalHeaderBytes = 0;
-    private Instant lastLogTime = Instant.now();
+
+    // 100msごとのバケットに分けた通信量 (書き込み側は1スレッド。読み出しは何度でもよく、リセットしない)
+    private final TrafficRing ring = new TrafficRing();
+
+    // ポート別のパケット数・バイト数 (ポート番号を添字にした表。加算も回収もアトミックなので入れ替え不要)
+    private final PortStatsTable portTable = new PortStatsTable();
+
+    // 集計側 (タイマースレッド) だけが触る値
+    private final long[] drainedTotals = new long[TrafficRing.FIELDS]; // 自分のリングの累計のうち回収済みの分
+    private final long[] pendingTotals = new long[TrafficRing.FIELDS]; // 回収して、まだ計算に使っていない分
+    private Instant lastLogTime = null; // 最初のパケットの時刻から計測 (再生時はファイル上の時刻)
+    private long earliestPacketNanos = Long.MAX_VALUE; // 回収したリングの中で最も早いパケットの時刻
     
     private final AnomalyDetector detector; // AnomalyDetectorへの参照
 
@@ -25,72 +24,66 @@ public class TimeAndPortAggregator {
         this.detector = detector;
     }
 
-    // パケットごとに呼ばれ、集計を行う
-    public void aggregate(Instant currentTime, Packet packet) {
-        int byteSize = packet.length();
-        int dstPort = getDstPort(packet);
-        if (dstPort != 0) {
-            portPacketCounts.merge(dstPort, 1L, Long::sum); 
-        }
-        totalBytes += byteSize;
-        if (dstPort >= 49152 && dstPort <= 65535) {
-            highPortBytes += byteSize;
-        }
+    // パケットごとに呼ばれ、集計を行う (書き込み側はブロックしない)
+    public void aggregate(PacketView packet) {
+        int byteSize = packet.wireLength();
+        int dstPort = packet.dstPort(); // TCP/UDP以外は0
         // ★追加：ヘッダーサイズの抽出
         // Ethernet(14) + IP(20) + TCP(20) のような階層構造からヘッダー分だけを足す
-        // getHeader() がある各レイヤーの長さを合計します
-        int headerSize = 0;
-        if (packet.getHeader() != null) {
-            headerSize += packet.getHeader().length(); // Ethernetヘッダー
-            Packet payload = packet.getPayload();
-            if (payload != null && payload.getHeader() != null) {
-                headerSize += payload.getHeader().length(); // IPヘッダー
-                Packet nextPayload = payload.getPayload();
-                if (nextPayload != null && nextPayload.getHeader() != null) {
-                    headerSize += nextPayload.getHeader().length(); // TCP/UDPヘッダー
-                }
-            }
+        ring.add(packet.timestampNanos(), byteSize, packet.headerLength(),
+                (dstPort >= 49152 && dstPort <= 65535) ? byteSize : 0);
+        if (packet.isTcp() || packet.isUdp()) {
+            portTable.record(packet);
         }
-        totalHeaderBytes += headerSize;
     }
-    
-    // MainAppのタイマーから定期的に呼び出され、計算とリセットを行う
-    public VitalSignData calculateAndReset(Instant currentTime) {
 
-        long elapsedSeconds = Duration.between(lastLogTime, currentTime).getSeconds();
-        if (elapsedSeconds == 0) return new VitalSignData(new HashMap<>(), 0.0, 0.0,0.0); //GUI追加時にreturn後の内容追加
+    TrafficRing getRing() { return ring; }
 
-        Map<Integer, Double> currentPulseRates = new HashMap<>(); //GUI実装時に追加
+    // 直近 windowNanos の通信量 (何もリセットしない)
+    public TrafficWindow trafficWindow(long nowNanos, long windowNanos) {
+        return TrafficRing.window(new TrafficRing[] {ring}, nowNanos, windowNanos);
+    }
 
-        // 脈拍 (R) の計算と体温チェック
-        for (Map.Entry<Integer, Long> entry : portPacketCounts.entrySet()) {
-            int port = entry.getKey();
-            long count = entry.getValue();
-            double rate = (double) count / elapsedSeconds; // 脈拍 (pkt/s)    
-            //System.out.println("[脈拍] Port " + port + ": " + String.format("%.2f", rate) + " pkt/s");
-            currentPulseRates.put(port, rate);//out.printの代わりにGUIへデータを送る
-            detector.checkAnomaly(port, rate);
+    // リングの累計のうち、前回からの増えた分を into の未計算の値に移す (リング自体はリセットしない)
+    private void drainInto(TimeAndPortAggregator into) {
+        for (int f = 0; f < TrafficRing.FIELDS; f++) {
+            long total = ring.total(f);
+            into.pendingTotals[f] += total - drainedTotals[f];
+            drainedTotals[f] = total;
         }
+        into.earliestPacketNanos = Math.min(into.earliestPacketNanos, ring.getFirstPacketNanos());
+    }
 
-    double smugglingRate = (totalBytes > 0) ? (double) highPortBytes / totalBytes * 100.0 : 0.0 ;
-
-    double currentMbps = (totalBytes * 8.0) / (elapsedSeconds * 1_000_000.0) ;
+    // 別のシャードで集計した値をこちらに移す (ポート別の表は移した側でリセットされる)
+    public void mergeFrom(TimeAndPortAggregator other) {
+        other.drainInto(this);
+        other.portTable.drainInto(portTable);
+    }
 
-    double overheadRate = (totalBytes > 0) ? (double) totalHeaderBytes / totalBytes * 100.0 : 0.0;
-    
-    portPacketCounts.clear();
-    highPortBytes = 0;
-    totalBytes = 0;
-    lastLogTime = currentTime;
-    totalHeaderBytes = 0;
-    return new VitalSignData( currentPulseRates, smugglingRate,currentMbps,overheadRate);}
-
-    private int getDstPort(Packet packet) {
-        if (packet.contains(TcpPacket.class)) {
-            return packet.get(TcpPacket.class).getHeader().getDstPort().valueAsInt();
-        } else if (packet.contains(UdpPacket.class)) {
-            return packet.get(UdpPacket.class).getHeader().getDstPort().valueAsInt();
+    // MainAppのタイマーから定期的に呼び出され、前回からの期間で計算とリセットを行う
+    public VitalSignData calculateAndReset(Instant currentTime) {
+        drainInto(this);
+        // 計測開始時刻がまだ決まっていなければ、全シャードで最も早いパケットの時刻にする
+        if (lastLogTime == null && earliestPacketNanos != Long.MAX_VALUE) {
+            lastLogTime = Instant.ofEpochSecond(0, earliestPacketNanos);
         }
-        return 0;
+
+        if (lastLogTime == null) return new VitalSignData(PortStats.EMPTY, 0.0, 0.0,0.0); // まだパケットが届いていない
+        // 1秒未満の間隔でも正しいレートになるよう、経過時間はナノ秒で測る
+        long elapsedNanos = Duration.between(lastLogTime, currentTime).toNanos();
+        if (elapsedNanos <= 0) return new VitalSignData(PortStats.EMPTY, 0.0, 0.0,0.0); // 次の呼び出しにまとめて回す
+        double elapsedSeconds = elapsedNanos / 1e9;
+
+        PortStats portStats = portTable.snapshotAndReset(elapsedSeconds); //GUI実装時に追加
+
+        // 脈拍 (R) の計算と体温チェック (ポートごとのベースラインもここで学習する)
+        PortAnomalies anomalies = (detector != null) ? detector.check(portStats, currentTime) : PortAnomalies.EMPTY;
+
+        TrafficWindow interval = new TrafficWindow(pendingTotals[TrafficRing.PACKETS], pendingTotals[TrafficRing.BYTES],
+                pendingTotals[TrafficRing.HEADER_BYTES], pendingTotals[TrafficRing.HIGH_PORT_BYTES], elapsedSeconds);
+        Arrays.fill(pendingTotals, 0);
+        lastLogTime = currentTime;
+        return new VitalSignData(portStats, interval.smugglingRate(), interval.mbps(), interval.overheadRate())
+                .withAnomalies(anomalies);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,390 @@
+package com.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * ディレクトリ1つに保存する、追記専用の列指向の時系列ストア (外部のデータベースは使わない)
+ * - 書き込み中のセグメント (active.vta): 列ごとに固定幅の領域を確保したファイルをメモリマップして追記する
+ * - 満杯になったら圧縮済みセグメント (seg-*.vtz) に封をする。時刻は delta-of-delta、値は XOR で圧縮し、
+ *   BLOCK_ROWS 行ごとのブロックに分けて、ファイル先頭のブロック表 (時刻の索引) から必要なブロックだけを読む
+ * - 保持期間を過ぎた圧縮済みセグメントは封をするときに消す
+ * 時刻はエポックからのミリ秒。各行は時刻と columnCount 個の double
+ * 行は時刻順に追記するのが前提だが、前後しても索引は最小・最大で引くので取りこぼさない
+ */
+public class TimeSeriesStore implements Closeable {
+    private static final int ACTIVE_MAGIC = 0x56545341; // "VTSA"
+    private static final int SEALED_MAGIC = 0x5654535A; // "VTSZ"
+    private static final int VERSION = 1;
+    private static final int ACTIVE_HEADER = 32;
+    private static final int ROWS_OFFSET = 16; // 書き込み済みの行数 (値を書いたあとで更新する)
+    private static final int BLOCK_ROWS = 512;
+    private static final String ACTIVE_FILE = "active.vta";
+
+    // 1行ごとに呼ばれる (範囲の問い合わせ用)
+    public interface RowVisitor {
+        void accept(long timeMillis, double value);
+    }
+
+    // 圧縮済みセグメント1つ (ヘッダーとブロック表はメモリに持ち、本体はメモリマップで読む)
+    private static final class Segment {
+        private final Path path;
+        private final long minTime;
+        private final long maxTime;
+        private final long[] blockMinTime;
+        private final long[] blockMaxTime;
+        private final int[] blockRows;
+        private final int[] blockOffsets;
+        private MappedByteBuffer mapped;
+
+        private Segment(Path path, ByteBuffer header) {
+            this.path = path;
+            header.getInt(); // magic
+            header.getInt(); // version
+            header.getInt(); // columns
+            header.getInt(); // rows
+            minTime = header.getLong();
+            maxTime = header.getLong();
+            int blocks = header.getInt();
+            blockMinTime = new long[blocks];
+            blockMaxTime = new long[blocks];
+            blockRows = new int[blocks];
+            blockOffsets = new int[blocks];
+            for (int b = 0; b < blocks; b++) {
+                blockMinTime[b] = header.getLong();
+                blockMaxTime[b] = header.getLong();
+                blockRows[b] = header.getInt();
+                blockOffsets[b] = header.getInt();
+                header.getInt(); // length
+            }
+        }
+
+        private MappedByteBuffer map() throws IOException {
+            if (mapped == null) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            }
+            return mapped;
+        }
+    }
+
+    private final Path directory;
+    private final int columnCount;
+    private final int activeCapacity;
+    private final long retentionMillis;
+    private final List<Segment> segments = new ArrayList<>(); // 時刻順
+
+    private FileChannel activeChannel;
+    private MappedByteBuffer active;
+    private int activeRows;
+
+    // 問い合わせで使い回す作業用の配列
+    private final long[] blockTimes = new long[BLOCK_ROWS];
+    private final double[] blockValues = new double[BLOCK_ROWS];
+    private final double[] blockFilter = new double[BLOCK_ROWS];
+
+    /**
+     * @param activeCapacity 1つのセグメントに入れる行数 (これを超えたら封をして新しいセグメントにする)
+     * @param retentionMillis これより古いセグメントは消す (0以下なら消さない)
+     */
+    public TimeSeriesStore(Path directory, int columnCount, int activeCapacity, long retentionMillis) throws IOException {
+        this.directory = directory;
+        this.columnCount = columnCount;
+        this.activeCapacity = activeCapacity;
+        this.retentionMillis = retentionMillis;
+        Files.createDirectories(directory);
+        loadSegments();
+        openActive();
+    }
+
+    public int getColumnCount() { return columnCount; }
+
+    // 1行を追記する (満杯なら先に封をする)
+    public synchronized void append(long timeMillis, double[] values) throws IOException {
+        if (values.length != columnCount) throw new IllegalArgumentException("列数が違います: " + values.length);
+        if (active == null) throw new IOException("ストアは閉じられています: " + directory);
+        if (activeRows == activeCapacity) seal();
+        active.putLong(ACTIVE_HEADER + activeRows * 8, timeMillis);
+        for (int c = 0; c < columnCount; c++) {
+            active.putDouble(columnOffset(c) + activeRows * 8, values[c]);
+        }
+        activeRows++;
+        active.putInt(ROWS_OFFSET, activeRows);
+    }
+
+    /**
+     * [fromMillis, toMillis) の行の column 列目を visitor に渡す (セグメントの古い順)
+     * @param filterColumn この列の値が filterValue と等しい行だけを渡す (-1なら絞り込まない)
+     */
+    public synchronized void scan(int column, long fromMillis, long toMillis, int filterColumn, double filterValue,
+                                  RowVisitor visitor) throws IOException {
+        if (active == null) throw new IOException("ストアは閉じられています: " + directory);
+        for (Segment segment : segments) {
+            if (segment.maxTime < fromMillis || segment.minTime >= toMillis) continue;
+            ByteBuffer buffer = segment.map();
+            for (int b = 0; b < segment.blockMinTime.length; b++) {
+                if (segment.blockMaxTime[b] < fromMillis || segment.blockMinTime[b] >= toMillis) continue;
+                int rows = segment.blockRows[b];
+                int start = segment.blockOffsets[b];
+                GorillaCodec.decodeTimestamps(buffer, start, rows, blockTimes);
+                GorillaCodec.decodeColumn(buffer, start, column, rows, blockValues);
+                if (filterColumn >= 0) GorillaCodec.decodeColumn(buffer, start, filterColumn, rows, blockFilter);
+                for (int i = 0; i < rows; i++) {
+                    long time = blockTimes[i];
+                    if (time < fromMillis || time >= toMillis) continue;
+                    if (filterColumn >= 0 && blockFilter[i] != filterValue) continue;
+                    visitor.accept(time, blockValues[i]);
+                }
+            }
+        }
+        for (int i = 0; i < activeRows; i++) {
+            long time = active.getLong(ACTIVE_HEADER + i * 8);
+            if (time < fromMillis || time >= toMillis) continue;
+            if (filterColumn >= 0 && active.getDouble(columnOffset(filterColumn) + i * 8) != filterValue) continue;
+            visitor.accept(time, active.getDouble(columnOffset(column) + i * 8));
+        }
+    }
+
+    /**
+     * [fromMillis, toMillis) を bucketMillis ごとに区切って、最小・最大・平均にまとめる
+     * @param filterColumn この列の値が filterValue と等しい行だけを使う (-1なら絞り込まない)
+     */
+    public Downsampled downsample(int column, long fromMillis, long toMillis, long bucketMillis,
+                                  int filterColumn, double filterValue) throws IOException {
+        int buckets = (int) Math.max(1, (toMillis - fromMillis + bucketMillis - 1) / bucketMillis);
+        double[] min = new double[buckets];
+        double[] max = new double[buckets];
+        double[] sum = new double[buckets];
+        long[] count = new long[buckets];
+        scan(column, fromMillis, toMillis, filterColumn, filterValue, (time, value) -> {
+            int b = (int) ((time - fromMillis) / bucketMillis);
+            if (count[b] == 0 || value < min[b]) min[b] = value;
+            if (count[b] == 0 || value > max[b]) max[b] = value;
+            sum[b] += value;
+            count[b]++;
+        });
+        return new Downsampled(fromMillis, bucketMillis, min, max, sum, count);
+    }
+
+    // 書き込み中のセグメントをディスクに書き出す
+    public synchronized void flush() {
+        if (active != null) active.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        if (activeChannel != null) activeChannel.close();
+        activeChannel = null;
+        active = null;
+        segments.clear();
+    }
+
+    private int columnOffset(int column) {
+        return ACTIVE_HEADER + (column + 1) * activeCapacity * 8;
+    }
+
+    private void openActive() throws IOException {
+        Path path = directory.resolve(ACTIVE_FILE);
+        long size = ACTIVE_HEADER + (long) (columnCount + 1) * activeCapacity * 8;
+        boolean exists = Files.exists(path);
+        activeChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (exists) {
+            MappedByteBuffer header = activeChannel.map(FileChannel.MapMode.READ_ONLY, 0, ACTIVE_HEADER);
+            if (header.getInt(0) != ACTIVE_MAGIC || header.getInt(8) != columnCount) {
+                activeChannel.close();
+                throw new IOException("形式の違う書き込み中セグメントがあります: " + path);
+            }
+            int capacity = header.getInt(12);
+            if (capacity != activeCapacity) {
+                // 以前と違う大きさで開いたので、今あるものを封をしてから作り直す
+                active = activeChannel.map(FileChannel.MapMode.READ_WRITE, 0, activeChannel.size());
+                activeRows = active.getInt(ROWS_OFFSET);
+                sealActive(capacity);
+                activeChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                exists = false;
+            }
+        }
+        active = activeChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (exists) {
+            activeRows = active.getInt(ROWS_OFFSET);
+        } else {
+            active.putInt(0, ACTIVE_MAGIC);
+            active.putInt(4, VERSION);
+            active.putInt(8, columnCount);
+            active.putInt(12, activeCapacity);
+            active.putInt(ROWS_OFFSET, 0);
+            activeRows = 0;
+        }
+    }
+
+    // 書き込み中のセグメントを圧縮して封をし、空のセグメントから書き直す
+    private void seal() throws IOException {
+        sealActive(activeCapacity);
+        activeChannel = FileChannel.open(directory.resolve(ACTIVE_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        active = activeChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                ACTIVE_HEADER + (long) (columnCount + 1) * activeCapacity * 8);
+        active.putInt(0, ACTIVE_MAGIC);
+        active.putInt(4, VERSION);
+        active.putInt(8, columnCount);
+        active.putInt(12, activeCapacity);
+        active.putInt(ROWS_OFFSET, 0);
+        activeRows = 0;
+        applyRetention();
+    }
+
+    private void sealActive(int capacity) throws IOException {
+        int rows = activeRows;
+        if (rows > 0) {
+            long[] times = new long[rows];
+            double[][] columns = new double[columnCount][rows];
+            for (int i = 0; i < rows; i++) {
+                times[i] = active.getLong(ACTIVE_HEADER + i * 8);
+                for (int c = 0; c < columnCount; c++) {
+                    columns[c][i] = active.getDouble(ACTIVE_HEADER + (c + 1) * capacity * 8 + i * 8);
+                }
+            }
+            writeSealed(times, columns, rows);
+        }
+        activeChannel.close();
+        active = null;
+        Files.delete(directory.resolve(ACTIVE_FILE));
+    }
+
+    private void writeSealed(long[] times, double[][] columns, int rows) throws IOException {
+        int blocks = (rows + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        byte[][] encoded = new byte[blocks][];
+        for (int b = 0; b < blocks; b++) {
+            int from = b * BLOCK_ROWS;
+            encoded[b] = GorillaCodec.encode(times, columns, from, Math.min(BLOCK_ROWS, rows - from));
+        }
+        int headerBytes = 36 + blocks * 28;
+        ByteBuffer header = ByteBuffer.allocate(headerBytes);
+        // 再生したキャプチャを記録すると時刻が前後することがあるので、索引には最小・最大を書く
+        long[] blockMin = new long[blocks];
+        long[] blockMax = new long[blocks];
+        for (int b = 0; b < blocks; b++) {
+            int from = b * BLOCK_ROWS;
+            int to = Math.min(rows, from + BLOCK_ROWS);
+            blockMin[b] = Long.MAX_VALUE;
+            blockMax[b] = Long.MIN_VALUE;
+            for (int i = from; i < to; i++) {
+                blockMin[b] = Math.min(blockMin[b], times[i]);
+                blockMax[b] = Math.max(blockMax[b], times[i]);
+            }
+        }
+        long minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+        for (int b = 0; b < blocks; b++) {
+            minTime = Math.min(minTime, blockMin[b]);
+            maxTime = Math.max(maxTime, blockMax[b]);
+        }
+        header.putInt(SEALED_MAGIC).putInt(VERSION).putInt(columnCount).putInt(rows);
+        header.putLong(minTime).putLong(maxTime).putInt(blocks);
+        int offset = headerBytes;
+        for (int b = 0; b < blocks; b++) {
+            int count = Math.min(BLOCK_ROWS, rows - b * BLOCK_ROWS);
+            header.putLong(blockMin[b]).putLong(blockMax[b]).putInt(count).putInt(offset).putInt(encoded[b].length);
+            offset += encoded[b].length;
+        }
+        header.flip();
+
+        // 書き終わってから名前を付け替えるので、途中で落ちても壊れたセグメントは残らない
+        long nameTime = minTime;
+        Path target;
+        while (Files.exists(target = directory.resolve(String.format("seg-%020d.vtz", nameTime)))) nameTime++;
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(header);
+            for (byte[] block : encoded) {
+                channel.write(ByteBuffer.wrap(block));
+            }
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        segments.add(readSegment(target));
+        segments.sort((a, b) -> Long.compare(a.minTime, b.minTime));
+    }
+
+    private void loadSegments() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "seg-*.vtz")) {
+            for (Path file : files) {
+                segments.add(readSegment(file));
+            }
+        }
+        segments.sort((a, b) -> Long.compare(a.minTime, b.minTime));
+        applyRetention();
+    }
+
+    private Segment readSegment(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            byte[] fixed = new byte[36];
+            raf.readFully(fixed);
+            ByteBuffer head = ByteBuffer.wrap(fixed);
+            if (head.getInt(0) != SEALED_MAGIC || head.getInt(8) != columnCount) {
+                throw new IOException("形式の違うセグメントです: " + file);
+            }
+            int blocks = head.getInt(32);
+            byte[] all = new byte[36 + blocks * 28];
+            raf.seek(0);
+            raf.readFully(all);
+            return new Segment(file, ByteBuffer.wrap(all));
+        }
+    }
+
+    // 最も新しい時刻から保持期間より前に終わっているセグメントを消す
+    private void applyRetention() throws IOException {
+        if (retentionMillis <= 0 || segments.isEmpty()) return;
+        long newest = Long.MIN_VALUE;
+        for (Segment segment : segments) {
+            newest = Math.max(newest, segment.maxTime);
+        }
+        for (Iterator<Segment> it = segments.iterator(); it.hasNext(); ) {
+            Segment old = it.next();
+            if (old.maxTime >= newest - retentionMillis) continue;
+            it.remove();
+            old.mapped = null;
+            Files.deleteIfExists(old.path);
+        }
+    }
+
+    // 区間ごとの最小・最大・平均 (count が0の区間はデータなし)
+    public static class Downsampled {
+        public final long fromMillis;
+        public final long bucketMillis;
+        private final double[] min;
+        private final double[] max;
+        private final double[] sum;
+        private final long[] count;
+
+        Downsampled(long fromMillis, long bucketMillis, double[] min, double[] max, double[] sum, long[] count) {
+            this.fromMillis = fromMillis;
+            this.bucketMillis = bucketMillis;
+            this.min = min;
+            this.max = max;
+            this.sum = sum;
+            this.count = count;
+        }
+
+        public int size() { return count.length; }
+        public long bucketStart(int i) { return fromMillis + i * bucketMillis; }
+        public long count(int i) { return count[i]; }
+        public double min(int i) { return min[i]; }
+        public double max(int i) { return max[i]; }
+        public double average(int i) { return (count[i] > 0) ? sum[i] / count[i] : 0.0; }
+    }
+}
@@ -0,0 +1,212 @@
+package com.example;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * パケットの時刻で100msごとの区間 (バケット) に分けて通信量を数えるリング
+ * 直近 MAX_WINDOW_NANOS までの任意の長さの窓を、何もリセットせずに何度でも読める
+ * 書き込みは1つのスレッド (シャード) だけ、読み出しはどのスレッドからでもよい
+ * バケットごとに版 (seqlock) を持ち、読み出しは書き換え中でない同じ版のうちに読めた値だけを使う (パケット数とバイト数がずれない)
+ */
+class TrafficRing {
+    static final long BUCKET_NANOS = 100_000_000L;
+    private static final int BUCKETS = 1024; // 102.4秒分 (2のべき乗)
+    private static final int MASK = BUCKETS - 1;
+    // 書き込み側が追い越してくる可能性のあるバケットは読まない
+    static final long MAX_WINDOW_NANOS = (BUCKETS - 4) * BUCKET_NANOS;
+
+    static final int PACKETS = 0;
+    static final int BYTES = 1;
+    static final int HEADER_BYTES = 2;
+    static final int HIGH_PORT_BYTES = 3;
+    static final int FIELDS = 4;
+
+    private static final long INVALID = Long.MIN_VALUE;
+
+    // stamps[slot] はそのバケットが何番目の100msか (まだ使っていなければ INVALID)
+    private final AtomicLongArray stamps = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray values = new AtomicLongArray(BUCKETS * FIELDS);
+    // versions[slot] はバケットの版 (書き換え中は奇数。書き終えたら次の偶数)
+    private final AtomicLongArray versions = new AtomicLongArray(BUCKETS);
+    // キャプチャ開始からの累計 (集計期間ごとの差分はこちらから求める)
+    private final AtomicLongArray totals = new AtomicLongArray(FIELDS);
+    private volatile long firstPacketNanos = Long.MAX_VALUE;
+    // 保存から戻したバケットの最初の時刻 (窓の長さにだけ使い、累計や集計期間には入れない)
+    private volatile long restoredFirstNanos = Long.MAX_VALUE;
+
+    TrafficRing() {
+        for (int i = 0; i < BUCKETS; i++) {
+            stamps.set(i, INVALID);
+        }
+    }
+
+    /**
+     * 書き込み側は1スレッドだけなので、読んで足して lazySet するだけでよい (ロック命令を使わない)
+     * 版を奇数にしてから値を書き、最後に偶数に戻す。どれも lazySet (release) なので、値が見えたなら奇数の版も見えている
+     */
+    void add(long timestampNanos, long bytes, long headerBytes, long highPortBytes) {
+        if (firstPacketNanos == Long.MAX_VALUE) firstPacketNanos = timestampNanos;
+        addTotal(PACKETS, 1);
+        addTotal(BYTES, bytes);
+        addTotal(HEADER_BYTES, headerBytes);
+        addTotal(HIGH_PORT_BYTES, highPortBytes);
+
+        long index = Math.floorDiv(timestampNanos, BUCKET_NANOS);
+        int slot = (int) (index & MASK);
+        long stamp = stamps.get(slot);
+        if (stamp != INVALID && stamp > index) return; // リング1周より古い時刻のパケット (累計にだけ入れる)
+        long version = versions.get(slot);
+        versions.lazySet(slot, version + 1);
+        int base = slot * FIELDS;
+        if (stamp != index) {
+            // 前の周のバケットを0から数え直す
+            for (int f = 0; f < FIELDS; f++) {
+                values.lazySet(base + f, 0);
+            }
+            stamps.lazySet(slot, index);
+        }
+        values.lazySet(base + PACKETS, values.get(base + PACKETS) + 1);
+        values.lazySet(base + BYTES, values.get(base + BYTES) + bytes);
+        values.lazySet(base + HEADER_BYTES, values.get(base + HEADER_BYTES) + headerBytes);
+        values.lazySet(base + HIGH_PORT_BYTES, values.get(base + HIGH_PORT_BYTES) + highPortBytes);
+        versions.lazySet(slot, version + 2);
+    }
+
+    private void addTotal(int field, long value) {
+        totals.lazySet(field, totals.get(field) + value);
+    }
+
+    long total(int field) { return totals.get(field); }
+
+    long getFirstPacketNanos() { return firstPacketNanos; }
+
+    // 窓の数え始め (保存から戻したバケットがあればその時刻から)
+    private long windowStartNanos() { return Math.min(firstPacketNanos, restoredFirstNanos); }
+
+    /**
+     * [startIndex, endIndex] 番目のバケットの値を into に足す
+     * バケットごとに、書き換え中でなく、読む前と後で版が変わらなかったときの値を使う (変わっていれば読み直す)
+     * 別の周のバケットに書き換わっていたものは数えない
+     */
+    void addBucketsTo(long startIndex, long endIndex, long[] into) {
+        for (long index = startIndex; index <= endIndex; index++) {
+            int slot = (int) (index & MASK);
+            int base = slot * FIELDS;
+            while (true) {
+                long version = versions.get(slot);
+                if ((version & 1) != 0) {
+                    Thread.onSpinWait(); // 書き込み側は数個の値を書くだけなので、すぐ終わる
+                    continue;
+                }
+                boolean current = stamps.get(slot) == index;
+                long packets = values.get(base + PACKETS);
+                long bytes = values.get(base + BYTES);
+                long headerBytes = values.get(base + HEADER_BYTES);
+                long highPortBytes = values.get(base + HIGH_PORT_BYTES);
+                if (versions.get(slot) != version) continue;
+                if (current) {
+                    into[PACKETS] += packets;
+                    into[BYTES] += bytes;
+                    into[HEADER_BYTES] += headerBytes;
+                    into[HIGH_PORT_BYTES] += highPortBytes;
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * 複数のリング (シャードごと) を合わせて、nowNanos までの直近 windowNanos の通信量を求める
+     * 窓は MAX_WINDOW_NANOS までに切り詰める。数えた長さは最初のパケットより前を含めない
+     */
+    static TrafficWindow window(TrafficRing[] rings, long nowNanos, long windowNanos) {
+        long window = Math.min(Math.max(windowNanos, BUCKET_NANOS), MAX_WINDOW_NANOS);
+        long endIndex = Math.floorDiv(nowNanos, BUCKET_NANOS);
+        long startIndex = endIndex - (window + BUCKET_NANOS - 1) / BUCKET_NANOS + 1;
+        long[] sums = new long[FIELDS];
+        long first = Long.MAX_VALUE;
+        for (TrafficRing ring : rings) {
+            ring.addBucketsTo(startIndex, endIndex, sums);
+            first = Math.min(first, ring.windowStartNanos());
+        }
+        if (first == Long.MAX_VALUE) return TrafficWindow.EMPTY;
+        long start = Math.max(startIndex * BUCKET_NANOS, first);
+        double seconds = Math.max(0, nowNanos - start) / 1e9;
+        return new TrafficWindow(sums[PACKETS], sums[BYTES], sums[HEADER_BYTES], sums[HIGH_PORT_BYTES], seconds);
+    }
+
+    /**
+     * 保存: 複数のリングを合わせた、読めるバケット (番号ごとに足したもの) と窓の数え始め
+     */
+    static void writeState(TrafficRing[] rings, DataOutputStream out) throws IOException {
+        long newest = INVALID;
+        long first = Long.MAX_VALUE;
+        for (TrafficRing ring : rings) {
+            for (int slot = 0; slot < BUCKETS; slot++) {
+                newest = Math.max(newest, ring.stamps.get(slot));
+            }
+            first = Math.min(first, ring.windowStartNanos());
+        }
+        long[] indexes = new long[BUCKETS];
+        long[] sums = new long[BUCKETS * FIELDS];
+        int count = 0;
+        if (newest != INVALID) {
+            long[] bucket = new long[FIELDS];
+            for (long index = newest - BUCKETS + 1; index <= newest; index++) {
+                Arrays.fill(bucket, 0);
+                for (TrafficRing ring : rings) {
+                    ring.addBucketsTo(index, index, bucket);
+                }
+                if (bucket[PACKETS] == 0) continue;
+                indexes[count] = index;
+                System.arraycopy(bucket, 0, sums, count * FIELDS, FIELDS);
+                count++;
+            }
+        }
+        out.writeLong(first);
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeLong(indexes[i]);
+            for (int f = 0; f < FIELDS; f++) {
+                out.writeLong(sums[i * FIELDS + f]);
+            }
+        }
+    }
+
+    /**
+     * writeState で書いたバケットをこのリングに置く (書き込み側のスレッドを始める前に呼ぶ)
+     * 全部読めてから置くので、壊れていれば例外を投げて何も変えない
+     */
+    void readState(ByteBuffer in) {
+        long first = in.getLong();
+        int count = in.getInt();
+        if (count < 0 || count > BUCKETS) throw new IllegalArgumentException("バケットの数が範囲外です: " + count);
+        long[] indexes = new long[count];
+        long[] sums = new long[count * FIELDS];
+        for (int i = 0; i < count; i++) {
+            indexes[i] = in.getLong();
+            if (i > 0 && indexes[i] <= indexes[i - 1]) throw new IllegalArgumentException("バケットの順番が不正です");
+            for (int f = 0; f < FIELDS; f++) {
+                sums[i * FIELDS + f] = in.getLong();
+            }
+        }
+        if (count > 0 && indexes[count - 1] - indexes[0] >= BUCKETS) {
+            throw new IllegalArgumentException("バケットがリング1周を超えています");
+        }
+        for (int i = 0; i < count; i++) {
+            int slot = (int) (indexes[i] & MASK);
+            long version = versions.get(slot);
+            versions.lazySet(slot, version + 1);
+            for (int f = 0; f < FIELDS; f++) {
+                values.lazySet(slot * FIELDS + f, sums[i * FIELDS + f]);
+            }
+            stamps.lazySet(slot, indexes[i]);
+            versions.lazySet(slot, version + 2);
+        }
+        if (count > 0) restoredFirstNanos = first;
+    }
+}
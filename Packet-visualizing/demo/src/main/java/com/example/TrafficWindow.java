@@ -0,0 +1,34 @@
+package com.example;
+
+/**
+ * 直近の一定時間 (1秒・10秒・60秒など) の通信量とレート (読み取り専用)
+ * seconds は実際に数えた長さ (キャプチャ開始直後は窓より短くなる)
+ */
+public class TrafficWindow {
+    public static final TrafficWindow EMPTY = new TrafficWindow(0, 0, 0, 0, 0.0);
+
+    public final long packets;
+    public final long bytes;
+    public final long headerBytes;
+    public final long highPortBytes;
+    public final double seconds;
+
+    TrafficWindow(long packets, long bytes, long headerBytes, long highPortBytes, double seconds) {
+        this.packets = packets;
+        this.bytes = bytes;
+        this.headerBytes = headerBytes;
+        this.highPortBytes = highPortBytes;
+        this.seconds = seconds;
+    }
+
+    public double packetRate() { return (seconds > 0) ? packets / seconds : 0.0; }
+
+    // 血流量 (Mbps)
+    public double mbps() { return (seconds > 0) ? bytes * 8.0 / (seconds * 1_000_000.0) : 0.0; }
+
+    // 呼吸効率: ヘッダーが占める割合 (%)
+    public double overheadRate() { return (bytes > 0) ? (double) headerBytes / bytes * 100.0 : 0.0; }
+
+    // 密輸率: 宛先がハイポートのバイトの割合 (%)
+    public double smugglingRate() { return (bytes > 0) ? (double) highPortBytes / bytes * 100.0 : 0.0; }
+}
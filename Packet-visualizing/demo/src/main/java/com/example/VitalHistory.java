@@ -0,0 +1,111 @@
+package com.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * バイタルサインの履歴 (集計ごとの値を TimeSeriesStore に残し、あとから範囲を引けるようにする)
+ * - vitals: 全体の値を1回の集計につき1行
+ * - ports: 脈拍の多いポートを1回の集計につき最大 TOP_PORTS 行 (PORT 列で絞り込んで引く)
+ * 保存先は -Dvitals.history.dir で変えられる (既定は ~/.packet-visualizing/history)
+ */
+public class VitalHistory implements Closeable {
+    // vitals の列
+    public static final int MBPS = 0;
+    public static final int SMUGGLING_RATE = 1;
+    public static final int OVERHEAD_RATE = 2;
+    public static final int ENTROPY = 3;
+    public static final int RETRANSMISSIONS = 4;
+    public static final int IAT_MEAN_MS = 5;
+    public static final int IAT_STDDEV_MS = 6;
+    public static final int ANOMALIES = 7;
+    public static final String[] VITAL_NAMES = {
+            "血流量 (Mbps)", "密輸率 (%)", "呼吸効率 (%)", "集中度", "再送", "平均IAT (ms)", "IAT標準偏差 (ms)", "体温の警告"};
+
+    // ports の列
+    public static final int PORT = 0;
+    public static final int PULSE = 1;
+    public static final int BYTE_RATE = 2;
+
+    private static final int TOP_PORTS = 16;
+    private static final int SEGMENT_ROWS = 4096; // 3秒ごとの集計で約3.4時間分
+    private static final long RETENTION_MILLIS = Duration.ofDays(30).toMillis();
+
+    private final TimeSeriesStore vitals;
+    private final TimeSeriesStore ports;
+    private final double[] vitalRow = new double[VITAL_NAMES.length];
+    private final double[] portRow = new double[3];
+
+    public VitalHistory(Path directory) throws IOException {
+        vitals = new TimeSeriesStore(directory.resolve("vitals"), VITAL_NAMES.length, SEGMENT_ROWS, RETENTION_MILLIS);
+        try {
+            ports = new TimeSeriesStore(directory.resolve("ports"), portRow.length, SEGMENT_ROWS * 4, RETENTION_MILLIS);
+        } catch (IOException e) {
+            vitals.close();
+            throw e;
+        }
+    }
+
+    // 既定の保存先
+    public static Path defaultDirectory() {
+        String dir = System.getProperty("vitals.history.dir");
+        if (dir != null && !dir.isEmpty()) return Paths.get(dir);
+        return Paths.get(System.getProperty("user.home"), ".packet-visualizing", "history");
+    }
+
+    // 1回分の集計結果を残す
+    public synchronized void record(Instant time, VitalSignData data, FairnessStats fairness) throws IOException {
+        long millis = time.toEpochMilli();
+        RhythmWindow rhythm = data.rhythm.window(RhythmStats.SECOND_10);
+        vitalRow[MBPS] = data.mbps;
+        vitalRow[SMUGGLING_RATE] = data.smugglingRate;
+        vitalRow[OVERHEAD_RATE] = data.overheadRate;
+        vitalRow[ENTROPY] = fairness.entropy;
+        vitalRow[RETRANSMISSIONS] = data.retransmissions.retransmissions;
+        vitalRow[IAT_MEAN_MS] = rhythm.meanMillis();
+        vitalRow[IAT_STDDEV_MS] = rhythm.stdDevMillis();
+        vitalRow[ANOMALIES] = data.anomalies.size();
+        vitals.append(millis, vitalRow);
+
+        PortStats stats = data.portStats;
+        for (int i : stats.topByPackets(TOP_PORTS)) {
+            portRow[PORT] = stats.port(i);
+            portRow[PULSE] = stats.packetRate(i);
+            portRow[BYTE_RATE] = stats.byteRate(i);
+            ports.append(millis, portRow);
+        }
+    }
+
+    // 全体の値 (column は MBPS などの列) を bucket ごとにまとめて返す
+    public TimeSeriesStore.Downsampled vitals(int column, Instant from, Instant to, Duration bucket) throws IOException {
+        return vitals.downsample(column, from.toEpochMilli(), to.toEpochMilli(), bucket.toMillis(), -1, 0.0);
+    }
+
+    // 1つのポートの値 (column は PULSE または BYTE_RATE) を bucket ごとにまとめて返す
+    public TimeSeriesStore.Downsampled port(int port, int column, Instant from, Instant to, Duration bucket) throws IOException {
+        return ports.downsample(column, from.toEpochMilli(), to.toEpochMilli(), bucket.toMillis(), PORT, port);
+    }
+
+    // 全体の値を1行ずつそのまま読む
+    public void scanVitals(int column, Instant from, Instant to, TimeSeriesStore.RowVisitor visitor) throws IOException {
+        vitals.scan(column, from.toEpochMilli(), to.toEpochMilli(), -1, 0.0, visitor);
+    }
+
+    public void flush() {
+        vitals.flush();
+        ports.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            vitals.close();
+        } finally {
+            ports.close();
+        }
+    }
+}
@@ -1,23 +1,78 @@
 package com.example;
 
-import java.util.Map;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.List;
 
 /**
  * TimeAndPortAggregatorの結果（脈拍と密輸率）をGUIに渡すためのデータクラス
  */
 public class VitalSignData {
-    public final Map<Integer, Double> pulseRates;
-    public final double smugglingRate;
+    public final PortStats portStats; // ポート別の脈拍 (pkt/s) とバイトレート
+    public final double smugglingRate; // アプリを見分けられない高いポートどうしの通信の割合 (%)。分析パイプラインではフロー表の値
     public final double mbps;
     public final double overheadRate;
+    public final RetransmissionStats retransmissions; // TCP再送の検出状況
+    public final RhythmStats rhythm; // 全体の呼吸 (IAT)
+    public final List<RhythmStats> portRhythms; // ポート別の呼吸 (読み取り専用)
+    public final PortAnomalies anomalies; // 体温 (Zスコア) が閾値を超えたポート
+    public final FlowStats flows; // 接続ごとの上位 (バイト数・RTT)
+    public final CardinalityStats cardinality; // 送信元・宛先・ポートの異なり数と走査らしい送信元
 
-    public VitalSignData(Map<Integer, Double> pulseRates, double smugglingRate , double mbps, double overheadRate) {
-        // マップは変更不可にして安全性を高めます
-        this.pulseRates = Collections.unmodifiableMap(new HashMap<>(pulseRates));
+    public VitalSignData(PortStats portStats, double smugglingRate , double mbps, double overheadRate) {
+        // PortStatsは読み取り専用なのでコピーせずにそのまま渡します
+        this(portStats, smugglingRate, mbps, overheadRate,
+                RetransmissionStats.EMPTY, RhythmStats.EMPTY, Collections.emptyList(), PortAnomalies.EMPTY, FlowStats.EMPTY,
+                CardinalityStats.EMPTY);
+    }
+
+    private VitalSignData(PortStats portStats, double smugglingRate, double mbps, double overheadRate,
+                          RetransmissionStats retransmissions, RhythmStats rhythm, List<RhythmStats> portRhythms,
+                          PortAnomalies anomalies, FlowStats flows, CardinalityStats cardinality) {
+        this.portStats = portStats;
         this.smugglingRate = smugglingRate;
         this.mbps = mbps;
         this.overheadRate = overheadRate;
+        this.retransmissions = retransmissions;
+        this.rhythm = rhythm;
+        this.portRhythms = portRhythms;
+        this.anomalies = anomalies;
+        this.flows = flows;
+        this.cardinality = cardinality;
+    }
+
+    // 再送の検出状況を付け加えたコピーを返す
+    public VitalSignData withRetransmissions(RetransmissionStats retransmissions) {
+        return new VitalSignData(portStats, smugglingRate, mbps, overheadRate, retransmissions, rhythm, portRhythms, anomalies, flows,
+                cardinality);
+    }
+
+    // 呼吸分析の結果を付け加えたコピーを返す
+    public VitalSignData withRhythm(RhythmStats rhythm, List<RhythmStats> portRhythms) {
+        return new VitalSignData(portStats, smugglingRate, mbps, overheadRate, retransmissions, rhythm, portRhythms, anomalies, flows,
+                cardinality);
+    }
+
+    // 体温チェックの結果を付け加えたコピーを返す
+    public VitalSignData withAnomalies(PortAnomalies anomalies) {
+        return new VitalSignData(portStats, smugglingRate, mbps, overheadRate, retransmissions, rhythm, portRhythms, anomalies, flows,
+                cardinality);
+    }
+
+    // フローの集計結果を付け加えたコピーを返す
+    public VitalSignData withFlows(FlowStats flows) {
+        return new VitalSignData(portStats, smugglingRate, mbps, overheadRate, retransmissions, rhythm, portRhythms, anomalies, flows,
+                cardinality);
+    }
+
+    // 密輸率を差し替えたコピーを返す (ポートだけの見積もりを、フローのアプリで見分けた値に置き換える)
+    public VitalSignData withSmugglingRate(double smugglingRate) {
+        return new VitalSignData(portStats, smugglingRate, mbps, overheadRate, retransmissions, rhythm, portRhythms, anomalies, flows,
+                cardinality);
+    }
+
+    // 異なり数の集計結果を付け加えたコピーを返す
+    public VitalSignData withCardinality(CardinalityStats cardinality) {
+        return new VitalSignData(portStats, smugglingRate, mbps, overheadRate, retransmissions, rhythm, portRhythms, anomalies, flows,
+                cardinality);
     }
-}
\ No newline at end of file
+}
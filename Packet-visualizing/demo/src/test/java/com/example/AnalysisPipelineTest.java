@@ -0,0 +1,98 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class AnalysisPipelineTest {
+    private static final long MILLI = 1_000_000L;
+    private static final long T0 = 1_700_000_000_000_000_000L; // 秒の切れ目
+    private static final int CLIENT = 0x0A00_0001;
+    private static final int SERVER = 0x0A00_0002;
+    private static final int FLOWS = 16;
+
+    private final PacketView packet = new PacketView();
+
+    // CLIENT:srcPort → SERVER:53 の UDP (データ 20 バイト)
+    private static byte[] dns(int srcPort) {
+        return PacketViewTest.concat(PacketViewTest.ether(0x0800),
+                PacketViewTest.ipv4(PacketView.PROTO_UDP, CLIENT, SERVER, 28, new byte[0]),
+                PacketViewTest.udp(srcPort, 53, 20), new byte[20]);
+    }
+
+    // 1ミリ秒おきに FLOWS 本のフローへ順に配ったパケットを流し、シャードが読み切るまで待つ
+    private VitalSignData run(AnalysisPipeline pipeline, int packets) {
+        byte[][] frames = new byte[FLOWS][];
+        for (int i = 0; i < FLOWS; i++) {
+            frames[i] = dns(40000 + i);
+        }
+        pipeline.start();
+        for (int i = 0; i < packets; i++) {
+            byte[] frame = frames[i % FLOWS];
+            assertTrue(packet.decode(frame, frame.length, T0 + i * MILLI));
+            pipeline.dispatch(packet, true);
+        }
+        pipeline.finish();
+        return pipeline.calculateAndReset(Instant.ofEpochSecond(0, T0 + packets * MILLI));
+    }
+
+    private static RhythmStats port(List<RhythmStats> ports, int port) {
+        for (RhythmStats stats : ports) {
+            if (stats.port == port) return stats;
+        }
+        return null;
+    }
+
+    @Test
+    void shardsMeasureRhythmAndItIsMergedBackToTheWholeLink() {
+        AnalysisPipeline pipeline = new AnalysisPipeline(4, OffHeapPacketRing.DEFAULT_FRAME_BYTES, 1024, new EventChannel());
+        VitalSignData data = run(pipeline, 3000);
+
+        assertEquals(FLOWS, data.flows.trackedFlows);
+        assertEquals(0, data.flows.retransmissions);
+
+        // 各シャードは1ミリ秒おきの流れの一部だけを見るが、合わせると1ミリ秒おきに戻る
+        RhythmWindow second = data.rhythm.window(RhythmStats.SECOND_1);
+        assertEquals(1000, second.count, 20);
+        assertEquals(MILLI, second.meanNanos, MILLI * 0.02);
+        RhythmStats dns = port(data.portRhythms, 53);
+        assertNotNull(dns);
+        assertEquals(MILLI, dns.window(RhythmStats.SECOND_1).meanNanos, MILLI * 0.02);
+        assertEquals(1, data.portRhythms.size()); // 同じポートはシャードをまたいでも1つにまとめる
+    }
+
+    @Test
+    void aSingleShardReportsExactlyWhatItMeasured() {
+        AnalysisPipeline pipeline = new AnalysisPipeline(1, OffHeapPacketRing.DEFAULT_FRAME_BYTES, 1024, new EventChannel());
+        VitalSignData data = run(pipeline, 2500);
+        RhythmWindow second = data.rhythm.window(RhythmStats.SECOND_1);
+        assertEquals(1000, second.count); // 締めた2つ目の1秒窓 (最初の窓は最初のパケットに IAT がないので 999)
+        assertEquals(MILLI, second.meanNanos, 1e-6);
+        assertEquals(0, second.stdDevNanos, 1e-6);
+        assertEquals(MILLI, second.minNanos);
+        assertEquals(MILLI, second.maxNanos);
+    }
+
+    @Test
+    void mergingWindowsAddsArrivalRatesAndKeepsTheShapeRelativeToTheMean() {
+        // 2ミリ秒おきの流れが2つ (ずらして重ねると1ミリ秒おき)
+        RhythmWindow a = new RhythmWindow(500, 2 * MILLI, 0.2 * MILLI, MILLI, 3 * MILLI, 100_000, 200_000, 400_000);
+        RhythmWindow b = new RhythmWindow(500, 2 * MILLI, 0.4 * MILLI, MILLI, 5 * MILLI, 300_000, 400_000, 800_000);
+        RhythmWindow merged = RhythmWindow.merge(new RhythmWindow[] {a, RhythmWindow.EMPTY, b});
+        assertEquals(1000, merged.count);
+        assertEquals(MILLI, merged.meanNanos, 1e-6);
+        assertEquals(0.15 * MILLI, merged.stdDevNanos, 1e-3);
+        assertEquals(MILLI / 2, merged.minNanos);
+        assertEquals(2 * MILLI, merged.maxNanos);
+        assertEquals(100_000, merged.jitterP50Nanos);
+
+        assertSame(a, RhythmWindow.merge(new RhythmWindow[] {RhythmWindow.EMPTY, a}));
+        assertSame(RhythmWindow.EMPTY, RhythmWindow.merge(new RhythmWindow[] {RhythmWindow.EMPTY}));
+    }
+}
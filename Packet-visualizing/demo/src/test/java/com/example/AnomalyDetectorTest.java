@@ -0,0 +1,127 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+class AnomalyDetectorTest {
+    private static final double ELAPSED = 10.0;
+
+    private Instant now = Instant.parse("2026-01-01T00:00:00Z");
+
+    // ポートごとの TCP 宛ての件数 (ELAPSED 秒の集計として)
+    private static PortStats stats(int[] ports, long[] dstPackets) {
+        long[][] packets = new long[4][ports.length];
+        long[][] bytes = new long[4][ports.length];
+        int category = PortStatsTable.category(PortStatsTable.PROTO_TCP, PortStatsTable.DIR_DST);
+        for (int i = 0; i < ports.length; i++) {
+            packets[category][i] = dstPackets[i];
+            bytes[category][i] = dstPackets[i] * 100;
+        }
+        return new PortStats(ports, packets, bytes, ELAPSED);
+    }
+
+    // 1秒ずつ進める (同じ時間帯のまま判定する)
+    private PortAnomalies check(AnomalyDetector detector, int[] ports, long[] dstPackets) {
+        now = now.plusSeconds(1);
+        return detector.check(stats(ports, dstPackets), now);
+    }
+
+    private PortAnomalies check(AnomalyDetector detector, int port, long dstPackets) {
+        return check(detector, new int[] { port }, new long[] { dstPackets });
+    }
+
+    private PortAnomalies silent(AnomalyDetector detector) {
+        return check(detector, new int[0], new long[0]);
+    }
+
+    // 毎回 1000 件前後 (100 pkt/s) 来るポートを学習させる
+    private void learnBusy(AnomalyDetector detector, int port, int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            assertEquals(0, check(detector, port, 990 + (i % 3) * 10).size());
+        }
+    }
+
+    @Test
+    void flagsSpikesOnlyAfterTheBaselineIsLearned() {
+        AnomalyDetector detector = new AnomalyDetector();
+        learnBusy(detector, 443, 5);
+        assertEquals(0, check(detector, 443, 10_000).size()); // 学習が足りないうちは判定しない
+
+        detector = new AnomalyDetector();
+        learnBusy(detector, 443, 30);
+        PortAnomalies found = check(detector, 443, 10_000);
+        assertEquals(1, found.size());
+        assertEquals(443, found.port(0));
+        assertTrue(found.isSpike(0));
+        assertEquals(1000.0, found.rate(0), 1e-9);
+        assertEquals(100.0, found.expected(0), 1.0);
+    }
+
+    @Test
+    void flagsABusyPortThatStopsWithoutLearningTheSilence() {
+        AnomalyDetector detector = new AnomalyDetector();
+        learnBusy(detector, 443, 30);
+        PortAnomalies first = silent(detector);
+        assertEquals(1, first.size());
+        assertFalse(first.isSpike(0));
+        assertEquals(0.0, first.rate(0));
+
+        // 来ない間の0は学習しないので、平均は止まる前のまま
+        for (int i = 0; i < 20; i++) {
+            PortAnomalies found = silent(detector);
+            assertEquals(1, found.size());
+            assertEquals(first.expected(0), found.expected(0));
+            assertEquals(first.score(0), found.score(0));
+        }
+        // 戻ってきたら元の脈拍は平常
+        assertEquals(0, check(detector, 443, 1000).size());
+    }
+
+    @Test
+    void stopsReportingAPortThatStaysSilent() {
+        AnomalyDetector detector = new AnomalyDetector();
+        learnBusy(detector, 443, 30);
+        int reported = 0;
+        for (int i = 0; i < 200; i++) {
+            reported += silent(detector).size();
+        }
+        assertTrue(reported > 0 && reported < 200, "reported " + reported);
+    }
+
+    @Test
+    void ephemeralAndQuietPortsAreNotJudgedWhileSilent() {
+        AnomalyDetector detector = new AnomalyDetector();
+        learnBusy(detector, 51515, 3);  // 何回か来ただけのポート
+        learnBusy(detector, 443, 30);   // ← この間 51515 は来ていない
+        for (int i = 0; i < 30; i++) {
+            check(detector, 22, 5);     // 0.5 pkt/s しか来ないポート
+        }
+        PortAnomalies found = silent(detector);
+        assertEquals(1, found.size());
+        assertEquals(443, found.port(0)); // 22 と 51515 は来なくても警告しない
+
+        // 来なかった間を0として学習していないので、戻ってきても急増とは見なさない
+        assertEquals(0, check(detector, new int[] { 443, 51515 }, new long[] { 1000, 1000 }).size());
+    }
+
+    @Test
+    void restoredBaselineKeepsJudging() {
+        AnomalyDetector before = new AnomalyDetector();
+        learnBusy(before, 443, 30);
+        ByteBuffer saved = ByteBuffer.wrap(StateStore.toBytes(before::writeState));
+
+        AnomalyDetector after = new AnomalyDetector();
+        after.readState(saved);
+        assertFalse(saved.hasRemaining());
+        assertEquals(1, after.getTrackedPorts());
+        PortAnomalies found = check(after, 443, 10_000);
+        assertEquals(1, found.size());
+        assertEquals(443, found.port(0));
+    }
+}
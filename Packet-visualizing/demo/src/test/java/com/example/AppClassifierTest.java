@@ -0,0 +1,163 @@
+package com.example;
+
+import static com.example.PacketViewTest.concat;
+import static com.example.PacketViewTest.ether;
+import static com.example.PacketViewTest.ipv4;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class AppClassifierTest {
+    private static final long TIME = 1_700_000_000_000_000_000L;
+    private static final int CLIENT = 0x0A00_0001;
+    private static final int SERVER = 0x0A00_0002;
+
+    private final PacketView packet = new PacketView();
+
+    private PacketView tcp(int dstPort, byte[] payload) {
+        return decode(concat(ether(0x0800), ipv4(PacketView.PROTO_TCP, CLIENT, SERVER, 20 + payload.length, new byte[0]),
+                PacketViewTest.tcp(50000, dstPort, 1, 1, PacketView.TCP_ACK | PacketView.TCP_PSH), payload));
+    }
+
+    private PacketView udp(int dstPort, byte[] payload) {
+        return decode(concat(ether(0x0800), ipv4(PacketView.PROTO_UDP, CLIENT, SERVER, 8 + payload.length, new byte[0]),
+                PacketViewTest.udp(50000, dstPort, payload.length), payload));
+    }
+
+    private PacketView decode(byte[] frame) {
+        assertTrue(packet.decode(frame, frame.length, TIME));
+        return packet;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] b = new byte[values.length];
+        for (int i = 0; i < values.length; i++) b[i] = (byte) values[i];
+        return b;
+    }
+
+    private static void u16(ByteArrayOutputStream out, int value) {
+        out.write(value >> 8);
+        out.write(value);
+    }
+
+    // TLS 1.2 レコードの ClientHello (serverName が null なら server_name 拡張なし)
+    private static byte[] clientHello(String serverName) {
+        ByteArrayOutputStream extensions = new ByteArrayOutputStream();
+        u16(extensions, 0x000b); // ec_point_formats (SNI より前に別の拡張を置く)
+        u16(extensions, 2);
+        extensions.writeBytes(bytes(1, 0));
+        if (serverName != null) {
+            byte[] name = ascii(serverName);
+            u16(extensions, 0);
+            u16(extensions, name.length + 5);
+            u16(extensions, name.length + 3);
+            extensions.write(0); // host_name
+            u16(extensions, name.length);
+            extensions.writeBytes(name);
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        u16(body, 0x0303);
+        body.writeBytes(new byte[32]);   // 乱数
+        body.write(32);                  // セッションID
+        body.writeBytes(new byte[32]);
+        u16(body, 4);                    // 暗号スイート
+        body.writeBytes(bytes(0x13, 0x01, 0xc0, 0x2f));
+        body.writeBytes(bytes(1, 0));    // 圧縮方式
+        u16(body, extensions.size());
+        body.writeBytes(extensions.toByteArray());
+
+        int length = body.size();
+        byte[] handshake = concat(bytes(0x01, length >> 16, length >> 8, length), body.toByteArray());
+        return concat(bytes(0x16, 0x03, 0x01, handshake.length >> 8, handshake.length), handshake);
+    }
+
+    @Test
+    void matchesHttpAndSshPrefixesOverTcpOnly() {
+        for (String method : new String[] {"GET / HTTP/1.1\r\n", "POST /api", "OPTIONS * HTTP/1.1", "CONNECT host:443", "HTTP/1.1 200 OK"}) {
+            assertEquals(FlowStats.Application.HTTP, AppClassifier.classify(tcp(8080, ascii(method))), method);
+        }
+        assertEquals(FlowStats.Application.SSH, AppClassifier.classify(tcp(2222, ascii("SSH-2.0-OpenSSH_9.6\r\n"))));
+
+        // 途中で外れる・プレフィックスより短い・UDP
+        assertEquals(FlowStats.Application.UNKNOWN, AppClassifier.classify(tcp(80, ascii("GETX / HTTP/1.1"))));
+        assertEquals(FlowStats.Application.UNKNOWN, AppClassifier.classify(tcp(80, ascii("GET"))));
+        assertEquals(FlowStats.Application.UNKNOWN, AppClassifier.classify(tcp(80, ascii("HTTP/2.0"))));
+        assertEquals(FlowStats.Application.UNKNOWN, AppClassifier.classify(udp(80, ascii("GET / HTTP/1.1"))));
+        assertEquals(FlowStats.Application.UNKNOWN, AppClassifier.classify(tcp(80, new byte[0])));
+    }
+
+    @Test
+    void matchesTlsHandshakesThroughWildcardEdges() {
+        assertEquals(FlowStats.Application.TLS, AppClassifier.classify(tcp(8443, clientHello("example.com"))));
+        // ServerHello (長さの2バイトは何でもよい)・TLS 1.0 のレコード
+        assertEquals(FlowStats.Application.TLS, AppClassifier.classify(tcp(443, bytes(0x16, 0x03, 0x03, 0xab, 0xcd, 0x02, 0, 0))));
+        assertEquals(FlowStats.Application.TLS, AppClassifier.classify(tcp(443, bytes(0x16, 0x03, 0x01, 0, 0, 0x01))));
+        // アラート・アプリケーションデータのレコード、未知のバージョン
+        assertEquals(FlowStats.Application.UNKNOWN, AppClassifier.classify(tcp(443, bytes(0x15, 0x03, 0x03, 0, 2, 0x01))));
+        assertEquals(FlowStats.Application.UNKNOWN, AppClassifier.classify(tcp(443, bytes(0x16, 0x03, 0x05, 0, 2, 0x01))));
+        assertEquals(FlowStats.Application.UNKNOWN, AppClassifier.classify(tcp(443, bytes(0x16, 0x03, 0x03, 0, 2))));
+    }
+
+    @Test
+    void matchesQuicLongHeadersOverUdpOnly() {
+        assertEquals(FlowStats.Application.QUIC, AppClassifier.classify(udp(443, bytes(0xc3, 0, 0, 0, 1, 8))));
+        assertEquals(FlowStats.Application.QUIC, AppClassifier.classify(udp(443, bytes(0xd0, 0x6b, 0x33, 0x43, 0xcf))));
+        assertEquals(FlowStats.Application.QUIC, AppClassifier.classify(udp(443, bytes(0xc0, 0xff, 0, 0, 29))));
+        assertEquals(FlowStats.Application.UNKNOWN, AppClassifier.classify(udp(443, bytes(0x43, 0, 0, 0, 1)))); // ショートヘッダー
+        assertEquals(FlowStats.Application.UNKNOWN, AppClassifier.classify(udp(443, bytes(0xc3, 0, 0, 0, 2))));
+        assertEquals(FlowStats.Application.UNKNOWN, AppClassifier.classify(tcp(443, bytes(0xc3, 0, 0, 0, 1))));
+    }
+
+    @Test
+    void recognizesDnsHeadersOnDnsPorts() {
+        byte[] query = bytes(0x12, 0x34, 0x01, 0x00, 0, 1, 0, 0, 0, 0, 0, 0, 3, 'c', 'o', 'm', 0, 0, 1, 0, 1);
+        assertEquals(FlowStats.Application.DNS, AppClassifier.classify(udp(53, query)));
+        assertEquals(FlowStats.Application.DNS, AppClassifier.classify(udp(5353, query)));
+        assertEquals(FlowStats.Application.DNS, AppClassifier.classify(tcp(53, concat(bytes(0, query.length), query))));
+        assertEquals(FlowStats.Application.UNKNOWN, AppClassifier.classify(udp(5300, query))); // ポートが違う
+
+        byte[] badOpcode = query.clone();
+        badOpcode[2] = 3 << 3;
+        assertEquals(FlowStats.Application.UNKNOWN, AppClassifier.classify(udp(53, badOpcode)));
+        byte[] noRecords = query.clone();
+        noRecords[5] = 0;
+        assertEquals(FlowStats.Application.UNKNOWN, AppClassifier.classify(udp(53, noRecords)));
+        assertEquals(FlowStats.Application.UNKNOWN, AppClassifier.classify(udp(53, new byte[11])));
+    }
+
+    @Test
+    void extractsServerNameFromClientHello() {
+        assertEquals("example.com", AppClassifier.serverName(tcp(443, clientHello("example.com"))));
+        assertNull(AppClassifier.serverName(tcp(443, clientHello(null))));
+        assertNull(AppClassifier.serverName(tcp(443, bytes(0x16, 0x03, 0x03, 0, 4, 0x02, 0, 0, 0)))); // ServerHello
+        assertNull(AppClassifier.serverName(tcp(443, ascii("GET / HTTP/1.1\r\n"))));
+    }
+
+    @Test
+    void serverNameCutBySnaplenIsNotRead() {
+        byte[] hello = clientHello("a-rather-long-host-name.example.org");
+        byte[] frame = concat(ether(0x0800), ipv4(PacketView.PROTO_TCP, CLIENT, SERVER, 20 + hello.length, new byte[0]),
+                PacketViewTest.tcp(50000, 443, 1, 1, PacketView.TCP_ACK), hello);
+        assertTrue(packet.decode(PacketView.LINKTYPE_ETHERNET, frame, frame.length - 5, frame.length, TIME));
+        assertEquals(FlowStats.Application.TLS, AppClassifier.classify(packet));
+        assertNull(AppClassifier.serverName(packet));
+
+        // リングから読んだフレーム (オフヒープの上) でも同じに読める
+        assertTrue(packet.decode(frame, frame.length, TIME));
+        OffHeapPacketRing ring = new OffHeapPacketRing(1, 4, OffHeapPacketRing.DEFAULT_FRAME_BYTES);
+        assertTrue(ring.offer(packet, 0));
+        PacketView received = new PacketView();
+        assertTrue(ring.consumer(0).poll(received));
+        assertEquals(FlowStats.Application.TLS, AppClassifier.classify(received));
+        assertEquals("a-rather-long-host-name.example.org", AppClassifier.serverName(received));
+    }
+}
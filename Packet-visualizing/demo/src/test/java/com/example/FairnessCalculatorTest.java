@@ -0,0 +1,69 @@
+package com.example;
+
+import static com.example.PacketViewTest.concat;
+import static com.example.PacketViewTest.ether;
+import static com.example.PacketViewTest.ipv4;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.jupiter.api.Test;
+
+class FairnessCalculatorTest {
+    private static final long TIME = 1_700_000_000_000_000_000L;
+    private static final int SERVER = 0x0A00_0002;
+
+    private final PacketView packet = new PacketView();
+
+    private void send(FairnessCalculator calculator, int src, int wireLength, int times) {
+        byte[] frame = concat(ether(0x0800), ipv4(PacketView.PROTO_UDP, src, SERVER, 8, new byte[0]),
+                PacketViewTest.udp(5000, 53, 0));
+        assertTrue(packet.decode(frame, wireLength, TIME));
+        for (int i = 0; i < times; i++) {
+            calculator.aggregate(packet);
+        }
+    }
+
+    private static String drain(EventChannel events) {
+        StringBuilder out = new StringBuilder();
+        events.drainTo(out, System.nanoTime());
+        return out.toString();
+    }
+
+    @Test
+    void concentrationIsReportedAsAnEvent() {
+        EventChannel events = new EventChannel();
+        FairnessCalculator calculator = new FairnessCalculator(FairnessCalculator.Mode.AUTO, events);
+        send(calculator, 0x0A00_0010, 1500, 1000); // ほぼ1つの送信元
+        send(calculator, 0x0A00_0011, 60, 1);
+        FairnessStats stats = calculator.calculateFairnessStats();
+        assertTrue(stats.entropy < 1.0);
+        String messages = drain(events);
+        assertTrue(messages.contains("集中"), messages);
+
+        // 均等なら警告しない
+        for (int i = 0; i < 16; i++) {
+            send(calculator, 0x0A00_0100 + i, 1000, 10);
+        }
+        assertEquals(4.0, calculator.calculateFairnessStats().entropy, 1e-9);
+        assertEquals("", drain(events));
+    }
+
+    @Test
+    void withoutAnEventChannelNothingIsPrinted() {
+        FairnessCalculator calculator = new FairnessCalculator();
+        send(calculator, 0x0A00_0010, 1500, 1000);
+        send(calculator, 0x0A00_0011, 60, 1);
+        PrintStream err = System.err;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(printed));
+        try {
+            assertTrue(calculator.calculateFairnessStats().entropy < 1.0);
+        } finally {
+            System.setErr(err);
+        }
+        assertEquals(0, printed.size()); // 表示を崩さないよう標準エラーには書かない
+    }
+}
@@ -0,0 +1,107 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class FanOutTableTest {
+    private static final long HOST = 0x0A00_0001L;
+    private static final double THRESHOLD = 100;
+    // 送信元ごとのスケッチの誤差 (FanOutTable.PRECISION) の3σ
+    private static final double TOLERANCE = 3 * HyperLogLog.relativeError(FanOutTable.PRECISION);
+
+    private static void portScan(FanOutTable table, long src, int fromPort, int toPort) {
+        for (int port = fromPort; port < toPort; port++) {
+            table.add(src, (int) src, HOST, port, 1);
+        }
+    }
+
+    private static void hostSweep(FanOutTable table, long src, int fromHost, int toHost) {
+        for (int host = fromHost; host < toHost; host++) {
+            table.add(src, (int) src, 0x0B00_0000L + host, 445, 1);
+        }
+    }
+
+    private static CardinalityStats.Scanner find(CardinalityStats.Scanner[] scanners, long src) {
+        for (CardinalityStats.Scanner s : scanners) {
+            if (s.ip == (int) src) return s;
+        }
+        return null;
+    }
+
+    @Test
+    void flagsPortScansAndHostSweeps() {
+        FanOutTable table = new FanOutTable(64);
+        portScan(table, 1, 1, 501);
+        hostSweep(table, 2, 0, 300);
+        portScan(table, 3, 80, 83); // 普通の送信元
+
+        CardinalityStats.Scanner[] scanners = table.scanners(THRESHOLD, THRESHOLD, 10);
+        assertEquals(2, scanners.length);
+        assertEquals(1, scanners[0].ip); // 広がりの大きい順
+
+        CardinalityStats.Scanner scan = find(scanners, 1);
+        assertTrue(scan.portScan);
+        assertFalse(scan.hostSweep);
+        assertEquals(500, scan.dstPorts, 500 * TOLERANCE);
+        assertEquals(500, scan.packets);
+
+        CardinalityStats.Scanner sweep = find(scanners, 2);
+        assertTrue(sweep.hostSweep);
+        assertFalse(sweep.portScan);
+        assertEquals(300, sweep.dstHosts, 300 * TOLERANCE);
+        assertEquals(1, sweep.dstPorts, 0.5);
+        assertEquals(3, table.size());
+    }
+
+    @Test
+    void mergeEqualsAddingTheUnion() {
+        FanOutTable a = new FanOutTable(64);
+        FanOutTable b = new FanOutTable(64);
+        FanOutTable union = new FanOutTable(64);
+        portScan(a, 1, 0, 300);
+        portScan(b, 1, 200, 500);
+        portScan(union, 1, 0, 500);
+        hostSweep(a, 2, 0, 150);
+        hostSweep(b, 2, 100, 250);
+        hostSweep(union, 2, 0, 250);
+        portScan(b, 3, 0, 200); // 片方にしかいない送信元
+        portScan(union, 3, 0, 200);
+
+        a.mergeFrom(b);
+        assertEquals(3, a.size());
+
+        CardinalityStats.Scanner[] merged = a.scanners(THRESHOLD, THRESHOLD, 10);
+        CardinalityStats.Scanner[] expected = union.scanners(THRESHOLD, THRESHOLD, 10);
+        assertEquals(expected.length, merged.length);
+        for (CardinalityStats.Scanner e : expected) {
+            CardinalityStats.Scanner m = find(merged, e.ip);
+            assertEquals(e.dstPorts, m.dstPorts, "送信元 " + e.ip);
+            assertEquals(e.dstHosts, m.dstHosts, "送信元 " + e.ip);
+        }
+        // パケット数は重なった分も足す
+        assertEquals(600, find(merged, 1).packets);
+        assertEquals(300, find(merged, 2).packets);
+    }
+
+    @Test
+    void evictsTheQuietestSourceWhenFull() {
+        FanOutTable table = new FanOutTable(16);
+        portScan(table, 1, 0, 400); // 先に大量に送る走査元
+        for (long src = 100; src < 1100; src++) {
+            table.add(src, (int) src, HOST, 80, 1);
+        }
+        assertTrue(table.getEvictions() > 0);
+        assertTrue(table.size() <= 16);
+
+        CardinalityStats.Scanner scan = find(table.scanners(THRESHOLD, THRESHOLD, 10), 1);
+        assertEquals(400, scan.packets);
+
+        table.reset();
+        assertEquals(0, table.size());
+        assertEquals(0, table.getEvictions());
+        assertEquals(0, table.scanners(0, 0, 10).length);
+    }
+}
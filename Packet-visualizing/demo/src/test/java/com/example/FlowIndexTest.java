@@ -0,0 +1,137 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class FlowIndexTest {
+    private static final long A = 0x0A00_0001L;
+    private static final long B = 0x0A00_0002L;
+
+    private static long ports(int i) {
+        return FlowIndex.portsKey(40000 + i, 443, PacketView.PROTO_TCP);
+    }
+
+    // 表の大きさが tableSize のとき、位置が home になるキーの3要素目を start から探す
+    private static long keyWithHome(int home, int tableSize, long start) {
+        for (long c = start; ; c++) {
+            if ((FlowIndex.hash(A, B, c) & (tableSize - 1)) == home) return c;
+        }
+    }
+
+    @Test
+    void findsInsertedFlowsAndReportsNewOnes() {
+        FlowIndex index = new FlowIndex(16);
+        int id = index.findOrInsert(A, B, ports(1), 100);
+        assertTrue(index.isNew());
+        assertEquals(id, index.findOrInsert(A, B, ports(1), 200));
+        assertFalse(index.isNew());
+        assertEquals(200, index.lastSeenNanos(id));
+        assertEquals(id, index.find(A, B, ports(1)));
+        assertEquals(FlowIndex.NOT_FOUND, index.find(B, A, ports(1))); // 逆向きは別のフロー
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void removeKeepsEveryOtherFlowReachable() {
+        int capacity = 64;
+        FlowIndex index = new FlowIndex(capacity);
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < capacity; i++) {
+            index.findOrInsert(A, B, ports(i), i);
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(7));
+        boolean[] removed = new boolean[capacity];
+        for (int victim : order) {
+            index.remove(index.find(A, B, ports(victim)));
+            removed[victim] = true;
+            for (int i = 0; i < capacity; i++) {
+                int id = index.find(A, B, ports(i));
+                if (removed[i]) {
+                    assertEquals(FlowIndex.NOT_FOUND, id, "削除したフロー " + i);
+                } else {
+                    assertNotEquals(FlowIndex.NOT_FOUND, id, "残っているフロー " + i);
+                }
+            }
+        }
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    void removeInsideClusterThatWrapsAroundTheTable() {
+        int capacity = 8;
+        int tableSize = 16; // 負荷率0.5以下になる大きさ
+        long last1 = keyWithHome(tableSize - 1, tableSize, 0);
+        long last2 = keyWithHome(tableSize - 1, tableSize, last1 + 1);
+        long first = keyWithHome(0, tableSize, 0);
+        long last3 = keyWithHome(tableSize - 1, tableSize, last2 + 1);
+        long[] keys = {last1, last2, first, last3}; // 表の最後の位置から 0, 1, 2 へ折り返して並ぶ
+
+        for (long removedKey : keys) {
+            FlowIndex index = new FlowIndex(capacity);
+            for (long c : keys) {
+                index.findOrInsert(A, B, c, 0);
+            }
+            index.remove(index.find(A, B, removedKey));
+            for (long c : keys) {
+                if (c == removedKey) {
+                    assertEquals(FlowIndex.NOT_FOUND, index.find(A, B, c));
+                } else {
+                    assertNotEquals(FlowIndex.NOT_FOUND, index.find(A, B, c), "キー " + c + " (削除 " + removedKey + ")");
+                }
+            }
+            // 空いた位置に入れ直しても重複しない
+            int again = index.findOrInsert(A, B, removedKey, 1);
+            assertTrue(index.isNew());
+            assertEquals(again, index.find(A, B, removedKey));
+            assertEquals(keys.length, index.size());
+        }
+    }
+
+    @Test
+    void evictsTheLeastRecentlySeenFlowWhenFull() {
+        int capacity = 8; // 追い出しで見る数 (8) と同じなので、必ず最も古いものが選ばれる
+        FlowIndex index = new FlowIndex(capacity);
+        for (int i = 0; i < capacity; i++) {
+            index.findOrInsert(A, B, ports(i), 10 + i);
+        }
+        index.findOrInsert(A, B, ports(0), 100); // 最も古かったフローを見直す
+
+        index.findOrInsert(A, B, ports(99), 101);
+        assertTrue(index.isNew());
+        assertEquals(1, index.evictions());
+        assertEquals(capacity, index.size());
+        assertEquals(FlowIndex.NOT_FOUND, index.find(A, B, ports(1)));
+        assertNotEquals(FlowIndex.NOT_FOUND, index.find(A, B, ports(0)));
+        assertNotEquals(FlowIndex.NOT_FOUND, index.find(A, B, ports(99)));
+
+        // 満杯のまま入れ続けても上限を超えない
+        for (int i = 200; i < 1200; i++) {
+            index.findOrInsert(A, B, ports(i), 1000 + i);
+        }
+        assertEquals(capacity, index.size());
+        assertEquals(1001, index.evictions());
+    }
+
+    @Test
+    void evictIdleRemovesOnlyQuietFlows() {
+        FlowIndex index = new FlowIndex(16);
+        for (int i = 0; i < 10; i++) {
+            index.findOrInsert(A, B, ports(i), i < 4 ? 0 : 50);
+        }
+        assertEquals(4, index.evictIdle(100, 60));
+        assertEquals(6, index.size());
+        assertEquals(4, index.evictions());
+        assertEquals(FlowIndex.NOT_FOUND, index.find(A, B, ports(0)));
+        assertNotEquals(FlowIndex.NOT_FOUND, index.find(A, B, ports(9)));
+    }
+}
@@ -0,0 +1,213 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+class FlowTableTest {
+    private static final int CLIENT = 0x0A00_0001;
+    private static final int SERVER = 0x0A00_0002;
+    private static final long SECOND = 1_000_000_000L;
+
+    private final PacketView packet = new PacketView();
+    private long now = 1_700_000_000L * SECOND;
+
+    // Ethernet + IPv4 + TCP (オプションなし) のフレーム
+    private static byte[] tcp(int src, int srcPort, int dst, int dstPort, int seq, int ack, int flags, int payload) {
+        byte[] f = new byte[14 + 20 + 20 + payload];
+        f[12] = 0x08;
+        f[14] = 0x45;
+        int total = 40 + payload;
+        f[16] = (byte) (total >> 8);
+        f[17] = (byte) total;
+        f[22] = 64;
+        f[23] = PacketView.PROTO_TCP;
+        putInt(f, 26, src);
+        putInt(f, 30, dst);
+        f[34] = (byte) (srcPort >> 8);
+        f[35] = (byte) srcPort;
+        f[36] = (byte) (dstPort >> 8);
+        f[37] = (byte) dstPort;
+        putInt(f, 38, seq);
+        putInt(f, 42, ack);
+        f[46] = 0x50;
+        f[47] = (byte) flags;
+        return f;
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+    // クライアント → サーバー 443 のセグメント (1ミリ秒ずつ時刻を進める)
+    private boolean send(FlowTable table, int srcPort, int seq, int flags, int payload) {
+        return update(table, tcp(CLIENT, srcPort, SERVER, 443, seq, 0, flags, payload));
+    }
+
+    private boolean send(FlowTable table, int seq, int flags, int payload) {
+        return send(table, 50000, seq, flags, payload);
+    }
+
+    // サーバー → クライアントのセグメント
+    private boolean reply(FlowTable table, int seq, int ack, int flags, int payload) {
+        return update(table, tcp(SERVER, 443, CLIENT, 50000, seq, ack, flags, payload));
+    }
+
+    private boolean update(FlowTable table, byte[] frame) {
+        assertTrue(packet.decode(frame, frame.length, now += 1_000_000));
+        return table.update(packet);
+    }
+
+    @Test
+    void inOrderSegmentsAndPureAcksDoNotAlarm() {
+        FlowTable table = new FlowTable();
+        int seq = 1000;
+        assertFalse(send(table, seq, PacketView.TCP_SYN, 0));
+        seq += 1;
+        assertFalse(send(table, seq, PacketView.TCP_ACK, 0));
+        for (int i = 0; i < 100; i++) {
+            assertFalse(send(table, seq, PacketView.TCP_ACK | PacketView.TCP_PSH, 1400));
+            seq += 1400;
+            assertFalse(send(table, seq, PacketView.TCP_ACK, 0)); // データなしのACK
+        }
+        assertFalse(send(table, seq, PacketView.TCP_ACK | PacketView.TCP_FIN, 0));
+        FlowStats stats = table.takeIntervalStats(FlowTable.TOP_FLOWS);
+        assertEquals(0, stats.retransmissions);
+        assertEquals(1, stats.trackedFlows);
+        assertEquals(0, stats.topByBytes(0).retransmissions);
+    }
+
+    @Test
+    void detectsRetransmittedSegmentsAndCountsThemPerFlow() {
+        FlowTable table = new FlowTable();
+        assertFalse(send(table, 1000, PacketView.TCP_SYN, 0));
+        assertTrue(send(table, 1000, PacketView.TCP_SYN, 0)); // SYN の再送
+        assertFalse(send(table, 1001, PacketView.TCP_ACK, 500));
+        assertFalse(send(table, 1501, PacketView.TCP_ACK, 500));
+        assertTrue(send(table, 1001, PacketView.TCP_ACK, 500));
+        assertTrue(send(table, 1400, PacketView.TCP_ACK, 200)); // 一部だけ重なる
+        assertFalse(send(table, 40000, 5000, PacketView.TCP_ACK, 100)); // 別のフロー
+
+        // 期間の合計とフローごとの数は同じ判定から数える
+        FlowStats stats = table.takeIntervalStats(FlowTable.TOP_FLOWS);
+        assertEquals(3, stats.retransmissions);
+        assertEquals(3, stats.topByBytes(0).retransmissions);
+        assertEquals(0, stats.topByBytes(1).retransmissions);
+        assertEquals(0, table.takeIntervalStats(FlowTable.TOP_FLOWS).retransmissions);
+    }
+
+    @Test
+    void followsSequenceNumbersAcrossWraparound() {
+        FlowTable table = new FlowTable();
+        int seq = 0xFFFF_F000;
+        assertFalse(send(table, seq, PacketView.TCP_ACK, 1400));
+        for (int i = 0; i < 10; i++) {
+            seq += 1400; // 途中で 2^32 を越えて0付近に戻る
+            assertFalse(send(table, seq, PacketView.TCP_ACK, 1400));
+        }
+        assertTrue(Integer.compareUnsigned(seq, 0xFFFF_F000) < 0);
+        assertTrue(send(table, 0xFFFF_F000 + 1400, PacketView.TCP_ACK, 1400)); // 一周前の番号の再送
+        assertEquals(1, table.takeIntervalStats(FlowTable.TOP_FLOWS).retransmissions);
+    }
+
+    @Test
+    void keepAlivesAreNotRetransmissions() {
+        FlowTable table = new FlowTable();
+        assertFalse(send(table, 5000, PacketView.TCP_ACK, 100));
+        int next = 5100;
+        assertFalse(send(table, next - 1, PacketView.TCP_ACK, 1)); // 1バイトのキープアライブ
+        assertFalse(send(table, next - 1, PacketView.TCP_ACK, 0)); // データなしのキープアライブ
+        assertFalse(send(table, next - 1, PacketView.TCP_ACK, 1));
+        assertFalse(send(table, next, PacketView.TCP_ACK, 100)); // その後のデータも順番通り
+        assertTrue(send(table, next - 2, PacketView.TCP_ACK, 2)); // 2バイト以上を運び直すのは再送として数える
+        FlowStats stats = table.takeIntervalStats(FlowTable.TOP_FLOWS);
+        assertEquals(1, stats.retransmissions);
+        assertEquals(1, stats.topByBytes(0).retransmissions);
+    }
+
+    @Test
+    void eachDirectionHasItsOwnSequenceSpace() {
+        FlowTable table = new FlowTable();
+        assertFalse(send(table, 1000, PacketView.TCP_SYN, 0));
+        assertFalse(reply(table, 9000, 1001, PacketView.TCP_SYN | PacketView.TCP_ACK, 0));
+        assertFalse(send(table, 1001, PacketView.TCP_ACK, 0));
+        now += 20_000_000;
+        assertFalse(send(table, 1001, PacketView.TCP_ACK | PacketView.TCP_PSH, 300));
+        assertFalse(reply(table, 9001, 1301, PacketView.TCP_ACK, 1000)); // 逆向きは小さい番号でも再送ではない
+        assertTrue(reply(table, 9001, 1301, PacketView.TCP_ACK, 1000));
+
+        FlowStats stats = table.takeIntervalStats(FlowTable.TOP_FLOWS);
+        FlowStats.Flow flow = stats.topByBytes(0);
+        assertEquals(FlowStats.State.ESTABLISHED, flow.state);
+        assertEquals(50000, flow.srcPort); // 接続を始めた側から
+        assertEquals(1, flow.retransmissions);
+        assertEquals(2_000_000, flow.handshakeRttNanos);
+        assertTrue(flow.rttSamples >= 2);
+    }
+
+    @Test
+    void capsTrackedFlowsAndEvictsIdleOnes() {
+        FlowTable table = new FlowTable(4);
+        for (int port = 1; port <= 10; port++) {
+            assertFalse(send(table, port, 1000, PacketView.TCP_ACK, 100));
+        }
+        FlowStats stats = table.takeIntervalStats(FlowTable.TOP_FLOWS);
+        assertEquals(4, stats.trackedFlows);
+        assertEquals(6, stats.evictions);
+
+        // 期限 (通信中のフローは2分) を過ぎたら、タイマーホイールで通信のないフローは消える
+        now += 130 * SECOND;
+        assertFalse(send(table, 10, 1100, PacketView.TCP_ACK, 100));
+        stats = table.takeIntervalStats(FlowTable.TOP_FLOWS);
+        assertEquals(1, stats.trackedFlows);
+        assertEquals(4, stats.evictions); // 追跡していた4つとも期限切れ (port 10 は入れ直し)
+        assertEquals(0, stats.retransmissions);
+    }
+
+    @Test
+    void restoredFlowsKeepTheirSequenceState() {
+        FlowTable before = new FlowTable();
+        assertFalse(send(before, 1000, PacketView.TCP_SYN, 0));
+        assertFalse(reply(before, 9000, 1001, PacketView.TCP_SYN | PacketView.TCP_ACK, 0));
+        assertFalse(send(before, 1001, PacketView.TCP_ACK, 500));
+        assertFalse(update(before, udpFrame())); // TCP 以外は保存しない
+
+        ByteBuffer saved = ByteBuffer.wrap(StateStore.toBytes(before::writeState));
+        FlowTable after = new FlowTable();
+        FlowTable.readState(saved, after::restoreFlow);
+        assertFalse(saved.hasRemaining());
+        assertEquals(1, after.size());
+
+        assertTrue(send(after, 1001, PacketView.TCP_ACK, 500)); // 保存前に送ったデータの再送
+        assertFalse(send(after, 1501, PacketView.TCP_ACK, 500));
+        FlowStats stats = after.takeIntervalStats(FlowTable.TOP_FLOWS);
+        assertEquals(1, stats.retransmissions);
+        FlowStats.Flow flow = stats.topByBytes(0);
+        assertEquals(FlowStats.State.ESTABLISHED, flow.state);
+        assertEquals("10.0.0.1", flow.srcAddress);
+        assertEquals(50000, flow.srcPort);
+    }
+
+    // UDP 53 → 5353 のフレーム
+    private static byte[] udpFrame() {
+        byte[] f = new byte[14 + 20 + 8];
+        f[12] = 0x08;
+        f[14] = 0x45;
+        f[17] = 28;
+        f[22] = 64;
+        f[23] = PacketView.PROTO_UDP;
+        putInt(f, 26, CLIENT);
+        putInt(f, 30, SERVER);
+        f[35] = 53;
+        f[36] = 0x14;
+        f[37] = (byte) 0xe9;
+        return f;
+    }
+}
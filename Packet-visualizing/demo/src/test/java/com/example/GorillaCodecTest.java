@@ -0,0 +1,157 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class GorillaCodecTest {
+
+    // 時刻と全列を圧縮して読み戻し、ビット単位で一致するか確かめる (ブロックはバッファの途中に置く)
+    private static void assertRoundTrip(long[] timestamps, double[][] columns, int from, int count) {
+        byte[] block = GorillaCodec.encode(timestamps, columns, from, count);
+        int blockStart = 7;
+        ByteBuffer buffer = ByteBuffer.allocate(blockStart + block.length + 5);
+        buffer.put(blockStart, block);
+
+        long[] times = new long[count];
+        GorillaCodec.decodeTimestamps(buffer, blockStart, count, times);
+        for (int i = 0; i < count; i++) {
+            assertEquals(timestamps[from + i], times[i], "時刻 " + i);
+        }
+        double[] values = new double[count];
+        for (int c = 0; c < columns.length; c++) {
+            GorillaCodec.decodeColumn(buffer, blockStart, c, count, values);
+            for (int i = 0; i < count; i++) {
+                assertEquals(Double.doubleToLongBits(columns[c][from + i]), Double.doubleToLongBits(values[i]),
+                        "列 " + c + " の " + i + " 行目");
+            }
+        }
+    }
+
+    private static void assertValuesRoundTrip(double... values) {
+        long[] times = new long[values.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = 1_700_000_000_000L + i * 1000L;
+        }
+        assertRoundTrip(times, new double[][] {values}, 0, values.length);
+    }
+
+    @Test
+    void roundTripsRandomRowsFromTheMiddleOfTheArrays() {
+        Random random = new Random(42);
+        int rows = 1500;
+        long[] times = new long[rows];
+        double[][] columns = new double[3][rows];
+        long t = 1_700_000_000_000L;
+        for (int i = 0; i < rows; i++) {
+            t += 1000 + random.nextInt(50) - 25;
+            times[i] = t;
+            columns[0][i] = random.nextGaussian() * 100;
+            columns[1][i] = i % 7;                 // 同じ値が続く
+            columns[2][i] = Math.round(random.nextDouble() * 10) / 10.0;
+        }
+        assertRoundTrip(times, columns, 0, rows);
+        assertRoundTrip(times, columns, 100, 512);
+        assertRoundTrip(times, columns, rows - 1, 1);
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {
+            0, 1, -1,
+            -63, 64, -64, 65,
+            -255, 256, -256, 257,
+            -2047, 2048, -2048, 2049,
+            Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE - 1L, Integer.MAX_VALUE + 1L,
+            1L << 40, -(1L << 40)})
+    void roundTripsDeltaOfDeltaAtBucketBoundaries(long dod) {
+        // 差分が dod, 0 と並ぶので、差分の差分は dod と -dod になる
+        long base = 1_700_000_000_000L;
+        long[] times = {base, base + dod, base + dod, base + 2 * dod, base + 2 * dod};
+        assertRoundTrip(times, new double[0][], 0, times.length);
+    }
+
+    // 差分の差分がすべて dod になる9行を圧縮したときの、1つあたりのビット数
+    private static int bitsPerDeltaOfDelta(long dod) {
+        long[] times = new long[9];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = 1_700_000_000_000L + dod * i * (i + 1) / 2;
+        }
+        int bytes = GorillaCodec.encode(times, new double[0][], 0, times.length).length;
+        return bytes - 4 - 8; // ストリームの開始位置と、先頭の時刻 (64ビット) を除く
+    }
+
+    @Test
+    void choosesTheSmallestBucketForEachDeltaOfDelta() {
+        assertEquals(1, bitsPerDeltaOfDelta(0));
+        assertEquals(2 + 7, bitsPerDeltaOfDelta(-63));
+        assertEquals(2 + 7, bitsPerDeltaOfDelta(64));
+        assertEquals(3 + 9, bitsPerDeltaOfDelta(-64));
+        assertEquals(3 + 9, bitsPerDeltaOfDelta(65));
+        assertEquals(3 + 9, bitsPerDeltaOfDelta(-255));
+        assertEquals(3 + 9, bitsPerDeltaOfDelta(256));
+        assertEquals(4 + 12, bitsPerDeltaOfDelta(-256));
+        assertEquals(4 + 12, bitsPerDeltaOfDelta(257));
+        assertEquals(4 + 12, bitsPerDeltaOfDelta(-2047));
+        assertEquals(4 + 12, bitsPerDeltaOfDelta(2048));
+        assertEquals(5 + 32, bitsPerDeltaOfDelta(-2048));
+        assertEquals(5 + 32, bitsPerDeltaOfDelta(2049));
+        assertEquals(5 + 32, bitsPerDeltaOfDelta(Integer.MIN_VALUE));
+        assertEquals(5 + 32, bitsPerDeltaOfDelta(Integer.MAX_VALUE));
+        assertEquals(5 + 64, bitsPerDeltaOfDelta(Integer.MIN_VALUE - 1L));
+        assertEquals(5 + 64, bitsPerDeltaOfDelta(Integer.MAX_VALUE + 1L));
+    }
+
+    @Test
+    void roundTripsNaNAndSignedZeros() {
+        assertValuesRoundTrip(0.0, -0.0, 0.0, Double.NaN, Double.NaN, 1.5, Double.NaN, -0.0, -0.0,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, -Double.MAX_VALUE);
+        assertValuesRoundTrip(-0.0, 0.0);
+        assertValuesRoundTrip(Double.NaN, 0.0);
+    }
+
+    @Test
+    void capsLeadingZerosAt31Bits() {
+        // XOR の先頭の0が31個を超える (下位ビットだけ変わる) 値が続いても、範囲を書き直しながら読み戻せる
+        long bits = Double.doubleToLongBits(123.456);
+        double[] values = {
+                Double.longBitsToDouble(bits),
+                Double.longBitsToDouble(bits ^ 1L),          // 先頭の0が63個
+                Double.longBitsToDouble(bits ^ 3L),          // 前回の範囲に収まる
+                Double.longBitsToDouble(bits ^ (1L << 32)),  // ちょうど31個
+                Double.longBitsToDouble(bits ^ (1L << 31)),  // 32個 (31で打ち切り)
+                Double.longBitsToDouble(bits ^ (1L << 33)),  // 30個
+                Double.longBitsToDouble(bits ^ Long.MIN_VALUE), // 先頭のビット
+                Double.longBitsToDouble(bits),
+        };
+        assertValuesRoundTrip(values);
+
+        // 打ち切った分は値のビットとして書くので、長さは 64 - 31 - 末尾の0 になる
+        // ブロック: 開始位置 (4 × 2) + 時刻 (64 + 1 ビット、バイト境界まで) + 値 (64 + 1 + 1 + 5 + 6 + 長さ ビット)
+        long[] times = {0, 0};
+        int lowBitOnly = GorillaCodec.encode(times, new double[][] {{values[0], values[1]}}, 0, 2).length;
+        int highBitOnly = GorillaCodec.encode(times, new double[][] {{values[0], values[6]}}, 0, 2).length;
+        assertEquals(8 + 9 + (64 + 13 + 33 + 7) / 8, lowBitOnly);
+        assertEquals(8 + 9 + (64 + 13 + 1 + 7) / 8, highBitOnly);
+    }
+
+    @Test
+    void decodesSingleRowBlocks() {
+        assertRoundTrip(new long[] {Long.MIN_VALUE}, new double[][] {{Double.NaN}, {-0.0}}, 0, 1);
+    }
+
+    @Test
+    void readsOnlyTheRequestedColumn() {
+        long[] times = {10, 20, 30};
+        double[][] columns = {{1, 2, 3}, {4, 5, 6}, {7, 8, 9}};
+        ByteBuffer buffer = ByteBuffer.wrap(GorillaCodec.encode(times, columns, 0, 3));
+        double[] values = new double[3];
+        GorillaCodec.decodeColumn(buffer, 0, 2, 3, values);
+        assertArrayEquals(new double[] {7, 8, 9}, values);
+    }
+}
@@ -0,0 +1,71 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class HandoffTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void servesInlineWhenTheOwnerIsNotRunning() throws InterruptedException {
+        AtomicInteger calls = new AtomicInteger();
+        Handoff<Integer> handoff = new Handoff<>(calls::incrementAndGet);
+        handoff.serve(); // 頼まれていなければ作らない
+        assertEquals(0, calls.get());
+
+        handoff.request();
+        assertEquals(1, handoff.await(null, 0));
+        handoff.request();
+        Thread finished = new Thread(() -> {});
+        finished.start();
+        finished.join();
+        assertEquals(2, handoff.await(finished, 0)); // 終わったスレッドの代わりに作る
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void aLateAnswerToATimedOutRequestIsNotReturnedForTheNextOne() throws InterruptedException {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Handoff<Integer> handoff = new Handoff<>(() -> {
+            int n = calls.incrementAndGet();
+            if (n == 1) {
+                entered.countDown();
+                try {
+                    release.await(); // 1つ目の要求はなかなか答えない
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return n;
+        });
+        Thread owner = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                handoff.serve();
+                Thread.onSpinWait();
+            }
+        });
+        owner.start();
+        try {
+            handoff.request();
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+            assertNull(handoff.await(owner, 1_000_000)); // 時間切れ
+
+            handoff.request();
+            release.countDown(); // 1つ目の答えが、2つ目を頼んだ後に届く
+            assertEquals(2, handoff.await(owner, 10 * SECOND));
+            assertEquals(2, calls.get());
+        } finally {
+            owner.interrupt();
+            owner.join();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class HyperLogLogTest {
+    private static final int PRECISION = 12; // CardinalityCounter と同じ
+
+    // アドレスに近い形のキー (連番を上位ビットにもずらして混ぜる)
+    private static long key(long i) {
+        return (i << 20) ^ i ^ 0x0A00_0000_0000L;
+    }
+
+    private static void addRange(HyperLogLog hll, long from, long to) {
+        for (long i = from; i < to; i++) {
+            hll.add(key(i));
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({"12, 1000", "12, 10000", "12, 100000", "12, 1000000", "10, 100000", "14, 1000000"})
+    void estimatesWithinThreeSigma(int precision, int n) {
+        HyperLogLog hll = new HyperLogLog(precision);
+        addRange(hll, 0, n);
+        double sigma = HyperLogLog.relativeError(precision) * n;
+        assertEquals(n, hll.estimate(), 3 * sigma, "precision " + precision);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1_000, 100_000})
+    void ignoresDuplicates(int n) {
+        HyperLogLog once = new HyperLogLog(PRECISION);
+        HyperLogLog twice = new HyperLogLog(PRECISION);
+        addRange(once, 0, n);
+        addRange(twice, 0, n);
+        addRange(twice, 0, n);
+        assertEquals(once.estimate(), twice.estimate());
+    }
+
+    @ParameterizedTest
+    @CsvSource({"0, 600, 400, 1000", "0, 60000, 40000, 100000", "0, 500000, 500000, 1000000"})
+    void mergeEqualsAddingTheUnion(long aFrom, long aTo, long bFrom, long bTo) {
+        HyperLogLog a = new HyperLogLog(PRECISION);
+        HyperLogLog b = new HyperLogLog(PRECISION);
+        HyperLogLog union = new HyperLogLog(PRECISION);
+        addRange(a, aFrom, aTo);
+        addRange(b, bFrom, bTo);
+        addRange(union, Math.min(aFrom, bFrom), Math.max(aTo, bTo));
+
+        a.mergeFrom(b);
+        assertEquals(union.estimate(), a.estimate());
+
+        // 空のものとのマージは何も変えない
+        a.mergeFrom(new HyperLogLog(PRECISION));
+        assertEquals(union.estimate(), a.estimate());
+        HyperLogLog empty = new HyperLogLog(PRECISION);
+        empty.mergeFrom(union);
+        assertEquals(union.estimate(), empty.estimate());
+    }
+
+    @Test
+    void startsAndResetsToZero() {
+        HyperLogLog hll = new HyperLogLog(PRECISION);
+        assertEquals(0, hll.estimate());
+        assertTrue(hll.isEmpty());
+        hll.add(0); // 0 もキーとして数える
+        assertEquals(1, hll.estimate(), 0.01);
+        addRange(hll, 0, 1000);
+        hll.reset();
+        assertTrue(hll.isEmpty());
+        assertEquals(0, hll.estimate());
+
+        HyperLogLog copy = new HyperLogLog(PRECISION);
+        addRange(hll, 0, 5000);
+        copy.copyFrom(hll);
+        assertEquals(hll.estimate(), copy.estimate());
+    }
+}
@@ -0,0 +1,98 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class OffHeapPacketRingTest {
+    private static final long TIME = 1_700_000_000_000_000_000L;
+
+    private final PacketView packet = new PacketView();
+
+    // Ethernet + IPv6 + TCP 443 → 50000 に "abcdefgh..." のペイロードを載せたフレーム
+    private static byte[] ipv6Tcp(int payload) {
+        byte[] data = new byte[payload];
+        for (int i = 0; i < payload; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        return PacketViewTest.concat(PacketViewTest.ether(0x86dd),
+                PacketViewTest.ipv6(PacketView.PROTO_TCP, 1, 2, 20 + payload),
+                PacketViewTest.tcp(443, 50000, 7, 9, PacketView.TCP_ACK), data);
+    }
+
+    @Test
+    void consumerReadsTheDecodedLayersAndTheFrameInPlace() {
+        OffHeapPacketRing ring = new OffHeapPacketRing(2, 4, OffHeapPacketRing.DEFAULT_FRAME_BYTES);
+        byte[] frame = ipv6Tcp(100);
+        assertTrue(packet.decode(frame, 1500, TIME));
+        packet.setDispatchNanos(42);
+        assertTrue(ring.offer(packet, 1));
+        frame[frame.length - 1] = 0; // 生産者のバッファはすぐ使い回してよい
+
+        PacketView received = new PacketView();
+        assertFalse(ring.consumer(0).poll(received)); // 別のレーンには来ない
+        assertTrue(ring.consumer(1).poll(received));
+        assertEquals(TIME, received.timestampNanos());
+        assertEquals(42, received.dispatchNanos());
+        assertEquals(1500, received.wireLength());
+        assertEquals(frame.length, received.captureLength());
+        assertTrue(received.isTcp());
+        assertEquals(443, received.srcPort());
+        assertEquals(50000, received.dstPort());
+        assertEquals(7, received.sequenceNumber());
+        assertEquals(packet.srcAddress(), received.srcAddress());
+        assertEquals("2001:db8::1", received.formatSrc());
+        assertEquals("2001:db8::2", received.formatDst());
+        assertEquals(100, received.payloadLength());
+        assertEquals('a', received.byteAt(received.payloadOffset()));
+        assertEquals('a' + 99 % 26, received.byteAt(frame.length - 1));
+        assertFalse(ring.consumer(1).poll(received));
+    }
+
+    @Test
+    void longFramesAreCutToFrameBytes() {
+        OffHeapPacketRing ring = new OffHeapPacketRing(1, 4, 128);
+        assertTrue(packet.decode(ipv6Tcp(1000), 1074, TIME));
+        assertTrue(ring.offer(packet, 0));
+        PacketView received = new PacketView();
+        assertTrue(ring.consumer(0).poll(received));
+        assertEquals(128, received.captureLength());
+        assertEquals(1074, received.wireLength());
+        assertEquals(1000, received.payloadLength()); // ヘッダーの値はそのまま
+    }
+
+    @Test
+    void aFullLaneRefusesUntilTheConsumerMovesOn() {
+        OffHeapPacketRing ring = new OffHeapPacketRing(1, 4, 64);
+        OffHeapPacketRing.Consumer consumer = ring.consumer(0);
+        PacketView received = new PacketView();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(packet.decode(ipv6Tcp(0), 74, TIME + i));
+            assertTrue(ring.offer(packet, 0));
+        }
+        assertFalse(ring.offer(packet, 0));
+        assertTrue(consumer.poll(received));
+        assertFalse(ring.offer(packet, 0)); // 渡したスロットは次の poll まで読まれている
+        assertTrue(consumer.poll(received));
+        assertEquals(TIME + 1, received.timestampNanos());
+        assertTrue(ring.offer(packet, 0));
+    }
+
+    @Test
+    void copiesKeepTheirOwnFrame() {
+        OffHeapPacketRing ring = new OffHeapPacketRing(1, 2, 256);
+        assertTrue(packet.decode(ipv6Tcp(10), 84, TIME));
+        assertTrue(ring.offer(packet, 0));
+        PacketView received = new PacketView();
+        assertTrue(ring.consumer(0).poll(received));
+
+        PacketView copy = new PacketView();
+        copy.copyFrom(received);
+        assertFalse(ring.consumer(0).poll(received)); // スロットを返しても写したものは読める
+        assertEquals("2001:db8::1", copy.formatSrc());
+        assertEquals('a' + 9, copy.byteAt(copy.payloadOffset() + 9));
+        assertEquals(84, copy.captureLength());
+    }
+}
@@ -0,0 +1,436 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class PacketViewTest {
+    private static final long TIME = 1_700_000_000_000_000_000L;
+    private static final int CLIENT = 0x0A00_0001;
+    private static final int SERVER = 0xC0A8_0102;
+    // 2001:db8::1 と 2001:db8::2
+    private static final long V6_HIGH = 0x2001_0db8_0000_0000L;
+    private static final long V6_CLIENT = 1;
+    private static final long V6_SERVER = 2;
+
+    private static final int NEXT_HOP_BY_HOP = 0;
+    private static final int NEXT_ROUTING = 43;
+    private static final int NEXT_FRAGMENT = 44;
+    private static final int NEXT_DESTINATION = 60;
+
+    private final PacketView packet = new PacketView();
+
+    // --- フレームを組み立てる部品 (値はすべてネットワークバイト順。他のテストからも使う) ---
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] ether(int type) {
+        byte[] b = new byte[14];
+        b[12] = (byte) (type >> 8);
+        b[13] = (byte) type;
+        return b;
+    }
+
+    // VLAN タグの後半 (TCI と次の EtherType)。前半の TPID は直前のヘッダーの EtherType に書く
+    static byte[] vlanTag(int vlanId, int nextType) {
+        return new byte[] {(byte) (vlanId >> 8), (byte) vlanId, (byte) (nextType >> 8), (byte) nextType};
+    }
+
+    static byte[] ipv4(int protocol, int src, int dst, int l4Length, byte[] options) {
+        byte[] b = new byte[20 + options.length];
+        b[0] = (byte) (0x40 | (b.length / 4));
+        int total = b.length + l4Length;
+        b[2] = (byte) (total >> 8);
+        b[3] = (byte) total;
+        b[8] = 64;
+        b[9] = (byte) protocol;
+        putInt(b, 12, src);
+        putInt(b, 16, dst);
+        System.arraycopy(options, 0, b, 20, options.length);
+        return b;
+    }
+
+    static byte[] ipv6(int next, long srcLow, long dstLow, int payloadLength) {
+        byte[] b = new byte[40];
+        b[0] = 0x60;
+        b[4] = (byte) (payloadLength >> 8);
+        b[5] = (byte) payloadLength;
+        b[6] = (byte) next;
+        b[7] = 64;
+        putLong(b, 8, V6_HIGH);
+        putLong(b, 16, srcLow);
+        putLong(b, 24, V6_HIGH);
+        putLong(b, 32, dstLow);
+        return b;
+    }
+
+    // ホップバイホップ・経路・終点オプションの形 (長さは8バイト単位)
+    static byte[] extension(int next, int units) {
+        byte[] b = new byte[units * 8];
+        b[0] = (byte) next;
+        b[1] = (byte) (units - 1);
+        return b;
+    }
+
+    static byte[] fragment(int next, int offsetUnits, boolean more) {
+        byte[] b = new byte[8];
+        b[0] = (byte) next;
+        int field = (offsetUnits << 3) | (more ? 1 : 0);
+        b[2] = (byte) (field >> 8);
+        b[3] = (byte) field;
+        return b;
+    }
+
+    static byte[] tcp(int srcPort, int dstPort, int seq, int ack, int flags) {
+        byte[] b = new byte[20];
+        b[0] = (byte) (srcPort >> 8);
+        b[1] = (byte) srcPort;
+        b[2] = (byte) (dstPort >> 8);
+        b[3] = (byte) dstPort;
+        putInt(b, 4, seq);
+        putInt(b, 8, ack);
+        b[12] = 0x50;
+        b[13] = (byte) flags;
+        return b;
+    }
+
+    static byte[] udp(int srcPort, int dstPort, int payload) {
+        byte[] b = new byte[8];
+        b[0] = (byte) (srcPort >> 8);
+        b[1] = (byte) srcPort;
+        b[2] = (byte) (dstPort >> 8);
+        b[3] = (byte) dstPort;
+        b[5] = (byte) (8 + payload);
+        return b;
+    }
+
+    static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+    static void putLong(byte[] b, int offset, long value) {
+        putInt(b, offset, (int) (value >>> 32));
+        putInt(b, offset + 4, (int) value);
+    }
+
+    // UDP 53 → 5353 のデータ 10 バイトを載せた IPv4 パケット
+    private static byte[] ipv4Udp() {
+        return concat(ipv4(PacketView.PROTO_UDP, CLIENT, SERVER, 18, new byte[0]), udp(53, 5353, 10), new byte[10]);
+    }
+
+    private void assertIpv4Udp(int linkHeaderLength) {
+        assertEquals(4, packet.ipVersion());
+        assertTrue(packet.isUdp());
+        assertEquals(CLIENT, packet.srcIp());
+        assertEquals(SERVER, packet.dstIp());
+        assertEquals(53, packet.srcPort());
+        assertEquals(5353, packet.dstPort());
+        assertEquals(linkHeaderLength, packet.l2HeaderLength());
+        assertEquals(linkHeaderLength + 20 + 8, packet.headerLength());
+        assertEquals(10, packet.payloadLength());
+    }
+
+    // --- IPv4 ---
+
+    @Test
+    void decodesIpv4TcpWithOptions() {
+        byte[] options = {(byte) 0x94, 4, 0, 0, 1, 1, 1, 0}; // ルーターアラート + NOP + NOP + EOL
+        byte[] tcpHeader = concat(tcp(50000, 443, 1000, 2000, PacketView.TCP_ACK | PacketView.TCP_PSH), new byte[12]);
+        tcpHeader[12] = (byte) 0x80; // TCP オプション 12 バイト (データオフセット 8)
+        byte[] frame = concat(ether(0x0800), ipv4(PacketView.PROTO_TCP, CLIENT, SERVER, 32 + 100, options), tcpHeader, new byte[100]);
+        assertTrue(packet.decode(frame, frame.length, TIME));
+
+        assertEquals(4, packet.ipVersion());
+        assertTrue(packet.isTcp());
+        assertEquals(14, packet.ipOffset());
+        assertEquals(28, packet.ipHeaderLength());
+        assertEquals(14 + 28, packet.l4Offset());
+        assertEquals(32, packet.l4HeaderLength());
+        assertEquals(14 + 28 + 32, packet.payloadOffset());
+        assertEquals(100, packet.payloadLength());
+        assertEquals(50000, packet.srcPort());
+        assertEquals(443, packet.dstPort());
+        assertEquals(1000, packet.sequenceNumber());
+        assertEquals(2000, packet.ackNumber());
+        assertTrue(packet.hasFlag(PacketView.TCP_PSH));
+        assertFalse(packet.hasFlag(PacketView.TCP_SYN));
+        assertEquals("10.0.0.1", packet.formatSrc());
+        assertEquals("192.168.1.2", packet.formatDst());
+    }
+
+    @Test
+    void rejectsTruncatedOrMalformedIpv4Headers() {
+        byte[] frame = concat(ether(0x0800), ipv4Udp());
+        assertFalse(packet.decode(PacketView.LINKTYPE_ETHERNET, frame, 13, frame.length, TIME)); // Ethernet ヘッダーの途中
+
+        // IP ヘッダーの途中で切れている (キャプチャ長だけを見る。回線上の長さは足りていても読まない)
+        assertFalse(packet.decode(PacketView.LINKTYPE_ETHERNET, frame, 14 + 19, frame.length, TIME));
+
+        // IHL がキャプチャより長いオプションを示す
+        byte[] options = concat(ether(0x0800), ipv4(PacketView.PROTO_UDP, CLIENT, SERVER, 8, new byte[8]));
+        assertFalse(packet.decode(PacketView.LINKTYPE_ETHERNET, options, options.length - 1, options.length, TIME));
+
+        // IHL が 20 バイト未満
+        byte[] shortIhl = concat(ether(0x0800), ipv4Udp());
+        shortIhl[14] = 0x44;
+        assertFalse(packet.decode(shortIhl, shortIhl.length, TIME));
+
+        // EtherType は IPv4 なのにバージョンが違う
+        byte[] wrongVersion = concat(ether(0x0800), ipv4Udp());
+        wrongVersion[14] = 0x65;
+        assertFalse(packet.decode(wrongVersion, wrongVersion.length, TIME));
+    }
+
+    @Test
+    void keepsIpLayerWhenSnaplenCutsTheTransportHeader() {
+        byte[] frame = concat(ether(0x0800), ipv4(PacketView.PROTO_TCP, CLIENT, SERVER, 20 + 1400, new byte[0]),
+                tcp(50000, 443, 1, 1, PacketView.TCP_ACK), new byte[1400]);
+        int snaplen = 14 + 20 + 10;
+        assertTrue(packet.decode(PacketView.LINKTYPE_ETHERNET, frame, snaplen, frame.length, TIME));
+        assertEquals(PacketView.PROTO_TCP, packet.protocol());
+        assertFalse(packet.isTcp()); // ポートは読めない
+        assertEquals(0, packet.srcPort());
+        assertEquals(0, packet.l4HeaderLength());
+        assertEquals(20 + 1400, packet.payloadLength()); // IP の全長から
+        assertEquals(snaplen, packet.captureLength());
+        assertEquals(frame.length, packet.wireLength());
+    }
+
+    @Test
+    void readsOnlyTheCapturedPartOfAReusedBuffer() {
+        byte[] buffer = new byte[256];
+        Arrays.fill(buffer, (byte) 0xff); // 前のフレームの残り
+        byte[] frame = concat(ether(0x0800), ipv4(PacketView.PROTO_UDP, CLIENT, SERVER, 8, new byte[0]));
+        System.arraycopy(frame, 0, buffer, 0, frame.length);
+        assertTrue(packet.decode(PacketView.LINKTYPE_ETHERNET, buffer, frame.length, frame.length, TIME));
+        assertFalse(packet.isUdp()); // UDP ヘッダーはキャプチャの外
+        assertEquals(0, packet.dstPort());
+
+        byte[] udpFrame = concat(ether(0x0800), ipv4Udp());
+        System.arraycopy(udpFrame, 0, buffer, 0, udpFrame.length);
+        assertTrue(packet.decode(PacketView.LINKTYPE_ETHERNET, buffer, udpFrame.length, udpFrame.length, TIME));
+        assertTrue(packet.isUdp());
+        assertEquals(5353, packet.dstPort());
+        assertEquals(udpFrame.length, packet.wireLength());
+    }
+
+    @Test
+    void decodesPortsOnlyInTheFirstIpv4Fragment() {
+        byte[] first = concat(ether(0x0800), ipv4(PacketView.PROTO_UDP, CLIENT, SERVER, 1480, new byte[0]), udp(53, 5353, 1472));
+        first[14 + 6] = 0x20; // MF
+        assertTrue(packet.decode(first, first.length + 1472, TIME));
+        assertEquals(5353, packet.dstPort());
+
+        byte[] later = concat(ether(0x0800), ipv4(PacketView.PROTO_UDP, CLIENT, SERVER, 100, new byte[0]), udp(53, 5353, 92));
+        later[14 + 7] = (byte) 185; // オフセット 1480 バイト
+        assertTrue(packet.decode(later, later.length + 92, TIME));
+        assertFalse(packet.isUdp());
+        assertEquals(0, packet.dstPort());
+        assertEquals(100, packet.payloadLength());
+    }
+
+    // --- IPv6 ---
+
+    @Test
+    void decodesIpv6Tcp() {
+        byte[] frame = concat(ether(0x86dd), ipv6(PacketView.PROTO_TCP, V6_CLIENT, V6_SERVER, 20 + 100),
+                tcp(50000, 443, 1000, 2000, PacketView.TCP_ACK | PacketView.TCP_PSH), new byte[100]);
+        assertTrue(packet.decode(frame, frame.length, TIME));
+        assertTrue(packet.isIpv6());
+        assertTrue(packet.isTcp());
+        assertEquals(50000, packet.srcPort());
+        assertEquals(443, packet.dstPort());
+        assertEquals(1000, packet.sequenceNumber());
+        assertEquals(2000, packet.ackNumber());
+        assertTrue(packet.hasFlag(PacketView.TCP_PSH));
+        assertEquals(14 + 40 + 20, packet.headerLength());
+        assertEquals(100, packet.payloadLength());
+        assertEquals(14 + 40 + 20, packet.payloadOffset());
+        assertEquals("2001:db8::1", packet.formatSrc());
+        assertEquals("2001:db8::2", packet.formatDst());
+
+        // キーは最上位ビットが立ち (IPv4 と重ならない)、表示用の32ビットは 240.0.0.0/6 に入る
+        assertTrue(packet.srcAddress() < 0);
+        assertEquals(packet.srcIp(), PacketView.ipOf(packet.srcAddress()));
+        assertTrue(PacketView.formatIp(packet.srcIp()).startsWith("IPv6#"));
+        assertTrue(packet.srcAddress() != packet.dstAddress());
+    }
+
+    @Test
+    void ipv6FlowHashIsSymmetric() {
+        byte[] forward = concat(ether(0x86dd), ipv6(PacketView.PROTO_TCP, V6_CLIENT, V6_SERVER, 20),
+                tcp(50000, 443, 0, 0, PacketView.TCP_SYN));
+        byte[] reverse = concat(ether(0x86dd), ipv6(PacketView.PROTO_TCP, V6_SERVER, V6_CLIENT, 20),
+                tcp(443, 50000, 0, 1, PacketView.TCP_SYN | PacketView.TCP_ACK));
+        assertTrue(packet.decode(forward, forward.length, TIME));
+        int hash = packet.flowHash();
+        assertTrue(packet.decode(reverse, reverse.length, TIME));
+        assertEquals(hash, packet.flowHash());
+    }
+
+    @Test
+    void walksIpv6ExtensionHeadersAndCountsThemAsOverhead() {
+        // ホップバイホップ (8) → 経路 (24) → 終点オプション (16) → UDP
+        int extensions = 8 + 24 + 16;
+        byte[] frame = concat(ether(0x86dd), ipv6(NEXT_HOP_BY_HOP, V6_CLIENT, V6_SERVER, extensions + 8 + 30),
+                extension(NEXT_ROUTING, 1), extension(NEXT_DESTINATION, 3), extension(PacketView.PROTO_UDP, 2),
+                udp(5000, 53, 30), new byte[30]);
+        assertTrue(packet.decode(frame, frame.length, TIME));
+        assertEquals(PacketView.PROTO_UDP, packet.protocol());
+        assertTrue(packet.isUdp());
+        assertEquals(53, packet.dstPort());
+        assertEquals(40 + extensions, packet.ipHeaderLength());
+        assertEquals(14 + 40 + extensions, packet.l4Offset());
+        assertEquals(14 + 40 + extensions + 8, packet.headerLength());
+        assertEquals(30, packet.payloadLength());
+    }
+
+    @Test
+    void decodesPortsOnlyInTheFirstIpv6Fragment() {
+        byte[] first = concat(ether(0x86dd), ipv6(NEXT_FRAGMENT, V6_CLIENT, V6_SERVER, 8 + 20 + 40),
+                fragment(PacketView.PROTO_TCP, 0, true), tcp(50000, 443, 7, 0, PacketView.TCP_ACK), new byte[40]);
+        assertTrue(packet.decode(first, first.length, TIME));
+        assertTrue(packet.isTcp());
+        assertEquals(443, packet.dstPort());
+        assertEquals(48, packet.ipHeaderLength());
+        assertEquals(40, packet.payloadLength());
+
+        byte[] later = concat(ether(0x86dd), ipv6(NEXT_FRAGMENT, V6_CLIENT, V6_SERVER, 8 + 60),
+                fragment(PacketView.PROTO_TCP, 8, false), new byte[60]);
+        assertTrue(packet.decode(later, later.length, TIME));
+        assertEquals(PacketView.PROTO_TCP, packet.protocol());
+        assertFalse(packet.isTcp()); // 続きのフラグメントの先頭はTCPヘッダーではない
+        assertEquals(0, packet.srcPort());
+        assertEquals(0, packet.l4HeaderLength());
+        assertEquals(60, packet.payloadLength());
+    }
+
+    @Test
+    void rejectsTruncatedIpv6Header() {
+        byte[] frame = concat(ether(0x86dd), ipv6(PacketView.PROTO_TCP, V6_CLIENT, V6_SERVER, 20), tcp(1, 2, 0, 0, 0));
+        assertFalse(packet.decode(PacketView.LINKTYPE_ETHERNET, frame, 14 + 39, frame.length, TIME));
+        // IPv6 ヘッダーまでは収まっていて TCP ヘッダーが切れている: IP としては数え、ポートは読まない
+        assertTrue(packet.decode(PacketView.LINKTYPE_ETHERNET, frame, 14 + 40, frame.length, TIME));
+        assertEquals(PacketView.PROTO_TCP, packet.protocol());
+        assertFalse(packet.isTcp());
+        assertEquals(0, packet.dstPort());
+    }
+
+    // --- VLAN ---
+
+    @Test
+    void skipsSingleVlanTag() {
+        byte[] frame = concat(ether(0x8100), vlanTag(100, 0x86dd), ipv6(PacketView.PROTO_UDP, V6_CLIENT, V6_SERVER, 8),
+                udp(5000, 53, 0));
+        assertTrue(packet.decode(frame, frame.length, TIME));
+        assertTrue(packet.isIpv6());
+        assertTrue(packet.isUdp());
+        assertEquals(18, packet.l2HeaderLength());
+        assertEquals(18 + 40 + 8, packet.headerLength());
+    }
+
+    @Test
+    void skipsQinQTags() {
+        byte[] inner = ipv4Udp();
+        byte[] frame = concat(ether(0x88a8), vlanTag(10, 0x8100), vlanTag(200, 0x0800), inner);
+        assertTrue(packet.decode(frame, frame.length, TIME));
+        assertIpv4Udp(14 + 4 + 4);
+
+        // 古い QinQ の TPID (0x9100)
+        frame = concat(ether(0x9100), vlanTag(10, 0x8100), vlanTag(200, 0x0800), inner);
+        assertTrue(packet.decode(frame, frame.length, TIME));
+        assertIpv4Udp(22);
+    }
+
+    @Test
+    void rejectsTruncatedVlanTagAndNonIpPayload() {
+        byte[] frame = concat(ether(0x8100), new byte[] {0, 100});
+        assertFalse(packet.decode(frame, frame.length, TIME));
+
+        byte[] arp = concat(ether(0x8100), vlanTag(100, 0x0806), new byte[28]);
+        assertFalse(packet.decode(arp, arp.length, TIME));
+    }
+
+    // --- Ethernet 以外のリンク種別 ---
+
+    @Test
+    void decodesLinuxCookedCaptures() {
+        byte[] sll = new byte[16];
+        sll[14] = 0x08; // プロトコル (EtherType) は最後の2バイト
+        byte[] frame = concat(sll, ipv4Udp());
+        assertTrue(packet.decode(PacketView.LINKTYPE_LINUX_SLL, frame, frame.length, TIME));
+        assertIpv4Udp(16);
+
+        byte[] sll2 = new byte[20];
+        sll2[0] = (byte) 0x86; // SLL2 は先頭の2バイト
+        sll2[1] = (byte) 0xdd;
+        frame = concat(sll2, ipv6(PacketView.PROTO_UDP, V6_CLIENT, V6_SERVER, 8), udp(5000, 53, 0));
+        assertTrue(packet.decode(PacketView.LINKTYPE_LINUX_SLL2, frame, frame.length, TIME));
+        assertTrue(packet.isIpv6());
+        assertEquals(20, packet.l2HeaderLength());
+        assertEquals(20 + 40 + 8, packet.headerLength());
+
+        assertFalse(packet.decode(PacketView.LINKTYPE_LINUX_SLL2, new byte[19], 19, TIME));
+        assertFalse(packet.decode(PacketView.LINKTYPE_LINUX_SLL, new byte[15], 15, TIME));
+        frame = concat(sll, ipv4Udp());
+        assertFalse(packet.decode(PacketView.LINKTYPE_LINUX_SLL, frame, 16 + 19, frame.length, TIME)); // IP ヘッダーの途中
+    }
+
+    @Test
+    void decodesRawIpAndLoopback() {
+        for (int linkType : new int[] {PacketView.LINKTYPE_RAW, PacketView.DLT_RAW, PacketView.DLT_RAW_OPENBSD, PacketView.LINKTYPE_IPV4}) {
+            byte[] frame = ipv4Udp();
+            assertTrue(packet.decode(linkType, frame, frame.length, TIME), "リンク種別 " + linkType);
+            assertIpv4Udp(0);
+        }
+
+        byte[] v6 = concat(ipv6(PacketView.PROTO_TCP, V6_CLIENT, V6_SERVER, 20), tcp(1, 2, 0, 0, PacketView.TCP_SYN));
+        assertTrue(packet.decode(PacketView.LINKTYPE_IPV6, v6, v6.length, TIME));
+        assertTrue(packet.isIpv6());
+        assertEquals(60, packet.headerLength());
+
+        // BSD ループバック: アドレスファミリー (書いた機械のバイト順) の4バイト
+        byte[] frame = concat(new byte[] {2, 0, 0, 0}, ipv4Udp());
+        assertTrue(packet.decode(PacketView.LINKTYPE_NULL, frame, frame.length, TIME));
+        assertIpv4Udp(4);
+        frame = concat(new byte[] {0, 0, 0, 30}, v6);
+        assertTrue(packet.decode(PacketView.LINKTYPE_NULL, frame, frame.length, TIME));
+        assertTrue(packet.isIpv6());
+        assertEquals(4 + 60, packet.headerLength());
+        assertFalse(packet.decode(PacketView.LINKTYPE_NULL, new byte[] {2, 0, 0, 0}, 4, TIME)); // アドレスファミリーだけ
+        assertFalse(packet.decode(PacketView.LINKTYPE_RAW, new byte[0], 0, TIME));
+    }
+
+    @Test
+    void rejectsUnsupportedLinkTypes() {
+        byte[] frame = concat(ether(0x0800), ipv4Udp());
+        assertFalse(PacketView.isSupportedLinkType(105)); // IEEE 802.11
+        assertFalse(packet.decode(105, frame, frame.length, TIME));
+        assertTrue(PacketView.isSupportedLinkType(PacketView.LINKTYPE_LINUX_SLL2));
+
+        // ヘッダーなしの IP でバージョンが 4/6 以外
+        assertFalse(packet.decode(PacketView.LINKTYPE_RAW, new byte[] {0x50, 0, 0, 0}, 4, TIME));
+    }
+
+    @Test
+    void defaultFilterIsOnlyUsedOnEthernet() {
+        assertEquals(CaptureConfig.DEFAULT_FILTER, PacketCapture.filterFor(CaptureConfig.DEFAULT_FILTER, PacketView.LINKTYPE_ETHERNET));
+        assertEquals(CaptureConfig.IP_FILTER, PacketCapture.filterFor(CaptureConfig.DEFAULT_FILTER, PacketView.LINKTYPE_LINUX_SLL));
+        assertEquals("tcp", PacketCapture.filterFor("tcp", PacketView.LINKTYPE_RAW));
+        assertEquals("", PacketCapture.filterFor("", PacketView.LINKTYPE_ETHERNET));
+    }
+}
@@ -0,0 +1,118 @@
+package com.example;
+
+import static com.example.PacketViewTest.concat;
+import static com.example.PacketViewTest.ether;
+import static com.example.PacketViewTest.ipv4;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class PortStatsTableTest {
+    private static final long TIME = 1_700_000_000_000_000_000L;
+    private static final int CLIENT = 0x0A00_0001;
+    private static final int SERVER = 0x0A00_0002;
+
+    private static PacketView tcp(int srcPort, int dstPort, int wireLength) {
+        byte[] frame = concat(ether(0x0800), ipv4(PacketView.PROTO_TCP, CLIENT, SERVER, 20, new byte[0]),
+                PacketViewTest.tcp(srcPort, dstPort, 1, 1, PacketView.TCP_ACK));
+        PacketView packet = new PacketView();
+        assertTrue(packet.decode(frame, wireLength, TIME));
+        return packet;
+    }
+
+    private static PacketView udp(int srcPort, int dstPort, int wireLength) {
+        byte[] frame = concat(ether(0x0800), ipv4(PacketView.PROTO_UDP, CLIENT, SERVER, 8, new byte[0]),
+                PacketViewTest.udp(srcPort, dstPort, 0));
+        PacketView packet = new PacketView();
+        assertTrue(packet.decode(frame, wireLength, TIME));
+        return packet;
+    }
+
+    private static int indexOf(PortStats stats, int port) {
+        for (int i = 0; i < stats.size(); i++) {
+            if (stats.port(i) == port) return i;
+        }
+        return -1;
+    }
+
+    @Test
+    void countsEachProtocolAndDirectionSeparately() {
+        PortStatsTable table = new PortStatsTable();
+        for (int i = 0; i < 3; i++) table.record(tcp(50000, 443, 1000));
+        table.record(udp(50001, 53, 100));
+        table.record(udp(53, 50001, 300));
+        table.record(tcp(443, 50000, 60));
+
+        PortStats stats = table.snapshotAndReset(2.0);
+        assertArrayEquals(new int[] {53, 443, 50000, 50001}, new int[] {stats.port(0), stats.port(1), stats.port(2), stats.port(3)});
+        assertEquals(4, stats.size());
+
+        int https = indexOf(stats, 443);
+        assertEquals(3, stats.packets(https, PortStatsTable.PROTO_TCP, PortStatsTable.DIR_DST));
+        assertEquals(1, stats.packets(https, PortStatsTable.PROTO_TCP, PortStatsTable.DIR_SRC));
+        assertEquals(3000, stats.bytes(https, PortStatsTable.PROTO_TCP, PortStatsTable.DIR_DST));
+        assertEquals(0, stats.packets(https, PortStatsTable.PROTO_UDP, PortStatsTable.DIR_DST));
+        assertEquals(1.5, stats.packetRate(https));
+        assertEquals(1500.0, stats.byteRate(https));
+
+        int dns = indexOf(stats, 53);
+        assertEquals(1, stats.dstPackets(dns));
+        assertEquals(100, stats.dstBytes(dns));
+        assertEquals(300, stats.bytes(dns, PortStatsTable.PROTO_UDP, PortStatsTable.DIR_SRC));
+
+        // 同じ数なら並び順 (ポートの昇順) のまま
+        assertArrayEquals(new int[] {https, dns, indexOf(stats, 50000), indexOf(stats, 50001)}, stats.topByPackets(10));
+        assertArrayEquals(new int[] {https}, stats.topByBytes(1));
+
+        assertEquals(0, table.snapshotAndReset(1.0).size()); // 取り出したら空になる
+    }
+
+    @Test
+    void drainMovesCountsIntoTheTarget() {
+        PortStatsTable shard = new PortStatsTable();
+        PortStatsTable total = new PortStatsTable();
+        shard.record(tcp(50000, 443, 100));
+        total.record(tcp(50001, 443, 200));
+        shard.drainInto(total);
+        shard.drainInto(total); // 2回目は何も移さない
+
+        assertEquals(0, shard.snapshotAndReset(1.0).size());
+        PortStats stats = total.snapshotAndReset(1.0);
+        int https = indexOf(stats, 443);
+        assertEquals(2, stats.dstPackets(https));
+        assertEquals(300, stats.dstBytes(https));
+        assertEquals(3, stats.size());
+    }
+
+    @Test
+    void concurrentSnapshotsDoNotLoseCounts() throws InterruptedException {
+        PortStatsTable table = new PortStatsTable();
+        PacketView packet = tcp(50000, 443, 100);
+        int writes = 200_000;
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < writes; i++) table.record(packet);
+        });
+        writer.start();
+        long packets = 0;
+        long bytes = 0;
+        while (writer.isAlive()) {
+            PortStats stats = table.snapshotAndReset(1.0);
+            int https = indexOf(stats, 443);
+            if (https >= 0) {
+                packets += stats.dstPackets(https);
+                bytes += stats.dstBytes(https);
+            }
+        }
+        writer.join();
+        PortStats rest = table.snapshotAndReset(1.0);
+        int https = indexOf(rest, 443);
+        if (https >= 0) {
+            packets += rest.dstPackets(https);
+            bytes += rest.dstBytes(https);
+        }
+        assertEquals(writes, packets);
+        assertEquals(writes * 100L, bytes);
+    }
+}
@@ -0,0 +1,170 @@
+package com.example;
+
+import static com.example.PacketViewTest.concat;
+import static com.example.PacketViewTest.ether;
+import static com.example.PacketViewTest.ipv4;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StateStoreTest {
+    private static final long MILLI = 1_000_000L;
+    private static final long T0 = 1_700_000_000_000_000_000L;
+    private static final int CLIENT = 0x0A00_0001;
+    private static final int SERVER = 0x0A00_0002;
+    private static final int FLOWS = 8;
+
+    @TempDir
+    Path dir;
+
+    private final PacketView packet = new PacketView();
+    private long now = T0;
+
+    // CLIENT:srcPort → SERVER:443 の TCP セグメント
+    private void send(AnalysisPipeline pipeline, int srcPort, int seq, int flags, int payload) {
+        byte[] frame = concat(ether(0x0800), ipv4(PacketView.PROTO_TCP, CLIENT, SERVER, 20 + payload, new byte[0]),
+                PacketViewTest.tcp(srcPort, 443, seq, 1, flags), new byte[payload]);
+        assertTrue(packet.decode(frame, frame.length, now += MILLI));
+        pipeline.dispatch(packet, true);
+    }
+
+    // FLOWS 本の接続を張り、それぞれ 1000 バイトずつ送る
+    private AnalysisPipeline busyPipeline() {
+        AnalysisPipeline pipeline = new AnalysisPipeline(2, OffHeapPacketRing.DEFAULT_FRAME_BYTES, 1024, new EventChannel());
+        pipeline.start();
+        for (int i = 0; i < FLOWS; i++) {
+            send(pipeline, 40000 + i, 1000, PacketView.TCP_SYN, 0);
+        }
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < FLOWS; i++) {
+                send(pipeline, 40000 + i, 1001 + round * 100, PacketView.TCP_ACK, 100);
+            }
+        }
+        pipeline.finish();
+        pipeline.calculateAndReset(Instant.ofEpochSecond(0, now));
+        return pipeline;
+    }
+
+    private static Map<Integer, byte[]> sections(AnalysisPipeline pipeline) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            pipeline.writeState(out);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+        Map<Integer, byte[]> sections = new TreeMap<>();
+        while (in.hasRemaining()) {
+            int tag = in.getInt();
+            byte[] body = new byte[in.getInt()];
+            in.get(body);
+            sections.put(tag, body);
+        }
+        return sections;
+    }
+
+    @Test
+    void pipelineStateSurvivesARestart() throws IOException {
+        AnalysisPipeline before = busyPipeline();
+        Map<Integer, byte[]> saved = sections(before);
+        assertEquals(List.of(StateStore.DETECTOR, StateStore.TRAFFIC, StateStore.FAIRNESS, StateStore.RHYTHM, StateStore.FLOWS),
+                List.copyOf(saved.keySet()));
+        TrafficWindow traffic = before.trafficWindow(now, 60 * 1_000_000_000L);
+
+        AnalysisPipeline after = new AnalysisPipeline(2, OffHeapPacketRing.DEFAULT_FRAME_BYTES, 1024, new EventChannel());
+        for (Map.Entry<Integer, byte[]> section : saved.entrySet()) {
+            assertTrue(after.restoreState(section.getKey(), ByteBuffer.wrap(section.getValue()), true));
+        }
+        // 読み戻した状態を書き直すと同じ中身になる (フロー表は振り分け直すので中身の順番が変わりうる)
+        Map<Integer, byte[]> rewritten = sections(after);
+        for (int tag : new int[] {StateStore.DETECTOR, StateStore.TRAFFIC, StateStore.FAIRNESS, StateStore.RHYTHM}) {
+            assertArrayEquals(saved.get(tag), rewritten.get(tag), "区間 " + tag);
+        }
+        assertEquals(saved.get(StateStore.FLOWS).length, rewritten.get(StateStore.FLOWS).length);
+        TrafficWindow restored = after.trafficWindow(now, 60 * 1_000_000_000L);
+        assertEquals(traffic.packets, restored.packets);
+        assertEquals(traffic.bytes, restored.bytes);
+
+        // 保存前に送ったデータをもう一度送ると、読み戻したフロー表が再送と見分ける
+        after.start();
+        send(after, 40003, 1001 + 5 * 100, PacketView.TCP_ACK, 100);
+        send(after, 40003, 1001 + 10 * 100, PacketView.TCP_ACK, 100);
+        after.finish();
+        VitalSignData data = after.calculateAndReset(Instant.ofEpochSecond(0, now));
+        assertEquals(1, data.flows.retransmissions);
+        assertEquals(FLOWS, data.flows.trackedFlows);
+    }
+
+    @Test
+    void storeRoundTripsThroughTheFileAndSkipsTimeBoundSectionsInReplay() throws IOException {
+        Path file = dir.resolve("state.bin");
+        EventChannel events = new EventChannel();
+        CaptureManager first = new CaptureManager(List.of(new File("unused.pcap")), PacketCapture.ReplayMode.MAX_SPEED, events);
+        StateStore store = new StateStore(file, Duration.ofHours(1), events);
+        store.start(first);
+        store.close(); // 閉じるときに保存する
+        assertTrue(Files.exists(file));
+        assertTrue(Files.notExists(dir.resolve("state.bin.tmp")));
+
+        CaptureManager second = new CaptureManager(List.of(new File("unused.pcap")), PacketCapture.ReplayMode.MAX_SPEED, events);
+        new StateStore(file, Duration.ofHours(1), events).restore(second);
+        String messages = drain(events);
+        // 再生では体温のベースラインと集中度だけを戻す
+        assertTrue(messages.contains("(2 区間, 飛ばした区間 3"), messages);
+    }
+
+    @Test
+    void damagedFilesAreReportedAndNotRestored() throws IOException {
+        Path file = dir.resolve("state.bin");
+        EventChannel events = new EventChannel();
+        CaptureManager manager = new CaptureManager(List.of(new File("unused.pcap")), PacketCapture.ReplayMode.MAX_SPEED, events);
+        StateStore store = new StateStore(file, Duration.ofHours(1), events);
+        store.start(manager);
+        store.close();
+        drain(events);
+        byte[] saved = Files.readAllBytes(file);
+
+        new StateStore(dir.resolve("missing.bin"), Duration.ofHours(1), events).restore(manager);
+        assertEquals("", drain(events)); // ファイルがなければ何も言わない
+
+        byte[] wrongMagic = saved.clone();
+        wrongMagic[0] = 'X';
+        Files.write(file, wrongMagic);
+        new StateStore(file, Duration.ofHours(1), events).restore(manager);
+        assertTrue(drain(events).contains("形式が違う"));
+
+        Files.write(file, Arrays.copyOf(saved, saved.length - 3));
+        new StateStore(file, Duration.ofHours(1), events).restore(manager);
+        String messages = drain(events);
+        assertTrue(messages.contains("途中で切れています"), messages);
+
+        // 知らない区間は飛ばして、後ろの区間は読む
+        ByteBuffer unknown = ByteBuffer.allocate(saved.length + 12);
+        unknown.put(saved, 0, 16).putInt(99).putInt(4).putInt(0).put(saved, 16, saved.length - 16);
+        Files.write(file, unknown.array());
+        new StateStore(file, Duration.ofHours(1), events).restore(manager);
+        messages = drain(events);
+        assertTrue(messages.contains("(2 区間, 飛ばした区間 4"), messages);
+    }
+
+    private static String drain(EventChannel events) {
+        StringBuilder out = new StringBuilder();
+        events.drainTo(out, System.nanoTime());
+        return out.toString();
+    }
+}
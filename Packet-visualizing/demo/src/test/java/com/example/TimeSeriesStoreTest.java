@@ -0,0 +1,123 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TimeSeriesStoreTest {
+    private static final long BASE = 1_700_000_000_000L;
+    private static final int CAPACITY = 1000; // セグメントあたりの行数 (ブロックは512行なので、セグメントの中にも境目がある)
+
+    @TempDir
+    Path directory;
+
+    // i 行目: 時刻 BASE + i 秒、値 {i, i % 3}
+    private void fill(TimeSeriesStore store, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            store.append(BASE + i * 1000L, new double[] {i, i % 3});
+        }
+    }
+
+    private static List<long[]> scan(TimeSeriesStore store, long from, long to, int filterColumn, double filterValue)
+            throws IOException {
+        List<long[]> rows = new ArrayList<>();
+        store.scan(0, from, to, filterColumn, filterValue, (time, value) -> rows.add(new long[] {time, (long) value}));
+        return rows;
+    }
+
+    private long sealedSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".vtz")).count();
+        }
+    }
+
+    @Test
+    void scansAcrossSealedSegmentsAfterReopen() throws IOException {
+        try (TimeSeriesStore store = new TimeSeriesStore(directory, 2, CAPACITY, 0)) {
+            fill(store, 0, 2500);
+        }
+        assertEquals(2, sealedSegments());
+
+        try (TimeSeriesStore store = new TimeSeriesStore(directory, 2, CAPACITY, 0)) {
+            // 1つ目のセグメントの終わりから、書き込み中のセグメントまで
+            List<long[]> rows = scan(store, BASE + 900_000, BASE + 2_100_000, -1, 0);
+            assertEquals(1200, rows.size());
+            for (int k = 0; k < rows.size(); k++) {
+                long i = 900 + k;
+                assertEquals(BASE + i * 1000, rows.get(k)[0]);
+                assertEquals(i, rows.get(k)[1]);
+            }
+
+            // 終わりは含まない
+            assertEquals(1, scan(store, BASE + 999_000, BASE + 1_000_000, -1, 0).size());
+
+            // 絞り込み: 2列目が0の行だけ
+            List<long[]> filtered = scan(store, BASE, BASE + 2_500_000, 1, 0);
+            assertEquals(834, filtered.size());
+            for (long[] row : filtered) {
+                assertEquals(0, row[1] % 3);
+            }
+
+            // 再び開いた後も書き足せる
+            fill(store, 2500, 2600);
+            assertEquals(2600, scan(store, Long.MIN_VALUE, Long.MAX_VALUE, -1, 0).size());
+        }
+    }
+
+    @Test
+    void downsamplesAcrossSegmentBoundary() throws IOException {
+        try (TimeSeriesStore store = new TimeSeriesStore(directory, 2, CAPACITY, 0)) {
+            fill(store, 0, 2500);
+        }
+        try (TimeSeriesStore store = new TimeSeriesStore(directory, 2, CAPACITY, 0)) {
+            // 100秒 (100行) ずつ。最初の区間は封をしたセグメントの境目 (1000行目) をまたぎ、最後の区間は途中までしか行がない
+            TimeSeriesStore.Downsampled d = store.downsample(0, BASE + 950_000, BASE + 2_550_000, 100_000, -1, 0);
+            assertEquals(16, d.size());
+            assertEquals(BASE + 950_000, d.bucketStart(0));
+            assertEquals(100, d.count(0));
+            assertEquals(950, d.min(0));
+            assertEquals(1049, d.max(0));
+            assertEquals(999.5, d.average(0), 1e-9);
+
+            // 2つ目の封をしたセグメントと書き込み中のセグメントの境目 (2000行目)
+            assertEquals(100, d.count(10));
+            assertEquals(1950, d.min(10));
+            assertEquals(2049, d.max(10));
+
+            // 2450〜2499 行目だけ
+            assertEquals(50, d.count(15));
+            assertEquals(2499, d.max(15));
+
+            TimeSeriesStore.Downsampled filtered = store.downsample(0, BASE + 950_000, BASE + 1_050_000, 100_000, 1, 2);
+            assertEquals(34, filtered.count(0));
+            assertEquals(950, filtered.min(0));
+            assertEquals(1049, filtered.max(0));
+        }
+    }
+
+    @Test
+    void sealsTheActiveSegmentWhenReopenedWithAnotherCapacity() throws IOException {
+        try (TimeSeriesStore store = new TimeSeriesStore(directory, 2, CAPACITY, 0)) {
+            fill(store, 0, 1300);
+        }
+        try (TimeSeriesStore store = new TimeSeriesStore(directory, 2, 200, 0)) {
+            assertEquals(2, sealedSegments());
+            fill(store, 1300, 1700);
+            assertTrue(sealedSegments() >= 3);
+            List<long[]> rows = scan(store, Long.MIN_VALUE, Long.MAX_VALUE, -1, 0);
+            assertEquals(1700, rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                assertEquals(i, rows.get(i)[1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+class TrafficRingTest {
+    private static final long T0 = 1_700_000_000_000_000_000L;
+    private static final long MILLI = 1_000_000L;
+
+    @Test
+    void windowsSumBucketsWithoutResettingThem() {
+        TrafficRing ring = new TrafficRing();
+        for (int i = 0; i < 3000; i++) { // 1ミリ秒おきに3秒
+            ring.add(T0 + i * MILLI, 100, 40, (i % 2 == 0) ? 100 : 0);
+        }
+        TrafficRing[] rings = {ring};
+        long now = T0 + 2999 * MILLI;
+        TrafficWindow second = TrafficRing.window(rings, now, 1_000_000_000L);
+        assertEquals(1000, second.packets);
+        assertEquals(100_000, second.bytes);
+        assertEquals(40.0, second.overheadRate(), 1e-9);
+        assertEquals(50.0, second.smugglingRate(), 1e-9);
+        assertEquals(second.packets, TrafficRing.window(rings, now, 1_000_000_000L).packets); // 何度読んでも同じ
+
+        // 窓が最初のパケットより前に伸びても、数えた長さは最初のパケットから
+        TrafficWindow all = TrafficRing.window(rings, now, 60_000_000_000L);
+        assertEquals(3000, all.packets);
+        assertEquals(2.999, all.seconds, 1e-9);
+        assertEquals(3000, ring.total(TrafficRing.PACKETS));
+    }
+
+    @Test
+    void aLapLaterTheOldBucketsAreRecountedAndLatePacketsOnlyReachTheTotals() {
+        TrafficRing ring = new TrafficRing();
+        ring.add(T0, 100, 40, 0);
+        long lap = 1024 * TrafficRing.BUCKET_NANOS;
+        ring.add(T0 + lap, 200, 40, 0); // 同じスロットの次の周
+        ring.add(T0, 300, 40, 0);       // 1周より古い
+        TrafficWindow window = TrafficRing.window(new TrafficRing[] {ring}, T0 + lap, TrafficRing.BUCKET_NANOS);
+        assertEquals(1, window.packets);
+        assertEquals(200, window.bytes);
+        assertEquals(600, ring.total(TrafficRing.BYTES));
+    }
+
+    @Test
+    void readersNeverSeeHalfWrittenBuckets() throws InterruptedException {
+        TrafficRing ring = new TrafficRing();
+        TrafficRing[] rings = {ring};
+        int packets = 2_000_000;
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < packets; i++) {
+                ring.add(T0 + i * 1_000L, 100, 40, 10); // 1マイクロ秒おき (100ms ごとにバケットが替わる)
+            }
+        });
+        writer.start();
+        int reads = 0;
+        while (writer.isAlive() || reads == 0) {
+            TrafficWindow window = TrafficRing.window(rings, T0 + packets * 1_000L, 1_000_000_000L);
+            // 1パケットの4つの値は同じ版で書かれるので、どの読み出しでも比がそろう
+            assertEquals(window.packets * 100, window.bytes);
+            assertEquals(window.packets * 40, window.headerBytes);
+            assertEquals(window.packets * 10, window.highPortBytes);
+            reads++;
+        }
+        writer.join();
+        assertTrue(reads > 0);
+        assertEquals(1_000_000, TrafficRing.window(rings, T0 + (packets - 1) * 1_000L, 1_000_000_000L).packets);
+    }
+
+    @Test
+    void stateRoundTripKeepsTheBucketsOfAllShards() {
+        TrafficRing a = new TrafficRing();
+        TrafficRing b = new TrafficRing();
+        for (int i = 0; i < 20; i++) {
+            a.add(T0 + i * 50 * MILLI, 100, 40, 0);
+            b.add(T0 + i * 50 * MILLI, 1000, 40, 1000);
+        }
+        ByteBuffer saved = ByteBuffer.wrap(StateStore.toBytes(out -> TrafficRing.writeState(new TrafficRing[] {a, b}, out)));
+        TrafficRing restored = new TrafficRing();
+        restored.readState(saved);
+
+        long now = T0 + 19 * 50 * MILLI;
+        TrafficWindow before = TrafficRing.window(new TrafficRing[] {a, b}, now, 1_000_000_000L);
+        TrafficWindow after = TrafficRing.window(new TrafficRing[] {restored}, now, 1_000_000_000L);
+        assertEquals(before.packets, after.packets);
+        assertEquals(before.bytes, after.bytes);
+        assertEquals(before.highPortBytes, after.highPortBytes);
+        assertEquals(before.seconds, after.seconds, 1e-9);
+        assertEquals(0, restored.total(TrafficRing.PACKETS)); // 累計には入れない
+    }
+}